@@ -0,0 +1,212 @@
+package ch.ethz.inf.vs.californium;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+
+/**
+ * The CallbackExecutor invokes the handlers of {@link CoapClient}s. By
+ * default, all clients share one process-wide executor with a bounded number
+ * of daemon threads and a bounded queue, so that creating many clients does
+ * not create many threads. Idle threads terminate after a while. If the queue
+ * is full, the handler is invoked by the thread that delivers the response,
+ * which slows down the endpoint instead of dropping callbacks.
+ * <p>
+ * The size of the shared executor is configured with
+ * {@link NetworkConfigDefaults#CLIENT_CALLBACK_THREAD_COUNT} and
+ * {@link NetworkConfigDefaults#CLIENT_CALLBACK_QUEUE_CAPACITY} of the standard
+ * configuration. Use {@link CoapClient#useInlineHandlers()} to invoke the
+ * handlers of a client directly on the endpoint thread, or
+ * {@link CoapClient#setExecutor(Executor)} to use an executor of your own.
+ */
+public class CallbackExecutor implements Executor {
+
+	/** The executor that runs tasks on the calling thread */
+	public static final Executor INLINE = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	/** The shared executor (created under the lock of CallbackExecutor.class) */
+	private static volatile CallbackExecutor shared;
+
+	/** The number of handlers that are currently running */
+	private final AtomicInteger active = new AtomicInteger();
+
+	/** The number of handlers that have completed */
+	private final AtomicLong completed = new AtomicLong();
+
+	/** The number of handlers that have been run by the submitting thread */
+	private final AtomicLong overflows = new AtomicLong();
+
+	/** The thread pool */
+	private final ThreadPoolExecutor pool;
+
+	/**
+	 * Constructs a new executor with the specified number of threads and queue
+	 * capacity.
+	 *
+	 * @param threadCount the maximum number of threads
+	 * @param queueCapacity the maximum number of queued handlers
+	 */
+	public CallbackExecutor(int threadCount, int queueCapacity) {
+		this.pool = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueCapacity), new CallbackThreadFactory(),
+				new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+						if (!executor.isShutdown()) {
+							overflows.incrementAndGet();
+							task.run();
+						}
+					}
+				}) {
+			@Override protected void beforeExecute(Thread thread, Runnable task) {
+				active.incrementAndGet();
+			}
+			@Override protected void afterExecute(Runnable task, Throwable t) {
+				active.decrementAndGet();
+				completed.incrementAndGet();
+			}
+		};
+		this.pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Returns the shared executor. If the shared executor has been shut down,
+	 * a new one is created.
+	 *
+	 * @return the shared executor
+	 */
+	public static CallbackExecutor getShared() {
+		CallbackExecutor current = shared;
+		if (current != null && !current.isShutdown())
+			return current;
+		synchronized (CallbackExecutor.class) {
+			if (shared == null || shared.isShutdown()) {
+				NetworkConfig config = NetworkConfig.getStandard();
+				shared = new CallbackExecutor(
+						config.getInt(NetworkConfigDefaults.CLIENT_CALLBACK_THREAD_COUNT),
+						config.getInt(NetworkConfigDefaults.CLIENT_CALLBACK_QUEUE_CAPACITY));
+			}
+			return shared;
+		}
+	}
+
+	/**
+	 * Shuts down the shared executor, if one has been created. Queued handlers
+	 * are still invoked.
+	 */
+	public static synchronized void shutdownShared() {
+		if (shared != null) {
+			shared.shutdown();
+			shared = null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	@Override
+	public void execute(Runnable command) {
+		pool.execute(command);
+	}
+
+	/**
+	 * Shuts down this executor. Queued handlers are still invoked, new
+	 * handlers are dropped.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Checks if this executor has been shut down.
+	 *
+	 * @return true if shut down
+	 */
+	public boolean isShutdown() {
+		return pool.isShutdown();
+	}
+
+	/**
+	 * Waits until all handlers have completed after a shutdown.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if terminated, false if the timeout elapsed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return pool.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Returns the number of handlers that wait in the queue.
+	 *
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		return pool.getQueue().size();
+	}
+
+	/**
+	 * Returns the number of handlers that are currently running.
+	 *
+	 * @return the number of active handlers
+	 */
+	public int getActiveHandlers() {
+		return active.get();
+	}
+
+	/**
+	 * Returns the number of handlers that have completed on a thread of this
+	 * executor.
+	 *
+	 * @return the number of completed handlers
+	 */
+	public long getCompletedHandlers() {
+		return completed.get();
+	}
+
+	/**
+	 * Returns the number of handlers that have been invoked by the delivering
+	 * thread because the queue was full.
+	 *
+	 * @return the number of overflows
+	 */
+	public long getOverflows() {
+		return overflows.get();
+	}
+
+	/**
+	 * Returns the current number of threads.
+	 *
+	 * @return the number of threads
+	 */
+	public int getThreadCount() {
+		return pool.getPoolSize();
+	}
+
+	/*
+	 * Creates named daemon threads.
+	 */
+	private static class CallbackThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger index = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "CoapClient-Callback#" + index.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
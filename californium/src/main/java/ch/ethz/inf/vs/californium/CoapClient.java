@@ -1,10 +1,15 @@
 package ch.ethz.inf.vs.californium;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,12 +44,24 @@ public class CoapClient {
 	
 	private int blockwise = 0;
 	
+	/** The number of Block2 blocks requested in parallel (1 is default) */
+	private int pipelining = 1;
+	
 	/** The executor. */
 	private Executor executor;
 	
 	/** The endpoint. */
 	private Endpoint endpoint;
 	
+	/** The maximum number of asynchronous requests in flight (0 for no limit) */
+	private volatile int maxInFlight = 0;
+	
+	/** The number of asynchronous requests in flight */
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	/** The asynchronous requests that wait for a free slot */
+	private final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<Request>();
+	
 	/**
 	 * Constructs a new CoapClient that has no destination URI yet.
 	 */
@@ -129,27 +146,39 @@ public class CoapClient {
 	}
 	
 	/**
-	 * Sets a single-threaded executor to this client. All handlers will be
-	 * invoked by this executor.
+	 * Lets this client invoke its handlers with the process-wide
+	 * {@link CallbackExecutor}, which is the default.
 	 *
 	 * @return the CoAP client
 	 */
 	public CoapClient useExecutor() {
-		this.executor = Executors.newSingleThreadExecutor();
+		this.executor = null;
 		return this;
 	}
 
 	/**
-	 * Gets the executor of this client.
+	 * Lets this client invoke its handlers directly on the thread that
+	 * delivers the response, usually a thread of the endpoint. The handlers
+	 * must not block. This avoids the hand-off to another thread for
+	 * latency-critical handlers.
+	 *
+	 * @return the CoAP client
+	 */
+	public CoapClient useInlineHandlers() {
+		this.executor = CallbackExecutor.INLINE;
+		return this;
+	}
+
+	/**
+	 * Gets the executor of this client. If no executor has been set, this is
+	 * the shared {@link CallbackExecutor}.
 	 *
 	 * @return the executor
 	 */
 	public Executor getExecutor() {
+		Executor executor = this.executor;
 		if (executor == null)
-			synchronized(this) {
-			if (executor == null)
-				executor = Executors.newSingleThreadExecutor();
-		}
+			return CallbackExecutor.getShared();
 		return executor;
 	}
 
@@ -185,6 +214,53 @@ public class CoapClient {
 		return this;
 	}
 	
+	/**
+	 * Gets the maximum number of requests sent with the future-based methods,
+	 * e.g., {@link #getAsync()}, that may be in flight at the same time.
+	 *
+	 * @return the maximum or 0 if there is no limit
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+	
+	/**
+	 * Sets the maximum number of requests sent with the future-based methods
+	 * that may be in flight at the same time. Further requests are queued
+	 * without blocking the caller and sent as soon as an earlier request has
+	 * completed. The value 0 means no limit.
+	 *
+	 * @param maxInFlight the maximum
+	 * @return the CoAP client
+	 */
+	public CoapClient setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 0)
+			throw new IllegalArgumentException("Maximum number of requests in flight must not be negative but was "+maxInFlight);
+		this.maxInFlight = maxInFlight;
+		dispatch();
+		return this;
+	}
+	
+	/**
+	 * Gets the number of requests sent with the future-based methods that are
+	 * currently in flight.
+	 *
+	 * @return the number of requests in flight
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	
+	/**
+	 * Gets the number of requests sent with the future-based methods that
+	 * wait for a free slot.
+	 *
+	 * @return the number of queued requests
+	 */
+	public int getQueued() {
+		return pending.size();
+	}
+	
 	/**
 	 * Let the client use Confirmable requests.
 	 * 
@@ -226,6 +302,22 @@ public class CoapClient {
 		this.blockwise = 0;
 		return this;
 	}
+	
+	/**
+	 * Let the client request up to the specified number of blocks of a large
+	 * response in parallel. The client asks for the size of the response and,
+	 * if the server tells it with the first block, requests the remaining
+	 * blocks ahead. A window of 1 requests one block at a time (default).
+	 * 
+	 * @param window the number of blocks requested in parallel
+	 * @return the CoAP client
+	 */
+	public CoapClient useBlockPipelining(int window) {
+		if (window < 1)
+			throw new IllegalArgumentException("Block pipelining window must be at least 1 but was "+window);
+		this.pipelining = window;
+		return this;
+	}
 
 	/**
 	 * Performs a CoAP ping using the default timeout for requests.
@@ -630,6 +722,119 @@ public class CoapClient {
 		asynchronous(request, handler);
 	}
 	
+	// Asynchronous requests with futures
+	
+	/**
+	 * Sends a GET request and returns a future for the response.
+	 *
+	 * @return the future
+	 */
+	public CoapFuture getAsync() {
+		return submit(Request.newGet().setURI(uri));
+	}
+	
+	/**
+	 * Sends a GET request with the specified Accept option and returns a
+	 * future for the response.
+	 *
+	 * @param accept the Accept option
+	 * @return the future
+	 */
+	public CoapFuture getAsync(int accept) {
+		return submit(accept(Request.newGet().setURI(uri), accept));
+	}
+	
+	/**
+	 * Sends a POST request and returns a future for the response.
+	 *
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future
+	 */
+	public CoapFuture postAsync(String payload, int format) {
+		return submit(format(Request.newPost().setURI(uri).setPayload(payload), format));
+	}
+	
+	/**
+	 * Sends a POST request and returns a future for the response.
+	 *
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future
+	 */
+	public CoapFuture postAsync(byte[] payload, int format) {
+		return submit(format(Request.newPost().setURI(uri).setPayload(payload), format));
+	}
+	
+	/**
+	 * Sends a PUT request and returns a future for the response.
+	 *
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future
+	 */
+	public CoapFuture putAsync(String payload, int format) {
+		return submit(format(Request.newPut().setURI(uri).setPayload(payload), format));
+	}
+	
+	/**
+	 * Sends a PUT request and returns a future for the response.
+	 *
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future
+	 */
+	public CoapFuture putAsync(byte[] payload, int format) {
+		return submit(format(Request.newPut().setURI(uri).setPayload(payload), format));
+	}
+	
+	/**
+	 * Sends a DELETE request and returns a future for the response.
+	 *
+	 * @return the future
+	 */
+	public CoapFuture deleteAsync() {
+		return submit(Request.newDelete().setURI(uri));
+	}
+	
+	/**
+	 * Sends the specified request and returns a future for the response. If
+	 * the request has no destination yet, it is sent to the URI of this
+	 * client. If the maximum number of requests in flight has been reached,
+	 * the request is queued and sent later; the caller is never blocked.
+	 *
+	 * @param request the request
+	 * @return the future
+	 */
+	public CoapFuture submit(Request request) {
+		if (request.getDestination() == null)
+			request.setURI(uri);
+		CoapFuture future = new CoapFuture(request);
+		pending.add(request);
+		dispatch();
+		return future;
+	}
+	
+	/**
+	 * Sends the specified requests and returns a future for each of them in
+	 * the same order. The requests are subject to the maximum number of
+	 * requests in flight like requests sent with {@link #submit(Request)}.
+	 *
+	 * @param requests the requests
+	 * @return the futures
+	 */
+	public List<CoapFuture> submitAll(Collection<Request> requests) {
+		List<CoapFuture> futures = new ArrayList<CoapFuture>(requests.size());
+		for (Request request:requests) {
+			if (request.getDestination() == null)
+				request.setURI(uri);
+			futures.add(new CoapFuture(request));
+			pending.add(request);
+		}
+		dispatch();
+		return futures;
+	}
+	
 	// Synchronous observer
 	
 	/**
@@ -829,12 +1034,70 @@ public class CoapClient {
 			request.getOptions().setBlock2(new BlockOption(BlockOption.size2Szx(this.blockwise), false, 0));
 		}
 		
+		if (pipelining > 1 && !request.getOptions().hasObserve()) {
+			request.setBlock2Window(pipelining);
+			if (!request.getOptions().hasSize2())
+				request.getOptions().setSize2(0); // ask for the size of the response
+		}
+		
 		if (endpoint != null)
 			endpoint.sendRequest(request);
 		else request.send();
 		return request;
 	}
 	
+	/*
+	 * Sends queued requests as long as the maximum number of requests in
+	 * flight allows it. This method is called by the threads that submit
+	 * requests and by the threads that complete them.
+	 */
+	private void dispatch() {
+		while (true) {
+			int current = inFlight.get();
+			int max = maxInFlight;
+			if (max > 0 && current >= max)
+				return;
+			if (!inFlight.compareAndSet(current, current + 1))
+				continue;
+			Request request = pending.poll();
+			if (request == null) {
+				inFlight.decrementAndGet();
+				// a request might have been queued after the poll
+				if (pending.isEmpty())
+					return;
+			} else if (request.isCanceled()) {
+				inFlight.decrementAndGet();
+			} else {
+				InFlightObserver observer = new InFlightObserver();
+				request.addMessageObserver(observer);
+				if (request.isCanceled())
+					observer.release();
+				else send(request);
+			}
+		}
+	}
+	
+	/*
+	 * Frees the slot of a request in flight once it has completed and sends
+	 * the next queued request.
+	 */
+	private class InFlightObserver extends MessageObserverAdapter {
+		
+		private final AtomicBoolean released = new AtomicBoolean();
+		
+		@Override public void onResponse(Response response) { release(); }
+		@Override public void onReject() { release(); }
+		@Override public void onTimeout() { release(); }
+		@Override public void onCancel() { release(); }
+		
+		private void release() {
+			if (released.compareAndSet(false, true)) {
+				inFlight.decrementAndGet();
+				dispatch();
+			}
+		}
+	}
+	
 	/**
 	 * The MessageObserverImpl is called when a response arrives. It wraps the
 	 * response into a CoapResponse and lets the executor invoke the handler's
@@ -879,7 +1142,7 @@ public class CoapClient {
 		 */
 		protected void succeeded(final CoapResponse response) {
 			Executor exe = getExecutor();
-			if (exe == null) handler.onLoad(response);
+			if (exe == null) deliver(response);
 			else exe.execute(new Runnable() {				
 				public void run() {
 					try {
@@ -896,7 +1159,7 @@ public class CoapClient {
 		 * @param response the response
 		 */
 		protected void deliver(CoapResponse response) {
-			
+			handler.onLoad(response);
 		}
 		
 		/**
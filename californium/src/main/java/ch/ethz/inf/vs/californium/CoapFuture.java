@@ -0,0 +1,207 @@
+package ch.ethz.inf.vs.californium;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.coap.MessageObserverAdapter;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+
+/**
+ * A CoapFuture is the pending result of a request that has been sent with one
+ * of the asynchronous methods of {@link CoapClient}, e.g.,
+ * {@link CoapClient#getAsync()}. The future is completed by the thread that
+ * delivers the response or detects the failure of the request, i.e., usually
+ * a thread of the endpoint. No thread is parked while the request is in
+ * flight unless it calls one of the blocking {@link #get()} methods.
+ * <p>
+ * Handlers that have been added with {@link #addHandler(CoapHandler)} are
+ * invoked on the completing thread and therefore must not block. If the
+ * request has been rejected or timed out, the handlers' {@link CoapHandler#onError()}
+ * is invoked and {@link #get()} returns null, just like the synchronous
+ * methods of CoapClient.
+ * <pre>
+ * client.getAsync().addHandler(new CoapHandler() {
+ *     public void onLoad(CoapResponse response) { ... }
+ *     public void onError() { ... }
+ * });
+ * </pre>
+ */
+public class CoapFuture implements Future<CoapResponse> {
+
+	/** The logger. */
+	private final static Logger LOGGER = Logger.getLogger(CoapFuture.class.getCanonicalName());
+
+	private static final int PENDING = 0;
+	private static final int SUCCEEDED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELED = 3;
+
+	/** The request */
+	private final Request request;
+
+	/** The state (guarded by this) */
+	private int state = PENDING;
+
+	/** The response (guarded by this) */
+	private CoapResponse response;
+
+	/** The handlers that wait for the completion (guarded by this) */
+	private List<CoapHandler> handlers;
+
+	/**
+	 * Constructs a new future for the specified request. The future must be
+	 * created before the request is sent.
+	 *
+	 * @param request the request
+	 */
+	protected CoapFuture(Request request) {
+		this.request = request;
+		request.addMessageObserver(new MessageObserverAdapter() {
+			@Override public void onResponse(Response response) { complete(SUCCEEDED, new CoapResponse(response)); }
+			@Override public void onReject() { complete(FAILED, null); }
+			@Override public void onTimeout() { complete(FAILED, null); }
+			@Override public void onCancel() { complete(CANCELED, null); }
+		});
+	}
+
+	/*
+	 * Completes this future unless it already is complete and invokes the
+	 * handlers on the current thread.
+	 */
+	private void complete(int result, CoapResponse response) {
+		List<CoapHandler> handlers;
+		synchronized (this) {
+			if (state != PENDING)
+				return;
+			this.state = result;
+			this.response = response;
+			handlers = this.handlers;
+			this.handlers = null;
+			notifyAll();
+		}
+		if (handlers != null)
+			for (CoapHandler handler:handlers)
+				invoke(handler, result, response);
+	}
+
+	private static void invoke(CoapHandler handler, int result, CoapResponse response) {
+		try {
+			if (result == SUCCEEDED)
+				handler.onLoad(response);
+			else handler.onError();
+		} catch (Throwable t) {
+			LOGGER.log(Level.WARNING, "Exception while handling response", t);
+		}
+	}
+
+	/**
+	 * Adds the specified handler. The handler is invoked once when the future
+	 * completes, on the thread that completes it. If the future already is
+	 * complete, the handler is invoked immediately on the calling thread. If
+	 * the request is canceled, the handler's {@link CoapHandler#onError()} is
+	 * invoked.
+	 *
+	 * @param handler the handler
+	 * @return this future
+	 */
+	public CoapFuture addHandler(CoapHandler handler) {
+		if (handler == null)
+			throw new NullPointerException();
+		int result;
+		CoapResponse response;
+		synchronized (this) {
+			if (state == PENDING) {
+				if (handlers == null)
+					handlers = new ArrayList<CoapHandler>(1);
+				handlers.add(handler);
+				return this;
+			}
+			result = state;
+			response = this.response;
+		}
+		invoke(handler, result, response);
+		return this;
+	}
+
+	/**
+	 * Gets the request of this future.
+	 *
+	 * @return the request
+	 */
+	public Request getRequest() {
+		return request;
+	}
+
+	/**
+	 * Cancels the request of this future. A request that is still waiting for
+	 * a free slot of its client is not sent at all.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (state != PENDING)
+				return false;
+		}
+		request.cancel();
+		return isCancelled();
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return state == CANCELED;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return state != PENDING;
+	}
+
+	/**
+	 * Returns true if the request has been rejected or timed out.
+	 *
+	 * @return true if the request has failed
+	 */
+	public synchronized boolean isFailed() {
+		return state == FAILED;
+	}
+
+	/**
+	 * Waits for the response. Returns null if the request has been rejected or
+	 * timed out.
+	 */
+	@Override
+	public synchronized CoapResponse get() throws InterruptedException {
+		while (state == PENDING)
+			wait();
+		return getResult();
+	}
+
+	/**
+	 * Waits at most the specified time for the response. Returns null if the
+	 * request has been rejected or timed out.
+	 */
+	@Override
+	public synchronized CoapResponse get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (state == PENDING) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return getResult();
+	}
+
+	private CoapResponse getResult() {
+		if (state == CANCELED)
+			throw new CancellationException();
+		return response;
+	}
+}
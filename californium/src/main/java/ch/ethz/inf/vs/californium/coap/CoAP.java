@@ -142,6 +142,7 @@ public class CoAP {
 		PRECONDITION_FAILED(140),
 		REQUEST_ENTITY_TOO_LARGE(141), 
 		UNSUPPORTED_CONTENT_FORMAT(143),
+		TOO_MANY_REQUESTS(157),
 
 		// Server error
 		INTERNAL_SERVER_ERROR(160),
@@ -188,6 +189,7 @@ public class CoAP {
 				case 140: return PRECONDITION_FAILED;
 				case 141: return REQUEST_ENTITY_TOO_LARGE;
 				case 143: return UNSUPPORTED_CONTENT_FORMAT;
+				case 157: return TOO_MANY_REQUESTS;
 				case 160: return INTERNAL_SERVER_ERROR;
 				case 161: return NOT_IMPLEMENTED;
 				case 162: return BAD_GATEWAY;
@@ -250,7 +252,11 @@ public class CoAP {
 		// draft-ietf-core-block-10
 		public static final int BLOCK2 = 23;
 		public static final int BLOCK1 = 27;
+		public static final int SIZE2 =  28;
+		/** @deprecated use {@link #SIZE2} */
+		@Deprecated
 		public static final int SIZE =   28;
+		public static final int SIZE1 =  60;
 		
 		/**
 		 * Option Number Registry default values.
@@ -189,6 +189,20 @@ public class MediaTypeRegistry {
 		return matches.toArray(new Integer[0]);
 	}
 
+	public static int fromFileExtension(String extension) {
+		if (extension == null) {
+			return UNDEFINED;
+		}
+
+		for (Integer key : registry.keySet()) {
+			if (key != UNDEFINED && registry.get(key)[1].equalsIgnoreCase(extension)) {
+				return key;
+			}
+		}
+
+		return UNDEFINED;
+	}
+
 	public static String toFileExtension(int mediaType) {
 		String texts[] = registry.get(mediaType);
 
@@ -68,7 +68,11 @@ public final class OptionNumberRegistry {
 	// draft-ietf-core-block-08
 	public static final int BLOCK2 = 23;
 	public static final int BLOCK1 = 27;
+	public static final int SIZE2 = 28;
+	/** @deprecated use {@link #SIZE2} */
+	@Deprecated
 	public static final int SIZE = 28;
+	public static final int SIZE1 = 60;
 
 	// derived constant
 	public static final int TOKEN_LEN = 8;
@@ -89,7 +93,8 @@ public final class OptionNumberRegistry {
 		case OBSERVE:
 		case BLOCK2:
 		case BLOCK1:
-		case SIZE:
+		case SIZE2:
+		case SIZE1:
 		case IF_NONE_MATCH:
 		case ACCEPT:
 			return optionFormats.INTEGER;
@@ -263,8 +268,10 @@ public final class OptionNumberRegistry {
 			return "Block2";
 		case BLOCK1:
 			return "Block1";
-		case SIZE:
-			return "Size";
+		case SIZE2:
+			return "Size2";
+		case SIZE1:
+			return "Size1";
 		case IF_NONE_MATCH:
 			return "If-None-Match";
 		case PROXY_SCHEME:
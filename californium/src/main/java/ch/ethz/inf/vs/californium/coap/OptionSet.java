@@ -70,6 +70,8 @@ public class OptionSet {
 	private BlockOption  block1;
 	private BlockOption  block2;
 	private Integer      observe;
+	private Integer      size1;
+	private Integer      size2;
 	
 	// Arbitrary options
 	private List<Option> others;
@@ -97,6 +99,8 @@ public class OptionSet {
 		block1              = null;
 		block2              = null;
 		observe             = null;
+		size1               = null;
+		size2               = null;
 		
 		others              = null; // new LinkedList<>();
 	}
@@ -125,6 +129,8 @@ public class OptionSet {
 		block1 = null;
 		block2 = null;
 		observe = null;
+		size1 = null;
+		size2 = null;
 		if (others != null)
 			others.clear();
 	}
@@ -158,6 +164,8 @@ public class OptionSet {
 			block2          = new BlockOption(origin.block2);
 		
 		observe = origin.observe;
+		size1 = origin.size1;
+		size2 = origin.size2;
 		
 		others              = copyList(origin.others);
 	}
@@ -190,7 +198,7 @@ public class OptionSet {
 	}
 	
 	public int getIfMatchCount() {
-		return getIfMatch().size();
+		return if_match_list == null ? 0 : if_match_list.size();
 	}
 	
 	public boolean isIfMatch(byte[] what) {
@@ -250,7 +258,7 @@ public class OptionSet {
 	}
 	
 	public int getETagCount() {
-		return getETags().size();
+		return etag_list == null ? 0 : etag_list.size();
 	}
 	
 	public boolean containsETag(byte[] what) {
@@ -340,7 +348,7 @@ public class OptionSet {
 	}
 	
 	public int getLocationPathCount() {
-		return getLocationPaths().size();
+		return location_path_list == null ? 0 : location_path_list.size();
 	}
 	
 	public OptionSet addLocationPath(String path) {
@@ -388,7 +396,7 @@ public class OptionSet {
 	}
 	
 	public int getURIPathCount() {
-		return getURIPaths().size();
+		return uri_path_list == null ? 0 : uri_path_list.size();
 	}
 	
 	public OptionSet setURIPath(String path) {
@@ -494,7 +502,7 @@ public class OptionSet {
 	}
 	
 	public int getURIQueryCount() {
-		return getURIQueries().size();
+		return uri_query_list == null ? 0 : uri_query_list.size();
 	}
 	
 	public OptionSet setURIQuery(String query) {
@@ -598,7 +606,7 @@ public class OptionSet {
 	}
 	
 	public int getLocationQueryCount() {
-		return getLocationQueries().size();
+		return location_query_list == null ? 0 : location_query_list.size();
 	}
 	
 	public OptionSet addLocationQuery(String query) {
@@ -732,11 +740,57 @@ public class OptionSet {
 		return this;
 	}
 	
+	public Integer getSize1() {
+		return size1;
+	}
+	
+	public boolean hasSize1() {
+		return size1 != null;
+	}
+	
+	public OptionSet setSize1(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("Size1 option must not be negative but was "+size);
+		this.size1 = size;
+		return this;
+	}
+	
+	public OptionSet removeSize1() {
+		size1 = null;
+		return this;
+	}
+	
+	public Integer getSize2() {
+		return size2;
+	}
+	
+	public boolean hasSize2() {
+		return size2 != null;
+	}
+	
+	public OptionSet setSize2(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("Size2 option must not be negative but was "+size);
+		this.size2 = size;
+		return this;
+	}
+	
+	public OptionSet removeSize2() {
+		size2 = null;
+		return this;
+	}
+	
 	public boolean hasOption(int number) {
 		return Collections.binarySearch(asSortedList(), new Option(number)) >= 0;
 	}
 	
-	private List<Option> getOthers() {
+	/**
+	 * Returns the arbitrary options, i.e., all options that have been added
+	 * with {@link #addOption(Option)}. The list is not sorted.
+	 * 
+	 * @return the arbitrary options
+	 */
+	public List<Option> getOthers() {
 		if (others == null)
 			synchronized (this) {
 				if (others == null)
@@ -745,6 +799,10 @@ public class OptionSet {
 		return others;
 	}
 	
+	public int getOthersCount() {
+		return others == null ? 0 : others.size();
+	}
+	
 	/**
 	 * Returns all options in a list sorted according to their option numbers.
 	 * 
@@ -789,6 +847,12 @@ public class OptionSet {
 		if (hasObserve())
 			options.add(new Option(CoAP.OptionRegistry.OBSERVE, getObserve()));
 		
+		if (hasSize2())
+			options.add(new Option(CoAP.OptionRegistry.SIZE2, getSize2()));
+		
+		if (hasSize1())
+			options.add(new Option(CoAP.OptionRegistry.SIZE1, getSize1()));
+		
 		if (others != null)
 			options.addAll(others);
 
@@ -842,6 +906,12 @@ public class OptionSet {
 		if (hasObserve())
 			os.add("Observe="+observe);
 		
+		if (hasSize2())
+			os.add("Size2="+size2);
+		
+		if (hasSize1())
+			os.add("Size1="+size1);
+		
 		if (others != null)
 			for (Option o:others)
 				os.add(o.toString());
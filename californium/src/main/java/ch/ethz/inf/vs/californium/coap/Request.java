@@ -69,6 +69,9 @@ public class Request extends Message {
 	/** Marks this request as multicast request */
 	private boolean multicast;
 	
+	/** The number of Block2 blocks of the response requested in parallel */
+	private int block2Window = 1;
+	
 	/** The current response for the request. */
 	private Response response;
 	
@@ -145,6 +148,29 @@ public class Request extends Message {
 		this.multicast = multicast;
 	}
 	
+	/**
+	 * Gets the number of Block2 blocks of the response that are requested in
+	 * parallel.
+	 * 
+	 * @return the window (1 for one block at a time)
+	 */
+	public int getBlock2Window() {
+		return block2Window;
+	}
+	
+	/**
+	 * Sets the number of Block2 blocks of the response that are requested in
+	 * parallel once the first block has told the size of the body with Size2.
+	 * The request should carry Size2 0 to ask the server for the size.
+	 * 
+	 * @param window the window (1 for one block at a time)
+	 */
+	public void setBlock2Window(int window) {
+		if (window < 1)
+			throw new IllegalArgumentException("Block2 window must be at least 1 but was "+window);
+		this.block2Window = window;
+	}
+	
 	public Request setPayload(String payload) {
 		super.setPayload(payload);
 		return this;
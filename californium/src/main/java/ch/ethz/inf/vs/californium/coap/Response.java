@@ -1,5 +1,7 @@
 package ch.ethz.inf.vs.californium.coap;
 
+import java.nio.ByteBuffer;
+
 import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
 import ch.ethz.inf.vs.californium.coap.CoAP.Type;
 
@@ -18,6 +20,12 @@ public class Response extends Message {
 
 	private boolean last = true;
 	
+	/** The serialized options and payload shared by notifications. */
+	private byte[] serializedBody;
+	
+	/** The payload as read-only buffer shared with other responses or null */
+	private ByteBuffer payloadBuffer;
+	
 	/**
 	 * Instantiates a new response with the specified response code.
 	 *
@@ -41,6 +49,8 @@ public class Response extends Message {
 	 */
 	@Override
 	public String toString() {
+		if (payloadBuffer != null)
+			return String.format("%s-%-6s MID=%5d, Token=[%s], %s, %d bytes (shared)", getType(), getCode(), getMID(), getTokenString(), getOptions(), getPayloadSize());
 		String payload = getPayloadString();
 		if (payload == null) {
 			payload = "no payload";
@@ -107,6 +117,105 @@ public class Response extends Message {
 		this.last = last;
 	}
 
+	/**
+	 * Gets the serialized options and payload of this response if they have
+	 * been prepared in advance.
+	 * 
+	 * @return the serialized options and payload or null
+	 */
+	public byte[] getSerializedBody() {
+		return serializedBody;
+	}
+	
+	/**
+	 * Sets the serialized options and payload of this response, i.e.,
+	 * everything that follows the token in the encoded message. The serializer
+	 * then only encodes the header and the token and appends these bytes
+	 * instead of encoding the options and the payload again. This is used to
+	 * send the same representation to many observers. The options and the
+	 * payload of this response must not be changed afterwards.
+	 * 
+	 * @param serializedBody the serialized options and payload or null
+	 */
+	public void setSerializedBody(byte[] serializedBody) {
+		this.serializedBody = serializedBody;
+	}
+
+	/**
+	 * Sets the remaining bytes of the specified buffer as payload without
+	 * copying them. The buffer can be shared by many responses, e.g., a
+	 * memory-mapped file or a large representation that many clients download
+	 * at the same time. Its content must not change while the responses are
+	 * in use. The {@link ch.ethz.inf.vs.californium.network.stack.BlockwiseLayer}
+	 * sends slices of the buffer as blocks and only {@link #getPayload()}
+	 * copies the bytes into an array.
+	 * 
+	 * @param buffer the payload
+	 * @return this response
+	 */
+	public Response setPayloadBuffer(ByteBuffer buffer) {
+		if (buffer == null)
+			throw new NullPointerException();
+		super.setPayload((byte[]) null);
+		this.payloadBuffer = buffer.asReadOnlyBuffer();
+		return this;
+	}
+	
+	/**
+	 * Gets the payload that has been set as buffer.
+	 * 
+	 * @return a read-only view of the payload with its own position or null
+	 *         if the payload has been set as byte array
+	 */
+	public ByteBuffer getPayloadBuffer() {
+		ByteBuffer buffer = payloadBuffer;
+		return buffer != null ? buffer.duplicate() : null;
+	}
+	
+	/**
+	 * Gets the payload. If the payload has been set as buffer, it is copied
+	 * into an array the first time.
+	 * 
+	 * @return the payload
+	 */
+	@Override
+	public byte[] getPayload() {
+		ByteBuffer buffer = payloadBuffer;
+		if (buffer != null && super.getPayload() == null) {
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.duplicate().get(bytes);
+			super.setPayload(bytes);
+		}
+		return super.getPayload();
+	}
+	
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.coap.Message#getPayloadString()
+	 */
+	@Override
+	public String getPayloadString() {
+		getPayload();
+		return super.getPayloadString();
+	}
+	
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.coap.Message#getPayloadSize()
+	 */
+	@Override
+	public int getPayloadSize() {
+		ByteBuffer buffer = payloadBuffer;
+		return buffer != null ? buffer.remaining() : super.getPayloadSize();
+	}
+	
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.coap.Message#setPayload(byte[])
+	 */
+	@Override
+	public Message setPayload(byte[] payload) {
+		this.payloadBuffer = null;
+		return super.setPayload(payload);
+	}
+	
 	public long getRTT() {
 		return rtt;
 	}
@@ -0,0 +1,71 @@
+package ch.ethz.inf.vs.californium.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Counter is a monotonic count that many threads can increment without
+ * contending on a single memory location. The count is spread over a few
+ * cells that are selected by the id of the incrementing thread and summed up
+ * when the value is read. The cells are padded to separate cache lines.
+ * <p>
+ * Increments are cheap; reading the value is more expensive and not atomic
+ * with respect to concurrent increments.
+ */
+public class Counter {
+
+	/** The distance of the cells in longs (one cache line) */
+	private static final int PADDING = 8;
+
+	/** The number of cells (a power of two) */
+	private static final int CELLS;
+
+	static {
+		int cells = 1;
+		int processors = Runtime.getRuntime().availableProcessors();
+		while (cells < processors && cells < 16)
+			cells <<= 1;
+		CELLS = cells;
+	}
+
+	/** The cells */
+	private final AtomicLongArray cells = new AtomicLongArray(CELLS * PADDING);
+
+	/**
+	 * Increments the count by one.
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Adds the specified value to the count.
+	 *
+	 * @param value the value
+	 */
+	public void add(long value) {
+		cells.addAndGet(cell(), value);
+	}
+
+	/**
+	 * Returns the sum of all increments.
+	 *
+	 * @return the count
+	 */
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i < CELLS; i++)
+			sum += cells.get(i * PADDING);
+		return sum;
+	}
+
+	private static int cell() {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return ((hash >>> 16) & (CELLS - 1)) * PADDING;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
@@ -0,0 +1,15 @@
+package ch.ethz.inf.vs.californium.metrics;
+
+/**
+ * A Gauge reports a current value, e.g., the size of a map or the depth of a
+ * queue, that is computed when the metrics are read.
+ */
+public interface Gauge {
+
+	/**
+	 * Returns the current value.
+	 *
+	 * @return the value
+	 */
+	public long getValue();
+}
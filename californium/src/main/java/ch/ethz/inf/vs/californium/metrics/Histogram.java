@@ -0,0 +1,122 @@
+package ch.ethz.inf.vs.californium.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Histogram records the distribution of non-negative values, e.g.,
+ * latencies in microseconds, in a fixed number of buckets. As in an HDR
+ * histogram, the buckets are log-linear: each power of two is divided into
+ * eight buckets, so that every recorded value is known with a relative error
+ * of at most 12.5%. Values from 0 to 2^41 are distinguished; larger values
+ * fall into the last bucket. Recording a value costs a few arithmetic
+ * operations and two atomic increments; nothing is allocated.
+ */
+public class Histogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+	/** The number of values per bucket */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	/** The sum of all values */
+	private final Counter sum = new Counter();
+
+	/** The largest value */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records the specified value. Negative values are recorded as 0.
+	 *
+	 * @param value the value
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		buckets.incrementAndGet(index(value));
+		sum.add(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value));
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return the count
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			count += buckets.get(i);
+		return count;
+	}
+
+	/**
+	 * Returns the mean of the recorded values.
+	 *
+	 * @return the mean or 0 if no value has been recorded
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count > 0 ? (double) sum.get() / count : 0;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return the maximum
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below or at which the specified fraction of the
+	 * recorded values lie, e.g., 0.99 for the 99th percentile. The result is
+	 * the upper bound of the bucket of that value.
+	 *
+	 * @param fraction the fraction between 0 and 1
+	 * @return the percentile or 0 if no value has been recorded
+	 */
+	public long getPercentile(double fraction) {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			count += counts[i] = buckets.get(i);
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE, getMax());
+		}
+		return getMax();
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+			return BUCKETS - 1;
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	static long lowerBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		return (1L << exponent) | ((long) (index % SUB_BUCKETS) << (exponent - SUB_BITS));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d",
+				getCount(), getMean(), getPercentile(0.5), getPercentile(0.99), getMax());
+	}
+}
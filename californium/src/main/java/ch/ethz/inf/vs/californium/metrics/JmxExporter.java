@@ -0,0 +1,184 @@
+package ch.ethz.inf.vs.californium.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * The JmxExporter exposes the metrics of a {@link MetricsRegistry} as the
+ * read-only attributes of a dynamic MBean. Counters and gauges are exported
+ * as one attribute each; a histogram is exported as the attributes
+ * <code>name.count</code>, <code>name.mean</code>, <code>name.p50</code>,
+ * <code>name.p99</code> and <code>name.max</code>. The attributes are
+ * computed whenever they are read, so that metrics that are added later show
+ * up as well.
+ * <pre>
+ * JmxExporter exporter = new JmxExporter(Metrics.getRegistry());
+ * exporter.register();
+ * </pre>
+ */
+public class JmxExporter implements DynamicMBean {
+
+	/** The default object name */
+	public static final String DEFAULT_NAME = "ch.ethz.inf.vs.californium:type=Metrics";
+
+	private static final String[] HISTOGRAM_SUFFIXES = { ".count", ".mean", ".p50", ".p99", ".max" };
+
+	/** The registry */
+	private final MetricsRegistry registry;
+
+	/** The name under which this exporter is registered or null */
+	private ObjectName name;
+
+	/**
+	 * Constructs a new exporter for the specified registry.
+	 *
+	 * @param registry the registry
+	 */
+	public JmxExporter(MetricsRegistry registry) {
+		if (registry == null)
+			throw new NullPointerException();
+		this.registry = registry;
+	}
+
+	/**
+	 * Registers this exporter with the platform MBean server under the
+	 * default name.
+	 *
+	 * @throws JMException if the registration fails
+	 */
+	public void register() throws JMException {
+		register(DEFAULT_NAME);
+	}
+
+	/**
+	 * Registers this exporter with the platform MBean server under the
+	 * specified name.
+	 *
+	 * @param objectName the object name
+	 * @throws JMException if the registration fails
+	 */
+	public synchronized void register(String objectName) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(objectName);
+		server.registerMBean(this, name);
+		this.name = name;
+	}
+
+	/**
+	 * Unregisters this exporter from the platform MBean server.
+	 *
+	 * @throws JMException if the exporter cannot be unregistered
+	 */
+	public synchronized void unregister() throws JMException {
+		if (name != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			name = null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#getAttribute(java.lang.String)
+	 */
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Object metric = registry.get(attribute);
+		if (metric instanceof Counter || metric instanceof Gauge)
+			return MetricsRegistry.getValue(metric);
+		for (String suffix:HISTOGRAM_SUFFIXES) {
+			if (attribute.endsWith(suffix)) {
+				metric = registry.get(attribute.substring(0, attribute.length() - suffix.length()));
+				if (metric instanceof Histogram)
+					return getHistogramValue((Histogram) metric, suffix);
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	private static Object getHistogramValue(Histogram histogram, String suffix) {
+		if (suffix.equals(".count"))
+			return histogram.getCount();
+		else if (suffix.equals(".mean"))
+			return histogram.getMean();
+		else if (suffix.equals(".p50"))
+			return histogram.getPercentile(0.5);
+		else if (suffix.equals(".p99"))
+			return histogram.getPercentile(0.99);
+		else return histogram.getMax();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#getAttributes(java.lang.String[])
+	 */
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute:attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// skip metrics that have been removed
+			}
+		}
+		return list;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#getMBeanInfo()
+	 */
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Object> entry:registry.getMetrics().entrySet()) {
+			String name = entry.getKey();
+			if (entry.getValue() instanceof Histogram) {
+				for (String suffix:HISTOGRAM_SUFFIXES) {
+					String type = suffix.equals(".mean") ? "double" : "long";
+					attributes.add(new MBeanAttributeInfo(name + suffix, type, name + suffix, true, false, false));
+				}
+			} else {
+				attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+			}
+		}
+		return new MBeanInfo(getClass().getName(), "Californium metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+				null, new MBeanOperationInfo[0], null);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#setAttribute(javax.management.Attribute)
+	 */
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#setAttributes(javax.management.AttributeList)
+	 */
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#invoke(java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(action), "Metrics have no operations: " + action);
+	}
+}
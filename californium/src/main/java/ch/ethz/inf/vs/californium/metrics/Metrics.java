@@ -0,0 +1,52 @@
+package ch.ethz.inf.vs.californium.metrics;
+
+/**
+ * Metrics holds the process-wide {@link MetricsRegistry} into which the
+ * endpoints, the matcher, the layers and the resources report. The counters
+ * are always active; an increment costs a single uncontended atomic add.
+ * Resources additionally record the latency of each request in microseconds.
+ * <p>
+ * The metrics are exported by a
+ * {@link ch.ethz.inf.vs.californium.server.resources.MetricsResource} that a
+ * server can add and by the {@link JmxExporter}.
+ */
+public final class Metrics {
+
+	/** The registry */
+	private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+	private Metrics() {
+		// static only
+	}
+
+	/**
+	 * Returns the process-wide registry.
+	 *
+	 * @return the registry
+	 */
+	public static MetricsRegistry getRegistry() {
+		return REGISTRY;
+	}
+
+	/**
+	 * Returns the counter with the specified name from the process-wide
+	 * registry.
+	 *
+	 * @param name the name
+	 * @return the counter
+	 */
+	public static Counter counter(String name) {
+		return REGISTRY.counter(name);
+	}
+
+	/**
+	 * Returns the histogram with the specified name from the process-wide
+	 * registry.
+	 *
+	 * @param name the name
+	 * @return the histogram
+	 */
+	public static Histogram histogram(String name) {
+		return REGISTRY.histogram(name);
+	}
+}
@@ -0,0 +1,162 @@
+package ch.ethz.inf.vs.californium.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A MetricsRegistry holds named {@link Counter}s, {@link Histogram}s and
+ * {@link Gauge}s. Components look up their counters and histograms once, e.g.,
+ * in a static field, and update them directly; the registry is only consulted
+ * again when the metrics are exported. Names are dot-separated, e.g.,
+ * <code>reliability.retransmissions</code>.
+ */
+public class MetricsRegistry {
+
+	/** The metrics by name */
+	private final ConcurrentHashMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * Returns the counter with the specified name and creates it if
+	 * necessary.
+	 *
+	 * @param name the name
+	 * @return the counter
+	 * @throws IllegalArgumentException if the name belongs to another kind of metric
+	 */
+	public Counter counter(String name) {
+		Object metric = metrics.get(name);
+		if (metric == null) {
+			Counter counter = new Counter();
+			metric = metrics.putIfAbsent(name, counter);
+			if (metric == null)
+				return counter;
+		}
+		if (!(metric instanceof Counter))
+			throw new IllegalArgumentException("Metric "+name+" is not a counter");
+		return (Counter) metric;
+	}
+
+	/**
+	 * Returns the histogram with the specified name and creates it if
+	 * necessary.
+	 *
+	 * @param name the name
+	 * @return the histogram
+	 * @throws IllegalArgumentException if the name belongs to another kind of metric
+	 */
+	public Histogram histogram(String name) {
+		Object metric = metrics.get(name);
+		if (metric == null) {
+			Histogram histogram = new Histogram();
+			metric = metrics.putIfAbsent(name, histogram);
+			if (metric == null)
+				return histogram;
+		}
+		if (!(metric instanceof Histogram))
+			throw new IllegalArgumentException("Metric "+name+" is not a histogram");
+		return (Histogram) metric;
+	}
+
+	/**
+	 * Registers the specified gauge under the specified name. A gauge that has
+	 * been registered under that name before is replaced.
+	 *
+	 * @param name the name
+	 * @param gauge the gauge
+	 */
+	public void register(String name, Gauge gauge) {
+		if (gauge == null)
+			throw new NullPointerException();
+		metrics.put(name, gauge);
+	}
+
+	/**
+	 * Removes the metric with the specified name.
+	 *
+	 * @param name the name
+	 */
+	public void remove(String name) {
+		metrics.remove(name);
+	}
+
+	/**
+	 * Removes the metric with the specified name only if it is the specified
+	 * one, e.g., the histogram of a resource that has been deleted while
+	 * another resource might already use the same name.
+	 *
+	 * @param name the name
+	 * @param metric the metric
+	 * @return true if the metric has been removed
+	 */
+	public boolean remove(String name, Object metric) {
+		return metrics.remove(name, metric);
+	}
+
+	/**
+	 * Removes all metrics whose name starts with the specified prefix, e.g.,
+	 * the gauges of an endpoint that has been destroyed.
+	 *
+	 * @param prefix the prefix
+	 */
+	public void removeAll(String prefix) {
+		for (String name:metrics.keySet())
+			if (name.startsWith(prefix))
+				metrics.remove(name);
+	}
+
+	/**
+	 * Returns the metric with the specified name.
+	 *
+	 * @param name the name
+	 * @return the counter, histogram or gauge or null
+	 */
+	public Object get(String name) {
+		return metrics.get(name);
+	}
+
+	/**
+	 * Returns a snapshot of the names and metrics sorted by name.
+	 *
+	 * @return the metrics
+	 */
+	public SortedMap<String, Object> getMetrics() {
+		return new TreeMap<String, Object>(metrics);
+	}
+
+	/**
+	 * Returns the current value of a counter or gauge, or the number of values
+	 * of a histogram.
+	 *
+	 * @param metric the metric
+	 * @return the value
+	 */
+	public static long getValue(Object metric) {
+		if (metric instanceof Counter)
+			return ((Counter) metric).get();
+		else if (metric instanceof Gauge)
+			return ((Gauge) metric).getValue();
+		else if (metric instanceof Histogram)
+			return ((Histogram) metric).getCount();
+		else return 0;
+	}
+
+	/**
+	 * Returns all metrics as text with one metric per line.
+	 *
+	 * @return the text
+	 */
+	public String toText() {
+		StringBuilder buffer = new StringBuilder();
+		for (Map.Entry<String, Object> entry:getMetrics().entrySet()) {
+			Object metric = entry.getValue();
+			buffer.append(entry.getKey()).append(' ');
+			if (metric instanceof Histogram)
+				buffer.append(metric);
+			else buffer.append(getValue(metric));
+			buffer.append('\n');
+		}
+		return buffer.toString();
+	}
+}
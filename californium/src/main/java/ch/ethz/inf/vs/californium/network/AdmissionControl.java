@@ -0,0 +1,317 @@
+package ch.ethz.inf.vs.californium.network;
+
+import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.REQUEST_CODE_LOWER_BOUND;
+import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.REQUEST_CODE_UPPER_BOUNT;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.ethz.inf.vs.californium.coap.CoAP;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+
+/**
+ * The AdmissionControl decides whether the endpoint processes an incoming
+ * datagram before the datagram is handed to the executor and parsed. It only
+ * looks at the fixed four-byte header, i.e., at the same fields that the
+ * {@link ch.ethz.inf.vs.californium.network.serialization.DataParser} reads
+ * first, so that excess requests cost almost nothing under a flood.
+ * <p>
+ * Only requests are shed. Responses and empty messages always pass because
+ * they complete exchanges and thereby free resources. A request is shed if
+ * <ul>
+ * <li>more than {@link NetworkConfigDefaults#ADMISSION_MAX_QUEUE} datagrams
+ * wait for the executor or are being processed, or</li>
+ * <li>its source has sent more than {@link NetworkConfigDefaults#ADMISSION_SOURCE_RATE}
+ * requests per second (with bursts of up to {@link NetworkConfigDefaults#ADMISSION_SOURCE_BURST}).</li>
+ * </ul>
+ * A shed NON request is dropped. A shed CON request is answered with a RST if
+ * {@link NetworkConfigDefaults#ADMISSION_RESET_CON} is true, which stops the
+ * client from retransmitting, and dropped otherwise. A limit of 0 disables
+ * the respective check.
+ * <p>
+ * At most {@link #MAX_SOURCES} sources are tracked. When the table is full,
+ * each new source sweeps a few buckets for idle sources and, if none has
+ * been freed, shares a single overflow bucket with all other untracked
+ * sources. A flood from many addresses thus neither grows the table nor
+ * costs more than a constant amount of work per request.
+ */
+public class AdmissionControl {
+
+	/** The verdict about an incoming datagram */
+	public enum Verdict {
+
+		/** Process the datagram */
+		ACCEPT,
+
+		/** Drop the datagram silently */
+		DROP,
+
+		/** Answer the datagram with a RST and drop it */
+		RESET
+	}
+
+	/** The maximum number of tracked sources */
+	public static final int MAX_SOURCES = 10000;
+
+	/** The number of buckets that a new source sweeps when the table is full */
+	private static final int SWEEP_STEP = 8;
+
+	/** The maximum number of pending datagrams or 0 */
+	private final int maxQueue;
+
+	/** The number of requests per second per source or 0 */
+	private final int sourceRate;
+
+	/** The number of requests a source may send in a burst */
+	private final int sourceBurst;
+
+	/** Answer shed CON requests with a RST */
+	private final boolean resetCon;
+
+	/** The token buckets of the sources */
+	private final ConcurrentHashMap<InetAddress, Bucket> buckets = new ConcurrentHashMap<InetAddress, Bucket>();
+
+	/** The bucket shared by the sources that do not fit into the table */
+	private final Bucket overflow;
+
+	/** The position of the incremental sweep for idle sources */
+	private Iterator<Bucket> sweep;
+
+	/** The number of pending datagrams */
+	private final AtomicInteger queue = new AtomicInteger();
+
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong reset = new AtomicLong();
+	private final AtomicLong shedByQueue = new AtomicLong();
+	private final AtomicLong shedByRate = new AtomicLong();
+
+	/**
+	 * Constructs a new admission control with the limits of the specified
+	 * configuration.
+	 *
+	 * @param config the configuration
+	 */
+	public AdmissionControl(NetworkConfig config) {
+		this(config.getInt(NetworkConfigDefaults.ADMISSION_MAX_QUEUE),
+				config.getInt(NetworkConfigDefaults.ADMISSION_SOURCE_RATE),
+				config.getInt(NetworkConfigDefaults.ADMISSION_SOURCE_BURST),
+				config.getBoolean(NetworkConfigDefaults.ADMISSION_RESET_CON));
+	}
+
+	/**
+	 * Constructs a new admission control with the specified limits.
+	 *
+	 * @param maxQueue the maximum number of pending datagrams or 0
+	 * @param sourceRate the number of requests per second per source or 0
+	 * @param sourceBurst the number of requests a source may send in a burst
+	 * @param resetCon true to answer shed CON requests with a RST
+	 */
+	public AdmissionControl(int maxQueue, int sourceRate, int sourceBurst, boolean resetCon) {
+		this.maxQueue = maxQueue;
+		this.sourceRate = sourceRate;
+		this.sourceBurst = Math.max(1, sourceBurst);
+		this.resetCon = resetCon;
+		this.overflow = new Bucket(this.sourceBurst, System.nanoTime());
+	}
+
+	/**
+	 * Decides whether the specified datagram is processed. If the verdict is
+	 * {@link Verdict#ACCEPT}, the caller must call {@link #enqueued()} before
+	 * and {@link #dequeued()} after processing the datagram.
+	 *
+	 * @param bytes the datagram
+	 * @param source the address of the sender
+	 * @return the verdict
+	 */
+	public Verdict admit(byte[] bytes, InetAddress source) {
+		if (maxQueue <= 0 && sourceRate <= 0 || !isRequest(bytes)) {
+			accepted.incrementAndGet();
+			return Verdict.ACCEPT;
+		}
+
+		if (maxQueue > 0 && queue.get() >= maxQueue) {
+			shedByQueue.incrementAndGet();
+			return shed(bytes);
+		}
+		if (sourceRate > 0 && !acquire(source)) {
+			shedByRate.incrementAndGet();
+			return shed(bytes);
+		}
+		accepted.incrementAndGet();
+		return Verdict.ACCEPT;
+	}
+
+	/*
+	 * Checks the version and code of the header.
+	 */
+	private static boolean isRequest(byte[] bytes) {
+		if (bytes.length < 4 || (bytes[0] & 0xC0) >>> 6 != CoAP.VERSION)
+			return false;
+		int code = bytes[1] & 0xFF;
+		return code >= REQUEST_CODE_LOWER_BOUND && code <= REQUEST_CODE_UPPER_BOUNT;
+	}
+
+	private Verdict shed(byte[] bytes) {
+		int type = (bytes[0] & 0x30) >>> 4;
+		if (resetCon && type == CoAP.Type.CON.value) {
+			reset.incrementAndGet();
+			return Verdict.RESET;
+		}
+		dropped.incrementAndGet();
+		return Verdict.DROP;
+	}
+
+	/*
+	 * Takes a token from the bucket of the source.
+	 */
+	private boolean acquire(InetAddress source) {
+		long now = System.nanoTime();
+		Bucket bucket = buckets.get(source);
+		if (bucket == null) {
+			if (buckets.size() >= MAX_SOURCES && !sweep(now))
+				// the table is full of active sources
+				return overflow.acquire(now, sourceRate, sourceBurst);
+			Bucket fresh = new Bucket(sourceBurst, now);
+			bucket = buckets.putIfAbsent(source, fresh);
+			if (bucket == null)
+				bucket = fresh;
+		}
+		return bucket.acquire(now, sourceRate, sourceBurst);
+	}
+
+	/*
+	 * Examines the next few buckets of the table and removes those of sources
+	 * that have been idle long enough to have a full bucket again. Returns
+	 * true if a bucket has been removed.
+	 */
+	private synchronized boolean sweep(long now) {
+		long idle = TimeUnit.SECONDS.toNanos(1) * sourceBurst / sourceRate;
+		boolean removed = false;
+		for (int i = 0; i < SWEEP_STEP; i++) {
+			if (sweep == null || !sweep.hasNext())
+				sweep = buckets.values().iterator();
+			if (!sweep.hasNext())
+				break;
+			if (now - sweep.next().getLast() > idle) {
+				sweep.remove();
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Records that an accepted datagram waits for the executor.
+	 */
+	public void enqueued() {
+		queue.incrementAndGet();
+	}
+
+	/**
+	 * Records that an accepted datagram has been processed.
+	 */
+	public void dequeued() {
+		queue.decrementAndGet();
+	}
+
+	/**
+	 * Returns the number of datagrams that wait for the executor or are being
+	 * processed.
+	 *
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		return queue.get();
+	}
+
+	/**
+	 * Returns the number of accepted datagrams.
+	 *
+	 * @return the number of accepted datagrams
+	 */
+	public long getAccepted() {
+		return accepted.get();
+	}
+
+	/**
+	 * Returns the number of requests that have been dropped silently.
+	 *
+	 * @return the number of dropped requests
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of CON requests that have been answered with a RST.
+	 *
+	 * @return the number of reset requests
+	 */
+	public long getReset() {
+		return reset.get();
+	}
+
+	/**
+	 * Returns the number of requests that have been shed because too many
+	 * datagrams were pending.
+	 *
+	 * @return the number of requests shed by queue depth
+	 */
+	public long getShedByQueue() {
+		return shedByQueue.get();
+	}
+
+	/**
+	 * Returns the number of requests that have been shed because their source
+	 * exceeded its rate.
+	 *
+	 * @return the number of requests shed by source rate
+	 */
+	public long getShedByRate() {
+		return shedByRate.get();
+	}
+
+	/**
+	 * Returns the number of sources whose rate is tracked.
+	 *
+	 * @return the number of sources
+	 */
+	public int getSourceCount() {
+		return buckets.size();
+	}
+
+	/*
+	 * A token bucket that is refilled with the rate of requests per second.
+	 */
+	private static class Bucket {
+
+		private double tokens;
+		private long last;
+
+		private Bucket(int tokens, long now) {
+			this.tokens = tokens;
+			this.last = now;
+		}
+
+		private synchronized boolean acquire(long now, int rate, int burst) {
+			if (now > last) {
+				tokens = Math.min(burst, tokens + (now - last) * rate / 1e9);
+				last = now;
+			}
+			if (tokens < 1)
+				return false;
+			tokens -= 1;
+			return true;
+		}
+
+		private synchronized long getLast() {
+			return last;
+		}
+	}
+}
@@ -1,11 +1,14 @@
 package ch.ethz.inf.vs.californium.network;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,10 +16,16 @@ import ch.ethz.inf.vs.californium.coap.CoAP.Type;
 import ch.ethz.inf.vs.californium.coap.EmptyMessage;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.metrics.Counter;
+import ch.ethz.inf.vs.californium.metrics.Gauge;
+import ch.ethz.inf.vs.californium.metrics.Metrics;
+import ch.ethz.inf.vs.californium.metrics.MetricsRegistry;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
 import ch.ethz.inf.vs.californium.network.interceptors.MessageInterceptor;
+import ch.ethz.inf.vs.californium.network.serialization.ByteBufferParser;
 import ch.ethz.inf.vs.californium.network.serialization.DataParser;
+import ch.ethz.inf.vs.californium.network.serialization.MessageParser;
 import ch.ethz.inf.vs.californium.network.serialization.Serializer;
 import ch.ethz.inf.vs.californium.network.stack.BlockwiseLayer;
 import ch.ethz.inf.vs.californium.network.stack.CoapStack;
@@ -24,6 +33,11 @@ import ch.ethz.inf.vs.californium.network.stack.ExchangeForwarder;
 import ch.ethz.inf.vs.californium.network.stack.ObserveLayer;
 import ch.ethz.inf.vs.californium.network.stack.ReliabilityLayer;
 import ch.ethz.inf.vs.californium.network.stack.TokenLayer;
+import ch.ethz.inf.vs.californium.network.timer.ExecutorTimer;
+import ch.ethz.inf.vs.californium.network.timer.HashedWheelTimer;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
+import ch.ethz.inf.vs.californium.network.trace.TraceEvent;
+import ch.ethz.inf.vs.californium.network.trace.Tracing;
 import ch.ethz.inf.vs.californium.server.MessageDeliverer;
 import ch.ethz.inf.vs.elements.Connector;
 import ch.ethz.inf.vs.elements.RawData;
@@ -94,6 +108,15 @@ public class CoAPEndpoint implements Endpoint {
 	/** the logger. */
 	private final static Logger LOGGER = Logger.getLogger(CoAPEndpoint.class.getCanonicalName());
 	
+	private final static Counter REQUESTS_RECEIVED = Metrics.counter("endpoint.requests_received");
+	private final static Counter RESPONSES_RECEIVED = Metrics.counter("endpoint.responses_received");
+	private final static Counter EMPTY_MESSAGES_RECEIVED = Metrics.counter("endpoint.empty_messages_received");
+	private final static Counter REQUESTS_SENT = Metrics.counter("endpoint.requests_sent");
+	private final static Counter RESPONSES_SENT = Metrics.counter("endpoint.responses_sent");
+	private final static Counter EMPTY_MESSAGES_SENT = Metrics.counter("endpoint.empty_messages_sent");
+	private final static Counter FORMAT_ERRORS = Metrics.counter("endpoint.format_errors");
+	private final static Counter PINGS = Metrics.counter("endpoint.pings");
+	
 	/** The stack of layers that make up the CoAP protocol */
 	private final CoapStack coapstack;
 	
@@ -106,6 +129,12 @@ public class CoAPEndpoint implements Endpoint {
 	/** The executor to run tasks for this endpoint and its layers */
 	private ScheduledExecutorService executor;
 	
+	/** The executor if it is sharded by peers, otherwise null */
+	private ShardedExecutor shardedExecutor;
+	
+	/** The timer for retransmissions, re-registrations and deduplication */
+	private Timer timer;
+	
 	/** Indicates if the endpoint has been started */
 	private boolean started;
 	
@@ -121,6 +150,15 @@ public class CoAPEndpoint implements Endpoint {
 	/** The serializer to serialize messages to bytes */
 	private Serializer serializer;
 	
+	/** Parse incoming datagrams with the ByteBufferParser instead of the DataParser */
+	private final boolean useByteBufferParser;
+	
+	/** Decides which incoming datagrams are processed under load */
+	private final AdmissionControl admission;
+	
+	/** The prefix of the gauges of this endpoint or null if not registered */
+	private String metricsPrefix;
+	
 	/**
 	 * Instantiates a new endpoint.
 	 */
@@ -171,6 +209,8 @@ public class CoAPEndpoint implements Endpoint {
 		this.config = config;
 		this.connector = connector;
 		this.serializer = new Serializer();
+		this.useByteBufferParser = config.getBoolean(NetworkConfigDefaults.USE_BYTE_BUFFER_PARSER);
+		this.admission = new AdmissionControl(config);
 		
 		this.matcher = new Matcher(config);		
 		this.coapstack = new CoapStack(config, new ExchangeForwarderImpl());
@@ -220,6 +260,7 @@ public class CoAPEndpoint implements Endpoint {
 			for (EndpointObserver obs:observers)
 				obs.started(this);
 			startExecutor();
+			registerGauges();
 		} catch (IOException e) {
 			LOGGER.log(Level.SEVERE, "Cannot start Endpoint at " + getAddress(), e);
 			stop();
@@ -256,9 +297,49 @@ public class CoAPEndpoint implements Endpoint {
 			for (EndpointObserver obs:observers)
 				obs.stopped(this);
 			matcher.clear();
+			if (metricsPrefix != null) {
+				Metrics.getRegistry().removeAll(metricsPrefix);
+				metricsPrefix = null;
+			}
 		}
 	}
 	
+	/**
+	 * Registers the gauges of this endpoint with the names
+	 * <code>endpoint.&lt;port&gt;.*</code> unless the connector does not know
+	 * its address.
+	 */
+	private void registerGauges() {
+		InetSocketAddress address = getAddress();
+		if (address == null) {
+			LOGGER.fine("Endpoint has no address, do not register gauges");
+			return;
+		}
+		MetricsRegistry registry = Metrics.getRegistry();
+		String prefix = "endpoint." + address.getPort() + ".";
+		final ExchangeStore store = matcher.getExchangeStore();
+		registry.register(prefix + "exchanges_by_mid", new Gauge() {
+			public long getValue() { return store.getMIDCount(); } });
+		registry.register(prefix + "exchanges_by_token", new Gauge() {
+			public long getValue() { return store.getTokenCount(); } });
+		registry.register(prefix + "ongoing_exchanges", new Gauge() {
+			public long getValue() { return store.getOngoingCount(); } });
+		registry.register(prefix + "deduplicator", new Gauge() {
+			public long getValue() { return matcher.getDeduplicator().size(); } });
+		registry.register(prefix + "receive_queue", new Gauge() {
+			public long getValue() { return admission.getQueueDepth(); } });
+		registry.register(prefix + "admission_dropped", new Gauge() {
+			public long getValue() { return admission.getDropped(); } });
+		registry.register(prefix + "admission_reset", new Gauge() {
+			public long getValue() { return admission.getReset(); } });
+		if (executor instanceof ThreadPoolExecutor) {
+			final ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+			registry.register(prefix + "executor_queue", new Gauge() {
+				public long getValue() { return pool.getQueue().size(); } });
+		}
+		metricsPrefix = prefix;
+	}
+	
 	/* (non-Javadoc)
 	 * @see ch.ethz.inf.vs.californium.network.Endpoint#destroy()
 	 */
@@ -268,6 +349,8 @@ public class CoAPEndpoint implements Endpoint {
 		if (started)
 			stop();
 		connector.destroy();
+		if (timer != null)
+			timer.stop();
 		for (EndpointObserver obs:observers)
 			obs.destroyed(this);
 	}
@@ -295,8 +378,36 @@ public class CoAPEndpoint implements Endpoint {
 	@Override
 	public synchronized void setExecutor(ScheduledExecutorService executor) {
 		this.executor = executor;
+		if (executor instanceof ShardedExecutor)
+			this.shardedExecutor = (ShardedExecutor) executor;
+		else this.shardedExecutor = null;
+		if (this.timer != null)
+			this.timer.stop();
+		this.timer = executor != null ? createTimer(executor, config) : null;
 		this.coapstack.setExecutor(executor);
+		this.coapstack.setTimer(timer);
 		this.matcher.setExecutor(executor);
+		this.matcher.setTimer(timer);
+	}
+	
+	/**
+	 * Creates the timer according to the configuration.
+	 *
+	 * @param executor the executor that runs the expired tasks
+	 * @param config the configuration
+	 * @return the timer
+	 */
+	private static Timer createTimer(ScheduledExecutorService executor, NetworkConfig config) {
+		String type = config.getString(NetworkConfigDefaults.TIMER);
+		if (NetworkConfigDefaults.TIMER_HASHED_WHEEL.equals(type)) {
+			return new HashedWheelTimer(executor,
+					config.getInt(NetworkConfigDefaults.HASHED_WHEEL_TICK), TimeUnit.MILLISECONDS,
+					config.getInt(NetworkConfigDefaults.HASHED_WHEEL_SIZE));
+		} else {
+			if (!NetworkConfigDefaults.TIMER_EXECUTOR.equals(type))
+				LOGGER.warning("Unknown timer type: " + type);
+			return new ExecutorTimer(executor);
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -344,13 +455,9 @@ public class CoAPEndpoint implements Endpoint {
 	 */
 	@Override
 	public void sendRequest(final Request request) {
-		executor.execute(new Runnable() {
+		executeTask(request.getDestination(), request.getDestinationPort(), new Runnable() {
 			public void run() {
-				try {
-					coapstack.sendRequest(request);
-				} catch (Throwable t) {
-					t.printStackTrace();
-				}
+				coapstack.sendRequest(request);
 			}
 		});
 	}
@@ -372,7 +479,22 @@ public class CoAPEndpoint implements Endpoint {
 //				}
 //			}
 //		});
-		coapstack.sendResponse(exchange, response);
+		ShardedExecutor sharded = shardedExecutor;
+		if (sharded != null && response.getDestination() != null
+				&& !sharded.isOwner(response.getDestination(), response.getDestinationPort())) {
+			// Hand over to the lane that owns the peer to keep its order
+			sharded.execute(response.getDestination(), response.getDestinationPort(), new Runnable() {
+				public void run() {
+					try {
+						coapstack.sendResponse(exchange, response);
+					} catch (Throwable t) {
+						t.printStackTrace();
+					}
+				}
+			});
+		} else {
+			coapstack.sendResponse(exchange, response);
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -380,13 +502,9 @@ public class CoAPEndpoint implements Endpoint {
 	 */
 	@Override
 	public void sendEmptyMessage(final Exchange exchange, final EmptyMessage message) {
-		executor.execute(new Runnable() {
+		executeTask(message.getDestination(), message.getDestinationPort(), new Runnable() {
 			public void run() {
-				try {
-					coapstack.sendEmptyMessage(exchange, message);
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
+				coapstack.sendEmptyMessage(exchange, message);
 			}
 		});
 	}
@@ -414,6 +532,24 @@ public class CoAPEndpoint implements Endpoint {
 	public NetworkConfig getConfig() {
 		return config;
 	}
+	
+	/**
+	 * Gets the connector over which this endpoint sends and receives.
+	 *
+	 * @return the connector
+	 */
+	public Connector getConnector() {
+		return connector;
+	}
+	
+	/**
+	 * Gets the admission control that sheds incoming requests under load.
+	 *
+	 * @return the admission control
+	 */
+	public AdmissionControl getAdmissionControl() {
+		return admission;
+	}
 
 	/**
 	 * The stack of layers uses this forwarder to send messages. The forwarder
@@ -426,10 +562,8 @@ public class CoAPEndpoint implements Endpoint {
 		public void sendRequest(Exchange exchange, Request request) {
 			matcher.sendRequest(exchange, request);
 			
-			LOGGER.fine(String.format("Sending req %s-%s [%5d][%s][%s] to %s:%d",
-					request.getType(), request.getCode(), request.getMID(), request.getTokenString(),
-					request.getOptions(),
-					request.getDestination(), request.getDestinationPort()));
+			Tracing.trace(TraceEvent.SEND_REQUEST, request, exchange);
+			REQUESTS_SENT.increment();
 			
 			for (MessageInterceptor interceptor:interceptors)
 				interceptor.sendRequest(request);
@@ -443,32 +577,36 @@ public class CoAPEndpoint implements Endpoint {
 		public void sendResponse(Exchange exchange, Response response) {
 			matcher.sendResponse(exchange, response);
 			
-			LOGGER.fine(String.format("Sending res %s-%s [%5d][%s] to %s:%d",
-					response.getType(), response.getCode(), response.getMID(), response.getTokenString(),
-					response.getDestination(), response.getDestinationPort()));
+			Tracing.trace(TraceEvent.SEND_RESPONSE, response, exchange);
+			RESPONSES_SENT.increment();
 			
 			for (MessageInterceptor interceptor:interceptors)
 				interceptor.sendResponse(response);
 
 			// MessageInterceptor might have canceled
-			if (!response.isCanceled())
-				connector.send(serializer.serialize(response));
+			if (!response.isCanceled()) {
+				RawData raw = serializer.serialize(response);
+				matcher.sentReply(exchange, raw.getBytes());
+				connector.send(raw);
+			}
 		}
 
 		@Override
 		public void sendEmptyMessage(Exchange exchange, EmptyMessage message) {
 			matcher.sendEmptyMessage(exchange, message);
 			
-			LOGGER.fine(String.format("Sending empty %s [%5d] to %s:%d",
-					message.getType(), message.getMID(),
-					message.getDestination(), message.getDestinationPort()));
+			Tracing.trace(TraceEvent.SEND_EMPTY_MESSAGE, message, exchange);
+			EMPTY_MESSAGES_SENT.increment();
 			
 			for (MessageInterceptor interceptor:interceptors)
 				interceptor.sendEmptyMessage(message);
 
 			// MessageInterceptor might have canceled
-			if (!message.isCanceled())
-				connector.send(serializer.serialize(message));
+			if (!message.isCanceled()) {
+				RawData raw = serializer.serialize(message);
+				matcher.sentReply(exchange, raw.getBytes());
+				connector.send(raw);
+			}
 		}
 	}
 	
@@ -488,13 +626,45 @@ public class CoAPEndpoint implements Endpoint {
 			if (raw.getPort() == 0)
 				throw new NullPointerException();
 			
+			// Shed excess requests before they reach the executor
+			switch (admission.admit(raw.getBytes(), raw.getAddress())) {
+			case DROP:
+				return;
+			case RESET:
+				reset(raw);
+				return;
+			default:
+			}
+			
 			// Create a new task to process this message
 			Runnable task = new Runnable() {
 				public void run() {
-					receiveMessage(raw);
+					try {
+						receiveMessage(raw);
+					} finally {
+						admission.dequeued();
+					}
 				}
 			};
-			executeTask(task);
+			admission.enqueued();
+			try {
+				executeTask(raw.getAddress(), raw.getPort(), task);
+			} catch (RuntimeException e) {
+				admission.dequeued();
+				throw e;
+			}
+		}
+		
+		/*
+		 * Answers a shed CON request with a RST built from its header only.
+		 */
+		private void reset(RawData raw) {
+			byte[] bytes = raw.getBytes();
+			EmptyMessage rst = new EmptyMessage(Type.RST);
+			rst.setDestination(raw.getAddress());
+			rst.setDestinationPort(raw.getPort());
+			rst.setMID(((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF));
+			connector.send(serializer.serialize(rst));
 		}
 		
 		/*
@@ -503,15 +673,27 @@ public class CoAPEndpoint implements Endpoint {
 		 * the stack of layers.
 		 */
 		private void receiveMessage(RawData raw) {
-			DataParser parser = new DataParser(raw.getBytes());
+			MessageParser parser = useByteBufferParser
+					? new ByteBufferParser(raw.getBytes())
+					: new DataParser(raw.getBytes());
 			
 			if (parser.isRequest()) {
 				// This is a request
+				byte[] reply = matcher.findReply(parser.getMID(), raw.getAddress(), raw.getPort());
+				if (reply != null) {
+					// Duplicate of an answered request, send the recorded reply again
+					if (LOGGER.isLoggable(Level.FINE))
+						LOGGER.fine("Duplicate request from " + raw.getInetSocketAddress() + ", resending recorded reply");
+					connector.send(new RawData(reply, raw.getAddress(), raw.getPort()));
+					return;
+				}
+				
 				Request request;
 				try {
 					request = parser.parseRequest();
 				} catch (IllegalStateException e) {
 					String log = "message format error caused by " + raw.getInetSocketAddress();
+					FORMAT_ERRORS.increment();
 					if (!parser.isReply()) {
 						// manually build RST from raw information
 						EmptyMessage rst = new EmptyMessage(Type.RST);
@@ -529,9 +711,12 @@ public class CoAPEndpoint implements Endpoint {
 				request.setSource(raw.getAddress());
 				request.setSourcePort(raw.getPort());
 				
-				LOGGER.fine(String.format("Received req %s-%s [%5d][%s] from %s",
-					request.getType(), request.getCode(), request.getMID(), request.getTokenString(),
-					raw.getInetSocketAddress().toString()));
+				Tracing.trace(TraceEvent.RECEIVE_REQUEST, request, null);
+				REQUESTS_RECEIVED.increment();
+				
+				// Let the interceptors tell retransmissions from new requests
+				if (!interceptors.isEmpty())
+					matcher.checkDuplicate(request);
 				
 				for (MessageInterceptor interceptor:interceptors)
 					interceptor.receiveRequest(request);
@@ -551,9 +736,8 @@ public class CoAPEndpoint implements Endpoint {
 				response.setSource(raw.getAddress());
 				response.setSourcePort(raw.getPort());
 				
-				LOGGER.fine(String.format("Received res %s-%s [%5d][%s] from %s",
-					response.getType(), response.getCode(), response.getMID(), response.getTokenString(),
-					raw.getInetSocketAddress().toString()));
+				Tracing.trace(TraceEvent.RECEIVE_RESPONSE, response, null);
+				RESPONSES_RECEIVED.increment();
 				
 				for (MessageInterceptor interceptor:interceptors)
 					interceptor.receiveResponse(response);
@@ -574,9 +758,8 @@ public class CoAPEndpoint implements Endpoint {
 				message.setSource(raw.getAddress());
 				message.setSourcePort(raw.getPort());
 				
-				LOGGER.fine(String.format("Received empty %s [%5d] from %s",
-					message.getType(), message.getMID(),
-					raw.getInetSocketAddress().toString()));
+				Tracing.trace(TraceEvent.RECEIVE_EMPTY_MESSAGE, message, null);
+				EMPTY_MESSAGES_RECEIVED.increment();
 				
 				for (MessageInterceptor interceptor:interceptors)
 					interceptor.receiveEmptyMessage(message);
@@ -588,6 +771,7 @@ public class CoAPEndpoint implements Endpoint {
 						EmptyMessage rst = EmptyMessage.newRST(message);
 						
 						LOGGER.info("Responding to ping by " + raw.getInetSocketAddress());
+						PINGS.increment();
 						
 						for (MessageInterceptor interceptor:interceptors)
 							interceptor.sendEmptyMessage(rst);
@@ -624,4 +808,29 @@ public class CoAPEndpoint implements Endpoint {
 			}
 		});
 	}
+	
+	/**
+	 * Execute the specified task that concerns the specified peer. If the
+	 * executor is sharded, the task runs on the lane that owns the peer.
+	 *
+	 * @param address the address of the peer
+	 * @param port the port of the peer
+	 * @param task the task
+	 */
+	private void executeTask(InetAddress address, int port, final Runnable task) {
+		ShardedExecutor sharded = shardedExecutor;
+		if (sharded == null || address == null) {
+			executeTask(task);
+		} else {
+			sharded.execute(address, port, new Runnable() {
+				public void run() {
+					try {
+						task.run();
+					} catch (Throwable t) {
+						t.printStackTrace();
+					}
+				}
+			});
+		}
+	}
 }
@@ -31,6 +31,7 @@
 package ch.ethz.inf.vs.californium.network;
 
 import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -42,6 +43,7 @@ import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.stack.BlockwiseLayer;
 import ch.ethz.inf.vs.californium.network.stack.BlockwiseStatus;
+import ch.ethz.inf.vs.californium.network.stack.BodySink;
 import ch.ethz.inf.vs.californium.observe.ObserveRelation;
 import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
 
@@ -147,6 +149,12 @@ public class Exchange {
 	
 	/** The relation that the target resource has established with the source*/
 	private ObserveRelation relation;
+	
+	/** The values of the parameter segments of the request path */
+	private Map<String, String> pathParameters;
+	
+	/** The sink that has received the body of a streamed Block1 request */
+	private BodySink bodySink;
 
 	/**
 	 * Constructs a new exchange with the specified request and origin. 
@@ -449,6 +457,45 @@ public class Exchange {
 	public void setRelation(ObserveRelation relation) {
 		this.relation = relation;
 	}
+
+	/**
+	 * Returns the values of the parameter segments of the request path by
+	 * parameter name, e.g., the segment that matched a resource named
+	 * <code>{id}</code> is stored under <code>id</code>.
+	 * 
+	 * @return the parameters or null if the path has no parameter segments
+	 */
+	public Map<String, String> getPathParameters() {
+		return pathParameters;
+	}
+
+	/**
+	 * Sets the values of the parameter segments of the request path.
+	 * 
+	 * @param pathParameters the parameters or null
+	 */
+	public void setPathParameters(Map<String, String> pathParameters) {
+		this.pathParameters = pathParameters;
+	}
+	
+	/**
+	 * Returns the sink that has received the body of the request if the body
+	 * has been streamed block by block instead of being assembled.
+	 * 
+	 * @return the sink or null if the request carries its payload
+	 */
+	public BodySink getBodySink() {
+		return bodySink;
+	}
+	
+	/**
+	 * Sets the sink that has received the body of the request.
+	 * 
+	 * @param bodySink the sink
+	 */
+	public void setBodySink(BodySink bodySink) {
+		this.bodySink = bodySink;
+	}
 	
 	/**
 	 * This class is used by the matcher to remember a message by its MID and
@@ -0,0 +1,63 @@
+package ch.ethz.inf.vs.californium.network;
+
+import java.net.InetAddress;
+
+/**
+ * An ExchangeStore holds the exchanges the {@link Matcher} has to find again
+ * when a message arrives: exchanges by the MID of an outgoing message (to
+ * match ACKs and RSTs), by the token of an outgoing request (to match
+ * responses), and ongoing blockwise exchanges by the URI of the request. Each
+ * key is qualified by the address and port of the peer.
+ * <p>
+ * All methods must be thread-safe. The put methods return the exchange that
+ * has previously been associated with the key or null.
+ * 
+ * @see HashMapExchangeStore
+ * @see PackedExchangeStore
+ */
+public interface ExchangeStore {
+
+	public Exchange putByMID(int mid, InetAddress address, int port, Exchange exchange);
+
+	public Exchange getByMID(int mid, InetAddress address, int port);
+
+	public Exchange removeByMID(int mid, InetAddress address, int port);
+
+	public Exchange putByToken(byte[] token, InetAddress address, int port, Exchange exchange);
+
+	public Exchange getByToken(byte[] token, InetAddress address, int port);
+
+	public Exchange removeByToken(byte[] token, InetAddress address, int port);
+
+	public Exchange putOngoing(String uri, InetAddress address, int port, Exchange exchange);
+
+	public Exchange getOngoing(String uri, InetAddress address, int port);
+
+	public Exchange removeOngoing(String uri, InetAddress address, int port);
+
+	/**
+	 * Returns the number of exchanges stored by MID.
+	 * 
+	 * @return the number of exchanges by MID
+	 */
+	public int getMIDCount();
+
+	/**
+	 * Returns the number of exchanges stored by token.
+	 * 
+	 * @return the number of exchanges by token
+	 */
+	public int getTokenCount();
+
+	/**
+	 * Returns the number of ongoing blockwise exchanges.
+	 * 
+	 * @return the number of ongoing exchanges
+	 */
+	public int getOngoingCount();
+
+	/**
+	 * Removes all exchanges from this store.
+	 */
+	public void clear();
+}
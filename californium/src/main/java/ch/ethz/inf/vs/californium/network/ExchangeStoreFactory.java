@@ -0,0 +1,54 @@
+package ch.ethz.inf.vs.californium.network;
+
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+
+/**
+ * The exchange store factory creates the exchange store for a {@link Matcher}.
+ * If a server wants to use another exchange store than the two standard
+ * stores, it can create its own factory and install it with
+ * {@link #setExchangeStoreFactory(ExchangeStoreFactory)}.
+ */
+public class ExchangeStoreFactory {
+
+	/** The logger. */
+	private static final Logger LOGGER = Logger.getLogger(ExchangeStoreFactory.class.getCanonicalName());
+
+	/** The factory. */
+	private static ExchangeStoreFactory factory;
+
+	/**
+	 * Returns the installed exchange store factory.
+	 * @return the exchange store factory
+	 */
+	public static ExchangeStoreFactory getExchangeStoreFactory() {
+		if (factory == null) factory = new ExchangeStoreFactory();
+		return factory;
+	}
+
+	/**
+	 * Installs the specified exchange store factory.
+	 * @param factory the factory
+	 */
+	public static void setExchangeStoreFactory(ExchangeStoreFactory factory) {
+		ExchangeStoreFactory.factory = factory;
+	}
+
+	/**
+	 * Creates a new exchange store according to the specified configuration.
+	 * @param config the configuration
+	 * @return the exchange store
+	 */
+	public ExchangeStore createExchangeStore(NetworkConfig config) {
+		String type = config.getString(NetworkConfigDefaults.EXCHANGE_STORE);
+		if (NetworkConfigDefaults.EXCHANGE_STORE_HASH_MAP.equals(type)) return new HashMapExchangeStore();
+		else if (NetworkConfigDefaults.EXCHANGE_STORE_PACKED.equals(type)) return new PackedExchangeStore();
+		else {
+			LOGGER.warning("Unknown exchange store type: " + type);
+			return new HashMapExchangeStore();
+		}
+	}
+
+}
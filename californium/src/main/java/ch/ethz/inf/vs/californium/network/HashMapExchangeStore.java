@@ -0,0 +1,93 @@
+package ch.ethz.inf.vs.californium.network;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyToken;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyUri;
+
+/**
+ * This exchange store keeps the exchanges in three concurrent hash maps with
+ * {@link KeyMID}, {@link KeyToken} and {@link KeyUri} objects as keys. It
+ * works for any address and token length.
+ */
+public class HashMapExchangeStore implements ExchangeStore {
+
+	private final ConcurrentHashMap<KeyMID, Exchange> exchangesByMID;
+	private final ConcurrentHashMap<KeyToken, Exchange> exchangesByToken;
+	private final ConcurrentHashMap<KeyUri, Exchange> ongoingExchanges;
+
+	public HashMapExchangeStore() {
+		this.exchangesByMID = new ConcurrentHashMap<KeyMID, Exchange>();
+		this.exchangesByToken = new ConcurrentHashMap<KeyToken, Exchange>();
+		this.ongoingExchanges = new ConcurrentHashMap<KeyUri, Exchange>();
+	}
+
+	@Override
+	public Exchange putByMID(int mid, InetAddress address, int port, Exchange exchange) {
+		return exchangesByMID.put(new KeyMID(mid, address.getAddress(), port), exchange);
+	}
+
+	@Override
+	public Exchange getByMID(int mid, InetAddress address, int port) {
+		return exchangesByMID.get(new KeyMID(mid, address.getAddress(), port));
+	}
+
+	@Override
+	public Exchange removeByMID(int mid, InetAddress address, int port) {
+		return exchangesByMID.remove(new KeyMID(mid, address.getAddress(), port));
+	}
+
+	@Override
+	public Exchange putByToken(byte[] token, InetAddress address, int port, Exchange exchange) {
+		return exchangesByToken.put(new KeyToken(token, address.getAddress(), port), exchange);
+	}
+
+	@Override
+	public Exchange getByToken(byte[] token, InetAddress address, int port) {
+		return exchangesByToken.get(new KeyToken(token, address.getAddress(), port));
+	}
+
+	@Override
+	public Exchange removeByToken(byte[] token, InetAddress address, int port) {
+		return exchangesByToken.remove(new KeyToken(token, address.getAddress(), port));
+	}
+
+	@Override
+	public Exchange putOngoing(String uri, InetAddress address, int port, Exchange exchange) {
+		return ongoingExchanges.put(new KeyUri(uri, address.getAddress(), port), exchange);
+	}
+
+	@Override
+	public Exchange getOngoing(String uri, InetAddress address, int port) {
+		return ongoingExchanges.get(new KeyUri(uri, address.getAddress(), port));
+	}
+
+	@Override
+	public Exchange removeOngoing(String uri, InetAddress address, int port) {
+		return ongoingExchanges.remove(new KeyUri(uri, address.getAddress(), port));
+	}
+
+	@Override
+	public void clear() {
+		exchangesByMID.clear();
+		exchangesByToken.clear();
+		ongoingExchanges.clear();
+	}
+
+	@Override
+	public int getMIDCount() {
+		return exchangesByMID.size();
+	}
+
+	@Override
+	public int getTokenCount() {
+		return exchangesByToken.size();
+	}
+
+	@Override
+	public int getOngoingCount() {
+		return ongoingExchanges.size();
+	}
+}
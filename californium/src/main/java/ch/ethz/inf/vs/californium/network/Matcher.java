@@ -1,9 +1,10 @@
 package ch.ethz.inf.vs.californium.network;
 
+import java.net.InetAddress;
 import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import ch.ethz.inf.vs.californium.coap.CoAP.Type;
@@ -11,19 +12,28 @@ import ch.ethz.inf.vs.californium.coap.EmptyMessage;
 import ch.ethz.inf.vs.californium.coap.Message;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.metrics.Counter;
+import ch.ethz.inf.vs.californium.metrics.Metrics;
 import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
-import ch.ethz.inf.vs.californium.network.Exchange.KeyToken;
-import ch.ethz.inf.vs.californium.network.Exchange.KeyUri;
 import ch.ethz.inf.vs.californium.network.Exchange.Origin;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.deduplication.CompactDeduplicator;
 import ch.ethz.inf.vs.californium.network.deduplication.Deduplicator;
 import ch.ethz.inf.vs.californium.network.deduplication.DeduplicatorFactory;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
+import ch.ethz.inf.vs.californium.network.trace.TraceEvent;
+import ch.ethz.inf.vs.californium.network.trace.Tracing;
 
 public class Matcher {
 
 	private final static Logger LOGGER = Logger.getLogger(Matcher.class.getCanonicalName());
 	
+	private final static Counter DUPLICATE_REQUESTS = Metrics.counter("matcher.duplicate_requests");
+	private final static Counter DUPLICATE_RESPONSES = Metrics.counter("matcher.duplicate_responses");
+	private final static Counter UNKNOWN_RESPONSES = Metrics.counter("matcher.unknown_responses");
+	private final static Counter UNMATCHED_EMPTY_MESSAGES = Metrics.counter("matcher.unmatched_empty_messages");
+	
 	private boolean started;
 	private ExchangeObserver exchangeObserver = new ExchangeObserverImpl();
 	
@@ -33,23 +43,26 @@ public class Matcher {
 	// TODO: Make per endpoint
 	private AtomicInteger currendMID; 
 	
-	private ConcurrentHashMap<KeyMID, Exchange> exchangesByMID; // Outgoing
-	private ConcurrentHashMap<KeyToken, Exchange> exchangesByToken;
-	
-	private ConcurrentHashMap<KeyUri, Exchange> ongoingExchanges; // for blockwise
+	// Outgoing exchanges by MID and token, ongoing exchanges by URI for blockwise
+	private final ExchangeStore exchangeStore;
 	
 	// TODO: Multicast Exchanges: should not be removed from deduplicator
 	private Deduplicator deduplicator;
-	// Idea: Only store acks/rsts and not the whole exchange. Responses should be sent CON.
+	// Only stores acks/rsts and not the whole exchange if configured
+	private CompactDeduplicator compactDeduplicator;
 	
 	public Matcher(NetworkConfig config) {
+		this(config, ExchangeStoreFactory.getExchangeStoreFactory().createExchangeStore(config));
+	}
+	
+	public Matcher(NetworkConfig config, ExchangeStore exchangeStore) {
 		this.started = false;
-		this.exchangesByMID = new ConcurrentHashMap<KeyMID, Exchange>();
-		this.exchangesByToken = new ConcurrentHashMap<KeyToken, Exchange>();
-		this.ongoingExchanges = new ConcurrentHashMap<KeyUri, Exchange>();
+		this.exchangeStore = exchangeStore;
 
 		DeduplicatorFactory factory = DeduplicatorFactory.getDeduplicatorFactory();
 		this.deduplicator = factory.createDeduplicator(config);
+		if (deduplicator instanceof CompactDeduplicator)
+			this.compactDeduplicator = (CompactDeduplicator) deduplicator;
 		
 		if (config.getBoolean(NetworkConfigDefaults.USE_RANDOM_MID_START))
 			currendMID = new AtomicInteger(new Random().nextInt(1<<16));
@@ -76,6 +89,10 @@ public class Matcher {
 		this.executor = executor;
 	}
 	
+	public synchronized void setTimer(Timer timer) {
+		deduplicator.setTimer(timer);
+	}
+	
 	public void sendRequest(Exchange exchange, Request request) {
 		if (request.getMID() == Message.NONE)
 			request.setMID(currendMID.getAndIncrement()%(1<<16));
@@ -87,17 +104,14 @@ public class Matcher {
 		 * If this request goes lost, we do not get anything back.
 		 */
 		
-		KeyMID idByMID = new KeyMID(request.getMID(), 
-				request.getDestination().getAddress(), request.getDestinationPort());
-		KeyToken idByTok = new KeyToken(request.getToken(),
-				request.getDestination().getAddress(), request.getDestinationPort());
-		
 		exchange.setObserver(exchangeObserver);
 		
-		LOGGER.fine("Stored open request by "+idByMID+", "+idByTok);
+		if (LOGGER.isLoggable(Level.FINE))
+			LOGGER.fine("Stored open request by MID "+request.getMID()+" and token "+request.getTokenString()
+					+" for "+request.getDestination()+":"+request.getDestinationPort());
 		
-		exchangesByMID.put(idByMID, exchange);
-		exchangesByToken.put(idByTok, exchange);
+		exchangeStore.putByMID(request.getMID(), request.getDestination(), request.getDestinationPort(), exchange);
+		exchangeStore.putByToken(request.getToken(), request.getDestination(), request.getDestinationPort(), exchange);
 	}
 
 	public void sendResponse(Exchange exchange, Response response) {
@@ -120,21 +134,19 @@ public class Matcher {
 			throw new NullPointerException("Response hsa no destination port set");
 		
 		// Insert CON and NON to match ACKs and RSTs to the exchange
-		KeyMID idByMID = new KeyMID(response.getMID(), 
-				response.getDestination().getAddress(), response.getDestinationPort());
-		exchangesByMID.put(idByMID, exchange);
+		exchangeStore.putByMID(response.getMID(), response.getDestination(), response.getDestinationPort(), exchange);
 		
 		if (response.getOptions().hasBlock2()) {
 			Request request = exchange.getRequest();
-			KeyUri idByUri = new KeyUri(request.getURI(),
-					response.getDestination().getAddress(), response.getDestinationPort());
 			if (exchange.getResponseBlockStatus()!=null && !response.getOptions().hasObserve()) {
 				// Remember ongoing blockwise GET requests
-				LOGGER.fine("Ongoing Block2 started, storing "+idByUri + "\nOngoing " + request + "\nOngoing " + response);
-				ongoingExchanges.put(idByUri, exchange);
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Ongoing Block2 started, storing "+request.getURI() + "\nOngoing " + request + "\nOngoing " + response);
+				exchangeStore.putOngoing(request.getURI(), response.getDestination(), response.getDestinationPort(), exchange);
 			} else {
-				LOGGER.fine("Ongoing Block2 completed, cleaning up "+idByUri + "\nOngoing " + request + "\nOngoing " + response);
-				ongoingExchanges.remove(idByUri);
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Ongoing Block2 completed, cleaning up "+request.getURI() + "\nOngoing " + request + "\nOngoing " + response);
+				exchangeStore.removeOngoing(request.getURI(), response.getDestination(), response.getDestinationPort());
 			}
 		}
 		
@@ -160,6 +172,59 @@ public class Matcher {
 			LOGGER.severe("Empy message "+ message+" has no MID // debugging");
 	}
 
+	/**
+	 * Records the serialized reply to an incoming request if the deduplicator
+	 * keeps compact records of replies instead of exchanges. The endpoint
+	 * calls this method after it has serialized an ACK, RST or response that
+	 * belongs to an exchange.
+	 * 
+	 * @param exchange the exchange
+	 * @param bytes the serialized reply
+	 */
+	public void sentReply(Exchange exchange, byte[] bytes) {
+		if (compactDeduplicator == null || exchange == null || exchange.getOrigin() != Origin.REMOTE)
+			return;
+		Request request = exchange.getCurrentRequest();
+		if (request == null || request.getSource() == null)
+			return;
+		KeyMID idByMID = new KeyMID(request.getMID(), request.getSource().getAddress(), request.getSourcePort());
+		compactDeduplicator.replied(idByMID, exchange, bytes);
+	}
+	
+	/**
+	 * Returns the recorded reply to the incoming message with the specified
+	 * MID from the specified peer or null. Replies are only recorded if the
+	 * deduplicator keeps compact records.
+	 * 
+	 * @param mid the MID of the incoming message
+	 * @param address the address of the peer
+	 * @param port the port of the peer
+	 * @return the serialized reply or null
+	 */
+	public byte[] findReply(int mid, InetAddress address, int port) {
+		if (compactDeduplicator == null)
+			return null;
+		return compactDeduplicator.findReply(new KeyMID(mid, address.getAddress(), port));
+	}
+
+	/**
+	 * Marks the specified request as duplicate if the deduplicator already
+	 * knows its MID. The endpoint calls this before the interceptors see the
+	 * request, so that they can tell retransmissions of accepted requests from
+	 * new ones. The request is not added to the deduplicator.
+	 * 
+	 * @param request the incoming request
+	 * @return true if the request is a duplicate
+	 */
+	public boolean checkDuplicate(Request request) {
+		KeyMID idByMID = new KeyMID(request.getMID(), request.getSource().getAddress(), request.getSourcePort());
+		if (deduplicator.find(idByMID) != null) {
+			request.setDuplicate(true);
+			return true;
+		}
+		return false;
+	}
+
 	public Exchange receiveRequest(Request request) {
 		/*
 		 * This request could be
@@ -189,24 +254,28 @@ public class Matcher {
 				return exchange;
 				
 			} else {
-				LOGGER.info("Message is a duplicate, ignore: "+request);
+				if (LOGGER.isLoggable(Level.INFO))
+					LOGGER.info("Message is a duplicate, ignore: "+request);
 				request.setDuplicate(true);
+				DUPLICATE_REQUESTS.increment();
 				return previous;
 			}
 			
 		} else {
 			
-			KeyUri idByUri = new KeyUri(request.getURI(),
-					request.getSource().getAddress(), request.getSourcePort());
+			String uri = request.getURI();
 			
-			LOGGER.fine("Lookup ongoing exchange for "+idByUri);
-			Exchange ongoing = ongoingExchanges.get(idByUri);
+			if (LOGGER.isLoggable(Level.FINE))
+				LOGGER.fine("Lookup ongoing exchange for "+uri);
+			Exchange ongoing = exchangeStore.getOngoing(uri, request.getSource(), request.getSourcePort());
 			if (ongoing != null) {
 				
 				Exchange prev = deduplicator.findPrevious(idByMID, ongoing);
 				if (prev != null) {
-					LOGGER.info("Message is a duplicate: "+request);
+					if (LOGGER.isLoggable(Level.INFO))
+						LOGGER.info("Message is a duplicate: "+request);
 					request.setDuplicate(true);
+					DUPLICATE_REQUESTS.increment();
 				}
 				return ongoing;
 		
@@ -222,13 +291,16 @@ public class Matcher {
 				
 				Exchange exchange = new Exchange(request, Origin.REMOTE);
 				Exchange previous = deduplicator.findPrevious(idByMID, exchange);
-				LOGGER.fine("New ongoing exchange for remote Block1 request with key "+idByUri);
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("New ongoing exchange for remote Block1 request with URI "+uri);
 				if (previous == null) {
-					ongoingExchanges.put(idByUri, exchange);
+					exchangeStore.putOngoing(uri, request.getSource(), request.getSourcePort(), exchange);
 					return exchange;
 				} else {
-					LOGGER.info("Message is a duplicate: "+request);
+					if (LOGGER.isLoggable(Level.INFO))
+						LOGGER.info("Message is a duplicate: "+request);
 					request.setDuplicate(true);
+					DUPLICATE_REQUESTS.increment();
 					return previous;
 				}
 			} // if ongoing
@@ -244,24 +316,25 @@ public class Matcher {
 		 * 		=> resend ACK
 		 */
 
-		KeyMID idByMID = new KeyMID(response.getMID(), 
-				response.getSource().getAddress(), response.getSourcePort());
-		
-		KeyToken idByTok = new KeyToken(response.getToken(), 
-				response.getSource().getAddress(), response.getSourcePort());
-		
-		Exchange exchange = exchangesByToken.get(idByTok);
+		Exchange exchange = exchangeStore.getByToken(response.getToken(), 
+				response.getSource(), response.getSourcePort());
 		
 		if (exchange != null) {
 			// There is an exchange with the given token
 			
+			KeyMID idByMID = new KeyMID(response.getMID(), 
+					response.getSource().getAddress(), response.getSourcePort());
+			
 			Exchange prev = deduplicator.findPrevious(idByMID, exchange);
 			if (prev != null) { // (and thus it holds: prev == exchange)
-				LOGGER.fine("Duplicate response "+response);
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Duplicate response "+response);
 				response.setDuplicate(true);
+				DUPLICATE_RESPONSES.increment();
 			} else {
-				LOGGER.fine("Exchange got reply: Cleaning up "+idByMID);
-				exchangesByMID.remove(idByMID);
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Exchange got reply: Cleaning up "+idByMID);
+				exchangeStore.removeByMID(response.getMID(), response.getSource(), response.getSourcePort());
 			}
 			
 			if (response.getType() == Type.ACK && exchange.getCurrentRequest().getMID() != response.getMID()) {
@@ -276,8 +349,10 @@ public class Matcher {
 			
 		} else {
 			// There is no exchange with the given token.
+			UNKNOWN_RESPONSES.increment();
 			if (response.getType() != Type.ACK) {
-				LOGGER.info("Response with unknown Token "+idByTok+": Rejecting "+response);
+				if (LOGGER.isLoggable(Level.INFO))
+					LOGGER.info("Response with unknown Token "+response.getTokenString()+": Rejecting "+response);
 				// This is a totally unexpected response.
 				EmptyMessage rst = EmptyMessage.newRST(response);
 				sendEmptyMessage(exchange, rst);
@@ -289,54 +364,67 @@ public class Matcher {
 
 	public Exchange receiveEmptyMessage(EmptyMessage message) {
 		
-		KeyMID idByMID = new KeyMID(message.getMID(),
-				message.getSource().getAddress(), message.getSourcePort());
-		
-		Exchange exchange = exchangesByMID.get(idByMID);
+		Exchange exchange = exchangeStore.removeByMID(message.getMID(),
+				message.getSource(), message.getSourcePort());
 		
 		if (exchange != null) {
-			LOGGER.fine("Exchange got reply: Cleaning up "+idByMID);
-			exchangesByMID.remove(idByMID);
+			if (LOGGER.isLoggable(Level.FINE))
+				LOGGER.fine("Exchange got reply: Cleaned up MID "+message.getMID());
 			return exchange;
 		} else {
-			LOGGER.info("Matcher received empty message that does not match any exchange: "+message);
+			if (LOGGER.isLoggable(Level.INFO))
+				LOGGER.info("Matcher received empty message that does not match any exchange: "+message);
+			UNMATCHED_EMPTY_MESSAGES.increment();
 			// ignore message;
 			return null;
 		} // else, this is an ACK for an unknown exchange and we ignore it
 	}
 	
 	public void clear() {
-		this.exchangesByMID.clear();
-		this.exchangesByToken.clear();
-		this.ongoingExchanges.clear();
+		this.exchangeStore.clear();
 		deduplicator.clear();
 	}
 	
+	/**
+	 * Gets the store of the exchanges this matcher looks up.
+	 *
+	 * @return the exchange store
+	 */
+	public ExchangeStore getExchangeStore() {
+		return exchangeStore;
+	}
+	
+	/**
+	 * Gets the deduplicator of incoming messages.
+	 *
+	 * @return the deduplicator
+	 */
+	public Deduplicator getDeduplicator() {
+		return deduplicator;
+	}
+	
 	private class ExchangeObserverImpl implements ExchangeObserver {
 
 		@Override
 		public void completed(Exchange exchange) {
 			
+			Tracing.trace(TraceEvent.EXCHANGE_COMPLETED, null, exchange);
+			
 			if (exchange.getOrigin() == Origin.LOCAL) {
 				// this endpoint created the Exchange by issuing a request
 				Request request = exchange.getRequest();
-				KeyToken idByTok = new KeyToken(exchange.getCurrentRequest().getToken(), request.getDestination().getAddress(), request.getDestinationPort());
-				KeyMID idByMID = new KeyMID(request.getMID(), request.getDestination().getAddress(), request.getDestinationPort());
+				byte[] token = exchange.getCurrentRequest().getToken();
 				
-				LOGGER.fine("Exchange completed: Cleaning up "+idByTok);
-				exchangesByToken.remove(idByTok);
+				exchangeStore.removeByToken(token, request.getDestination(), request.getDestinationPort());
 				// in case an empty ACK was lost
-				exchangesByMID.remove(idByMID);
+				exchangeStore.removeByMID(request.getMID(), request.getDestination(), request.getDestinationPort());
 			
 			} else {
 				// this endpoint created the Exchange to respond a request
 				Request request = exchange.getCurrentRequest();
 				if (request != null) {
 					// TODO: We can optimize this and only do it, when the request really had blockwise transfer
-					KeyUri uriKey = new KeyUri(request.getURI(),
-							request.getSource().getAddress(), request.getSourcePort());
-					LOGGER.warning("++++++++++++++++++Remote ongoing completed, cleaning up "+uriKey);
-					ongoingExchanges.remove(uriKey);
+					exchangeStore.removeOngoing(request.getURI(), request.getSource(), request.getSourcePort());
 				}
 				// TODO: What if the request is only a block?
 				// TODO: This should only happen if the transfer was blockwise
@@ -344,10 +432,7 @@ public class Matcher {
 				Response response = exchange.getResponse();
 				if (response != null) {
 					// only response MIDs are stored for ACK and RST, no reponse Tokens
-					KeyMID midKey = new KeyMID(response.getMID(), 
-							response.getDestination().getAddress(), response.getDestinationPort());
-					LOGGER.warning("++++++++++++++++++Remote ongoing completed, cleaning up "+midKey);
-					exchangesByMID.remove(midKey);
+					exchangeStore.removeByMID(response.getMID(), response.getDestination(), response.getDestinationPort());
 				}
 			}
 		}
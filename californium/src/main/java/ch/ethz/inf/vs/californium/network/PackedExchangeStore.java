@@ -0,0 +1,236 @@
+package ch.ethz.inf.vs.californium.network;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyToken;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyUri;
+
+/**
+ * This exchange store packs the keys of IPv4 peers into primitives and keeps
+ * the exchanges in {@link PackedKeyMap}s. Matching a message from an IPv4 peer
+ * therefore allocates no key objects and computes no array hash codes.
+ * <p>
+ * A MID key consists of the IPv4 address, the port and the MID, which together
+ * fit into one long. A token key consists of the IPv4 address and the token in
+ * one long and the port and token length in one int. This works for tokens of
+ * up to {@value #MAX_PACKED_TOKEN_LENGTH} bytes, which covers the tokens
+ * generated by the {@link ch.ethz.inf.vs.californium.network.stack.TokenLayer}.
+ * The IPv4 address is taken from {@link Inet4Address#hashCode()}, which is the
+ * address as an int, so that packing a key does not clone the address either.
+ * Keys of IPv6 peers and longer tokens fall back to {@link KeyMID} and
+ * {@link KeyToken} objects in concurrent hash maps.
+ * <p>
+ * Ongoing blockwise exchanges of IPv4 peers are keyed by the address, the
+ * port and the hash code of the URI. Entries with the same key form an
+ * immutable chain that is searched for the URI, so that a lookup allocates
+ * nothing. Ongoing exchanges of IPv6 peers use {@link KeyUri} objects.
+ */
+public class PackedExchangeStore implements ExchangeStore {
+
+	/** The maximum length of a token that is packed into a primitive key */
+	public static final int MAX_PACKED_TOKEN_LENGTH = 4;
+
+	private final PackedKeyMap<Exchange> exchangesByMID;
+	private final PackedKeyMap<Exchange> exchangesByToken;
+
+	// Fallback for IPv6 peers and long tokens
+	private final ConcurrentHashMap<KeyMID, Exchange> otherExchangesByMID;
+	private final ConcurrentHashMap<KeyToken, Exchange> otherExchangesByToken;
+
+	private final PackedKeyMap<Ongoing> ongoingExchanges;
+	private final ConcurrentHashMap<KeyUri, Exchange> otherOngoingExchanges;
+
+	/** The number of ongoing exchanges of IPv4 peers, guarded by ongoingExchanges */
+	private int ongoingCount;
+
+	public PackedExchangeStore() {
+		this.exchangesByMID = new PackedKeyMap<Exchange>();
+		this.exchangesByToken = new PackedKeyMap<Exchange>();
+		this.otherExchangesByMID = new ConcurrentHashMap<KeyMID, Exchange>();
+		this.otherExchangesByToken = new ConcurrentHashMap<KeyToken, Exchange>();
+		this.ongoingExchanges = new PackedKeyMap<Ongoing>();
+		this.otherOngoingExchanges = new ConcurrentHashMap<KeyUri, Exchange>();
+	}
+
+	@Override
+	public Exchange putByMID(int mid, InetAddress address, int port, Exchange exchange) {
+		if (address instanceof Inet4Address)
+			return exchangesByMID.put(packMID(mid, address, port), 0, exchange);
+		else return otherExchangesByMID.put(new KeyMID(mid, address.getAddress(), port), exchange);
+	}
+
+	@Override
+	public Exchange getByMID(int mid, InetAddress address, int port) {
+		if (address instanceof Inet4Address)
+			return exchangesByMID.get(packMID(mid, address, port), 0);
+		else return otherExchangesByMID.get(new KeyMID(mid, address.getAddress(), port));
+	}
+
+	@Override
+	public Exchange removeByMID(int mid, InetAddress address, int port) {
+		if (address instanceof Inet4Address)
+			return exchangesByMID.remove(packMID(mid, address, port), 0);
+		else return otherExchangesByMID.remove(new KeyMID(mid, address.getAddress(), port));
+	}
+
+	@Override
+	public Exchange putByToken(byte[] token, InetAddress address, int port, Exchange exchange) {
+		if (isPackable(token, address))
+			return exchangesByToken.put(packToken(token, address), packPort(token, port), exchange);
+		else return otherExchangesByToken.put(new KeyToken(token, address.getAddress(), port), exchange);
+	}
+
+	@Override
+	public Exchange getByToken(byte[] token, InetAddress address, int port) {
+		if (isPackable(token, address))
+			return exchangesByToken.get(packToken(token, address), packPort(token, port));
+		else return otherExchangesByToken.get(new KeyToken(token, address.getAddress(), port));
+	}
+
+	@Override
+	public Exchange removeByToken(byte[] token, InetAddress address, int port) {
+		if (isPackable(token, address))
+			return exchangesByToken.remove(packToken(token, address), packPort(token, port));
+		else return otherExchangesByToken.remove(new KeyToken(token, address.getAddress(), port));
+	}
+
+	@Override
+	public Exchange putOngoing(String uri, InetAddress address, int port, Exchange exchange) {
+		if (!(address instanceof Inet4Address))
+			return otherOngoingExchanges.put(new KeyUri(uri, address.getAddress(), port), exchange);
+		long key = packPeer(address, port);
+		synchronized (ongoingExchanges) {
+			Ongoing head = ongoingExchanges.get(key, uri.hashCode());
+			Exchange previous = find(head, uri);
+			ongoingExchanges.put(key, uri.hashCode(), new Ongoing(uri, exchange, without(head, uri)));
+			if (previous == null)
+				ongoingCount++;
+			return previous;
+		}
+	}
+
+	@Override
+	public Exchange getOngoing(String uri, InetAddress address, int port) {
+		if (!(address instanceof Inet4Address))
+			return otherOngoingExchanges.get(new KeyUri(uri, address.getAddress(), port));
+		return find(ongoingExchanges.get(packPeer(address, port), uri.hashCode()), uri);
+	}
+
+	@Override
+	public Exchange removeOngoing(String uri, InetAddress address, int port) {
+		if (!(address instanceof Inet4Address))
+			return otherOngoingExchanges.remove(new KeyUri(uri, address.getAddress(), port));
+		long key = packPeer(address, port);
+		synchronized (ongoingExchanges) {
+			Ongoing head = ongoingExchanges.get(key, uri.hashCode());
+			Exchange previous = find(head, uri);
+			if (previous == null)
+				return null;
+			Ongoing rest = without(head, uri);
+			if (rest == null)
+				ongoingExchanges.remove(key, uri.hashCode());
+			else ongoingExchanges.put(key, uri.hashCode(), rest);
+			ongoingCount--;
+			return previous;
+		}
+	}
+
+	@Override
+	public void clear() {
+		exchangesByMID.clear();
+		exchangesByToken.clear();
+		otherExchangesByMID.clear();
+		otherExchangesByToken.clear();
+		synchronized (ongoingExchanges) {
+			ongoingExchanges.clear();
+			ongoingCount = 0;
+		}
+		otherOngoingExchanges.clear();
+	}
+
+	@Override
+	public int getMIDCount() {
+		return exchangesByMID.size() + otherExchangesByMID.size();
+	}
+
+	@Override
+	public int getTokenCount() {
+		return exchangesByToken.size() + otherExchangesByToken.size();
+	}
+
+	@Override
+	public int getOngoingCount() {
+		synchronized (ongoingExchanges) {
+			return ongoingCount + otherOngoingExchanges.size();
+		}
+	}
+
+	private static boolean isPackable(byte[] token, InetAddress address) {
+		return address instanceof Inet4Address && token.length <= MAX_PACKED_TOKEN_LENGTH;
+	}
+
+	// the hash code of an Inet4Address is the address itself
+	private static long packAddress(InetAddress address) {
+		return (address.hashCode() & 0xFFFFFFFFL) << 32;
+	}
+
+	// address (32 bits) | port (16 bits)
+	private static long packPeer(InetAddress address, int port) {
+		return packAddress(address) | (port & 0xFFFFL);
+	}
+
+	// address (32 bits) | port (16 bits) | MID (16 bits)
+	private static long packMID(int mid, InetAddress address, int port) {
+		return packAddress(address) | ((port & 0xFFFFL) << 16) | (mid & 0xFFFFL);
+	}
+
+	// address (32 bits) | token (up to 32 bits)
+	private static long packToken(byte[] token, InetAddress address) {
+		long bits = 0;
+		for (int i = 0; i < token.length; i++)
+			bits = (bits << 8) | (token[i] & 0xFF);
+		return packAddress(address) | bits;
+	}
+
+	// port (16 bits) | token length (8 bits), which tells apart tokens with leading zeros
+	private static int packPort(byte[] token, int port) {
+		return ((port & 0xFFFF) << 8) | token.length;
+	}
+
+	private static Exchange find(Ongoing head, String uri) {
+		for (Ongoing entry = head; entry != null; entry = entry.next)
+			if (entry.uri.equals(uri))
+				return entry.exchange;
+		return null;
+	}
+
+	// copies the chain without the entry of the URI
+	private static Ongoing without(Ongoing head, String uri) {
+		if (head == null)
+			return null;
+		if (head.uri.equals(uri))
+			return head.next;
+		Ongoing rest = without(head.next, uri);
+		return rest == head.next ? head : new Ongoing(head.uri, head.exchange, rest);
+	}
+
+	/*
+	 * An immutable entry of the chain of ongoing exchanges whose URIs have
+	 * the same hash code.
+	 */
+	private static final class Ongoing {
+
+		private final String uri;
+		private final Exchange exchange;
+		private final Ongoing next;
+
+		private Ongoing(String uri, Exchange exchange, Ongoing next) {
+			this.uri = uri;
+			this.exchange = exchange;
+			this.next = next;
+		}
+	}
+}
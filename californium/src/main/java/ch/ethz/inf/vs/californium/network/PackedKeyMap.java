@@ -0,0 +1,228 @@
+package ch.ethz.inf.vs.californium.network;
+
+/**
+ * A thread-safe hash map with keys that consist of a long and an int. Unlike a
+ * {@link java.util.concurrent.ConcurrentHashMap}, this map does not need key
+ * objects or entry objects. The map is divided into segments, each of which is
+ * an open-addressing table with linear probing that stores keys and values in
+ * parallel arrays and is guarded by its own lock. Removed entries are deleted
+ * by shifting the following entries of the probe sequence back, so that no
+ * tombstones accumulate.
+ * <p>
+ * Null values are not permitted.
+ *
+ * @param <V> the type of the values
+ */
+public class PackedKeyMap<V> {
+
+	/** The number of segments (a power of two) */
+	private static final int SEGMENTS = 16;
+	
+	/** The initial capacity of each segment (a power of two) */
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Segment[] segments;
+
+	/**
+	 * Constructs a new empty map.
+	 */
+	public PackedKeyMap() {
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * Returns the value to which the specified key is mapped or null.
+	 * 
+	 * @param key1 the first part of the key
+	 * @param key2 the second part of the key
+	 * @return the value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key1, int key2) {
+		long hash = hash(key1, key2);
+		return (V) segmentFor(hash).get(key1, key2, (int) hash);
+	}
+
+	/**
+	 * Maps the specified key to the specified value.
+	 * 
+	 * @param key1 the first part of the key
+	 * @param key2 the second part of the key
+	 * @param value the value
+	 * @return the value previously mapped to the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key1, int key2, V value) {
+		if (value == null)
+			throw new NullPointerException("Value must not be null");
+		long hash = hash(key1, key2);
+		return (V) segmentFor(hash).put(key1, key2, (int) hash, value);
+	}
+
+	/**
+	 * Removes the mapping of the specified key.
+	 * 
+	 * @param key1 the first part of the key
+	 * @param key2 the second part of the key
+	 * @return the value previously mapped to the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key1, int key2) {
+		long hash = hash(key1, key2);
+		return (V) segmentFor(hash).remove(key1, key2, (int) hash);
+	}
+
+	/**
+	 * Returns the number of mappings in this map.
+	 * 
+	 * @return the size
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment:segments)
+			size += segment.size();
+		return size;
+	}
+
+	/**
+	 * Removes all mappings from this map.
+	 */
+	public void clear() {
+		for (Segment segment:segments)
+			segment.clear();
+	}
+
+	private Segment segmentFor(long hash) {
+		// the low bits select the slot, the high bits select the segment
+		return segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+	}
+
+	/*
+	 * Spreads the bits of the key over the whole long (the finalizer of
+	 * MurmurHash3). Packed keys differ mostly in their low bits.
+	 */
+	private static long hash(long key1, int key2) {
+		long h = key1 ^ (key2 * 0x9E3779B97F4A7C15L);
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * A segment is an open-addressing table with linear probing. A slot is
+	 * empty if its value is null. The table is doubled when it becomes half
+	 * full.
+	 */
+	private static final class Segment {
+
+		private long[] keys1;
+		private int[] keys2;
+		private Object[] values;
+		private int size;
+
+		private Segment() {
+			allocate(INITIAL_CAPACITY);
+		}
+
+		private void allocate(int capacity) {
+			keys1 = new long[capacity];
+			keys2 = new int[capacity];
+			values = new Object[capacity];
+		}
+
+		private synchronized Object get(long key1, int key2, int hash) {
+			int mask = values.length - 1;
+			for (int i = hash & mask; values[i] != null; i = (i + 1) & mask) {
+				if (keys1[i] == key1 && keys2[i] == key2)
+					return values[i];
+			}
+			return null;
+		}
+
+		private synchronized Object put(long key1, int key2, int hash, Object value) {
+			int mask = values.length - 1;
+			int i = hash & mask;
+			for (; values[i] != null; i = (i + 1) & mask) {
+				if (keys1[i] == key1 && keys2[i] == key2) {
+					Object previous = values[i];
+					values[i] = value;
+					return previous;
+				}
+			}
+			keys1[i] = key1;
+			keys2[i] = key2;
+			values[i] = value;
+			if (++size * 2 > values.length)
+				resize();
+			return null;
+		}
+
+		private synchronized Object remove(long key1, int key2, int hash) {
+			int mask = values.length - 1;
+			int i = hash & mask;
+			for (; values[i] != null; i = (i + 1) & mask) {
+				if (keys1[i] == key1 && keys2[i] == key2) {
+					Object previous = values[i];
+					shiftBack(i);
+					size--;
+					return previous;
+				}
+			}
+			return null;
+		}
+
+		/*
+		 * Closes the hole at slot i by moving back each following entry of the
+		 * cluster whose ideal slot does not lie cyclically between the hole and
+		 * the entry itself.
+		 */
+		private void shiftBack(int i) {
+			int mask = values.length - 1;
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				if (values[j] == null)
+					break;
+				int ideal = (int) hash(keys1[j], keys2[j]) & mask;
+				if (((j - ideal) & mask) >= ((j - i) & mask)) {
+					keys1[i] = keys1[j];
+					keys2[i] = keys2[j];
+					values[i] = values[j];
+					i = j;
+				}
+			}
+			values[i] = null;
+		}
+
+		private void resize() {
+			long[] oldKeys1 = keys1;
+			int[] oldKeys2 = keys2;
+			Object[] oldValues = values;
+			allocate(oldValues.length * 2);
+			int mask = values.length - 1;
+			for (int k = 0; k < oldValues.length; k++) {
+				if (oldValues[k] == null) continue;
+				int i = (int) hash(oldKeys1[k], oldKeys2[k]) & mask;
+				while (values[i] != null)
+					i = (i + 1) & mask;
+				keys1[i] = oldKeys1[k];
+				keys2[i] = oldKeys2[k];
+				values[i] = oldValues[k];
+			}
+		}
+
+		private synchronized int size() {
+			return size;
+		}
+
+		private synchronized void clear() {
+			allocate(INITIAL_CAPACITY);
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package ch.ethz.inf.vs.californium.network;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A scheduled executor that consists of several single-threaded lanes. An
+ * endpoint that uses this executor runs all tasks that concern the same peer
+ * (address and port) on the same lane: receiving a message from the peer and
+ * sending a message to the peer. Messages of the same peer are therefore
+ * processed in order and the layers need no locks to protect the state of an
+ * exchange, while messages of different peers are processed in parallel.
+ * <p>
+ * Tasks that are executed or scheduled through the plain
+ * {@link ScheduledExecutorService} methods from a thread of a lane, run on
+ * that same lane. Timers of the layers, e.g., retransmissions, therefore fire
+ * on the lane that owns the exchange. Tasks from other threads are
+ * distributed over the lanes in a round-robin fashion.
+ */
+public class ShardedExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+	/** The lanes */
+	private final ScheduledThreadPoolExecutor[] lanes;
+	
+	/** The lane of the current thread if it belongs to this executor */
+	private final ThreadLocal<ScheduledExecutorService> currentLane;
+	
+	/** The next lane for tasks from other threads */
+	private final AtomicInteger next;
+	
+	/**
+	 * Constructs a new sharded executor with the specified number of lanes.
+	 * 
+	 * @param laneCount the number of lanes
+	 */
+	public ShardedExecutor(int laneCount) {
+		this(laneCount, Executors.defaultThreadFactory());
+	}
+	
+	/**
+	 * Constructs a new sharded executor with the specified number of lanes
+	 * whose threads are created by the specified thread factory.
+	 * 
+	 * @param laneCount the number of lanes
+	 * @param factory the thread factory
+	 */
+	public ShardedExecutor(int laneCount, ThreadFactory factory) {
+		if (laneCount < 1)
+			throw new IllegalArgumentException("Sharded executor needs at least one lane");
+		this.lanes = new ScheduledThreadPoolExecutor[laneCount];
+		this.currentLane = new ThreadLocal<ScheduledExecutorService>();
+		this.next = new AtomicInteger();
+		for (int i = 0; i < laneCount; i++)
+			lanes[i] = new ScheduledThreadPoolExecutor(1, new LaneThreadFactory(i, factory));
+	}
+	
+	/**
+	 * Returns the number of lanes.
+	 * 
+	 * @return the number of lanes
+	 */
+	public int getLaneCount() {
+		return lanes.length;
+	}
+	
+	/**
+	 * Returns the lane that owns the specified peer.
+	 * 
+	 * @param address the address of the peer
+	 * @param port the port of the peer
+	 * @return the lane
+	 */
+	public ScheduledExecutorService getLane(InetAddress address, int port) {
+		int hash = address.hashCode() * 31 + port;
+		hash ^= (hash >>> 16);
+		hash *= 0x85EBCA6B;
+		hash ^= (hash >>> 13);
+		return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+	}
+	
+	/**
+	 * Executes the specified task on the lane that owns the specified peer.
+	 * 
+	 * @param address the address of the peer
+	 * @param port the port of the peer
+	 * @param task the task
+	 */
+	public void execute(InetAddress address, int port, Runnable task) {
+		getLane(address, port).execute(task);
+	}
+	
+	/**
+	 * Returns true if the current thread is the thread of the lane that owns
+	 * the specified peer.
+	 * 
+	 * @param address the address of the peer
+	 * @param port the port of the peer
+	 * @return true if the current thread owns the peer
+	 */
+	public boolean isOwner(InetAddress address, int port) {
+		return currentLane.get() == getLane(address, port);
+	}
+	
+	/**
+	 * Returns the lane of the current thread or null if the current thread
+	 * does not belong to this executor.
+	 * 
+	 * @return the lane of the current thread or null
+	 */
+	public ScheduledExecutorService getCurrentLane() {
+		return currentLane.get();
+	}
+	
+	/*
+	 * Returns the lane of the current thread or the next lane if the current
+	 * thread does not belong to this executor.
+	 */
+	private ScheduledExecutorService lane() {
+		ScheduledExecutorService lane = currentLane.get();
+		if (lane != null)
+			return lane;
+		return lanes[(next.getAndIncrement() & Integer.MAX_VALUE) % lanes.length];
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		lane().execute(command);
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return lane().schedule(command, delay, unit);
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return lane().schedule(callable, delay, unit);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		return lane().scheduleAtFixedRate(command, initialDelay, period, unit);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		return lane().scheduleWithFixedDelay(command, initialDelay, delay, unit);
+	}
+
+	@Override
+	public void shutdown() {
+		for (ScheduledExecutorService lane:lanes)
+			lane.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (ScheduledExecutorService lane:lanes)
+			tasks.addAll(lane.shutdownNow());
+		return tasks;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		for (ScheduledExecutorService lane:lanes)
+			if (!lane.isShutdown()) return false;
+		return true;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		for (ScheduledExecutorService lane:lanes)
+			if (!lane.isTerminated()) return false;
+		return true;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (ScheduledExecutorService lane:lanes) {
+			long remaining = deadline - System.nanoTime();
+			if (!lane.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Creates the thread of a lane and makes it remember its lane.
+	 */
+	private class LaneThreadFactory implements ThreadFactory {
+		
+		private final int index;
+		private final ThreadFactory factory;
+		
+		private LaneThreadFactory(int index, ThreadFactory factory) {
+			this.index = index;
+			this.factory = factory;
+		}
+		
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			return factory.newThread(new Runnable() {
+				public void run() {
+					currentLane.set(lanes[index]);
+					runnable.run();
+				}
+			});
+		}
+	}
+}
@@ -5,9 +5,9 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -97,7 +97,10 @@ public class NetworkConfig {
 	/** The properties. */
 	private Properties properties;
 	
-	private List<NetworkConfigObserver> observers = new LinkedList<NetworkConfigObserver>();
+	private List<NetworkConfigObserver> observers = new CopyOnWriteArrayList<NetworkConfigObserver>();
+	
+	/** The typed snapshot of the values used in the per-message path. */
+	private volatile NetworkConfigSnapshot snapshot;
 	
 	/**
 	 * Instantiates a new network configiguration and sets the default values
@@ -116,7 +119,10 @@ public class NetworkConfig {
 	 */
 	public void load(File file) throws IOException {
 		InputStream inStream = new FileInputStream(file);
-		properties.load(inStream);
+		Properties loaded = new Properties();
+		loaded.load(inStream);
+		for (String key:loaded.stringPropertyNames())
+			setString(key, loaded.getProperty(key));
 	}
 	
 	/**
@@ -354,6 +360,24 @@ public class NetworkConfig {
 		return this;
 	}
 	
+	/**
+	 * Returns the typed snapshot of this configuration. The snapshot holds the
+	 * pre-parsed values that are read for every message and is kept up to
+	 * date when they change. Components in the per-message path should read
+	 * from the snapshot instead of calling the getters of this class.
+	 * 
+	 * @return the snapshot
+	 */
+	public NetworkConfigSnapshot getSnapshot() {
+		if (snapshot == null) {
+			synchronized (this) {
+				if (snapshot == null)
+					snapshot = new NetworkConfigSnapshot(this);
+			}
+		}
+		return snapshot;
+	}
+	
 	public NetworkConfig addConfigObserver(NetworkConfigObserver observer) {
 		observers.add(observer);
 		return this;
@@ -1,5 +1,6 @@
 package ch.ethz.inf.vs.californium.network.config;
 
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
 import ch.ethz.inf.vs.californium.network.EndpointManager;
 import ch.ethz.inf.vs.elements.UDPConnector;
 
@@ -24,27 +25,65 @@ public class NetworkConfigDefaults {
 	public static final String ACK_RANDOM_FACTOR = "ACK_RANDOM_FACTOR";
 	public static final String ACK_TIMEOUT_SCALE = "ACK_TIMEOUT_SCALE";
 	public static final String NSTART = "NSTART";
+	public static final String USE_CONGESTION_CONTROL = "USE_CONGESTION_CONTROL";
 	public static final String DEFAULT_LEISURE = "DEFAULT_LEISURE";
 	public static final String PROBING_RATE = "PROBING_RATE";
 	public static final String MAX_MESSAGE_SIZE = "MAX_MESSAGE_SIZE";
 	public static final String DEFAULT_BLOCK_SIZE = "DEFAULT_BLOCK_SIZE";
+	public static final String BLOCKWISE_MAX_BODY_SIZE = "BLOCKWISE_MAX_BODY_SIZE";
+	public static final String BLOCKWISE_MAX_TOTAL_SIZE = "BLOCKWISE_MAX_TOTAL_SIZE";
+	public static final String BLOCKWISE_IDLE_TIMEOUT = "BLOCKWISE_IDLE_TIMEOUT";
+	public static final String BLOCKWISE_CACHE_SIZE = "BLOCKWISE_CACHE_SIZE";
+	public static final String BLOCKWISE_BLOCK1_WINDOW = "BLOCKWISE_BLOCK1_WINDOW";
 	public static final String NOTIFICATION_MAX_AGE = "NOTIFICATION_MAX_AGE";
 	public static final String NOTIFICATION_CHECK_INTERVAL_TIME = "NOTIFICATION_CHECK_INTERVAL";
 	public static final String NOTIFICATION_CHECK_INTERVAL_COUNT = "NOTIFICATION_CHECK_INTERVAL_COUNT";
 	public static final String NOTIFICATION_REREGISTRATION_BACKOFF = "NOTIFICATION_REREGISTRATION_BACKOFF";
+	public static final String MAX_OBSERVE_RELATIONS = "MAX_OBSERVE_RELATIONS";
+	public static final String OBSERVE_REJECTION_POLICY = "OBSERVE_REJECTION_POLICY";
+	public static final String OBSERVE_REJECT_NEW = "OBSERVE_REJECT_NEW";
+	public static final String OBSERVE_CANCEL_OLDEST = "OBSERVE_CANCEL_OLDEST";
 	public static final String DEDUPLICATOR = "DEDUPLICATOR";
 	public static final String DEDUPLICATOR_MARK_AND_SWEEP = "DEDUPLICATOR_MARK_AND_SWEEP";
 	public static final String DEDUPLICATOR_CROP_ROTATION = "DEDUPLICATOR_CROP_ROTATIO";
+	public static final String DEDUPLICATOR_TIMING_WHEEL = "DEDUPLICATOR_TIMING_WHEEL";
+	public static final String DEDUPLICATOR_COMPACT = "DEDUPLICATOR_COMPACT";
 	public static final String NO_DEDUPLICATOR = "NO_DEDUPLICATOR";
 	public static final String MARK_AND_SWEEP_INTERVAL = "MARK_AND_SWEEP_INTERVAL";
 	public static final String CROP_ROTATION_PERIOD = "CROP_ROTATION_PERIOD";
+	public static final String TIMING_WHEEL_TICK = "TIMING_WHEEL_TICK";
+	public static final String COMPACT_DEDUPLICATOR_MAX_ENTRIES = "COMPACT_DEDUPLICATOR_MAX_ENTRIES";
+	public static final String COMPACT_DEDUPLICATOR_MAX_BYTES = "COMPACT_DEDUPLICATOR_MAX_BYTES";
+	public static final String EXCHANGE_STORE = "EXCHANGE_STORE";
+	public static final String EXCHANGE_STORE_HASH_MAP = "EXCHANGE_STORE_HASH_MAP";
+	public static final String EXCHANGE_STORE_PACKED = "EXCHANGE_STORE_PACKED";
 	public static final String EXCHANGE_LIFECYCLE = "EXCHANGE_LIFECYCLE";
 	public static final String MAX_RETRANSMIT = "MAX_RETRANSMIT";
 	public static final String DEFAULT_ENDPOINT_THREAD_COUNT = "DEFAULT_ENDPOINT_THREAD_COUNT";
+	public static final String CLIENT_CALLBACK_THREAD_COUNT = "CLIENT_CALLBACK_THREAD_COUNT";
+	public static final String CLIENT_CALLBACK_QUEUE_CAPACITY = "CLIENT_CALLBACK_QUEUE_CAPACITY";
 	public static final String SERVER_THRESD_NUMER = "SERVER_THRESD_NUMER";
+	public static final String USE_SHARDED_EXECUTOR = "USE_SHARDED_EXECUTOR";
+	public static final String RESOURCE_EXECUTOR_CAPACITY = "RESOURCE_EXECUTOR_CAPACITY";
+	public static final String ADMISSION_MAX_QUEUE = "ADMISSION_MAX_QUEUE";
+	public static final String ADMISSION_SOURCE_RATE = "ADMISSION_SOURCE_RATE";
+	public static final String ADMISSION_SOURCE_BURST = "ADMISSION_SOURCE_BURST";
+	public static final String ADMISSION_RESET_CON = "ADMISSION_RESET_CON";
+	public static final String RATE_LIMIT_RATE = "RATE_LIMIT_RATE";
+	public static final String RATE_LIMIT_BURST = "RATE_LIMIT_BURST";
+	public static final String RATE_LIMIT_PEERS = "RATE_LIMIT_PEERS";
+	public static final String RATE_LIMIT_BY_PORT = "RATE_LIMIT_BY_PORT";
+	public static final String RATE_LIMIT_RESPONSE_CODE = "RATE_LIMIT_RESPONSE_CODE";
+	public static final String METRICS_RESOURCE = "METRICS_RESOURCE";
+	public static final String TIMER = "TIMER";
+	public static final String TIMER_EXECUTOR = "TIMER_EXECUTOR";
+	public static final String TIMER_HASHED_WHEEL = "TIMER_HASHED_WHEEL";
+	public static final String HASHED_WHEEL_TICK = "HASHED_WHEEL_TICK";
+	public static final String HASHED_WHEEL_SIZE = "HASHED_WHEEL_SIZE";
 	
 	public static final String USE_RANDOM_TOKEN_START = "USE_RANDOM_TOKEN_START";
 	public static final String USE_RANDOM_MID_START = "USE_RANDOM_MID_START";
+	public static final String USE_BYTE_BUFFER_PARSER = "USE_BYTE_BUFFER_PARSER";
 	
 	public static final String UDP_CONNECTOR_RECEIVE_BUFFER = "UDP_CONNECTOR_RECEIVE_BUFFER";
 	public static final String UDP_CONNECTOR_SEND_BUFFER = "UDP_CONNECTOR_SEND_BUFFER";
@@ -68,25 +107,55 @@ public class NetworkConfigDefaults {
 		config.setFloat(ACK_RANDOM_FACTOR, 1.5f);
 		config.setInt(ACK_TIMEOUT_SCALE, 2);
 		config.setInt(NSTART, 1);
+		config.setBoolean(USE_CONGESTION_CONTROL, false);
 		config.setInt(DEFAULT_LEISURE, 5000);
 		config.setFloat(PROBING_RATE, 1f);
 		config.setInt(MAX_RETRANSMIT, 4);
 		config.setLong(EXCHANGE_LIFECYCLE, 247 * 1000); // in ms
 		config.setBoolean(USE_RANDOM_TOKEN_START, true);
 		config.setBoolean(USE_RANDOM_MID_START, true);
+		config.setBoolean(USE_BYTE_BUFFER_PARSER, false);
 		
 		config.setInt(MAX_MESSAGE_SIZE, 1024);
 		config.setInt(DEFAULT_BLOCK_SIZE, 512);
+		config.setInt(BLOCKWISE_MAX_BODY_SIZE, 8 * 1024 * 1024); // 0 means unlimited
+		config.setInt(BLOCKWISE_MAX_TOTAL_SIZE, 64 * 1024 * 1024); // 0 means unlimited
+		config.setInt(BLOCKWISE_IDLE_TIMEOUT, 30000); // ms, 0 means never
+		config.setInt(BLOCKWISE_CACHE_SIZE, 4 * 1024 * 1024); // bytes, 0 disables the cache
+		config.setInt(BLOCKWISE_BLOCK1_WINDOW, 1); // outstanding Block1 blocks, 1 means lockstep
 		config.setInt(SERVER_THRESD_NUMER, Runtime.getRuntime().availableProcessors());
+		config.setBoolean(USE_SHARDED_EXECUTOR, false);
+		config.setInt(RESOURCE_EXECUTOR_CAPACITY, 1024);
+		config.setInt(ADMISSION_MAX_QUEUE, 0); // 0 means unlimited
+		config.setInt(ADMISSION_SOURCE_RATE, 0); // requests/s, 0 means unlimited
+		config.setInt(ADMISSION_SOURCE_BURST, 50);
+		config.setBoolean(ADMISSION_RESET_CON, true);
+		config.setFloat(RATE_LIMIT_RATE, 0f); // requests/s, 0 means only rules apply
+		config.setInt(RATE_LIMIT_BURST, 20);
+		config.setInt(RATE_LIMIT_PEERS, 1 << 20);
+		config.setBoolean(RATE_LIMIT_BY_PORT, false);
+		config.setInt(RATE_LIMIT_RESPONSE_CODE, ResponseCode.SERVICE_UNAVAILABLE.value);
+		config.setBoolean(METRICS_RESOURCE, false);
+		config.setString(TIMER, TIMER_EXECUTOR);
+		config.setInt(HASHED_WHEEL_TICK, 10); // ms
+		config.setInt(HASHED_WHEEL_SIZE, 512);
 		
 		config.setLong(NOTIFICATION_MAX_AGE, 128 * 1000); // ms
 		config.setLong(NOTIFICATION_CHECK_INTERVAL_TIME, 24 * 60 * 60 * 1000); // ms
 		config.setInt(NOTIFICATION_CHECK_INTERVAL_COUNT, 100);
 		config.setLong(NOTIFICATION_REREGISTRATION_BACKOFF, 2000); // ms
+		config.setInt(MAX_OBSERVE_RELATIONS, 0); // 0 means unlimited
+		config.setString(OBSERVE_REJECTION_POLICY, OBSERVE_REJECT_NEW);
 		config.setString(DEDUPLICATOR, DEDUPLICATOR_MARK_AND_SWEEP);
 		config.setLong(MARK_AND_SWEEP_INTERVAL, 10 * 1000);
 		config.setInt(CROP_ROTATION_PERIOD, 2000);
+		config.setLong(TIMING_WHEEL_TICK, 1000); // ms
+		config.setInt(COMPACT_DEDUPLICATOR_MAX_ENTRIES, 500000);
+		config.setLong(COMPACT_DEDUPLICATOR_MAX_BYTES, 64 * 1024 * 1024); // bytes
+		config.setString(EXCHANGE_STORE, EXCHANGE_STORE_HASH_MAP);
 		config.setInt(DEFAULT_ENDPOINT_THREAD_COUNT, 1);
+		config.setInt(CLIENT_CALLBACK_THREAD_COUNT, Runtime.getRuntime().availableProcessors());
+		config.setInt(CLIENT_CALLBACK_QUEUE_CAPACITY, 10000);
 		
 		config.setInt(UDP_CONNECTOR_RECEIVE_BUFFER, UDPConnector.UNDEFINED);
 		config.setInt(UDP_CONNECTOR_SEND_BUFFER, UDPConnector.UNDEFINED);
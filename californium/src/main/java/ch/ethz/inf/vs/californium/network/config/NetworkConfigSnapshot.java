@@ -0,0 +1,135 @@
+package ch.ethz.inf.vs.californium.network.config;
+
+/**
+ * A typed, pre-parsed view of the values of a {@link NetworkConfig} that are
+ * read in the per-message path. Reading a value from the snapshot is a single
+ * volatile read instead of a Properties lookup and a number conversion. The
+ * snapshot observes its configuration and refreshes a value whenever the
+ * corresponding property changes.
+ * <p>
+ * Use {@link NetworkConfig#getSnapshot()} to obtain the snapshot of a
+ * configuration.
+ */
+public class NetworkConfigSnapshot extends NetworkConfigObserverAdapter {
+
+	/** The configuration */
+	private final NetworkConfig config;
+
+	private volatile int ackTimeout;
+	private volatile float ackRandomFactor;
+	private volatile int ackTimeoutScale;
+	private volatile int maxRetransmit;
+	private volatile int nstart;
+	private volatile long exchangeLifecycle;
+	private volatile long markAndSweepInterval;
+
+	/**
+	 * Creates the snapshot of the specified configuration. The snapshot
+	 * registers itself as observer of the configuration.
+	 *
+	 * @param config the configuration
+	 */
+	NetworkConfigSnapshot(NetworkConfig config) {
+		this.config = config;
+		this.ackTimeout = config.getInt(NetworkConfigDefaults.ACK_TIMEOUT);
+		this.ackRandomFactor = config.getFloat(NetworkConfigDefaults.ACK_RANDOM_FACTOR);
+		this.ackTimeoutScale = config.getInt(NetworkConfigDefaults.ACK_TIMEOUT_SCALE);
+		this.maxRetransmit = config.getInt(NetworkConfigDefaults.MAX_RETRANSMIT);
+		this.nstart = config.getInt(NetworkConfigDefaults.NSTART);
+		this.exchangeLifecycle = config.getLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE);
+		this.markAndSweepInterval = config.getLong(NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL);
+		config.addConfigObserver(this);
+	}
+
+	/**
+	 * Parses the new value of the specified property if it is part of this
+	 * snapshot. The value is taken from the configuration so that all setters
+	 * of the configuration lead to the same result.
+	 */
+	private void refresh(String key) {
+		if (NetworkConfigDefaults.ACK_TIMEOUT.equals(key))
+			ackTimeout = config.getInt(key);
+		else if (NetworkConfigDefaults.ACK_RANDOM_FACTOR.equals(key))
+			ackRandomFactor = config.getFloat(key);
+		else if (NetworkConfigDefaults.ACK_TIMEOUT_SCALE.equals(key))
+			ackTimeoutScale = config.getInt(key);
+		else if (NetworkConfigDefaults.MAX_RETRANSMIT.equals(key))
+			maxRetransmit = config.getInt(key);
+		else if (NetworkConfigDefaults.NSTART.equals(key))
+			nstart = config.getInt(key);
+		else if (NetworkConfigDefaults.EXCHANGE_LIFECYCLE.equals(key))
+			exchangeLifecycle = config.getLong(key);
+		else if (NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL.equals(key))
+			markAndSweepInterval = config.getLong(key);
+	}
+
+	@Override
+	public void changed(String key, Object value) {
+		refresh(key);
+	}
+
+	@Override
+	public void changed(String key, String value) {
+		refresh(key);
+	}
+
+	@Override
+	public void changed(String key, int value) {
+		refresh(key);
+	}
+
+	@Override
+	public void changed(String key, long value) {
+		refresh(key);
+	}
+
+	@Override
+	public void changed(String key, float value) {
+		refresh(key);
+	}
+
+	@Override
+	public void changed(String key, double value) {
+		refresh(key);
+	}
+
+	@Override
+	public void changed(String key, boolean value) {
+		refresh(key);
+	}
+
+	/** @return the value of ACK_TIMEOUT */
+	public int getAckTimeout() {
+		return ackTimeout;
+	}
+
+	/** @return the value of ACK_RANDOM_FACTOR */
+	public float getAckRandomFactor() {
+		return ackRandomFactor;
+	}
+
+	/** @return the value of ACK_TIMEOUT_SCALE */
+	public int getAckTimeoutScale() {
+		return ackTimeoutScale;
+	}
+
+	/** @return the value of MAX_RETRANSMIT */
+	public int getMaxRetransmit() {
+		return maxRetransmit;
+	}
+
+	/** @return the value of NSTART */
+	public int getNstart() {
+		return nstart;
+	}
+
+	/** @return the value of EXCHANGE_LIFECYCLE */
+	public long getExchangeLifecycle() {
+		return exchangeLifecycle;
+	}
+
+	/** @return the value of MARK_AND_SWEEP_INTERVAL */
+	public long getMarkAndSweepInterval() {
+		return markAndSweepInterval;
+	}
+}
@@ -0,0 +1,364 @@
+package ch.ethz.inf.vs.californium.network.deduplication;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigSnapshot;
+import ch.ethz.inf.vs.californium.network.timer.ExecutorTimer;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
+
+/**
+ * This deduplicator only keeps the exchanges of incoming messages that have
+ * not been answered yet. As soon as the endpoint sends the ACK, RST or
+ * response to an incoming request, the {@link ch.ethz.inf.vs.californium.network.Matcher}
+ * calls {@link #replied(KeyMID, Exchange, byte[])} and the deduplicator
+ * replaces the exchange with a compact record: the MID key and the serialized
+ * bytes of the reply. The endpoint looks up duplicates with
+ * {@link #findReply(KeyMID)} before it even parses them and sends the recorded
+ * bytes again. The exchange, its request, response, options and payload can
+ * then be garbage-collected long before the EXCHANGE_LIFECYCLE is over.
+ * <p>
+ * The records are kept in insertion order in several segments, each guarded
+ * by its own lock. A record is removed when it is older than the
+ * EXCHANGE_LIFECYCLE, or earlier when there are more than
+ * COMPACT_DEDUPLICATOR_MAX_ENTRIES records or the records occupy more than
+ * COMPACT_DEDUPLICATOR_MAX_BYTES. The size of a record is estimated as the
+ * length of the reply plus {@value #RECORD_OVERHEAD} bytes for the key and the
+ * bookkeeping. The two limits therefore bound the heap the deduplicator uses
+ * for answered messages. A duplicate that arrives after its record has been
+ * evicted early is processed as a new message.
+ * <p>
+ * Unanswered exchanges are kept until they are answered or older than the
+ * EXCHANGE_LIFECYCLE. They are swept every MARK_AND_SWEEP_INTERVAL.
+ */
+public class CompactDeduplicator implements Deduplicator {
+
+	private final static Logger LOGGER = Logger.getLogger(CompactDeduplicator.class.getCanonicalName());
+	
+	/** The estimated bytes of a record in addition to the reply */
+	public static final int RECORD_OVERHEAD = 128;
+	
+	/** The number of segments for the records */
+	private static final int SEGMENTS = 16;
+	
+	/** The exchanges that have not been answered yet */
+	private final ConcurrentHashMap<KeyMID, Exchange> pending;
+	
+	/** The records of answered messages */
+	private final Segment[] segments;
+	
+	private final NetworkConfigSnapshot snapshot;
+	private final Sweep sweep;
+	
+	private final AtomicLong evictions = new AtomicLong();
+	
+	private Timer timer;
+	
+	private volatile boolean started;
+	
+	public CompactDeduplicator(NetworkConfig config) {
+		this.snapshot = config.getSnapshot();
+		this.pending = new ConcurrentHashMap<KeyMID, Exchange>();
+		int maxEntries = config.getInt(NetworkConfigDefaults.COMPACT_DEDUPLICATOR_MAX_ENTRIES);
+		long maxBytes = config.getLong(NetworkConfigDefaults.COMPACT_DEDUPLICATOR_MAX_BYTES);
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment(Math.max(1, maxEntries / SEGMENTS), Math.max(1, maxBytes / SEGMENTS));
+		this.sweep = new Sweep();
+	}
+	
+	@Override
+	public synchronized void start() {
+		started = true;
+		sweep.schedule();
+	}
+
+	@Override
+	public synchronized void stop() {
+		started = false;
+		sweep.cancel();
+	}
+
+	@Override
+	public synchronized void setExecutor(ScheduledExecutorService executor) {
+		setTimer(new ExecutorTimer(executor));
+	}
+
+	@Override
+	public synchronized void setTimer(Timer timer) {
+		sweep.cancel();
+		this.timer = timer;
+		if (started)
+			start();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If the message has already been answered, the specified exchange itself
+	 * is returned. The message then counts as a duplicate for which the
+	 * server has not decided anything yet and is dropped. This only happens
+	 * when the duplicate arrives while the reply is being sent; later
+	 * duplicates are answered with {@link #findReply(KeyMID)}.
+	 */
+	@Override
+	public Exchange findPrevious(KeyMID key, Exchange exchange) {
+		Exchange previous = pending.putIfAbsent(key, exchange);
+		if (previous != null)
+			return previous;
+		// replied() records the reply before it removes the pending exchange
+		if (segmentFor(key).get(key, System.currentTimeMillis(), getLifecycle()) != null) {
+			pending.remove(key, exchange);
+			return exchange;
+		}
+		return null;
+	}
+
+	@Override
+	public Exchange find(KeyMID key) {
+		return pending.get(key);
+	}
+	
+	/**
+	 * Returns the serialized reply to the message with the specified key or
+	 * null if the message has not been answered or is not known.
+	 * 
+	 * @param key the key of the incoming message
+	 * @return the reply or null
+	 */
+	public byte[] findReply(KeyMID key) {
+		return segmentFor(key).get(key, System.currentTimeMillis(), getLifecycle());
+	}
+	
+	/**
+	 * Records the specified reply to the message with the specified key and
+	 * forgets the exchange of the message. A later reply to the same message,
+	 * e.g., a separate response after an empty ACK, replaces the earlier one.
+	 * 
+	 * @param key the key of the incoming message
+	 * @param exchange the exchange of the message
+	 * @param reply the serialized reply
+	 */
+	public void replied(KeyMID key, Exchange exchange, byte[] reply) {
+		int evicted = segmentFor(key).put(key, reply, System.currentTimeMillis(), getLifecycle());
+		pending.remove(key, exchange);
+		if (evicted > 0)
+			evictions.addAndGet(evicted);
+	}
+
+	@Override
+	public void clear() {
+		pending.clear();
+		for (Segment segment:segments)
+			segment.clear();
+	}
+	
+	@Override
+	public int size() {
+		return getPendingCount() + getRecordCount();
+	}
+	
+	/**
+	 * Returns the number of exchanges that have not been answered yet.
+	 * 
+	 * @return the number of pending exchanges
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+	
+	/**
+	 * Returns the number of recorded replies.
+	 * 
+	 * @return the number of records
+	 */
+	public int getRecordCount() {
+		int count = 0;
+		for (Segment segment:segments)
+			count += segment.size();
+		return count;
+	}
+	
+	/**
+	 * Returns the estimated number of bytes of all recorded replies.
+	 * 
+	 * @return the estimated bytes
+	 */
+	public long getRecordBytes() {
+		long bytes = 0;
+		for (Segment segment:segments)
+			bytes += segment.bytes();
+		return bytes;
+	}
+	
+	/**
+	 * Returns the number of records that have been evicted before their
+	 * lifecycle was over because a limit was reached.
+	 * 
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	private long getLifecycle() {
+		return snapshot.getExchangeLifecycle();
+	}
+	
+	private Segment segmentFor(KeyMID key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & (SEGMENTS - 1)];
+	}
+	
+	/**
+	 * A segment keeps records in insertion order. Since all records have the
+	 * same lifetime, the oldest records are always at the head.
+	 */
+	private static class Segment {
+		
+		private final LinkedHashMap<KeyMID, Record> records;
+		private final int maxEntries;
+		private final long maxBytes;
+		private long bytes;
+		
+		private Segment(int maxEntries, long maxBytes) {
+			this.records = new LinkedHashMap<KeyMID, Record>();
+			this.maxEntries = maxEntries;
+			this.maxBytes = maxBytes;
+		}
+		
+		private synchronized byte[] get(KeyMID key, long now, long lifecycle) {
+			Record record = records.get(key);
+			if (record == null || record.timestamp < now - lifecycle)
+				return null;
+			return record.reply;
+		}
+		
+		/*
+		 * Inserts the record and returns the number of records that have been
+		 * evicted because a limit was reached.
+		 */
+		private synchronized int put(KeyMID key, byte[] reply, long now, long lifecycle) {
+			Record previous = records.remove(key);
+			if (previous != null)
+				bytes -= previous.size();
+			Record record = new Record(reply, now);
+			records.put(key, record);
+			bytes += record.size();
+			
+			int evicted = 0;
+			Iterator<Record> it = records.values().iterator();
+			while (it.hasNext()) {
+				Record eldest = it.next();
+				boolean full = records.size() > maxEntries || bytes > maxBytes;
+				if (!full && eldest.timestamp >= now - lifecycle)
+					break;
+				if (full && eldest != record) evicted++;
+				it.remove();
+				bytes -= eldest.size();
+			}
+			return evicted;
+		}
+		
+		private synchronized void expire(long now, long lifecycle) {
+			Iterator<Record> it = records.values().iterator();
+			while (it.hasNext()) {
+				Record eldest = it.next();
+				if (eldest.timestamp >= now - lifecycle)
+					break;
+				it.remove();
+				bytes -= eldest.size();
+			}
+		}
+		
+		private synchronized int size() {
+			return records.size();
+		}
+		
+		private synchronized long bytes() {
+			return bytes;
+		}
+		
+		private synchronized void clear() {
+			records.clear();
+			bytes = 0;
+		}
+	}
+	
+	/**
+	 * The serialized reply and the time it has been recorded.
+	 */
+	private static class Record {
+		
+		private final byte[] reply;
+		private final long timestamp;
+		
+		private Record(byte[] reply, long timestamp) {
+			this.reply = reply;
+			this.timestamp = timestamp;
+		}
+		
+		private int size() {
+			return reply.length + RECORD_OVERHEAD;
+		}
+	}
+	
+	/**
+	 * The sweep removes unanswered exchanges that are older than the
+	 * lifecycle and the expired records at the head of each segment.
+	 */
+	private class Sweep implements Runnable {
+		
+		private ScheduledFuture<?> future;
+		
+		@Override
+		public void run() {
+			try {
+				long now = System.currentTimeMillis();
+				long lifecycle = getLifecycle();
+				long oldestAllowed = now - lifecycle;
+				for (Map.Entry<KeyMID, Exchange> entry:pending.entrySet()) {
+					if (entry.getValue().getTimestamp() < oldestAllowed)
+						pending.remove(entry.getKey(), entry.getValue());
+				}
+				for (Segment segment:segments)
+					segment.expire(now, lifecycle);
+				
+			} catch (Throwable t) {
+				LOGGER.log(Level.WARNING, "Exception in Compact-Deduplicator sweep", t);
+			
+			} finally {
+				try {
+					schedule();
+				} catch (Throwable t) {
+					LOGGER.log(Level.WARNING, "Exception while scheduling Compact-Deduplicator sweep", t);
+				}
+			}
+		}
+		
+		private synchronized void schedule() {
+			if (!started) return;
+			long period = snapshot.getMarkAndSweepInterval();
+			future = timer.schedule(this, period, TimeUnit.MILLISECONDS);
+		}
+		
+		private synchronized void cancel() {
+			if (future != null)
+				future.cancel(false);
+			future = null;
+		}
+	}
+}
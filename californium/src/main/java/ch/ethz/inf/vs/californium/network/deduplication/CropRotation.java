@@ -11,6 +11,8 @@ import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.timer.ExecutorTimer;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
 
 /**
  * This deduplicator is probably inferior to the {@link SweepDeduplicator}. This
@@ -26,7 +28,7 @@ public class CropRotation implements Deduplicator {
 
 	private final static Logger LOGGER = Logger.getLogger(CropRotation.class.getCanonicalName());
 	
-	private ScheduledExecutorService executor;
+	private Timer timer;
 	
 	private ExchangeMap[] maps;
 	private int first;
@@ -63,10 +65,16 @@ public class CropRotation implements Deduplicator {
 
 	@Override
 	public synchronized void setExecutor(ScheduledExecutorService executor) {
+		setTimer(new ExecutorTimer(executor));
+	}
+
+	@Override
+	public synchronized void setTimer(Timer timer) {
+		boolean restart = started;
 		started = false;
 		rotation.cancel();
-		this.executor = executor;
-		if (started)
+		this.timer = timer;
+		if (restart)
 			start();
 	}
 
@@ -99,6 +107,11 @@ public class CropRotation implements Deduplicator {
 		maps[2].clear();
 	}
 	
+	@Override
+	public int size() {
+		return maps[0].size() + maps[1].size() + maps[2].size();
+	}
+	
 	private class Rotation implements Runnable {
 		
 		private ScheduledFuture<?> future;
@@ -129,7 +142,7 @@ public class CropRotation implements Deduplicator {
 		
 		private void schedule() {
 			LOGGER.fine("CR schedules in "+period+" ms");
-			future = executor.schedule(this, period, TimeUnit.MILLISECONDS);
+			future = timer.schedule(this, period, TimeUnit.MILLISECONDS);
 		}
 		
 		private void cancel() {
@@ -4,6 +4,7 @@ import java.util.concurrent.ScheduledExecutorService;
 
 import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
 
 /**
  * The deduplicator has to detect duplicates. Notice that CONs and NONs can be
@@ -28,6 +29,14 @@ public interface Deduplicator {
 	 */
 	public void setExecutor(ScheduledExecutorService executor);
 	
+	/**
+	 * Set the specified timer for the periodic clean-up. This method might
+	 * call stop(), replace the timer and then start() again. Setting the
+	 * executor replaces the timer with one that schedules on the executor.
+	 * @param timer the timer
+	 */
+	public void setTimer(Timer timer);
+	
 	/**
 	 * Checks if the specified key is already associated with a previous
 	 * exchange and otherwise associates the key with the exchange specified. 
@@ -54,4 +63,11 @@ public interface Deduplicator {
 	 * Clears the state of this deduplicator.
 	 */
 	public void clear();
+	
+	/**
+	 * Returns the number of messages this deduplicator currently remembers.
+	 * 
+	 * @return the number of messages
+	 */
+	public int size();
 }
@@ -9,7 +9,7 @@ import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
 
 /**
  * The deduplication factory creates the deduplicator for a {@link Matcher}. If
- * a server wants to use another deduplicator than the three standard
+ * a server wants to use another deduplicator than the five standard
  * deduplicators, it can create its own factory and install it with
  * {@link #setDeduplicatorFactory(DeduplicatorFactory)}.
  */
@@ -47,6 +47,8 @@ public class DeduplicatorFactory {
 		String type = config.getString(NetworkConfigDefaults.DEDUPLICATOR);
 		if (NetworkConfigDefaults.DEDUPLICATOR_MARK_AND_SWEEP.equals(type)) return new SweepDeduplicator(config);
 		else if (NetworkConfigDefaults.DEDUPLICATOR_CROP_ROTATION.equals(type)) return new CropRotation(config);
+		else if (NetworkConfigDefaults.DEDUPLICATOR_TIMING_WHEEL.equals(type)) return new TimingWheelDeduplicator(config);
+		else if (NetworkConfigDefaults.DEDUPLICATOR_COMPACT.equals(type)) return new CompactDeduplicator(config);
 		else if (NetworkConfigDefaults.NO_DEDUPLICATOR.equals(type)) return new NoDeduplicator();
 		else {
 			LOGGER.warning("Unknown deduplicator type: " + type);
@@ -4,6 +4,7 @@ import java.util.concurrent.ScheduledExecutorService;
 
 import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
 
 /**
  * This is a dummy implementation that does no deduplication. If a matcher
@@ -21,6 +22,9 @@ public class NoDeduplicator implements Deduplicator {
 	@Override
 	public void setExecutor(ScheduledExecutorService executor) { }
 
+	@Override
+	public void setTimer(Timer timer) { }
+
 	@Override
 	public Exchange findPrevious(KeyMID key, Exchange exchange) {
 		return null;
@@ -34,4 +38,9 @@ public class NoDeduplicator implements Deduplicator {
 	@Override
 	public void clear() { }
 
+	@Override
+	public int size() {
+		return 0;
+	}
+
 }
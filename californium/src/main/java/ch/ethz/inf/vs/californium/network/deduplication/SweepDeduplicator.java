@@ -11,7 +11,9 @@ import java.util.logging.Logger;
 import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
-import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigSnapshot;
+import ch.ethz.inf.vs.californium.network.timer.ExecutorTimer;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
 
 /**
  * This deduplicator uses a hash map to store incoming messages. The
@@ -26,15 +28,15 @@ public class SweepDeduplicator implements Deduplicator {
 	/** The hash map with all incoming messages. */
 	private ConcurrentHashMap<KeyMID, Exchange> incommingMessages;
 	
-	private NetworkConfig config;
+	private NetworkConfigSnapshot config;
 	private SweepAlgorithm algorithm;
 	
-	private ScheduledExecutorService executor;
+	private Timer timer;
 	
 	private boolean started = false;
 	
 	public SweepDeduplicator(NetworkConfig config) {
-		this.config = config;
+		this.config = config.getSnapshot();
 		incommingMessages = new ConcurrentHashMap<KeyMID, Exchange>();
 		algorithm = new SweepAlgorithm();
 	}
@@ -50,9 +52,14 @@ public class SweepDeduplicator implements Deduplicator {
 	}
 	
 	public void setExecutor(ScheduledExecutorService executor) {
+		setTimer(new ExecutorTimer(executor));
+	}
+	
+	public void setTimer(Timer timer) {
+		boolean restart = started;
 		stop();
-		this.executor = executor;
-		if (started)
+		this.timer = timer;
+		if (restart)
 			start();
 	}
 	
@@ -75,6 +82,10 @@ public class SweepDeduplicator implements Deduplicator {
 		incommingMessages.clear();
 	}
 	
+	public int size() {
+		return incommingMessages.size();
+	}
+	
 	/**
 	 * The sweep algorithm periodically iterate through the hash map and removes
 	 * obsolete entries.
@@ -109,7 +120,7 @@ public class SweepDeduplicator implements Deduplicator {
 		 * Iterate through all entries and remove the obsolete ones.
 		 */
 		private void sweep() {
-			int lifecycle = config.getInt(NetworkConfigDefaults.EXCHANGE_LIFECYCLE);
+			long lifecycle = config.getExchangeLifecycle();
 			long oldestAllowed = System.currentTimeMillis() - lifecycle;
 			
 			// Notice that the guarantees from the ConcurrentHashMap guarantee
@@ -131,8 +142,8 @@ public class SweepDeduplicator implements Deduplicator {
 		 * Reschedule this task again.
 		 */
 		private void schedule() {
-			long period = config.getLong(NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL);
-			future = executor.schedule(this, period, TimeUnit.MILLISECONDS);
+			long period = config.getMarkAndSweepInterval();
+			future = timer.schedule(this, period, TimeUnit.MILLISECONDS);
 		}
 		
 		/**
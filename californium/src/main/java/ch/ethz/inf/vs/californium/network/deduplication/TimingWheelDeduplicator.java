@@ -0,0 +1,207 @@
+package ch.ethz.inf.vs.californium.network.deduplication;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.timer.ExecutorTimer;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
+
+/**
+ * This deduplicator stores incoming messages in a hash map and additionally
+ * records the key of each new message in the current bucket of a timing wheel.
+ * Each bucket covers one tick of TIMING_WHEEL_TICK milliseconds and the wheel
+ * has enough buckets to span an EXCHANGE_LIFECYCLE. When the wheel advances by
+ * one tick, it removes exactly the messages of the bucket it enters, which
+ * have been recorded one full revolution earlier. Unlike the
+ * {@link SweepDeduplicator}, expiring messages therefore costs time
+ * proportional to the number of expired messages and not to the number of all
+ * messages. Unlike {@link CropRotation}, each message is stored only once and
+ * no entries are dropped before their lifecycle is over.
+ * <p>
+ * Since all messages have the same lifetime, a single wheel suffices. A
+ * message is remembered for at least one EXCHANGE_LIFECYCLE and at most one
+ * tick longer.
+ */
+public class TimingWheelDeduplicator implements Deduplicator {
+
+	private final static Logger LOGGER = Logger.getLogger(TimingWheelDeduplicator.class.getCanonicalName());
+	
+	/** The hash map with all incoming messages. */
+	private final ConcurrentHashMap<KeyMID, Exchange> incomingMessages;
+	
+	/** The buckets of the wheel with the keys of the messages per tick. */
+	private final Bucket[] wheel;
+	
+	/** The index of the bucket that receives new messages. */
+	private volatile int current;
+	
+	private final long tick;
+	private final Advance advance;
+	
+	private Timer timer;
+	
+	private boolean started;
+	
+	public TimingWheelDeduplicator(NetworkConfig config) {
+		long lifecycle = config.getLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE);
+		this.tick = Math.max(1, config.getLong(NetworkConfigDefaults.TIMING_WHEEL_TICK));
+		// one bucket more than the lifecycle needs, since the current bucket is only partially old
+		int buckets = (int) ((lifecycle + tick - 1) / tick) + 1;
+		this.incomingMessages = new ConcurrentHashMap<KeyMID, Exchange>();
+		this.wheel = new Bucket[buckets];
+		for (int i = 0; i < buckets; i++)
+			wheel[i] = new Bucket();
+		this.advance = new Advance();
+	}
+	
+	@Override
+	public synchronized void start() {
+		started = true;
+		advance.schedule();
+	}
+
+	@Override
+	public synchronized void stop() {
+		started = false;
+		advance.cancel();
+	}
+
+	@Override
+	public synchronized void setExecutor(ScheduledExecutorService executor) {
+		setTimer(new ExecutorTimer(executor));
+	}
+
+	@Override
+	public synchronized void setTimer(Timer timer) {
+		advance.cancel();
+		this.timer = timer;
+		if (started)
+			start();
+	}
+
+	@Override
+	public Exchange findPrevious(KeyMID key, Exchange exchange) {
+		Exchange previous = incomingMessages.putIfAbsent(key, exchange);
+		if (previous == null)
+			wheel[current].add(key);
+		return previous;
+	}
+
+	@Override
+	public Exchange find(KeyMID key) {
+		return incomingMessages.get(key);
+	}
+
+	@Override
+	public void clear() {
+		incomingMessages.clear();
+		for (Bucket bucket:wheel)
+			bucket.clear();
+	}
+	
+	@Override
+	public int size() {
+		return incomingMessages.size();
+	}
+	
+	/**
+	 * Advances the wheel by one tick. New messages are recorded in the next
+	 * bucket only after its expired messages have been removed.
+	 */
+	private void advance() {
+		int next = (current + 1) % wheel.length;
+		int expired = wheel[next].expire(incomingMessages);
+		current = next;
+		if (expired > 0)
+			LOGGER.finer("Timing wheel removed "+expired+" expired messages");
+	}
+	
+	/**
+	 * The keys of the messages that arrived during one tick. The keys are kept
+	 * in a growing array that is reused for every revolution of the wheel.
+	 */
+	private static class Bucket {
+		
+		private KeyMID[] keys = new KeyMID[16];
+		private int size;
+		
+		private synchronized void add(KeyMID key) {
+			if (size == keys.length) {
+				KeyMID[] larger = new KeyMID[size * 2];
+				System.arraycopy(keys, 0, larger, 0, size);
+				keys = larger;
+			}
+			keys[size++] = key;
+		}
+		
+		private synchronized int expire(ConcurrentHashMap<KeyMID, Exchange> map) {
+			int expired = size;
+			for (int i = 0; i < size; i++) {
+				map.remove(keys[i]);
+				keys[i] = null;
+			}
+			size = 0;
+			return expired;
+		}
+		
+		private synchronized void clear() {
+			keys = new KeyMID[16];
+			size = 0;
+		}
+	}
+	
+	private class Advance implements Runnable {
+		
+		private ScheduledFuture<?> future;
+		
+		/** The time the wheel should advance next */
+		private long next;
+		
+		@Override
+		public void run() {
+			try {
+				advance();
+				
+			} catch (Throwable t) {
+				LOGGER.log(Level.WARNING, "Exception in Timing-Wheel algorithm", t);
+			
+			} finally {
+				try {
+					reschedule();
+				} catch (Throwable t) {
+					LOGGER.log(Level.WARNING, "Exception while scheduling Timing-Wheel algorithm", t);
+				}
+			}
+		}
+		
+		private synchronized void schedule() {
+			next = System.currentTimeMillis() + tick;
+			future = timer.schedule(this, tick, TimeUnit.MILLISECONDS);
+		}
+		
+		/*
+		 * Schedules the next tick relative to the planned time of this tick
+		 * so that the wheel does not drift.
+		 */
+		private synchronized void reschedule() {
+			if (future == null) return; // cancelled
+			next += tick;
+			long delay = Math.max(0, next - System.currentTimeMillis());
+			future = timer.schedule(this, delay, TimeUnit.MILLISECONDS);
+		}
+		
+		private synchronized void cancel() {
+			if (future != null)
+				future.cancel(false);
+			future = null;
+		}
+	}
+}
@@ -0,0 +1,372 @@
+package ch.ethz.inf.vs.californium.network.interceptors;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.CoAPEndpoint;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.serialization.DataSerializer;
+import ch.ethz.inf.vs.elements.Connector;
+import ch.ethz.inf.vs.elements.RawData;
+
+/**
+ * The RateLimiter limits the number of requests that each peer may send with a
+ * token bucket per peer and rule. A peer is identified by its IP address or,
+ * if {@link NetworkConfigDefaults#RATE_LIMIT_BY_PORT} is true, by its IP
+ * address and port. The RateLimiter is a {@link MessageInterceptor} of a
+ * {@link CoAPEndpoint}. It cancels a limited request, so that the endpoint does
+ * not process it, and answers it directly over the connector with a cached
+ * response (5.03 Service Unavailable by default) whose Max-Age tells the peer
+ * when its next request will be accepted. Retransmissions of requests that
+ * the endpoint has already accepted are marked as duplicates before the
+ * interceptors run and pass without using up tokens, so that they are not
+ * answered with an error while the original is processed.
+ * <pre>
+ * CoAPEndpoint endpoint = new CoAPEndpoint(port);
+ * RateLimiter limiter = new RateLimiter(endpoint.getConnector(), endpoint.getConfig());
+ * limiter.addRule(Code.POST, "firmware", 0.1f, 1);
+ * endpoint.addInterceptor(limiter);
+ * </pre>
+ * Rules limit the requests with a specific method, a specific path prefix or
+ * both. The first rule that matches a request applies. If no rule matches, the
+ * default rule with {@link NetworkConfigDefaults#RATE_LIMIT_RATE} requests per
+ * second applies unless that rate is 0.
+ * <p>
+ * The buckets are stored in a fixed-size, set-associative table of
+ * {@link NetworkConfigDefaults#RATE_LIMIT_PEERS} entries of 16 bytes each. An
+ * entry expires implicitly: once a peer has been idle long enough to have a
+ * full bucket, its entry is equivalent to a free one and may be taken by
+ * another peer. If all entries of a set are in use, the least recently used
+ * one is evicted.
+ */
+public class RateLimiter implements MessageInterceptor {
+
+	/** The logger. */
+	private final static Logger LOGGER = Logger.getLogger(RateLimiter.class.getCanonicalName());
+
+	/** The connector over which limited requests are answered */
+	private final Connector connector;
+
+	/** The rules that have been added */
+	private final List<Rule> rules = new CopyOnWriteArrayList<Rule>();
+
+	/** The rule that applies if no other rule matches or null */
+	private final Rule defaultRule;
+
+	/** Identify peers by address and port */
+	private final boolean byPort;
+
+	/** The code of the responses to limited requests */
+	private final ResponseCode responseCode;
+
+	/** The buckets */
+	private final BucketTable table;
+
+	/** The MIDs of NON responses */
+	private final AtomicInteger mid = new AtomicInteger(new Random().nextInt(1 << 16));
+
+	private final AtomicLong passed = new AtomicLong();
+	private final AtomicLong limited = new AtomicLong();
+
+	/**
+	 * Constructs a new rate limiter with the settings of the specified
+	 * configuration that answers limited requests over the specified
+	 * connector.
+	 *
+	 * @param connector the connector of the endpoint
+	 * @param config the configuration
+	 */
+	public RateLimiter(Connector connector, NetworkConfig config) {
+		this(connector, config.getFloat(NetworkConfigDefaults.RATE_LIMIT_RATE),
+				config.getInt(NetworkConfigDefaults.RATE_LIMIT_BURST),
+				config.getInt(NetworkConfigDefaults.RATE_LIMIT_PEERS),
+				config.getBoolean(NetworkConfigDefaults.RATE_LIMIT_BY_PORT),
+				ResponseCode.valueOf(config.getInt(NetworkConfigDefaults.RATE_LIMIT_RESPONSE_CODE)));
+	}
+
+	/**
+	 * Constructs a new rate limiter.
+	 *
+	 * @param connector the connector of the endpoint
+	 * @param rate the requests per second of the default rule or 0 for no default rule
+	 * @param burst the burst of the default rule
+	 * @param peers the number of peers to track
+	 * @param byPort true to identify peers by address and port
+	 * @param responseCode the code of responses to limited requests
+	 */
+	public RateLimiter(Connector connector, float rate, int burst, int peers, boolean byPort, ResponseCode responseCode) {
+		if (responseCode == null)
+			throw new NullPointerException();
+		this.connector = connector;
+		this.byPort = byPort;
+		this.responseCode = responseCode;
+		this.table = new BucketTable(peers);
+		this.defaultRule = rate > 0 ? new Rule(0, null, null, rate, burst) : null;
+	}
+
+	/**
+	 * Adds a rule that limits the requests with the specified method and path
+	 * prefix. Rules that are added first take precedence.
+	 *
+	 * @param method the method or null for any method
+	 * @param path the path prefix, e.g., "sensors/temp", or null for any path
+	 * @param rate the requests per second
+	 * @param burst the number of requests a peer may send in a burst
+	 * @return this rate limiter
+	 */
+	public RateLimiter addRule(Code method, String path, float rate, int burst) {
+		if (rate <= 0)
+			throw new IllegalArgumentException("Rate must be positive but was "+rate);
+		synchronized (rules) {
+			rules.add(new Rule(rules.size() + 1, method, path, rate, burst));
+		}
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.network.interceptors.MessageInterceptor#receiveRequest(ch.ethz.inf.vs.californium.coap.Request)
+	 */
+	@Override
+	public void receiveRequest(Request request) {
+		if (request.isDuplicate())
+			return; // the original has already passed
+		Rule rule = findRule(request);
+		if (rule == null)
+			return;
+		long key = getKey(request.getSource(), request.getSourcePort(), rule.index);
+		if (table.acquire(key, rule.rate, rule.burst, System.currentTimeMillis())) {
+			passed.incrementAndGet();
+		} else {
+			limited.incrementAndGet();
+			request.setCanceled(true);
+			send(createReply(request, rule));
+		}
+	}
+
+	private Rule findRule(Request request) {
+		for (Rule rule:rules)
+			if (rule.matches(request))
+				return rule;
+		return defaultRule;
+	}
+
+	/*
+	 * Combines the peer and the rule into a non-zero key.
+	 */
+	private long getKey(InetAddress address, int port, int rule) {
+		byte[] bytes = address.getAddress();
+		long key;
+		if (bytes.length == 4) {
+			key = ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16) | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+		} else {
+			key = Arrays.hashCode(bytes) & 0xFFFFFFFFL;
+		}
+		if (byPort)
+			key |= (long) port << 32;
+		key ^= (long) rule << 48;
+		return key != 0 ? key : 1;
+	}
+
+	/*
+	 * Builds the response from the cached options of the rule.
+	 */
+	private RawData createReply(Request request, Rule rule) {
+		byte[] token = request.getToken();
+		int tkl = token != null ? token.length : 0;
+		byte[] suffix = rule.getSuffix(responseCode);
+		byte[] reply = new byte[4 + tkl + suffix.length];
+		boolean con = request.getType() == Type.CON;
+		int id = con ? request.getMID() : mid.getAndIncrement() & 0xFFFF;
+		reply[0] = (byte) (0x40 | ((con ? Type.ACK.value : Type.NON.value) << 4) | tkl);
+		reply[1] = (byte) responseCode.value;
+		reply[2] = (byte) (id >> 8);
+		reply[3] = (byte) id;
+		if (tkl > 0)
+			System.arraycopy(token, 0, reply, 4, tkl);
+		System.arraycopy(suffix, 0, reply, 4 + tkl, suffix.length);
+		return new RawData(reply, request.getSource(), request.getSourcePort());
+	}
+
+	/**
+	 * Sends the response to a limited request.
+	 *
+	 * @param reply the serialized response
+	 */
+	protected void send(RawData reply) {
+		if (connector != null)
+			connector.send(reply);
+		else LOGGER.warning("Rate limiter has no connector to answer "+reply.getInetSocketAddress());
+	}
+
+	/**
+	 * Returns the number of requests that have passed a rule.
+	 *
+	 * @return the number of passed requests
+	 */
+	public long getPassed() {
+		return passed.get();
+	}
+
+	/**
+	 * Returns the number of requests that have been limited.
+	 *
+	 * @return the number of limited requests
+	 */
+	public long getLimited() {
+		return limited.get();
+	}
+
+	/**
+	 * Returns the number of buckets that have been evicted while their peer
+	 * was still limited.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return table.evictions.get();
+	}
+
+	/**
+	 * Returns the number of peers that can be tracked.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return table.keys.length;
+	}
+
+	@Override public void sendRequest(Request request) { }
+	@Override public void sendResponse(Response response) { }
+	@Override public void sendEmptyMessage(EmptyMessage message) { }
+	@Override public void receiveResponse(Response response) { }
+	@Override public void receiveEmptyMessage(EmptyMessage message) { }
+
+	/*
+	 * A rule with its method, path prefix and rate.
+	 */
+	private static class Rule {
+
+		private final int index;
+		private final Code method;
+		private final String[] path;
+		private final float rate;
+		private final int burst;
+
+		/** The serialized Max-Age option of the responses */
+		private volatile byte[] suffix;
+
+		private Rule(int index, Code method, String path, float rate, int burst) {
+			this.index = index;
+			this.method = method;
+			this.path = path != null && path.length() > 0 ? path.replaceAll("^/+", "").split("/") : null;
+			this.rate = rate;
+			this.burst = Math.max(1, burst);
+		}
+
+		private boolean matches(Request request) {
+			if (method != null && method != request.getCode())
+				return false;
+			if (path != null) {
+				List<String> segments = request.getOptions().getURIPaths();
+				if (segments.size() < path.length)
+					return false;
+				for (int i = 0; i < path.length; i++)
+					if (!path[i].equals(segments.get(i)))
+						return false;
+			}
+			return true;
+		}
+
+		/*
+		 * Serializes a response with the Max-Age of this rule once and keeps
+		 * everything after the header.
+		 */
+		private byte[] getSuffix(ResponseCode code) {
+			byte[] cached = suffix;
+			if (cached == null) {
+				Response response = new Response(code);
+				response.setType(Type.ACK);
+				response.setMID(0);
+				response.setToken(new byte[0]);
+				response.getOptions().setMaxAge((long) Math.max(1, Math.ceil(1 / rate)));
+				byte[] bytes = new DataSerializer().serializeResponse(response);
+				suffix = cached = Arrays.copyOfRange(bytes, 4, bytes.length);
+			}
+			return cached;
+		}
+	}
+
+	/*
+	 * A 4-way set-associative table of token buckets in parallel arrays. The
+	 * sets are guarded by striped locks.
+	 */
+	private static class BucketTable {
+
+		private static final int WAYS = 4;
+		private static final int STRIPES = 64;
+
+		private final long[] keys;
+		private final float[] tokens;
+		private final int[] stamps;
+		private final Object[] locks = new Object[STRIPES];
+		private final int mask;
+		private final long origin = System.currentTimeMillis();
+		private final AtomicLong evictions = new AtomicLong();
+
+		private BucketTable(int capacity) {
+			int sets = 1;
+			while (sets * WAYS < capacity)
+				sets <<= 1;
+			this.keys = new long[sets * WAYS];
+			this.tokens = new float[sets * WAYS];
+			this.stamps = new int[sets * WAYS];
+			this.mask = sets - 1;
+			for (int i = 0; i < STRIPES; i++)
+				locks[i] = new Object();
+		}
+
+		private boolean acquire(long key, float rate, int burst, long time) {
+			int now = (int) (time - origin);
+			long h = key * 0x9E3779B97F4A7C15L;
+			int set = (int) (h ^ (h >>> 32)) & mask;
+			int base = set * WAYS;
+			synchronized (locks[set & (STRIPES - 1)]) {
+				int victim = base;
+				for (int i = base; i < base + WAYS; i++) {
+					if (keys[i] == key) {
+						int elapsed = now - stamps[i];
+						float available = elapsed < 0 ? burst : Math.min(burst, tokens[i] + elapsed * rate / 1000f);
+						stamps[i] = now;
+						if (available < 1) {
+							tokens[i] = available;
+							return false;
+						}
+						tokens[i] = available - 1;
+						return true;
+					}
+					if (keys[victim] != 0 && (keys[i] == 0 || now - stamps[i] > now - stamps[victim]))
+						victim = i;
+				}
+				if (keys[victim] != 0 && tokens[victim] + (now - stamps[victim]) * rate / 1000f < 1)
+					evictions.incrementAndGet();
+				keys[victim] = key;
+				tokens[victim] = burst - 1;
+				stamps[victim] = now;
+				return true;
+			}
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package ch.ethz.inf.vs.californium.network.serialization;
+
+import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.EMPTY_CODE;
+import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.PAYLOAD_MARKER;
+import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.REQUEST_CODE_LOWER_BOUND;
+import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.REQUEST_CODE_UPPER_BOUNT;
+import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.RESPONSE_CODE_LOWER_BOUND;
+import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.RESPONSE_CODE_UPPER_BOUND;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import ch.ethz.inf.vs.californium.coap.CoAP;
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.Message;
+import ch.ethz.inf.vs.californium.coap.Option;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+
+/**
+ * The ByteBufferParser parses incoming datagrams to messages like the
+ * {@link DataParser} but reads directly from a byte array (with offset and
+ * length) or a {@link ByteBuffer}. The header is decoded with byte masks and
+ * the values of known options are written straight into the message's
+ * {@link OptionSet} without creating an intermediate {@link Option} object.
+ * Only arbitrary options still become Option objects.
+ * <p>
+ * A message requires its token and payload as separate byte arrays. The parser
+ * therefore copies them exactly once. Callers that only need to look at or
+ * forward the payload can use {@link #getPayloadBuffer()} after parsing, which
+ * is a read-only slice of the datagram and does not copy anything.
+ * <p>
+ * A parser can be reused for further datagrams with
+ * {@link #setBytes(byte[], int, int)}. It is not thread-safe.
+ */
+public class ByteBufferParser implements MessageParser {
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private byte[] bytes;
+	private int offset;
+	private int limit;
+
+	private int version;
+	private int type;
+	private int tokenlength;
+	private int code;
+	private int mid;
+
+	/** The payload position within bytes, valid after a message has been parsed */
+	private int payloadOffset;
+	private int payloadLength;
+
+	public ByteBufferParser(byte[] bytes) {
+		setBytes(bytes, 0, bytes.length);
+	}
+
+	public ByteBufferParser(byte[] bytes, int offset, int length) {
+		setBytes(bytes, offset, length);
+	}
+
+	/**
+	 * Instantiates a new parser for the remaining bytes of the specified
+	 * buffer. The position of the buffer is not changed. Heap buffers are read
+	 * in place, direct buffers are copied once.
+	 *
+	 * @param buffer the buffer
+	 */
+	public ByteBufferParser(ByteBuffer buffer) {
+		setBuffer(buffer);
+	}
+
+	/**
+	 * Resets this parser to the remaining bytes of the specified buffer.
+	 *
+	 * @param buffer the buffer
+	 */
+	public void setBuffer(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			setBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		} else {
+			byte[] copy = new byte[buffer.remaining()];
+			buffer.duplicate().get(copy);
+			setBytes(copy, 0, copy.length);
+		}
+	}
+
+	/**
+	 * Resets this parser to the specified range of the byte array and decodes
+	 * the header. A datagram shorter than the header is not well-formed.
+	 *
+	 * @param bytes the byte array
+	 * @param offset the start of the datagram
+	 * @param length the length of the datagram
+	 */
+	public void setBytes(byte[] bytes, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > bytes.length)
+			throw new IndexOutOfBoundsException("Invalid range "+offset+"+"+length+" for "+bytes.length+" bytes");
+		this.bytes = bytes;
+		this.offset = offset;
+		this.limit = offset + length;
+		this.payloadOffset = limit;
+		this.payloadLength = 0;
+
+		if (length < 4) {
+			this.version = 0;
+			this.type = 0;
+			this.tokenlength = 0;
+			this.code = 0;
+			this.mid = 0;
+			return;
+		}
+		int first = bytes[offset] & 0xFF;
+		this.version = first >>> 6;
+		this.type = (first >>> 4) & 0x03;
+		this.tokenlength = first & 0x0F;
+		this.code = bytes[offset + 1] & 0xFF;
+		this.mid = ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+	}
+
+	public boolean isWellFormed() {
+		return version == CoAP.VERSION;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public int getMID() {
+		return mid;
+	}
+
+	public boolean isReply() {
+		return type > CoAP.Type.NON.value;
+	}
+
+	public boolean isRequest() {
+		return code >= REQUEST_CODE_LOWER_BOUND &&
+				code <= REQUEST_CODE_UPPER_BOUNT;
+	}
+
+	public boolean isResponse() {
+		return code >= RESPONSE_CODE_LOWER_BOUND &&
+				code <= RESPONSE_CODE_UPPER_BOUND;
+	}
+
+	public boolean isEmpty() {
+		return code == EMPTY_CODE;
+	}
+
+	public Request parseRequest() {
+		assert(isRequest());
+		Request request = new Request(Code.valueOf(code));
+		parseMessage(request);
+		return request;
+	}
+
+	public Response parseResponse() {
+		assert(isResponse());
+		Response response = new Response(ResponseCode.valueOf(code));
+		parseMessage(response);
+		return response;
+	}
+
+	public EmptyMessage parseEmptyMessage() {
+		assert(!isRequest() && !isResponse());
+		EmptyMessage message = new EmptyMessage(Type.valueOf(type));
+		parseMessage(message);
+		return message;
+	}
+
+	/**
+	 * Returns a read-only view of the payload of the last parsed message. The
+	 * view shares the bytes of the datagram and is empty if the message has
+	 * no payload.
+	 *
+	 * @return the payload slice
+	 */
+	public ByteBuffer getPayloadBuffer() {
+		return ByteBuffer.wrap(bytes, payloadOffset, payloadLength).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the offset of the payload of the last parsed message within the
+	 * underlying byte array.
+	 *
+	 * @return the payload offset
+	 */
+	public int getPayloadOffset() {
+		return payloadOffset;
+	}
+
+	/**
+	 * Returns the length of the payload of the last parsed message.
+	 *
+	 * @return the payload length
+	 */
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+
+	private void parseMessage(Message message) {
+		message.setType(Type.valueOf(type));
+		message.setMID(mid);
+
+		int position = offset + 4;
+		if (tokenlength > 0) {
+			checkAvailable(position, tokenlength);
+			message.setToken(Arrays.copyOfRange(bytes, position, position + tokenlength));
+			position += tokenlength;
+		} else {
+			message.setToken(EMPTY);
+		}
+
+		OptionSet options = message.getOptions();
+		int currentOption = 0;
+		boolean marker = false;
+		while (position < limit) {
+			int nextByte = bytes[position++] & 0xFF;
+			if (nextByte == (PAYLOAD_MARKER & 0xFF)) {
+				marker = true;
+				break;
+			}
+
+			// the first 4 bits of the byte represent the option delta
+			int deltaNibble = nextByte >>> 4;
+			int delta;
+			if (deltaNibble <= 12) {
+				delta = deltaNibble;
+			} else if (deltaNibble == 13) {
+				checkAvailable(position, 1);
+				delta = (bytes[position++] & 0xFF) + 13;
+			} else if (deltaNibble == 14) {
+				checkAvailable(position, 2);
+				delta = (((bytes[position] & 0xFF) << 8) | (bytes[position + 1] & 0xFF)) + 269;
+				position += 2;
+			} else {
+				throw new IllegalArgumentException("Unsupported option delta "+deltaNibble);
+			}
+			currentOption += delta;
+
+			// the second 4 bits represent the option length
+			int lengthNibble = nextByte & 0x0F;
+			int length;
+			if (lengthNibble <= 12) {
+				length = lengthNibble;
+			} else if (lengthNibble == 13) {
+				checkAvailable(position, 1);
+				length = (bytes[position++] & 0xFF) + 13;
+			} else if (lengthNibble == 14) {
+				checkAvailable(position, 2);
+				length = (((bytes[position] & 0xFF) << 8) | (bytes[position + 1] & 0xFF)) + 269;
+				position += 2;
+			} else {
+				throw new IllegalArgumentException("Unsupported option length "+lengthNibble);
+			}
+
+			checkAvailable(position, length);
+			addOptionToSet(currentOption, position, length, options);
+			position += length;
+		}
+
+		if (marker) {
+			// the presence of a marker followed by a zero-length payload must be processed as a message format error
+			if (position >= limit)
+				throw new IllegalStateException();
+
+			payloadOffset = position;
+			payloadLength = limit - position;
+			message.setPayload(Arrays.copyOfRange(bytes, position, limit));
+		} else {
+			payloadOffset = limit;
+			payloadLength = 0;
+			message.setPayload(EMPTY);
+		}
+	}
+
+	/*
+	 * Writes the option with the specified number and value range directly
+	 * into the option set. Mirrors DataParser#addOptionToSet().
+	 */
+	private void addOptionToSet(int number, int position, int length, OptionSet optionSet) {
+		switch (number) {
+			case CoAP.OptionRegistry.IF_MATCH:       optionSet.addIfMatch(copy(position, length)); break;
+			case CoAP.OptionRegistry.URI_HOST:       optionSet.setURIHost(string(position, length)); break;
+			case CoAP.OptionRegistry.ETAG:           optionSet.addETag(copy(position, length)); break;
+			case CoAP.OptionRegistry.IF_NONE_MATCH:  optionSet.setIfNoneMatch(true); break;
+			case CoAP.OptionRegistry.URI_PORT:       optionSet.setURIPort((int) uint(position, length)); break;
+			case CoAP.OptionRegistry.LOCATION_PATH:  optionSet.addLocationPath(string(position, length)); break;
+			case CoAP.OptionRegistry.URI_PATH:       optionSet.addURIPath(string(position, length)); break;
+			case CoAP.OptionRegistry.CONTENT_FORMAT: optionSet.setContentFormat((int) uint(position, length)); break;
+			case CoAP.OptionRegistry.MAX_AGE:        optionSet.setMaxAge(uint(position, length)); break;
+			case CoAP.OptionRegistry.URI_QUERY:      optionSet.addURIQuery(string(position, length)); break;
+			case CoAP.OptionRegistry.ACCEPT:         optionSet.setAccept((int) uint(position, length)); break;
+			case CoAP.OptionRegistry.LOCATION_QUERY: optionSet.addLocationQuery(string(position, length)); break;
+			case CoAP.OptionRegistry.PROXY_URI:      optionSet.setProxyURI(string(position, length)); break;
+			case CoAP.OptionRegistry.PROXY_SCHEME:   optionSet.setProxyScheme(string(position, length)); break;
+			case CoAP.OptionRegistry.BLOCK1:         setBlock(optionSet, true, position, length); break;
+			case CoAP.OptionRegistry.BLOCK2:         setBlock(optionSet, false, position, length); break;
+			case CoAP.OptionRegistry.OBSERVE:        optionSet.setObserve((int) uint(position, length)); break;
+			case CoAP.OptionRegistry.SIZE2:          optionSet.setSize2((int) uint(position, length)); break;
+			case CoAP.OptionRegistry.SIZE1:          optionSet.setSize1((int) uint(position, length)); break;
+			default:
+				Option option = new Option(number);
+				option.setValue(copy(position, length));
+				optionSet.addOption(option);
+		}
+	}
+
+	/*
+	 * Decodes a block option (0-3 bytes) like BlockOption(byte[]) does.
+	 */
+	private void setBlock(OptionSet optionSet, boolean block1, int position, int length) {
+		if (length > 3)
+			throw new IllegalArgumentException("Block option's length must at most 3 bytes inclusive");
+		int szx = 0;
+		boolean m = false;
+		int num = 0;
+		if (length > 0) {
+			int value = (int) uint(position, length);
+			szx = value & 0x7;
+			m = (value >> 3 & 0x1) == 1;
+			num = value >>> 4;
+		}
+		if (block1) optionSet.setBlock1(szx, m, num);
+		else optionSet.setBlock2(szx, m, num);
+	}
+
+	private long uint(int position, int length) {
+		long value = 0;
+		for (int i = 0; i < length; i++)
+			value = (value << 8) | (bytes[position + i] & 0xFFL);
+		return value;
+	}
+
+	private String string(int position, int length) {
+		// same (platform) charset as Option#getStringValue()
+		return new String(bytes, position, length);
+	}
+
+	private byte[] copy(int position, int length) {
+		return Arrays.copyOfRange(bytes, position, position + length);
+	}
+
+	private void checkAvailable(int position, int length) {
+		if (position + length > limit)
+			throw new IllegalStateException("Message is truncated");
+	}
+}
@@ -0,0 +1,435 @@
+package ch.ethz.inf.vs.californium.network.serialization;
+
+import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.PAYLOAD_MARKER;
+import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.VERSION;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import ch.ethz.inf.vs.californium.coap.BlockOption;
+import ch.ethz.inf.vs.californium.coap.CoAP;
+import ch.ethz.inf.vs.californium.coap.Message;
+import ch.ethz.inf.vs.californium.coap.Option;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+
+/**
+ * The ByteBufferSerializer serializes messages like the {@link DataSerializer}
+ * but without a {@link DatagramWriter}. It first computes the exact length of
+ * the encoded message and then writes header, token, options and payload into
+ * a byte array in a single pass. The options are taken directly from the
+ * fields of the {@link OptionSet} in the order of their option numbers instead
+ * of building a sorted list of {@link Option} objects. Only the arbitrary
+ * options are sorted, and only if there are more than one.
+ * <p>
+ * A serializer keeps a small amount of scratch state and is therefore not
+ * thread-safe. Reuse one instance per thread, e.g., through
+ * {@link #getThreadLocal()}.
+ */
+public class ByteBufferSerializer {
+
+	/** True if the default charset encodes characters below 0x80 as single bytes */
+	private static final boolean ASCII_COMPATIBLE = Arrays.equals(
+			"Az09/?=&.-_~".getBytes(), new byte[] {'A','z','0','9','/','?','=','&','.','-','_','~'});
+
+	private static final ThreadLocal<ByteBufferSerializer> THREAD_LOCAL = new ThreadLocal<ByteBufferSerializer>() {
+		@Override protected ByteBufferSerializer initialValue() {
+			return new ByteBufferSerializer();
+		}
+	};
+
+	/**
+	 * Returns the serializer of the current thread.
+	 *
+	 * @return the thread's serializer
+	 */
+	public static ByteBufferSerializer getThreadLocal() {
+		return THREAD_LOCAL.get();
+	}
+
+	/** The target of the current pass or null if the pass only counts */
+	private byte[] buffer;
+	private int position;
+	private int lastOptionNumber;
+
+	/** The arbitrary options of the current message in order */
+	private Option[] others = new Option[4];
+	private int othersCount;
+	private int othersIndex;
+
+	/** Scratch space to encode into before copying to a direct buffer */
+	private byte[] scratch = new byte[0];
+
+	public byte[] serializeRequest(Request request) {
+		return serialize(request);
+	}
+
+	public byte[] serializeResponse(Response response) {
+		return serialize(response);
+	}
+
+	public byte[] serializeEmptyMessage(Message message) {
+		return serialize(message);
+	}
+
+	/**
+	 * Serializes the specified message into a new byte array of the exact
+	 * length.
+	 *
+	 * @param message the message
+	 * @return the encoded message
+	 */
+	public byte[] serialize(Message message) {
+		byte[] bytes = new byte[getLength(message)];
+		serialize(message, bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * Serializes the specified message into the specified byte array starting
+	 * at the specified offset. Use {@link #getLength(Message)} to find out how
+	 * many bytes are required.
+	 *
+	 * @param message the message
+	 * @param bytes the target byte array
+	 * @param offset the offset to start writing at
+	 * @return the number of bytes written
+	 * @throws BufferOverflowException if the message does not fit
+	 */
+	public int serialize(Message message, byte[] bytes, int offset) {
+		int length = getLength(message);
+		if (offset < 0 || offset + length > bytes.length)
+			throw new BufferOverflowException();
+		encode(message, bytes, offset);
+		return length;
+	}
+
+	/**
+	 * Serializes the specified message into the specified buffer at its
+	 * current position and advances the position. Heap buffers are written in
+	 * place, direct buffers are filled from a scratch array that this
+	 * serializer reuses.
+	 *
+	 * @param message the message
+	 * @param target the buffer
+	 * @return the number of bytes written
+	 * @throws BufferOverflowException if the message does not fit
+	 */
+	public int serialize(Message message, ByteBuffer target) {
+		int length = getLength(message);
+		if (length > target.remaining())
+			throw new BufferOverflowException();
+		if (target.hasArray()) {
+			encode(message, target.array(), target.arrayOffset() + target.position());
+			target.position(target.position() + length);
+		} else {
+			if (scratch.length < length)
+				scratch = new byte[Math.max(length, 2 * scratch.length)];
+			encode(message, scratch, 0);
+			target.put(scratch, 0, length);
+		}
+		return length;
+	}
+
+	/**
+	 * Computes the exact number of bytes of the encoded message.
+	 *
+	 * @param message the message
+	 * @return the length of the encoded message
+	 */
+	public int getLength(Message message) {
+		return encode(message, null, 0);
+	}
+
+	/*
+	 * Encodes the message into the specified array starting at the specified
+	 * offset or only counts the bytes if the array is null. Returns the
+	 * number of bytes.
+	 */
+	private int encode(Message message, byte[] bytes, int offset) {
+		byte[] token = message.getToken();
+		if (token == null)
+			throw new NullPointerException("No Token has been set, not even an empty byte[0]");
+
+		this.buffer = bytes;
+		this.position = offset;
+		try {
+			if (bytes != null) {
+				int mid = message.getMID();
+				bytes[offset]     = (byte) (VERSION << 6 | message.getType().value << 4 | token.length & 0x0F);
+				bytes[offset + 1] = (byte) getCode(message);
+				bytes[offset + 2] = (byte) (mid >> 8);
+				bytes[offset + 3] = (byte) mid;
+			}
+			position += 4;
+			putBytes(token);
+
+			byte[] body = message instanceof Response ? ((Response) message).getSerializedBody() : null;
+			if (body != null)
+				putBytes(body);
+			else writeBody(message);
+			return position - offset;
+
+		} finally {
+			this.buffer = null;
+			Arrays.fill(others, 0, othersCount, null);
+			this.othersCount = 0;
+		}
+	}
+
+	/**
+	 * Serializes only the options and the payload of the specified message,
+	 * i.e., everything that follows the token. The result can be set as
+	 * serialized body of responses with the same options and payload, see
+	 * {@link Response#setSerializedBody(byte[])}. The type, MID and token of
+	 * the message are not required.
+	 *
+	 * @param message the message
+	 * @return the encoded options and payload
+	 */
+	public byte[] serializeBody(Message message) {
+		byte[] bytes = new byte[encodeBody(message, null)];
+		encodeBody(message, bytes);
+		return bytes;
+	}
+
+	/*
+	 * Encodes the options and the payload into the specified array or only
+	 * counts the bytes if the array is null. Returns the number of bytes.
+	 */
+	private int encodeBody(Message message, byte[] bytes) {
+		this.buffer = bytes;
+		this.position = 0;
+		try {
+			writeBody(message);
+			return position;
+
+		} finally {
+			this.buffer = null;
+			Arrays.fill(others, 0, othersCount, null);
+			this.othersCount = 0;
+		}
+	}
+
+	private void writeBody(Message message) {
+		writeOptions(message.getOptions());
+
+		byte[] payload = message.getPayload();
+		if (payload != null && payload.length > 0) {
+			// if payload is present and of non-zero length, it is prefixed by
+			// an one-byte Payload Marker (0xFF) which indicates the end of
+			// options and the start of the payload
+			if (buffer != null)
+				buffer[position] = PAYLOAD_MARKER;
+			position++;
+			putBytes(payload);
+		}
+	}
+
+	private static int getCode(Message message) {
+		if (message instanceof Request) {
+			CoAP.Code code = ((Request) message).getCode();
+			return code == null ? 0 : code.value;
+		} else if (message instanceof Response) {
+			return ((Response) message).getCode().value;
+		} else {
+			return 0;
+		}
+	}
+
+	/*
+	 * Walks the options in the order of their option numbers. Arbitrary
+	 * options are merged in before the first known option with a larger number
+	 * so that the result equals OptionSet#asSortedList().
+	 */
+	private void writeOptions(OptionSet options) {
+		lastOptionNumber = 0;
+		prepareOthers(options);
+
+		if (options.getIfMatchCount() > 0)
+			for (byte[] value:options.getIfMatch())
+				putOption(CoAP.OptionRegistry.IF_MATCH, value);
+		if (options.hasURIHost())
+			putOption(CoAP.OptionRegistry.URI_HOST, options.getURIHost());
+		if (options.getETagCount() > 0)
+			for (byte[] value:options.getETags())
+				putOption(CoAP.OptionRegistry.ETAG, value);
+		if (options.hasIfNoneMatch())
+			putOption(CoAP.OptionRegistry.IF_NONE_MATCH, (byte[]) null);
+		if (options.hasObserve())
+			putOption(CoAP.OptionRegistry.OBSERVE, options.getObserve() & 0xFFFFFFFFL);
+		if (options.hasURIPort())
+			putOption(CoAP.OptionRegistry.URI_PORT, options.getURIPort() & 0xFFFFFFFFL);
+		if (options.getLocationPathCount() > 0)
+			for (String value:options.getLocationPaths())
+				putOption(CoAP.OptionRegistry.LOCATION_PATH, value);
+		if (options.getURIPathCount() > 0)
+			for (String value:options.getURIPaths())
+				putOption(CoAP.OptionRegistry.URI_PATH, value);
+		if (options.hasContentFormat())
+			putOption(CoAP.OptionRegistry.CONTENT_FORMAT, options.getContentFormat() & 0xFFFFFFFFL);
+		if (options.hasMaxAge())
+			putOption(CoAP.OptionRegistry.MAX_AGE, options.getMaxAge());
+		if (options.getURIQueryCount() > 0)
+			for (String value:options.getURIQueries())
+				putOption(CoAP.OptionRegistry.URI_QUERY, value);
+		if (options.hasAccept())
+			putOption(CoAP.OptionRegistry.ACCEPT, options.getAccept() & 0xFFFFFFFFL);
+		if (options.getLocationQueryCount() > 0)
+			for (String value:options.getLocationQueries())
+				putOption(CoAP.OptionRegistry.LOCATION_QUERY, value);
+		if (options.hasBlock2())
+			putOption(CoAP.OptionRegistry.BLOCK2, getBlockValue(options.getBlock2()));
+		if (options.hasBlock1())
+			putOption(CoAP.OptionRegistry.BLOCK1, getBlockValue(options.getBlock1()));
+		if (options.hasSize2())
+			putOption(CoAP.OptionRegistry.SIZE2, options.getSize2() & 0xFFFFFFFFL);
+		if (options.hasProxyURI())
+			putOption(CoAP.OptionRegistry.PROXY_URI, options.getProxyURI());
+		if (options.hasProxyScheme())
+			putOption(CoAP.OptionRegistry.PROXY_SCHEME, options.getProxyScheme());
+		if (options.hasSize1())
+			putOption(CoAP.OptionRegistry.SIZE1, options.getSize1() & 0xFFFFFFFFL);
+
+		putOthersBefore(Integer.MAX_VALUE);
+	}
+
+	/*
+	 * Copies the arbitrary options into the scratch array and sorts them. The
+	 * sort is stable just as Collections.sort() in OptionSet#asSortedList().
+	 */
+	private void prepareOthers(OptionSet options) {
+		othersIndex = 0;
+		othersCount = options.getOthersCount();
+		if (othersCount == 0)
+			return;
+		if (others.length < othersCount)
+			others = new Option[Math.max(othersCount, 2 * others.length)];
+		List<Option> list = options.getOthers();
+		int i = 0;
+		for (Option option:list)
+			others[i++] = option;
+		if (othersCount > 1)
+			Arrays.sort(others, 0, othersCount);
+	}
+
+	private void putOthersBefore(int number) {
+		while (othersIndex < othersCount && others[othersIndex].getNumber() < number) {
+			Option option = others[othersIndex++];
+			putHeader(option.getNumber(), option.getLength());
+			putBytes(option.getValue());
+		}
+	}
+
+	private void putOption(int number, byte[] value) {
+		putOthersBefore(number);
+		if (value == null) {
+			putHeader(number, 0);
+		} else {
+			putHeader(number, value.length);
+			putBytes(value);
+		}
+	}
+
+	private void putOption(int number, long value) {
+		putOthersBefore(number);
+		// same length as Option#setLongValue()
+		int length = 0;
+		while (length < 8 && (value >= 1L << (length * 8) || value < 0))
+			length++;
+		putHeader(number, length);
+		if (buffer != null)
+			for (int i = 0; i < length; i++)
+				buffer[position + length - i - 1] = (byte) (value >> i * 8);
+		position += length;
+	}
+
+	private void putOption(int number, String value) {
+		putOthersBefore(number);
+		int length = ASCII_COMPATIBLE ? getAsciiLength(value) : -1;
+		if (length < 0) {
+			// same (platform) charset as Option#setStringValue()
+			byte[] bytes = value.getBytes();
+			putHeader(number, bytes.length);
+			putBytes(bytes);
+		} else {
+			putHeader(number, length);
+			if (buffer != null)
+				for (int i = 0; i < length; i++)
+					buffer[position + i] = (byte) value.charAt(i);
+			position += length;
+		}
+	}
+
+	/*
+	 * Returns the length of the string if all characters are ASCII, else -1.
+	 */
+	private static int getAsciiLength(String value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++)
+			if (value.charAt(i) >= 0x80)
+				return -1;
+		return length;
+	}
+
+	/*
+	 * Same value as BlockOption#getValue() but as integer
+	 */
+	private static long getBlockValue(BlockOption block) {
+		return block.getNum() << 4 | (block.isM() ? 1 << 3 : 0) | block.getSzx();
+	}
+
+	private void putHeader(int number, int length) {
+		int delta = number - lastOptionNumber;
+		int deltaNibble = getOptionNibble(delta);
+		int lengthNibble = getOptionNibble(length);
+		if (buffer != null)
+			buffer[position] = (byte) (deltaNibble << 4 | lengthNibble);
+		position++;
+		putExtended(deltaNibble, delta);
+		putExtended(lengthNibble, length);
+		lastOptionNumber = number;
+	}
+
+	private void putExtended(int nibble, int value) {
+		if (nibble == 13) {
+			if (buffer != null)
+				buffer[position] = (byte) (value - 13);
+			position++;
+		} else if (nibble == 14) {
+			if (buffer != null) {
+				buffer[position]     = (byte) ((value - 269) >> 8);
+				buffer[position + 1] = (byte) (value - 269);
+			}
+			position += 2;
+		}
+	}
+
+	private void putBytes(byte[] bytes) {
+		if (buffer != null)
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+
+	/**
+	 * Returns the 4-bit option header value.
+	 *
+	 * @param optionValue
+	 *            the option value (delta or length) to be encoded.
+	 * @return the 4-bit option header value.
+	 */
+	private static int getOptionNibble(int optionValue) {
+		if (optionValue <= 12) {
+			return optionValue;
+		} else if (optionValue <= 255 + 13) {
+			return 13;
+		} else if (optionValue <= 65535 + 269) {
+			return 14;
+		} else {
+			throw new IllegalArgumentException("Unsupported option delta "+optionValue);
+		}
+	}
+}
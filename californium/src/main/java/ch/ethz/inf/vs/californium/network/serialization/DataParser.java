@@ -25,7 +25,7 @@ import ch.ethz.inf.vs.californium.coap.Response;
 /**
  * The DataParser parses incoming byte arrays to messages.
  */
-public class DataParser {
+public class DataParser implements MessageParser {
 
 	private DatagramReader reader;
 	
@@ -163,6 +163,8 @@ public class DataParser {
 			case CoAP.OptionRegistry.BLOCK1:         optionSet.setBlock1(option.getValue()); break;
 			case CoAP.OptionRegistry.BLOCK2:         optionSet.setBlock2(option.getValue()); break;
 			case CoAP.OptionRegistry.OBSERVE:        optionSet.setObserve(option.getIntegerValue()); break;
+			case CoAP.OptionRegistry.SIZE2:          optionSet.setSize2(option.getIntegerValue()); break;
+			case CoAP.OptionRegistry.SIZE1:          optionSet.setSize1(option.getIntegerValue()); break;
 			default: optionSet.addOption(option);
 		}
 	}
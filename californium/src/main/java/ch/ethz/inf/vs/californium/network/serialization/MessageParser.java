@@ -0,0 +1,41 @@
+package ch.ethz.inf.vs.californium.network.serialization;
+
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+
+/**
+ * A MessageParser converts the bytes of a single datagram into a message. The
+ * header is available right after construction so that the caller can decide
+ * which kind of message to parse. The {@link DataParser} reads the datagram
+ * bit by bit, the {@link ByteBufferParser} reads it directly from a byte array
+ * or a {@link java.nio.ByteBuffer}.
+ */
+public interface MessageParser {
+
+	/**
+	 * Returns true if the message has the CoAP version this parser supports.
+	 *
+	 * @return true if the message is well-formed
+	 */
+	public boolean isWellFormed();
+
+	public int getVersion();
+
+	public int getMID();
+
+	public boolean isReply();
+
+	public boolean isRequest();
+
+	public boolean isResponse();
+
+	public boolean isEmpty();
+
+	public Request parseRequest();
+
+	public Response parseResponse();
+
+	public EmptyMessage parseEmptyMessage();
+
+}
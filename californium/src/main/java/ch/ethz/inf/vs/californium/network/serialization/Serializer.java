@@ -7,7 +7,8 @@ import ch.ethz.inf.vs.elements.RawData;
 
 /**
  * The serializer serializes requests, responses and empty messages to bytes,
- * i.e. {@link RawData}.
+ * i.e. {@link RawData}. It uses the {@link ByteBufferSerializer} of the
+ * current thread to encode messages.
  */
 public class Serializer {
 
@@ -24,7 +25,7 @@ public class Serializer {
 	public RawData serialize(Request request) {
 		byte[] bytes = request.getBytes();
 		if (bytes == null)
-			bytes = new DataSerializer().serializeRequest(request);
+			bytes = ByteBufferSerializer.getThreadLocal().serializeRequest(request);
 		request.setBytes(bytes);
 		return new RawData(bytes, request.getDestination(), request.getDestinationPort());
 	}
@@ -41,7 +42,7 @@ public class Serializer {
 	public RawData serialize(Response response) {
 		byte[] bytes = response.getBytes();
 		if (bytes == null)
-			bytes = new DataSerializer().serializeResponse(response);
+			bytes = ByteBufferSerializer.getThreadLocal().serializeResponse(response);
 		response.setBytes(bytes);
 		return new RawData(bytes, response.getDestination(), response.getDestinationPort());
 	}
@@ -59,7 +60,7 @@ public class Serializer {
 	public RawData serialize(EmptyMessage message) {
 		byte[] bytes = message.getBytes();
 		if (bytes == null)
-			bytes = new DataSerializer().serializeEmptyMessage(message);
+			bytes = ByteBufferSerializer.getThreadLocal().serializeEmptyMessage(message);
 		message.setBytes(bytes);
 		return new RawData(bytes, message.getDestination(), message.getDestinationPort());
 	}
@@ -9,6 +9,8 @@ import ch.ethz.inf.vs.californium.coap.Message;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.timer.ExecutorTimer;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
 
 /**
  * A partial implementation of a layer. Override receive and send-methods call
@@ -29,6 +31,9 @@ public abstract class AbstractLayer implements Layer {
 	/** The executor. */
 	protected ScheduledExecutorService executor;
 	
+	/** The timer for timeouts. */
+	protected Timer timer;
+	
 	/* (non-Javadoc)
 	 * @see ch.inf.vs.californium.network.layer.Layer#sendRequest(ch.inf.vs.californium.network.Exchange, ch.inf.vs.californium.coap.Request)
 	 */
@@ -121,6 +126,15 @@ public abstract class AbstractLayer implements Layer {
 	@Override
 	public void setExecutor(ScheduledExecutorService executor) {
 		this.executor = executor;
+		this.timer = executor != null ? new ExecutorTimer(executor) : null;
+	}
+	
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.network.stack.Layer#setTimer(ch.ethz.inf.vs.californium.network.timer.Timer)
+	 */
+	@Override
+	public void setTimer(Timer timer) {
+		this.timer = timer;
 	}
 	
 	/**
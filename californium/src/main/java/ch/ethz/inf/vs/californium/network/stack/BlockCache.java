@@ -0,0 +1,182 @@
+package ch.ethz.inf.vs.californium.network.stack;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.ethz.inf.vs.californium.coap.BlockOption;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.serialization.ByteBufferSerializer;
+
+/**
+ * The BlockCache keeps the encoded options and payload of Block2 responses
+ * by resource, ETag, block size and block number, so that many clients that
+ * download the same representation block by block share the encoded blocks
+ * instead of having each block sliced and encoded again for every client.
+ * The cached bytes are set as serialized body of the block responses, see
+ * {@link Response#setSerializedBody(byte[])}.
+ * <p>
+ * Only blocks of responses whose payload is a shared buffer and that carry
+ * exactly one ETag are cached. A resource that uses this mode must therefore
+ * change the ETag whenever the representation or any other option of its
+ * responses changes. The cache evicts the least recently used blocks when it
+ * holds more than its capacity in bytes.
+ */
+public class BlockCache {
+
+	/** The maximum number of cached bytes */
+	private final int capacity;
+
+	/** The blocks in the order of their last use */
+	private final LinkedHashMap<Key, byte[]> blocks = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+
+	/** The number of cached bytes */
+	private int size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Constructs a new cache that holds at most the specified number of bytes.
+	 *
+	 * @param capacity the capacity in bytes
+	 */
+	public BlockCache(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive but was "+capacity);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Checks whether the blocks of the specified response can be cached.
+	 *
+	 * @param block the block response
+	 * @return true if the block can be cached
+	 */
+	public static boolean isCacheable(Response block) {
+		OptionSet options = block.getOptions();
+		return options.hasBlock2() && options.getETagCount() == 1
+				&& !options.hasObserve() && !options.hasBlock1();
+	}
+
+	/**
+	 * Returns the encoded options and payload of the specified block of the
+	 * specified resource. The block is encoded and cached if it is not in the
+	 * cache yet. The block must be cacheable, see {@link #isCacheable(Response)}.
+	 *
+	 * @param resource the URI of the resource
+	 * @param block the block response with its final options
+	 * @return the serialized body of the block
+	 */
+	public byte[] getSerializedBody(String resource, Response block) {
+		OptionSet options = block.getOptions();
+		BlockOption block2 = options.getBlock2();
+		Key key = new Key(resource, options.getETags().get(0), block2.getSzx(), block2.getNum());
+
+		byte[] body;
+		synchronized (this) {
+			body = blocks.get(key);
+		}
+		if (body != null) {
+			hits.incrementAndGet();
+			return body;
+		}
+
+		misses.incrementAndGet();
+		body = ByteBufferSerializer.getThreadLocal().serializeBody(block);
+		if (body.length <= capacity)
+			put(key, body);
+		return body;
+	}
+
+	private synchronized void put(Key key, byte[] body) {
+		byte[] previous = blocks.put(key, body);
+		if (previous != null)
+			size -= previous.length;
+		size += body.length;
+		for (Iterator<byte[]> it = blocks.values().iterator(); size > capacity && it.hasNext();) {
+			size -= it.next().length;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Removes all blocks from the cache.
+	 */
+	public synchronized void clear() {
+		blocks.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of cached bytes.
+	 *
+	 * @return the size in bytes
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of cached blocks.
+	 *
+	 * @return the number of blocks
+	 */
+	public synchronized int getBlockCount() {
+		return blocks.size();
+	}
+
+	/**
+	 * Returns the number of blocks that have been found in the cache.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of blocks that had to be encoded.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/*
+	 * Identifies a block of a representation.
+	 */
+	private static final class Key {
+
+		private final String resource;
+		private final byte[] etag;
+		private final int szx;
+		private final int num;
+		private final int hash;
+
+		private Key(String resource, byte[] etag, int szx, int num) {
+			this.resource = resource;
+			this.etag = etag;
+			this.szx = szx;
+			this.num = num;
+			this.hash = ((resource.hashCode() * 31 + Arrays.hashCode(etag)) * 31 + szx) * 31 + num;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key key = (Key) o;
+			return num == key.num && szx == key.szx
+					&& resource.equals(key.resource) && Arrays.equals(etag, key.etag);
+		}
+	}
+}
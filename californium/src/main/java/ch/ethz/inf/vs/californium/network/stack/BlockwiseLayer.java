@@ -1,5 +1,12 @@
 package ch.ethz.inf.vs.californium.network.stack;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import ch.ethz.inf.vs.californium.coap.BlockOption;
@@ -12,18 +19,29 @@ import ch.ethz.inf.vs.californium.coap.MessageObserverAdapter;
 import ch.ethz.inf.vs.californium.coap.OptionSet;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.metrics.Counter;
+import ch.ethz.inf.vs.californium.metrics.Metrics;
 import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserverAdapter;
+import ch.ethz.inf.vs.californium.network.trace.TraceEvent;
+import ch.ethz.inf.vs.californium.network.trace.Tracing;
 
 public class BlockwiseLayer extends AbstractLayer {
 
 	/** The logger. */
 	protected final static Logger LOGGER = Logger.getLogger(BlockwiseLayer.class.getCanonicalName());
 	
+	private final static Counter BLOCK1_RECEIVED = Metrics.counter("blockwise.block1_received");
+	private final static Counter BLOCK2_RECEIVED = Metrics.counter("blockwise.block2_received");
+	private final static Counter TRANSFERS_COMPLETED = Metrics.counter("blockwise.transfers_completed");
+	private final static Counter WRONG_BLOCKS = Metrics.counter("blockwise.wrong_blocks");
+	private final static Counter TRANSFERS_REJECTED = Metrics.counter("blockwise.transfers_rejected");
+	private final static Counter TRANSFERS_EXPIRED = Metrics.counter("blockwise.transfers_expired");
+	
 	// TODO: Size Option. Include only in first block.
-	// TODO: DoS: server should have max allowed blocks/bytes/time to allocate.
 	// TODO: Random access for Cf servers: The draft still needs to specify a reaction to "overshoot"
 	// TODO: Blockwise with separate response or NONs. Not yet mentioned in draft.
 	// TODO: How should our client deal with a server that handles blocks non-atomic?
@@ -65,9 +83,45 @@ public class BlockwiseLayer extends AbstractLayer {
 	private int maxMsgSize;
 	private int defaultBlockSize;
 	
+	/*
+	 * The body of a Block1 request is either assembled in the heap or, if the
+	 * sink factory provides a sink for it, streamed into the sink block by
+	 * block. Both are limited per transfer and in total over all ongoing
+	 * transfers of this layer. A transfer that receives no block for the idle
+	 * timeout is aborted and its exchange completed.
+	 */
+	private int maxBodySize;
+	private int maxTotalSize;
+	private int idleTimeout;
+	
+	/** The number of bytes of all ongoing Block1 transfers */
+	private final AtomicLong totalSize = new AtomicLong();
+	
+	/** The factory for the sinks of streamed bodies or null */
+	private volatile BodySinkFactory sinkFactory;
+	
+	/** The encoded blocks of shared response payloads or null */
+	private final BlockCache blockCache;
+	
+	/**
+	 * With a Block1 window larger than 1, a client announces the size of the
+	 * body with Size1 in the first block. A server that assembles blocks in
+	 * any order into a body of that size echoes Size1 in its 2.31 response,
+	 * whereupon the client sends up to a window of the remaining blocks in
+	 * parallel. Servers that do not echo Size1 receive the blocks one at a
+	 * time as usual.
+	 */
+	private int block1Window;
+	
 	public BlockwiseLayer(NetworkConfig config) {
 		this.maxMsgSize = config.getInt(NetworkConfigDefaults.MAX_MESSAGE_SIZE);
 		this.defaultBlockSize = config.getInt(NetworkConfigDefaults.DEFAULT_BLOCK_SIZE);
+		this.maxBodySize = config.getInt(NetworkConfigDefaults.BLOCKWISE_MAX_BODY_SIZE);
+		this.maxTotalSize = config.getInt(NetworkConfigDefaults.BLOCKWISE_MAX_TOTAL_SIZE);
+		this.idleTimeout = config.getInt(NetworkConfigDefaults.BLOCKWISE_IDLE_TIMEOUT);
+		int cacheSize = config.getInt(NetworkConfigDefaults.BLOCKWISE_CACHE_SIZE);
+		this.blockCache = cacheSize > 0 ? new BlockCache(cacheSize) : null;
+		this.block1Window = config.getInt(NetworkConfigDefaults.BLOCKWISE_BLOCK1_WINDOW);
 		LOGGER.config("Blockwise14 layer uses MAX_MESSAGE_SIZE: "+maxMsgSize+" and DEFAULT_BLOCK_SIZE:"+defaultBlockSize);
 		
 		config.addConfigObserver(new NetworkConfigObserverAdapter() {
@@ -77,10 +131,47 @@ public class BlockwiseLayer extends AbstractLayer {
 					maxMsgSize = value;
 				if (NetworkConfigDefaults.DEFAULT_BLOCK_SIZE.equals(key))
 					defaultBlockSize = value;
+				if (NetworkConfigDefaults.BLOCKWISE_MAX_BODY_SIZE.equals(key))
+					maxBodySize = value;
+				if (NetworkConfigDefaults.BLOCKWISE_MAX_TOTAL_SIZE.equals(key))
+					maxTotalSize = value;
+				if (NetworkConfigDefaults.BLOCKWISE_IDLE_TIMEOUT.equals(key))
+					idleTimeout = value;
+				if (NetworkConfigDefaults.BLOCKWISE_BLOCK1_WINDOW.equals(key))
+					block1Window = value;
 			}
 		});
 	}
 	
+	/**
+	 * Sets the factory that decides which Block1 request bodies are streamed
+	 * into a {@link BodySink} instead of being assembled in the heap.
+	 * 
+	 * @param sinkFactory the factory or null to assemble all bodies
+	 */
+	public void setBodySinkFactory(BodySinkFactory sinkFactory) {
+		this.sinkFactory = sinkFactory;
+	}
+	
+	/**
+	 * Returns the number of bytes that all ongoing Block1 transfers have
+	 * received so far.
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getTotalSize() {
+		return totalSize.get();
+	}
+	
+	/**
+	 * Returns the cache of the encoded blocks of shared response payloads.
+	 * 
+	 * @return the cache or null if BLOCKWISE_CACHE_SIZE is 0
+	 */
+	public BlockCache getBlockCache() {
+		return blockCache;
+	}
+	
 	@Override
 	public void sendRequest(Exchange exchange, Request request) {
 		if (requiresBlockwise(request)) {
@@ -89,6 +180,11 @@ public class BlockwiseLayer extends AbstractLayer {
 			BlockwiseStatus status = findRequestBlockStatus(exchange, request);
 			
 			Request block = getNextRequestBlock(request, status);
+			if (block1Window > 1 && !status.isComplete()) {
+				// announce the size so that the server may accept the remaining blocks in parallel
+				block.getOptions().setSize1(request.getPayloadSize());
+				status.setWindow(block1Window);
+			}
 			
 			exchange.setRequestBlockStatus(status);
 			exchange.setCurrentRequest(block);
@@ -106,90 +202,84 @@ public class BlockwiseLayer extends AbstractLayer {
 			// This must be a large POST or PUT request
 			BlockOption block1 = request.getOptions().getBlock1();
 			LOGGER.fine("Request contains block1 option "+block1);
+			BLOCK1_RECEIVED.increment();
 			
 			BlockwiseStatus status = findRequestBlockStatus(exchange, request);
-			if (block1.getNum() == 0 && status.getCurrentNum() > 0) {
+			if (block1.getNum() == 0 && status.getCurrentNum() > 0 && !request.isDuplicate()) {
 				// reset the blockwise transfer
 				LOGGER.finer("Block1 num is 0, the client has restarted the blockwise transfer. Reset status.");
+				release(status, true);
 				status = new BlockwiseStatus(request.getOptions().getContentFormat());
 				exchange.setRequestBlockStatus(status);
 			}
 			
-			if (block1.getNum() == status.getCurrentNum()) {
+			if (status.getBody() != null) {
+				// the blocks of a parallel transfer arrive in any order
+				receiveParallelBlock(exchange, request, status, block1);
+				
+			} else if (block1.getNum() == status.getCurrentNum()) {
 				
-				if (request.getOptions().getContentFormat()==status.getContentFormat()) {
-					status.addBlock(request.getPayload());
+				if (status.isClosed()) {
+					LOGGER.info("Block1 transfer has been aborted. Respond with 4.08 (Request Entity Incomplete)");
+					sendBlock1Error(exchange, request, block1, ResponseCode.REQUEST_ENTITY_INCOMPLETE, "Transfer aborted");
+					return;
+				} else if (request.getOptions().getContentFormat()==status.getContentFormat()) {
+					if (!addBlock(exchange, request, status, block1))
+						return;
 				} else {
-					Response error = Response.createPiggybackedResponse(request, ResponseCode.REQUEST_ENTITY_INCOMPLETE);
-					error.getOptions().setBlock1(block1.getSzx(), block1.isM(), block1.getNum());
-					error.setPayload("Changed Content-Format");
-					request.setAcknowledged(true);
-					exchange.setCurrentResponse(error);
-					super.sendResponse(exchange, error);
+					release(status, true);
+					sendBlock1Error(exchange, request, block1, ResponseCode.REQUEST_ENTITY_INCOMPLETE, "Changed Content-Format");
 					return;
 				}
 				
 				status.setCurrentNum(status.getCurrentNum() + 1);
 				if ( block1.isM() ) {
 					LOGGER.finest("There are more blocks to come. Acknowledge this block.");
+					if (block1.getNum() == 0)
+						scheduleIdleTimeout(exchange, status, idleTimeout);
 					
-					if (request.isConfirmable()) {
-						Response piggybacked = Response.createPiggybackedResponse(request, ResponseCode.CONTINUE);
-						piggybacked.getOptions().setBlock1(block1.getSzx(), true, block1.getNum());
-						piggybacked.setLast(false);
-						request.setAcknowledged(true);
-						exchange.setCurrentResponse(piggybacked);
-						super.sendResponse(exchange, piggybacked);
-					}
+					sendContinue(exchange, request, status, block1);
 					// do not assemble and deliver the request yet
 					
 				} else {
 					LOGGER.finer("This was the last block. Deliver request");
-					
-					// Remember block to acknowledge. TODO: We might make this a boolean flag in status.
-					exchange.setBlock1ToAck(block1); 
-					
-					// Block2 early negotiation
-					earlyBlock2Negotiation(exchange, request);
-					
-					// Assemble and deliver
-					Request assembled = new Request(request.getCode()); // getAssembledRequest(status, request);
-					assembleMessage(status, assembled, request);
-//					assembled.setAcknowledged(true); // TODO: prevents accept from sending ACK. Maybe the resource uses separate...
-					exchange.setRequest(assembled);
-					super.receiveRequest(exchange, assembled);
+					deliverAssembled(exchange, request, status, block1);
 				}
 				
 			} else {
 				// ERROR, wrong number, Incomplete
 				LOGGER.warning("Wrong block number. Expected "+status.getCurrentNum()+" but received "+block1.getNum()+". Respond with 4.08 (Request Entity Incomplete)");
-				Response error = Response.createPiggybackedResponse(request, ResponseCode.REQUEST_ENTITY_INCOMPLETE);
-				error.getOptions().setBlock1(block1.getSzx(), block1.isM(), block1.getNum());
-				error.setPayload("Wrong block number");
-				request.setAcknowledged(true);
-				exchange.setCurrentResponse(error);
-				super.sendResponse(exchange, error);
+				WRONG_BLOCKS.increment();
+				sendBlock1Error(exchange, request, block1, ResponseCode.REQUEST_ENTITY_INCOMPLETE, "Wrong block number");
 			}
 			
 		} else if (exchange.getResponse()!=null && request.getOptions().hasBlock2()) {
 			// The response has already been generated and the client just wants
-			// the next block of it
+			// the next block of it. Pipelining clients request several blocks
+			// at once and all of them share this exchange, so each block is
+			// cut with a status of its own and acknowledges its own request.
 			BlockOption block2 = request.getOptions().getBlock2();
 			Response response = exchange.getResponse();
-			BlockwiseStatus status = findResponseBlockStatus(exchange, response);
-			status.setCurrentNum(block2.getNum());
-			status.setCurrentSzx(block2.getSzx());
+			BlockwiseStatus status = new BlockwiseStatus(response.getOptions().getContentFormat(), block2.getNum(), block2.getSzx());
 			
 			Response block = getNextResponseBlock(response, status);
 			block.setToken(request.getToken());
 			block.getOptions().removeObserve();
+			if (request.getType() == Type.CON) {
+				request.setAcknowledged(true);
+				block.setType(Type.ACK);
+				block.setMID(request.getMID());
+			} else {
+				block.setType(Type.NON);
+			}
+			useBlockCache(exchange, response, block);
 			
 			if (status.isComplete()) {
 				// clean up blockwise status
-				LOGGER.severe("Ongoing is complete "+status);
+				Tracing.trace(TraceEvent.BLOCKWISE_COMPLETE, block, exchange);
 				exchange.setResponseBlockStatus(null);
 			} else {
-				LOGGER.severe("Ongoing is continuing "+status);
+				Tracing.trace(TraceEvent.BLOCKWISE_CONTINUE, block, exchange);
 			}
 			
 			exchange.setCurrentResponse(block);
@@ -209,7 +299,17 @@ public class BlockwiseLayer extends AbstractLayer {
 		if (block1 != null)
 			exchange.setBlock1ToAck(null);
 		
-		if (requireBlockwise(exchange, response)) {
+		if (response.getOptions().hasBlock2()) {
+			// The resource has already answered the requested block itself,
+			// e.g., by random access to a file. Each block request is a new
+			// exchange then.
+			LOGGER.fine("Response already contains block2 option "+response.getOptions().getBlock2());
+			exchange.setResponseBlockStatus(null);
+			if (block1 != null) response.getOptions().setBlock1(block1);
+			exchange.setCurrentResponse(response);
+			super.sendResponse(exchange, response);
+			
+		} else if (requireBlockwise(exchange, response)) {
 			// This must be a large response to a GET or POST request (PUT?)
 			LOGGER.fine("Response payload "+response.getPayloadSize()+"/"+maxMsgSize+" requires Blockwise");
 			
@@ -221,6 +321,9 @@ public class BlockwiseLayer extends AbstractLayer {
 				block.getOptions().setBlock1(block1);
 			if (block.getToken() == null)
 				block.setToken(exchange.getRequest().getToken());
+			if (status.getCurrentNum() == 0 && exchange.getRequest().getOptions().hasSize2())
+				block.getOptions().setSize2(response.getPayloadSize()); // the client asked for the size
+			useBlockCache(exchange, response, block);
 			
 			if (response.getOptions().hasObserve()) {
 				// the ACK for the first block should acknowledge the whole notification
@@ -239,6 +342,19 @@ public class BlockwiseLayer extends AbstractLayer {
 	
 	@Override
 	public void receiveResponse(Exchange exchange, Response response) {
+		BlockwiseStatus requestStatus = exchange.getRequestBlockStatus();
+		if (requestStatus != null && requestStatus.getParent() != null && requestStatus.getParent() != exchange) {
+			// This is the response to a block of a parallel transfer
+			receiveBlockResponse(exchange, response, requestStatus);
+			return;
+		}
+		BlockwiseStatus responseStatus = exchange.getResponseBlockStatus();
+		if (responseStatus != null && responseStatus.getParent() != null && responseStatus.getParent() != exchange) {
+			// This is a block of a response that is requested in parallel
+			receivePipelinedBlock(exchange, response, responseStatus);
+			return;
+		}
+		
 		if (!response.getOptions().hasBlock1() && !response.getOptions().hasBlock2()) {
 			// There is no block1 or block2 option, therefore it is a normal response
 			exchange.setResponse(response);
@@ -257,14 +373,21 @@ public class BlockwiseLayer extends AbstractLayer {
 				// Send next block
 				int currentSize = 1 << (4 + status.getCurrentSzx());
 				int nextNum = status.getCurrentNum() + currentSize / block1.getSize();
-				LOGGER.finer("Send next block num = "+nextNum);
 				status.setCurrentNum(nextNum);
 				status.setCurrentSzx(block1.getSzx());
-				Request nextBlock = getNextRequestBlock(exchange.getRequest(), status);
-				if (nextBlock.getToken() == null)
-					nextBlock.setToken(response.getToken()); // reuse same token
-				exchange.setCurrentRequest(nextBlock);
-				super.sendRequest(exchange, nextBlock);
+				if (status.getWindow() > 1 && status.getParent() == null && response.getOptions().hasSize1()) {
+					// The server assembles the blocks in any order
+					LOGGER.finer("Send up to "+status.getWindow()+" blocks in parallel from num = "+nextNum);
+					openWindow(exchange, status);
+					
+				} else {
+					LOGGER.finer("Send next block num = "+nextNum);
+					Request nextBlock = getNextRequestBlock(exchange.getRequest(), status);
+					if (nextBlock.getToken() == null)
+						nextBlock.setToken(response.getToken()); // reuse same token
+					exchange.setCurrentRequest(nextBlock);
+					super.sendRequest(exchange, nextBlock);
+				}
 				// do not deliver response
 				
 			} else if (!response.getOptions().hasBlock2()) {
@@ -279,8 +402,13 @@ public class BlockwiseLayer extends AbstractLayer {
 		if (response.getOptions().hasBlock2()) {
 			BlockOption block2 = response.getOptions().getBlock2();
 			BlockwiseStatus status = findResponseBlockStatus(exchange, response);
+			BLOCK2_RECEIVED.increment();
 			
-			if (block2.getNum() == status.getCurrentNum()) {
+			if (block2.getNum() == 0 && block2.isM() && isPipelined(exchange, response, status)) {
+				// The size is known, request the remaining blocks in parallel
+				openPipeline(exchange, response, status, block2);
+				
+			} else if (block2.getNum() == status.getCurrentNum()) {
 				// We got the block we expected :-)
 				status.addBlock(response.getPayload());
 				if (response.getOptions().hasObserve())
@@ -332,6 +460,7 @@ public class BlockwiseLayer extends AbstractLayer {
 					
 					LOGGER.fine("Assembled response: "+assembled);
 					exchange.setResponse(assembled);
+					TRANSFERS_COMPLETED.increment();
 					super.receiveResponse(exchange, assembled);
 				}
 				
@@ -340,6 +469,7 @@ public class BlockwiseLayer extends AbstractLayer {
 				// TODO: This scenario is not specified in the draft.
 				// Currently, we reject it and cancel the request.
 				LOGGER.warning("Wrong block number. Expected "+status.getCurrentNum()+" but received "+block2.getNum()+". Reject response; exchange has failed.");
+				WRONG_BLOCKS.increment();
 				if (response.getType()==Type.CON) {
 					EmptyMessage rst = EmptyMessage.newRST(response);
 					super.sendEmptyMessage(exchange, rst);
@@ -361,6 +491,467 @@ public class BlockwiseLayer extends AbstractLayer {
 	
 	/////////// HELPER METHODS //////////
 	
+	/*
+	 * Checks the limits and stores the payload of the request block in the
+	 * sink or the status. The first block asks the factory for a sink. Returns
+	 * false if the transfer has been aborted and answered with an error.
+	 */
+	private boolean addBlock(Exchange exchange, Request request, BlockwiseStatus status, BlockOption block1) {
+		int length = request.getPayloadSize();
+		int announced = request.getOptions().hasSize1() ? request.getOptions().getSize1() : 0;
+		if (maxBodySize > 0 && (status.getBytes() + length > maxBodySize || announced > maxBodySize)) {
+			LOGGER.warning("Block1 transfer exceeds the maximum body size of "+maxBodySize+" bytes. Respond with 4.13 (Request Entity Too Large)");
+			TRANSFERS_REJECTED.increment();
+			release(status, true);
+			sendBlock1Error(exchange, request, block1, ResponseCode.REQUEST_ENTITY_TOO_LARGE, "Body too large");
+			return false;
+		}
+		if (!reserve(exchange, request, status, block1, length))
+			return false;
+		status.touch();
+		
+		try {
+			BodySinkFactory factory = sinkFactory;
+			if (block1.getNum() == 0 && factory != null) {
+				status.setSink(factory.createBodySink(exchange, request));
+				if (status.getSink() != null)
+					LOGGER.finer("Stream body of Block1 transfer into "+status.getSink());
+			}
+			if (status.getSink() != null)
+				status.getSink().write(request.getPayload());
+			else if (isParallel(request, block1))
+				return startParallel(exchange, request, status, block1);
+			else status.addBlock(request.getPayload());
+			return true;
+			
+		} catch (IOException e) {
+			LOGGER.warning("Cannot store block "+block1+": "+e.getMessage()+". Respond with 5.00 (Internal Server Error)");
+			release(status, true);
+			sendBlock1Error(exchange, request, block1, ResponseCode.INTERNAL_SERVER_ERROR, "Cannot store block");
+			return false;
+		}
+	}
+	
+	/*
+	 * Adds the specified number of bytes to the transfer and to the total of
+	 * all ongoing transfers. Returns false if the transfer has been aborted
+	 * because the total would exceed its limit.
+	 */
+	private boolean reserve(Exchange exchange, Request request, BlockwiseStatus status, BlockOption block1, int length) {
+		if (totalSize.addAndGet(length) > maxTotalSize && maxTotalSize > 0) {
+			totalSize.addAndGet(-length);
+			LOGGER.warning("Ongoing Block1 transfers exceed the maximum total size of "+maxTotalSize+" bytes. Respond with 5.03 (Service Unavailable)");
+			TRANSFERS_REJECTED.increment();
+			release(status, true);
+			sendBlock1Error(exchange, request, block1, ResponseCode.SERVICE_UNAVAILABLE, "Too many ongoing transfers");
+			return false;
+		}
+		status.addBytes(length);
+		return true;
+	}
+	
+	/*
+	 * Checks whether the first block of a transfer announces a body that
+	 * this server may assemble from blocks in any order.
+	 */
+	private boolean isParallel(Request request, BlockOption block1) {
+		return block1Window > 1 && block1.getNum() == 0 && block1.isM()
+				&& request.getOptions().hasSize1()
+				&& request.getPayloadSize() == block1.getSize()
+				&& request.getOptions().getSize1() > block1.getSize();
+	}
+	
+	/*
+	 * Allocates the body of a parallel transfer with the size announced by
+	 * Size1 and reserves the bytes of the remaining blocks at once.
+	 */
+	private boolean startParallel(Exchange exchange, Request request, BlockwiseStatus status, BlockOption block1) {
+		int size = request.getOptions().getSize1();
+		int length = request.getPayloadSize();
+		if (!reserve(exchange, request, status, block1, size - length))
+			return false;
+		byte[] body = new byte[size];
+		System.arraycopy(request.getPayload(), 0, body, 0, length);
+		status.setCurrentSzx(block1.getSzx());
+		status.setBody(body, (size + length - 1) / length);
+		status.setReceived(0);
+		LOGGER.fine("Assemble "+size+" bytes of parallel Block1 transfer from "+status.getBodyBlockCount()+" blocks");
+		return true;
+	}
+	
+	/*
+	 * Copies a block of a parallel transfer to its offset in the body and
+	 * delivers the request when the body is complete. A duplicate of a block
+	 * that has already been received is acknowledged again.
+	 */
+	private void receiveParallelBlock(Exchange exchange, Request request, BlockwiseStatus status, BlockOption block1) {
+		byte[] body = status.getBody();
+		int num = block1.getNum();
+		if (status.isClosed()) {
+			if (status.isReceived(num)) {
+				// the request is being processed, its response answers the block
+				LOGGER.fine("Ignore block "+block1+" of a transfer that has been delivered");
+			} else {
+				LOGGER.info("Block1 transfer has been aborted. Respond with 4.08 (Request Entity Incomplete)");
+				sendBlock1Error(exchange, request, block1, ResponseCode.REQUEST_ENTITY_INCOMPLETE, "Transfer aborted");
+			}
+			return;
+		}
+		if (status.isReceived(num)) {
+			LOGGER.fine("Block "+block1+" has already been received. Acknowledge it again");
+			sendContinue(exchange, request, status, block1);
+			return;
+		}
+		
+		int count = status.getBodyBlockCount();
+		int from = num * block1.getSize();
+		if (block1.getSzx() != status.getCurrentSzx() || num >= count || block1.isM() != (num < count - 1)
+				|| request.getPayloadSize() != Math.min(block1.getSize(), body.length - from)) {
+			LOGGER.warning("Block "+block1+" does not match the body of "+body.length+" bytes. Respond with 4.08 (Request Entity Incomplete)");
+			WRONG_BLOCKS.increment();
+			release(status, true);
+			sendBlock1Error(exchange, request, block1, ResponseCode.REQUEST_ENTITY_INCOMPLETE, "Wrong block");
+			return;
+		}
+		if (request.getOptions().getContentFormat() != status.getContentFormat()) {
+			release(status, true);
+			sendBlock1Error(exchange, request, block1, ResponseCode.REQUEST_ENTITY_INCOMPLETE, "Changed Content-Format");
+			return;
+		}
+		
+		boolean complete;
+		synchronized (status) {
+			System.arraycopy(request.getPayload(), 0, body, from, request.getPayloadSize());
+			complete = status.setReceived(num);
+		}
+		status.touch();
+		
+		if (complete) {
+			LOGGER.finer("Block "+block1+" has completed the body. Deliver request");
+			deliverAssembled(exchange, request, status, block1);
+		} else {
+			sendContinue(exchange, request, status, block1);
+		}
+	}
+	
+	/*
+	 * Acknowledges a block with 2.31 (Continue). The response to the first
+	 * block of a parallel transfer echoes Size1.
+	 */
+	private void sendContinue(Exchange exchange, Request request, BlockwiseStatus status, BlockOption block1) {
+		if (request.isConfirmable()) {
+			Response piggybacked = Response.createPiggybackedResponse(request, ResponseCode.CONTINUE);
+			piggybacked.getOptions().setBlock1(block1.getSzx(), true, block1.getNum());
+			if (block1.getNum() == 0 && status.getBody() != null)
+				piggybacked.getOptions().setSize1(status.getBody().length);
+			piggybacked.setLast(false);
+			request.setAcknowledged(true);
+			exchange.setCurrentResponse(piggybacked);
+			super.sendResponse(exchange, piggybacked);
+		}
+	}
+	
+	/*
+	 * Assembles the request after its last block and delivers it.
+	 */
+	private void deliverAssembled(Exchange exchange, Request request, BlockwiseStatus status, BlockOption block1) {
+		if (!finish(exchange, request, status, block1))
+			return;
+		
+		// Remember block to acknowledge. TODO: We might make this a boolean flag in status.
+		exchange.setBlock1ToAck(block1); 
+		
+		// Block2 early negotiation
+		earlyBlock2Negotiation(exchange, request);
+		
+		// Assemble and deliver
+		Request assembled = new Request(request.getCode()); // getAssembledRequest(status, request);
+		assembleMessage(status, assembled, request);
+//		assembled.setAcknowledged(true); // TODO: prevents accept from sending ACK. Maybe the resource uses separate...
+		exchange.setRequest(assembled);
+		TRANSFERS_COMPLETED.increment();
+		super.receiveRequest(exchange, assembled);
+	}
+	
+	/*
+	 * Sends the remaining blocks of a transfer in parallel. The exchange of
+	 * the origin request is delivered the final response.
+	 */
+	private void openWindow(Exchange exchange, final BlockwiseStatus status) {
+		status.setParent(exchange);
+		exchange.getRequest().addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onCancel() {
+				abortBlocks(status);
+			}
+		});
+		sendNextBlocks(status);
+	}
+	
+	/*
+	 * Sends blocks of a parallel transfer in exchanges of their own until the
+	 * window is full or all blocks have been sent.
+	 */
+	private void sendNextBlocks(BlockwiseStatus status) {
+		Request request = status.getParent().getRequest();
+		List<Exchange> blocks = new ArrayList<Exchange>(status.getWindow());
+		synchronized (status) {
+			while (!status.isComplete() && !status.isClosed() && status.getInFlight().size() < status.getWindow()) {
+				Request block = getNextRequestBlock(request, status);
+				block.setToken(null); // each exchange needs a token of its own
+				block.addMessageObserver(new BlockTimeoutForwarder(status));
+				status.setCurrentNum(status.getCurrentNum() + 1);
+				Exchange exchange = new Exchange(block, Origin.LOCAL);
+				exchange.setRequest(block);
+				exchange.setRequestBlockStatus(status);
+				status.getInFlight().add(exchange);
+				blocks.add(exchange);
+			}
+		}
+		for (Exchange exchange:blocks) {
+			LOGGER.finer("Send parallel block "+exchange.getRequest().getOptions().getBlock1());
+			super.sendRequest(exchange, exchange.getRequest());
+		}
+	}
+	
+	/*
+	 * Sends the next block when a block of a parallel transfer has been
+	 * acknowledged. Any other response completes the transfer and is
+	 * delivered with the exchange of the origin request.
+	 */
+	private void receiveBlockResponse(Exchange exchange, Response response, BlockwiseStatus status) {
+		synchronized (status) {
+			status.getInFlight().remove(exchange);
+		}
+		exchange.setComplete();
+		
+		if (response.getCode() == ResponseCode.CONTINUE) {
+			LOGGER.finer("Response acknowledges parallel block "+response.getOptions().getBlock1());
+			sendNextBlocks(status);
+		} else if (abortBlocks(status)) {
+			LOGGER.fine("Response completes parallel Block1 transfer");
+			receiveResponse(status.getParent(), response);
+		}
+	}
+	
+	/*
+	 * Stops a parallel transfer and cancels the blocks in flight. Returns
+	 * false if the transfer has already been stopped.
+	 */
+	private boolean abortBlocks(BlockwiseStatus status) {
+		if (!status.close())
+			return false;
+		List<Exchange> blocks;
+		synchronized (status) {
+			status.setComplete(true);
+			blocks = new ArrayList<Exchange>(status.getInFlight());
+			status.getInFlight().clear();
+		}
+		for (Exchange exchange:blocks) {
+			exchange.getRequest().cancel();
+			exchange.setComplete();
+		}
+		return true;
+	}
+	
+	/*
+	 * Checks whether the remaining blocks of the response can be requested in
+	 * parallel, i.e., the request has a window and the first block tells the
+	 * size of the body with Size2.
+	 */
+	private boolean isPipelined(Exchange exchange, Response response, BlockwiseStatus status) {
+		OptionSet options = response.getOptions();
+		return exchange.getRequest().getBlock2Window() > 1 && status.getParent() == null
+				&& !options.hasObserve() && options.hasSize2()
+				&& options.getSize2() > response.getPayloadSize()
+				&& response.getPayloadSize() == options.getBlock2().getSize()
+				&& (maxBodySize == 0 || options.getSize2() <= maxBodySize);
+	}
+	
+	/*
+	 * Allocates the body of the response with the size from Size2, copies the
+	 * first block into it and requests the next blocks.
+	 */
+	private void openPipeline(Exchange exchange, Response response, final BlockwiseStatus status, BlockOption block2) {
+		int size = response.getOptions().getSize2();
+		byte[] body = new byte[size];
+		System.arraycopy(response.getPayload(), 0, body, 0, response.getPayloadSize());
+		status.setBody(body, (size + block2.getSize() - 1) / block2.getSize());
+		status.setReceived(0);
+		status.setCurrentSzx(block2.getSzx());
+		status.setCurrentNum(1);
+		status.setWindow(exchange.getRequest().getBlock2Window());
+		status.setParent(exchange);
+		LOGGER.fine("Request "+status.getBodyBlockCount()+" blocks of "+size+" bytes with a window of "+status.getWindow());
+		
+		exchange.getRequest().addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onCancel() {
+				abortBlocks(status);
+			}
+		});
+		requestNextBlocks(status);
+	}
+	
+	/*
+	 * Requests blocks of the response in exchanges of their own until the
+	 * window is full or all blocks have been requested. If all blocks have
+	 * been requested and none is in flight anymore while the body is still
+	 * incomplete, the transfer can no longer complete and is cancelled.
+	 */
+	private void requestNextBlocks(BlockwiseStatus status) {
+		Request request = status.getParent().getRequest();
+		List<Exchange> blocks = new ArrayList<Exchange>(status.getWindow());
+		boolean stalled;
+		synchronized (status) {
+			while (!status.isClosed() && status.getCurrentNum() < status.getBodyBlockCount() && status.getInFlight().size() < status.getWindow()) {
+				Request block = new Request(request.getCode());
+				block.setOptions(new OptionSet(request.getOptions()));
+				block.setDestination(request.getDestination());
+				block.setDestinationPort(request.getDestinationPort());
+				block.setType(request.getType());
+				block.getOptions().setBlock2(status.getCurrentSzx(), false, status.getCurrentNum());
+				block.getOptions().removeObserve();
+				block.getOptions().removeSize2();
+				block.addMessageObserver(new BlockTimeoutForwarder(status));
+				status.setCurrentNum(status.getCurrentNum() + 1);
+				Exchange exchange = new Exchange(block, Origin.LOCAL);
+				exchange.setRequest(block);
+				exchange.setResponseBlockStatus(status);
+				status.getInFlight().add(exchange);
+				blocks.add(exchange);
+			}
+			stalled = !status.isClosed() && status.getInFlight().isEmpty() && !status.isBodyComplete();
+		}
+		if (stalled && abortBlocks(status)) {
+			LOGGER.warning("Pipelined transfer has no block in flight but the body is incomplete. Cancel transfer");
+			request.cancel();
+			return;
+		}
+		for (Exchange exchange:blocks) {
+			LOGGER.finer("Request pipelined block "+exchange.getRequest().getOptions().getBlock2());
+			super.sendRequest(exchange, exchange.getRequest());
+		}
+	}
+	
+	/*
+	 * Copies a block of a response that is requested in parallel to its
+	 * offset in the body and delivers the assembled response once all blocks
+	 * have arrived. A response without Block2 option completes the transfer
+	 * and is delivered instead. A block that does not fit the body or is not
+	 * the block its exchange has asked for cancels the request.
+	 */
+	private void receivePipelinedBlock(Exchange exchange, Response response, BlockwiseStatus status) {
+		synchronized (status) {
+			status.getInFlight().remove(exchange);
+		}
+		exchange.setComplete();
+		if (status.isClosed())
+			return;
+		
+		Exchange parent = status.getParent();
+		BlockOption block2 = response.getOptions().getBlock2();
+		if (block2 == null) {
+			if (abortBlocks(status)) {
+				LOGGER.info("Pipelined block has been answered with "+response.getCode()+". Cancel transfer");
+				parent.setResponse(response);
+				super.receiveResponse(parent, response);
+			}
+			return;
+		}
+		BLOCK2_RECEIVED.increment();
+		
+		byte[] body = status.getBody();
+		int num = block2.getNum();
+		int count = status.getBodyBlockCount();
+		int from = num * block2.getSize();
+		if (num != exchange.getRequest().getOptions().getBlock2().getNum()
+				|| block2.getSzx() != status.getCurrentSzx() || num >= count || block2.isM() != (num < count - 1)
+				|| response.getPayloadSize() != Math.min(block2.getSize(), body.length - from)
+				|| response.getOptions().getContentFormat() != status.getContentFormat()) {
+			WRONG_BLOCKS.increment();
+			if (abortBlocks(status)) {
+				LOGGER.warning("Block "+block2+" does not match the body of "+body.length+" bytes. Reject response; exchange has failed.");
+				parent.getRequest().cancel();
+			}
+			return;
+		}
+		
+		boolean complete;
+		synchronized (status) {
+			System.arraycopy(response.getPayload(), 0, body, from, response.getPayloadSize());
+			complete = status.setReceived(num);
+		}
+		
+		if (complete && status.close()) {
+			LOGGER.finer("We have received all "+count+" pipelined blocks of the response. Assemble and deliver");
+			Response assembled = new Response(response.getCode());
+			assembleMessage(status, assembled, response);
+			assembled.setType(response.getType());
+			parent.setResponse(assembled);
+			TRANSFERS_COMPLETED.increment();
+			super.receiveResponse(parent, assembled);
+		} else {
+			requestNextBlocks(status);
+		}
+	}
+	
+	/*
+	 * Releases the transfer after the last block and completes its sink.
+	 * Returns false if the transfer has expired or the sink has failed.
+	 */
+	private boolean finish(Exchange exchange, Request request, BlockwiseStatus status, BlockOption block1) {
+		if (!release(status, false)) {
+			sendBlock1Error(exchange, request, block1, ResponseCode.REQUEST_ENTITY_INCOMPLETE, "Transfer expired");
+			return false;
+		}
+		BodySink sink = status.getSink();
+		if (sink != null) {
+			try {
+				sink.complete();
+			} catch (IOException e) {
+				LOGGER.warning("Cannot complete body of Block1 transfer: "+e.getMessage()+". Respond with 5.00 (Internal Server Error)");
+				sink.abort();
+				sendBlock1Error(exchange, request, block1, ResponseCode.INTERNAL_SERVER_ERROR, "Cannot store body");
+				return false;
+			}
+			exchange.setBodySink(sink);
+		}
+		return true;
+	}
+	
+	/*
+	 * Closes the transfer, gives its bytes back to the total and aborts its
+	 * sink if requested. Returns false if the transfer was already closed.
+	 */
+	private boolean release(BlockwiseStatus status, boolean abort) {
+		if (!status.close())
+			return false;
+		totalSize.addAndGet(-status.getBytes());
+		if (abort && status.getSink() != null)
+			status.getSink().abort();
+		return true;
+	}
+	
+	private void sendBlock1Error(Exchange exchange, Request request, BlockOption block1, ResponseCode code, String message) {
+		Response error = Response.createPiggybackedResponse(request, code);
+		error.getOptions().setBlock1(block1.getSzx(), block1.isM(), block1.getNum());
+		error.setPayload(message);
+		request.setAcknowledged(true);
+		exchange.setCurrentResponse(error);
+		super.sendResponse(exchange, error);
+	}
+	
+	/*
+	 * Checks the transfer for inactivity after the specified delay.
+	 */
+	private void scheduleIdleTimeout(Exchange exchange, BlockwiseStatus status, long delay) {
+		if (delay > 0 && timer != null) {
+			ScheduledFuture<?> f = timer.schedule(new IdleTimeoutTask(exchange, status), delay, TimeUnit.MILLISECONDS);
+			LOGGER.finest("Scheduled idle timeout of Block1 transfer "+f);
+		}
+	}
+	
 	private void earlyBlock2Negotiation(Exchange exchange, Request request) {
 		// Call this method when a request has completely arrived (might have
 		// been sent in one piece without blockwise).
@@ -440,10 +1031,18 @@ public class BlockwiseLayer extends AbstractLayer {
 			int currentSize = 1 << (4 + szx);
 			int from = num * currentSize;
 			int to = Math.min((num + 1) * currentSize, response.getPayloadSize());
-			int length = to - from;
-			byte[] blockPayload = new byte[length];
-			System.arraycopy(response.getPayload(), from, blockPayload, 0, length);
-			block.setPayload(blockPayload);
+			ByteBuffer buffer = response.getPayloadBuffer();
+			if (buffer != null) {
+				// slice the shared payload instead of copying it
+				buffer.position(buffer.position() + from);
+				buffer.limit(buffer.position() + to - from);
+				block.setPayloadBuffer(buffer);
+			} else {
+				int length = to - from;
+				byte[] blockPayload = new byte[length];
+				System.arraycopy(response.getPayload(), from, blockPayload, 0, length);
+				block.setPayload(blockPayload);
+			}
 			
 			boolean m = (to < response.getPayloadSize());
 			block.getOptions().setBlock2(szx, m, num);
@@ -458,6 +1057,24 @@ public class BlockwiseLayer extends AbstractLayer {
 		return block;
 	}
 	
+	/*
+	 * Sets the encoded body of a block of a shared payload from the cache.
+	 * Call this method after the options of the block are final. The cached
+	 * first block is sent to all clients, so it always tells the size with
+	 * Size2, whether the current client has asked for it or not.
+	 */
+	private void useBlockCache(Exchange exchange, Response response, Response block) {
+		if (blockCache != null && response.getPayloadBuffer() != null && BlockCache.isCacheable(block)) {
+			OptionSet options = exchange.getRequest().getOptions();
+			String resource = options.getURIPathString();
+			if (options.getURIQueryCount() > 0)
+				resource += "?" + options.getURIQueryString();
+			if (block.getOptions().getBlock2().getNum() == 0)
+				block.getOptions().setSize2(response.getPayloadSize());
+			block.setSerializedBody(blockCache.getSerializedBody(resource, block));
+		}
+	}
+	
 	private void assembleMessage(BlockwiseStatus status, Message message, Message last) {
 		// The assembled request will contain the options of the last block
 		message.setMID(last.getMID());
@@ -467,6 +1084,12 @@ public class BlockwiseLayer extends AbstractLayer {
 		message.setType(last.getType());
 		message.setOptions(new OptionSet(last.getOptions()));
 		
+		if (status.getBody() != null) {
+			// the blocks of a parallel transfer are already in place
+			message.setPayload(status.getBody());
+			return;
+		}
+		
 		int length = 0;
 		for (byte[] block:status.getBlocks())
 			length += block.length;
@@ -505,6 +1128,61 @@ public class BlockwiseLayer extends AbstractLayer {
 		return (int)(Math.log(blockSize)/Math.log(2)) - 4;
 	}
 	
+	/*
+	 * Aborts a Block1 transfer that has not received a block for the idle
+	 * timeout. A transfer that is still active is checked again when the
+	 * timeout after its last block elapses, so that blocks need not cancel
+	 * and reschedule the task.
+	 */
+	private class IdleTimeoutTask implements Runnable {
+		
+		private final Exchange exchange;
+		private final BlockwiseStatus status;
+		
+		private IdleTimeoutTask(Exchange exchange, BlockwiseStatus status) {
+			this.exchange = exchange;
+			this.status = status;
+		}
+		
+		@Override
+		public void run() {
+			int timeout = idleTimeout;
+			if (status.isClosed() || timeout <= 0)
+				return;
+			long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - status.getLastActivity());
+			if (idle < timeout) {
+				scheduleIdleTimeout(exchange, status, timeout - idle);
+			} else if (release(status, true)) {
+				LOGGER.info("Block1 transfer has been idle for "+idle+" ms. Abort and complete exchange");
+				TRANSFERS_EXPIRED.increment();
+				exchange.setComplete();
+			}
+		}
+	}
+	
+	/*
+	 * Fails the origin request of a parallel transfer when one of its blocks
+	 * has timed out and cancels the other blocks.
+	 */
+	private class BlockTimeoutForwarder extends MessageObserverAdapter {
+		
+		private final BlockwiseStatus status;
+		
+		private BlockTimeoutForwarder(BlockwiseStatus status) {
+			this.status = status;
+		}
+		
+		@Override
+		public void onTimeout() {
+			if (abortBlocks(status)) {
+				LOGGER.info("Block of parallel Block1 transfer has timed out. Cancel transfer");
+				Exchange parent = status.getParent();
+				parent.getRequest().setTimedOut(true);
+				parent.setTimedOut();
+			}
+		}
+	}
+	
 	// When a timeout occurs for a block it has to be forwarded to the origin
 	// response.
 	public static class TimeoutForwarder extends MessageObserverAdapter {
@@ -2,8 +2,11 @@
 package ch.ethz.inf.vs.californium.network.stack;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
+import ch.ethz.inf.vs.californium.network.Exchange;
+
 /**
  * This class represents the status of a blockwise transfer of a request or a
  * response.
@@ -50,6 +53,43 @@ public class BlockwiseStatus {
 	// Container for the payload of all blocks
 	/** The blocks. */
 	private ArrayList<byte[]> blocks = new ArrayList<byte[]>();
+	
+	/** The sink of a streamed body or null if the blocks are kept */
+	private BodySink sink;
+	
+	/** The number of payload bytes received so far */
+	private int bytes;
+	
+	/** The time of the last received block in nanoseconds */
+	private volatile long lastActivity = System.nanoTime();
+	
+	/** Indicates whether the transfer has been delivered or aborted */
+	private boolean closed;
+	
+	/*
+	 * A parallel Block1 transfer (BLOCKWISE_BLOCK1_WINDOW > 1) has several
+	 * blocks in flight. The server assembles them in any order into a body of
+	 * the size that the client has announced with Size1. The client sends
+	 * each block after the first in an exchange of its own, which shares this
+	 * status with the exchange of the origin request.
+	 */
+	/** The pre-sized body of a parallel transfer or null (server) */
+	private byte[] body;
+	
+	/** The blocks of the body that have been received (server) */
+	private BitSet received;
+	
+	/** The number of blocks of the body (server) */
+	private int blockCount;
+	
+	/** The exchange of the origin request of a parallel transfer or null (client) */
+	private Exchange parent;
+	
+	/** The exchanges of the blocks in flight (client) */
+	private List<Exchange> inFlight;
+	
+	/** The maximum number of blocks in flight (client) */
+	private int window = 1;
 
 	/**
 	 * Instantiates a new blockwise status.
@@ -163,6 +203,191 @@ public class BlockwiseStatus {
 		return blocks;
 	}
 	
+	/**
+	 * Returns the sink of a streamed body.
+	 *
+	 * @return the sink or null if the blocks are kept in the heap
+	 */
+	public BodySink getSink() {
+		return sink;
+	}
+	
+	/**
+	 * Sets the sink for a streamed body.
+	 *
+	 * @param sink the sink
+	 */
+	public void setSink(BodySink sink) {
+		this.sink = sink;
+	}
+	
+	/**
+	 * Returns the number of payload bytes received so far.
+	 *
+	 * @return the number of bytes
+	 */
+	public int getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * Adds the specified number of received payload bytes.
+	 *
+	 * @param bytes the number of bytes
+	 */
+	public void addBytes(int bytes) {
+		this.bytes += bytes;
+	}
+	
+	/**
+	 * Records that a block has just been received.
+	 */
+	public void touch() {
+		lastActivity = System.nanoTime();
+	}
+	
+	/**
+	 * Returns the time of the last received block.
+	 *
+	 * @return the time in nanoseconds as returned by {@link System#nanoTime()}
+	 */
+	public long getLastActivity() {
+		return lastActivity;
+	}
+	
+	/**
+	 * Marks the transfer as delivered or aborted. Only the first call returns
+	 * true, so that the resources of the transfer are released exactly once
+	 * even if it expires while its last block arrives.
+	 *
+	 * @return true if the transfer has not been closed before
+	 */
+	public synchronized boolean close() {
+		if (closed)
+			return false;
+		closed = true;
+		return true;
+	}
+	
+	/**
+	 * Checks if the transfer has been delivered or aborted.
+	 *
+	 * @return true if closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * Returns the pre-sized body of a parallel transfer.
+	 *
+	 * @return the body or null if the blocks arrive in order
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+	
+	/**
+	 * Sets the pre-sized body into which the blocks of a parallel transfer
+	 * are assembled in any order.
+	 *
+	 * @param body the body
+	 * @param blockCount the number of blocks of the body
+	 */
+	public void setBody(byte[] body, int blockCount) {
+		this.body = body;
+		this.blockCount = blockCount;
+		this.received = new BitSet(blockCount);
+	}
+	
+	/**
+	 * Returns the number of blocks of the body of a parallel transfer.
+	 *
+	 * @return the block count
+	 */
+	public int getBodyBlockCount() {
+		return blockCount;
+	}
+	
+	/**
+	 * Checks if the block with the specified num has been received.
+	 *
+	 * @param num the num
+	 * @return true, if received
+	 */
+	public boolean isReceived(int num) {
+		return received != null && received.get(num);
+	}
+	
+	/**
+	 * Records that the block with the specified num has been received.
+	 *
+	 * @param num the num
+	 * @return true, if this block has completed the body
+	 */
+	public boolean setReceived(int num) {
+		if (received.get(num))
+			return false;
+		received.set(num);
+		return received.cardinality() == blockCount;
+	}
+	
+	/**
+	 * Checks if all blocks of the body of a parallel transfer have been
+	 * received.
+	 *
+	 * @return true, if the body is complete
+	 */
+	public boolean isBodyComplete() {
+		return received != null && received.cardinality() == blockCount;
+	}
+	
+	/**
+	 * Returns the exchange of the origin request of a parallel transfer.
+	 *
+	 * @return the exchange or null if the blocks are sent one at a time
+	 */
+	public Exchange getParent() {
+		return parent;
+	}
+	
+	/**
+	 * Sets the exchange of the origin request of a parallel transfer.
+	 *
+	 * @param parent the exchange
+	 */
+	public void setParent(Exchange parent) {
+		this.parent = parent;
+		this.inFlight = new ArrayList<Exchange>(window);
+	}
+	
+	/**
+	 * Returns the exchanges of the blocks in flight.
+	 *
+	 * @return the exchanges
+	 */
+	public List<Exchange> getInFlight() {
+		return inFlight;
+	}
+	
+	/**
+	 * Returns the maximum number of blocks in flight.
+	 *
+	 * @return the window
+	 */
+	public int getWindow() {
+		return window;
+	}
+	
+	/**
+	 * Sets the maximum number of blocks in flight.
+	 *
+	 * @param window the window
+	 */
+	public void setWindow(int window) {
+		this.window = window;
+	}
+	
 	public int getObserve() {
 		return observe;
 	}
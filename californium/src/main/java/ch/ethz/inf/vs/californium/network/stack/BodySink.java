@@ -0,0 +1,40 @@
+package ch.ethz.inf.vs.californium.network.stack;
+
+import java.io.IOException;
+
+/**
+ * A BodySink receives the payload of a blockwise (Block1) request block by
+ * block as the blocks arrive instead of having the {@link BlockwiseLayer}
+ * assemble the whole body in the heap. A resource provides a sink by
+ * implementing {@link BodySinkFactory}. When the last block has arrived, the
+ * sink is completed and the resource receives the request without payload;
+ * the sink is available from {@link ch.ethz.inf.vs.californium.network.Exchange#getBodySink()}.
+ * <p>
+ * The methods of a sink are called by the threads of the endpoint, one block
+ * after the other in the order of the body. A sink that has been aborted is
+ * never written or completed afterwards.
+ */
+public interface BodySink {
+
+	/**
+	 * Writes the next block of the body.
+	 *
+	 * @param block the payload of the block
+	 * @throws IOException if the block cannot be stored
+	 */
+	public void write(byte[] block) throws IOException;
+
+	/**
+	 * Completes the body after the last block has been written.
+	 *
+	 * @throws IOException if the body cannot be completed
+	 */
+	public void complete() throws IOException;
+
+	/**
+	 * Aborts the transfer, e.g., because it has exceeded a limit or has been
+	 * idle for too long, and releases the resources of this sink.
+	 */
+	public void abort();
+
+}
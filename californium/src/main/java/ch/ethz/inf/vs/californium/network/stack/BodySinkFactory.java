@@ -0,0 +1,27 @@
+package ch.ethz.inf.vs.californium.network.stack;
+
+import java.io.IOException;
+
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.Exchange;
+
+/**
+ * A BodySinkFactory decides whether the body of a blockwise (Block1) request
+ * is streamed into a {@link BodySink}. The {@link BlockwiseLayer} asks the
+ * factory when the first block of a transfer arrives. A resource that
+ * implements this interface receives the call through the
+ * {@link ch.ethz.inf.vs.californium.server.ServerMessageDeliverer}.
+ */
+public interface BodySinkFactory {
+
+	/**
+	 * Creates the sink for the body of the specified request.
+	 *
+	 * @param exchange the exchange
+	 * @param first the first block of the request
+	 * @return the sink or null to assemble the body in the heap
+	 * @throws IOException if the sink cannot be created
+	 */
+	public BodySink createBodySink(Exchange exchange, Request first) throws IOException;
+
+}
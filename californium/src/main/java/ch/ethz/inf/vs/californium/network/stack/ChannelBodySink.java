@@ -0,0 +1,70 @@
+package ch.ethz.inf.vs.californium.network.stack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A ChannelBodySink writes the blocks of a body to a channel, e.g., to a
+ * socket, a pipe or a file that is opened by the resource. The channel is
+ * closed when the body is completed or aborted.
+ */
+public class ChannelBodySink implements BodySink {
+
+	/** The channel */
+	private final WritableByteChannel channel;
+
+	/** The number of bytes written */
+	private long size;
+
+	/**
+	 * Constructs a new sink that writes to the specified channel.
+	 *
+	 * @param channel the channel
+	 */
+	public ChannelBodySink(WritableByteChannel channel) {
+		if (channel == null)
+			throw new NullPointerException();
+		this.channel = channel;
+	}
+
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.network.stack.BodySink#write(byte[])
+	 */
+	@Override
+	public void write(byte[] block) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(block);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		size += block.length;
+	}
+
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.network.stack.BodySink#complete()
+	 */
+	@Override
+	public void complete() throws IOException {
+		channel.close();
+	}
+
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.network.stack.BodySink#abort()
+	 */
+	@Override
+	public void abort() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing to release anymore
+		}
+	}
+
+	/**
+	 * Returns the number of bytes that have been written.
+	 *
+	 * @return the size of the body so far
+	 */
+	public long getSize() {
+		return size;
+	}
+}
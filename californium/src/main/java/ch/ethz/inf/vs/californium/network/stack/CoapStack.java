@@ -11,6 +11,8 @@ import ch.ethz.inf.vs.californium.network.EndpointManager;
 import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.Origin;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
 import ch.ethz.inf.vs.californium.server.MessageDeliverer;
 import ch.ethz.inf.vs.elements.Connector;
 
@@ -76,16 +78,26 @@ public class CoapStack {
 
 	private MessageDeliverer deliverer;
 	
+	/** The congestion control layer or null if not used. */
+	private CongestionControlLayer congestionControl;
+	
+	/** The blockwise layer. */
+	private BlockwiseLayer blockwise;
+	
 	public CoapStack(NetworkConfig config, ExchangeForwarder forwarder) {
 		this.top = new StackTopAdapter();
 		this.forwarder = forwarder;
+		ReliabilityLayer reliability;
+		if (config.getBoolean(NetworkConfigDefaults.USE_CONGESTION_CONTROL))
+			reliability = congestionControl = new CongestionControlLayer(config);
+		else reliability = new ReliabilityLayer(config);
 		this.layers = 
 				new Layer.TopDownBuilder()
 				.add(top)
 				.add(new ObserveLayer(config))
-				.add(new BlockwiseLayer(config))
+				.add(blockwise = new BlockwiseLayer(config))
 				.add(new TokenLayer(config))
-				.add(new ReliabilityLayer(config))
+				.add(reliability)
 				.add(bottom = new StackBottomAdapter())
 				.create();
 		this.deliverer = new EndpointManager.ClientMessageDeliverer();
@@ -121,13 +133,37 @@ public class CoapStack {
 		bottom.receiveEmptyMessage(exchange, message);
 	}
 
+	/**
+	 * Returns the congestion control layer of this stack, which exposes the
+	 * RTO and queue depth per peer.
+	 * 
+	 * @return the congestion control layer or null if USE_CONGESTION_CONTROL
+	 *         is not set
+	 */
+	public CongestionControlLayer getCongestionControlLayer() {
+		return congestionControl;
+	}
+
 	public void setExecutor(ScheduledExecutorService executor) {
 		for (Layer layer:layers)
 			layer.setExecutor(executor);
 	}
 	
+	public void setTimer(Timer timer) {
+		for (Layer layer:layers)
+			layer.setTimer(timer);
+	}
+	
+	/**
+	 * Sets the deliverer of incoming messages. If the deliverer also is a
+	 * {@link BodySinkFactory}, the blockwise layer asks it for sinks to stream
+	 * the bodies of Block1 requests into.
+	 * 
+	 * @param deliverer the deliverer
+	 */
 	public void setDeliverer(MessageDeliverer deliverer) {
 		this.deliverer = deliverer;
+		blockwise.setBodySinkFactory(deliverer instanceof BodySinkFactory ? (BodySinkFactory) deliverer : null);
 	}
 	
 	private class StackTopAdapter extends AbstractLayer {
@@ -0,0 +1,325 @@
+package ch.ethz.inf.vs.californium.network.stack;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.Message;
+import ch.ethz.inf.vs.californium.coap.MessageObserver;
+import ch.ethz.inf.vs.californium.coap.MessageObserverAdapter;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.metrics.Counter;
+import ch.ethz.inf.vs.californium.metrics.Metrics;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.ShardedExecutor;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+
+/**
+ * A reliability layer with per-peer congestion control. It replaces the
+ * {@link ReliabilityLayer} in the {@link CoapStack} if the property
+ * USE_CONGESTION_CONTROL is set.
+ * <p>
+ * For each peer, the layer keeps a {@link RemoteEndpoint} with a CoCoA-style
+ * RTO estimate. The initial timeout of a confirmable message is a random
+ * number between the RTO of the peer and RTO * ACK_RANDOM_FACTOR and
+ * retransmissions back off with a variable factor that depends on the current
+ * timeout. The round-trip time of each acknowledged or rejected confirmable
+ * message is fed back into the estimate of its peer.
+ * <p>
+ * Furthermore, at most NSTART confirmable messages are outstanding per peer at
+ * any time. Further confirmable requests and responses are queued and sent in
+ * order as soon as an outstanding message has been acknowledged, rejected,
+ * canceled or has timed out.
+ */
+public class CongestionControlLayer extends ReliabilityLayer {
+
+	private final static Counter QUEUED = Metrics.counter("congestion.queued");
+
+	/** The number of new peers after which idle peers are removed */
+	private static final int PURGE_INTERVAL = 1024;
+
+	/** The state of the peers */
+	private final ConcurrentHashMap<InetSocketAddress, RemoteEndpoint> remotes;
+
+	/** Counts the created peers to trigger purging idle ones */
+	private final AtomicInteger created = new AtomicInteger();
+
+	/**
+	 * Constructs a new congestion control layer.
+	 * @param config the configuration
+	 */
+	public CongestionControlLayer(NetworkConfig config) {
+		super(config);
+		this.remotes = new ConcurrentHashMap<InetSocketAddress, RemoteEndpoint>();
+	}
+
+	/**
+	 * Sends the first transmission of a confirmable request only if the peer
+	 * has a free slot and queues it otherwise.
+	 */
+	@Override
+	public void sendRequest(final Exchange exchange, final Request request) {
+		if (request.getType() == null)
+			request.setType(Type.CON);
+
+		if (request.getType() == Type.CON && !isTracked(request)) {
+			transmit(new Transmission(request) {
+				protected void send() {
+					CongestionControlLayer.super.sendRequest(exchange, request);
+				}
+			});
+		} else {
+			super.sendRequest(exchange, request);
+		}
+	}
+
+	/**
+	 * Sends the first transmission of a confirmable response only if the peer
+	 * has a free slot and queues it otherwise.
+	 */
+	@Override
+	public void sendResponse(final Exchange exchange, final Response response) {
+		prepareResponse(exchange, response);
+
+		if (response.getType() == Type.CON && !isTracked(response)) {
+			transmit(new Transmission(response) {
+				protected void send() {
+					CongestionControlLayer.super.sendResponse(exchange, response);
+				}
+			});
+		} else {
+			super.sendResponse(exchange, response);
+		}
+	}
+
+	/**
+	 * Returns a random timeout between the RTO of the peer and RTO *
+	 * ACK_RANDOM_FACTOR.
+	 */
+	@Override
+	protected int getInitialTimeout(Exchange exchange, Message message) {
+		RemoteEndpoint remote = getOrCreateRemoteEndpoint(message.getDestination(), message.getDestinationPort());
+		int rto = (int) remote.getRTO();
+		float ack_random_factor = config.getAckRandomFactor();
+		return getRandomTimeout(rto, (int) (rto*ack_random_factor));
+	}
+
+	/**
+	 * Returns the current timeout multiplied with the variable back-off
+	 * factor.
+	 */
+	@Override
+	protected int getNextTimeout(Exchange exchange, Message message) {
+		int timeout = exchange.getCurrentTimeout();
+		return (int) (timeout * RemoteEndpoint.getBackoffFactor(timeout));
+	}
+
+	/**
+	 * Returns the congestion control state of the specified peer.
+	 *
+	 * @param address the address of the peer
+	 * @param port the port of the peer
+	 * @return the state or null if there has been no confirmable message for
+	 *         the peer recently
+	 */
+	public RemoteEndpoint getRemoteEndpoint(InetAddress address, int port) {
+		return remotes.get(new InetSocketAddress(address, port));
+	}
+
+	/**
+	 * Returns the congestion control state of all known peers.
+	 *
+	 * @return the states of the peers
+	 */
+	public Collection<RemoteEndpoint> getRemoteEndpoints() {
+		return remotes.values();
+	}
+
+	/*
+	 * Returns the state of the specified peer and creates it if necessary.
+	 * Every PURGE_INTERVAL new peers, the peers that have been idle for an
+	 * exchange lifecycle are removed.
+	 */
+	private RemoteEndpoint getOrCreateRemoteEndpoint(InetAddress address, int port) {
+		InetSocketAddress key = new InetSocketAddress(address, port);
+		RemoteEndpoint remote = remotes.get(key);
+		if (remote == null) {
+			RemoteEndpoint fresh = new RemoteEndpoint(address, port);
+			remote = remotes.putIfAbsent(key, fresh);
+			if (remote == null) {
+				remote = fresh;
+				if (created.incrementAndGet() % PURGE_INTERVAL == 0)
+					purge();
+			}
+		}
+		return remote;
+	}
+
+	/*
+	 * Removes the peers that have neither outstanding nor queued messages and
+	 * have not been updated for an exchange lifecycle. A peer is retired under
+	 * the same monitor as its slots are acquired and released, so that no
+	 * slot can be taken from a peer that is being removed.
+	 */
+	private void purge() {
+		long threshold = System.currentTimeMillis() - config.getExchangeLifecycle();
+		Iterator<RemoteEndpoint> it = remotes.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().retireIfIdleSince(threshold))
+				it.remove();
+		}
+	}
+
+	/*
+	 * Sends the first transmission of a confirmable message if its peer has a
+	 * free slot and queues it otherwise. If the state of the peer has been
+	 * retired concurrently, it is replaced with a fresh one.
+	 */
+	private void transmit(Transmission transmission) {
+		Message message = transmission.message;
+		while (true) {
+			RemoteEndpoint remote = getOrCreateRemoteEndpoint(message.getDestination(), message.getDestinationPort());
+			transmission.remote = remote;
+			boolean acquired;
+			synchronized (remote) {
+				if (remote.isRetired()) {
+					remotes.remove(new InetSocketAddress(remote.getAddress(), remote.getPort()), remote);
+					continue;
+				}
+				acquired = remote.acquire(config.getNstart(), transmission);
+			}
+			if (acquired) {
+				transmission.run();
+			} else {
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Queued message for "+remote);
+				QUEUED.increment();
+			}
+			return;
+		}
+	}
+
+	/*
+	 * Attaches a tracker to the message that measures its round-trip time and
+	 * frees its slot once the message has completed. Returns false if the
+	 * message has been canceled while it was queued, in which case the slot is
+	 * passed on right away.
+	 */
+	private boolean track(RemoteEndpoint remote, Message message) {
+		if (message.isCanceled()) {
+			LOGGER.fine("Message has been canceled while queued for "+remote);
+			release(remote);
+			return false;
+		}
+		message.addMessageObserver(new Tracker(remote));
+		return true;
+	}
+
+	/*
+	 * Returns true if the message has already been transmitted by this layer.
+	 */
+	private boolean isTracked(Message message) {
+		for (MessageObserver observer:message.getMessageObservers())
+			if (observer instanceof Tracker)
+				return true;
+		return false;
+	}
+
+	/*
+	 * Frees a slot of the peer and hands it over to the next queued
+	 * transmission, if any. If the executor is sharded, the transmission runs
+	 * on the lane that owns the peer to keep the order of its messages.
+	 */
+	private void release(RemoteEndpoint remote) {
+		Runnable next = remote.release();
+		if (next != null) {
+			if (executor instanceof ShardedExecutor)
+				((ShardedExecutor) executor).execute(remote.getAddress(), remote.getPort(), next);
+			else if (executor != null)
+				executor.execute(next);
+			else next.run();
+		}
+	}
+
+	/*
+	 * The first transmission of a confirmable message. It takes a slot of the
+	 * peer it has been assigned to by transmit() and sends the message unless
+	 * it has been canceled while queued.
+	 */
+	private abstract class Transmission implements Runnable {
+
+		private final Message message;
+		private volatile RemoteEndpoint remote;
+
+		public Transmission(Message message) {
+			this.message = message;
+		}
+
+		public void run() {
+			if (track(remote, message))
+				send();
+		}
+
+		protected abstract void send();
+	}
+
+	/*
+	 * Tracks a confirmable message from its first transmission until it has
+	 * been acknowledged, rejected, canceled or has timed out.
+	 */
+	private class Tracker extends MessageObserverAdapter {
+
+		private final RemoteEndpoint remote;
+		private final long start = System.nanoTime();
+		private final AtomicBoolean completed = new AtomicBoolean();
+		private volatile int retransmissions;
+
+		public Tracker(RemoteEndpoint remote) {
+			this.remote = remote;
+		}
+
+		@Override
+		public void onRetransmission() {
+			retransmissions++;
+		}
+
+		@Override
+		public void onAcknowledgement() {
+			measured();
+		}
+
+		@Override
+		public void onReject() {
+			measured();
+		}
+
+		@Override
+		public void onTimeout() {
+			completed();
+		}
+
+		@Override
+		public void onCancel() {
+			completed();
+		}
+
+		private void measured() {
+			if (completed.compareAndSet(false, true)) {
+				remote.updateRTT((System.nanoTime() - start) / 1000000, retransmissions);
+				release(remote);
+			}
+		}
+
+		private void completed() {
+			if (completed.compareAndSet(false, true))
+				release(remote);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package ch.ethz.inf.vs.californium.network.stack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A FileBodySink writes the blocks of a body to a temporary file. Once the
+ * body is complete, the resource reads it with {@link #map()}, which maps
+ * the file into memory without copying it into the heap, or takes the file
+ * from {@link #getFile()}. The resource must call {@link #delete()} when it
+ * no longer needs the body. An aborted transfer deletes the file.
+ */
+public class FileBodySink implements BodySink {
+
+	/** The file */
+	private final File file;
+
+	/** The channel to the file or null if closed */
+	private FileChannel channel;
+
+	/** The number of bytes written */
+	private long size;
+
+	/**
+	 * Constructs a new sink that writes to a new temporary file in the default
+	 * temporary directory.
+	 *
+	 * @throws IOException if the file cannot be created
+	 */
+	public FileBodySink() throws IOException {
+		this(null);
+	}
+
+	/**
+	 * Constructs a new sink that writes to a new temporary file in the
+	 * specified directory.
+	 *
+	 * @param directory the directory or null for the default temporary directory
+	 * @throws IOException if the file cannot be created
+	 */
+	public FileBodySink(File directory) throws IOException {
+		this.file = File.createTempFile("cf-body-", ".tmp", directory);
+		this.file.deleteOnExit();
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+	}
+
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.network.stack.BodySink#write(byte[])
+	 */
+	@Override
+	public synchronized void write(byte[] block) throws IOException {
+		if (channel == null)
+			throw new IOException("Body sink is closed");
+		ByteBuffer buffer = ByteBuffer.wrap(block);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		size += block.length;
+	}
+
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.network.stack.BodySink#complete()
+	 */
+	@Override
+	public synchronized void complete() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.network.stack.BodySink#abort()
+	 */
+	@Override
+	public void abort() {
+		delete();
+	}
+
+	/**
+	 * Maps the complete body into memory read-only.
+	 *
+	 * @return the body
+	 * @throws IOException if the body cannot be mapped
+	 */
+	public synchronized MappedByteBuffer map() throws IOException {
+		if (channel != null)
+			throw new IllegalStateException("Body is not complete");
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.getChannel().map(MapMode.READ_ONLY, 0, size);
+		} finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Closes and deletes the file.
+	 */
+	public synchronized void delete() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// the file is deleted anyway
+			}
+			channel = null;
+		}
+		file.delete();
+	}
+
+	/**
+	 * Returns the file that contains the body.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the number of bytes that have been written.
+	 *
+	 * @return the size of the body so far
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+}
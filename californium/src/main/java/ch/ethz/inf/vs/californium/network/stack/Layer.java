@@ -9,6 +9,7 @@ import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.CoAPEndpoint;
 import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
 import ch.ethz.inf.vs.californium.server.MessageDeliverer;
 
 /**
@@ -113,6 +114,14 @@ public interface Layer {
 	 */
 	public void setExecutor(ScheduledExecutorService executor);
 	
+	/**
+	 * Sets the timer for retransmissions and other timeouts. Setting the
+	 * executor resets the timer to one that schedules on the executor.
+	 *
+	 * @param timer the new timer
+	 */
+	public void setTimer(Timer timer);
+	
 	
 	/**
 	 * A builder that constructs the stack from the top to the bottom. The
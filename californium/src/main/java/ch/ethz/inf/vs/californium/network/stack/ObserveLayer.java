@@ -9,6 +9,8 @@ import ch.ethz.inf.vs.californium.coap.EmptyMessage;
 import ch.ethz.inf.vs.californium.coap.MessageObserverAdapter;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.metrics.Counter;
+import ch.ethz.inf.vs.californium.metrics.Metrics;
 import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.Origin;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
@@ -17,6 +19,12 @@ import ch.ethz.inf.vs.californium.observe.ObserveRelation;
 
 public class ObserveLayer extends AbstractLayer {
 
+	private final static Counter NOTIFICATIONS_SENT = Metrics.counter("observe.notifications_sent");
+	private final static Counter NOTIFICATIONS_POSTPONED = Metrics.counter("observe.notifications_postponed");
+	private final static Counter NOTIFICATIONS_RECEIVED = Metrics.counter("observe.notifications_received");
+	private final static Counter NOTIFICATION_TIMEOUTS = Metrics.counter("observe.notification_timeouts");
+	private final static Counter REREGISTRATIONS = Metrics.counter("observe.reregistrations");
+	
 	private long backoff = 0; // additional time to wait until re-registration
 	
 	public ObserveLayer(NetworkConfig config) {
@@ -75,12 +83,14 @@ public class ObserveLayer extends AbstractLayer {
 				if (current != null && isInTransit(current)) {
 					LOGGER.fine("A former notification is still in transit. Postpone " + response);
 					relation.setNextControlNotification(response);
+					NOTIFICATIONS_POSTPONED.increment();
 					return;
 				} else {
 					relation.setCurrentControlNotification(response);
 					relation.setNextControlNotification(null);
 				}
 			}
+			NOTIFICATIONS_SENT.increment();
 
 		} // else no observe was requested or the resource does not allow it
 		super.sendResponse(exchange, response);
@@ -108,6 +118,7 @@ public class ObserveLayer extends AbstractLayer {
 				EmptyMessage rst = EmptyMessage.newRST(response);
 				sendEmptyMessage(exchange, rst);
 			} else {
+				NOTIFICATIONS_RECEIVED.increment();
 				prepareReregistration(exchange, response, new ReregistrationTask(exchange));
 				super.receiveResponse(exchange, response);
 			}
@@ -138,7 +149,7 @@ public class ObserveLayer extends AbstractLayer {
 	private void prepareReregistration(Exchange exchange, Response response, ReregistrationTask task) {
 		long timeout = response.getOptions().getMaxAge()*1000 + this.backoff;
 		LOGGER.finest("Scheduling re-registration in " + timeout + "ms for " + exchange.getRequest());
-		ScheduledFuture<?> f = executor.schedule(task , timeout, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> f = timer.schedule(task , timeout, TimeUnit.MILLISECONDS);
 		exchange.setReregistrationHandle(f);
 	}
 	
@@ -200,6 +211,7 @@ public class ObserveLayer extends AbstractLayer {
 		public void onTimeout() {
 			ObserveRelation relation = exchange.getRelation();
 			LOGGER.info("Notification timed out. Cancel all relations with source "+relation.getSource());
+			NOTIFICATION_TIMEOUTS.increment();
 			relation.cancelAll();
 		}
 		
@@ -233,6 +245,7 @@ public class ObserveLayer extends AbstractLayer {
 				refresh.setDestination(exchange.getRequest().getDestination());
 				refresh.setDestinationPort(exchange.getRequest().getDestinationPort());
 				LOGGER.info("Re-registering for " + exchange.getRequest());
+				REREGISTRATIONS.increment();
 				sendRequest(exchange, refresh);
 			} else {
 				LOGGER.finer("Dropping re-registration for canceled " + exchange.getRequest());
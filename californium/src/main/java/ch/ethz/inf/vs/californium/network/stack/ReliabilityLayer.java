@@ -10,10 +10,12 @@ import ch.ethz.inf.vs.californium.coap.EmptyMessage;
 import ch.ethz.inf.vs.californium.coap.Message;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.metrics.Counter;
+import ch.ethz.inf.vs.californium.metrics.Metrics;
 import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.Origin;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
-import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigSnapshot;
 
 /**
  * The reliability layer 
@@ -23,18 +25,24 @@ public class ReliabilityLayer extends AbstractLayer {
 	/** The logger. */
 	protected final static Logger LOGGER = Logger.getLogger(ReliabilityLayer.class.getCanonicalName());
 	
+	private final static Counter RETRANSMISSIONS = Metrics.counter("reliability.retransmissions");
+	private final static Counter TIMEOUTS = Metrics.counter("reliability.timeouts");
+	private final static Counter ACKS = Metrics.counter("reliability.acks_received");
+	private final static Counter RSTS = Metrics.counter("reliability.rsts_received");
+	private final static Counter DUPLICATES = Metrics.counter("reliability.duplicates_received");
+	
 	/** The random numbers generator for the back-off timer */
 	private Random rand = new Random();
 	
-	/** The configuration */ 
-	private NetworkConfig config;
+	/** The pre-parsed values of the configuration */ 
+	protected final NetworkConfigSnapshot config;
 	
 	/**
 	 * Constructs a new reliability layer.
 	 * @param config the configuration
 	 */
 	public ReliabilityLayer(NetworkConfig config) {
-		this.config = config;
+		this.config = config.getSnapshot();
 	}
 	
 	/**
@@ -69,6 +77,30 @@ public class ReliabilityLayer extends AbstractLayer {
 
 		LOGGER.finer("Send response, failed transmissions: "+exchange.getFailedTransmissionCount());
 
+		prepareResponse(exchange, response);
+		
+		if (response.getType() == Type.CON) {
+			LOGGER.finer("Scheduling retransmission for " + response);
+			prepareRetransmission(exchange, new RetransmissionTask(exchange, response) {
+				public void retransmit() {
+					sendResponse(exchange, response);
+				}
+			});
+		}
+		super.sendResponse(exchange, response);
+	}
+	
+	/**
+	 * Sets the type and, if necessary, the MID of the specified response. If a
+	 * response type is already set, it is left unchanged. An ACK or RST that
+	 * already has a MID keeps it, since the blocks of a parallel Block1
+	 * transfer share the exchange. Calling this method again for the same
+	 * response has no further effect.
+	 * 
+	 * @param exchange the exchange
+	 * @param response the response
+	 */
+	protected void prepareResponse(Exchange exchange, Response response) {
 		// If a response type is set, we do not mess around with it.
 		// Only if none is set, we have to decide for one here.
 		
@@ -92,19 +124,9 @@ public class ReliabilityLayer extends AbstractLayer {
 			
 			LOGGER.finest("Switched response message type from "+respType+" to "+response.getType()+" (request was "+reqType+")");
 		
-		} else if (respType == Type.ACK || respType == Type.RST) {
+		} else if ((respType == Type.ACK || respType == Type.RST) && response.getMID() == Message.NONE) {
 			response.setMID(exchange.getCurrentRequest().getMID());
 		}
-		
-		if (response.getType() == Type.CON) {
-			LOGGER.finer("Scheduling retransmission for " + response);
-			prepareRetransmission(exchange, new RetransmissionTask(exchange, response) {
-				public void retransmit() {
-					sendResponse(exchange, response);
-				}
-			});
-		}
-		super.sendResponse(exchange, response);
 	}
 	
 	
@@ -116,26 +138,48 @@ public class ReliabilityLayer extends AbstractLayer {
 	 * @param task the retransmission task
 	 */
 	private void prepareRetransmission(Exchange exchange, RetransmissionTask task) {
-		/*
-		 * For a new confirmable message, the initial timeout is set to a
-		 * random number between ACK_TIMEOUT and (ACK_TIMEOUT *
-		 * ACK_RANDOM_FACTOR)
-		 */
 		int timeout;
 		if (exchange.getFailedTransmissionCount() == 0) {
-			int ack_timeout = config.getInt(NetworkConfigDefaults.ACK_TIMEOUT);
-			float ack_random_factor = config.getFloat(NetworkConfigDefaults.ACK_RANDOM_FACTOR);
-			timeout = getRandomTimeout(ack_timeout, (int) (ack_timeout*ack_random_factor));
+			timeout = getInitialTimeout(exchange, task.message);
 		} else {
-			int ack_timeout_scale = config.getInt(NetworkConfigDefaults.ACK_TIMEOUT_SCALE);
-			timeout = ack_timeout_scale * exchange.getCurrentTimeout();
+			timeout = getNextTimeout(exchange, task.message);
 		}
 		exchange.setCurrentTimeout(timeout);
 		
-		ScheduledFuture<?> f = executor.schedule(task , timeout, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> f = timer.schedule(task , timeout, TimeUnit.MILLISECONDS);
 		exchange.setRetransmissionHandle(f);
 	}
 	
+	/**
+	 * Returns the timeout for the first transmission of the specified
+	 * confirmable message. For a new confirmable message, the initial timeout
+	 * is set to a random number between ACK_TIMEOUT and (ACK_TIMEOUT *
+	 * ACK_RANDOM_FACTOR).
+	 * 
+	 * @param exchange the exchange
+	 * @param message the confirmable message
+	 * @return the timeout in milliseconds
+	 */
+	protected int getInitialTimeout(Exchange exchange, Message message) {
+		int ack_timeout = config.getAckTimeout();
+		float ack_random_factor = config.getAckRandomFactor();
+		return getRandomTimeout(ack_timeout, (int) (ack_timeout*ack_random_factor));
+	}
+	
+	/**
+	 * Returns the timeout for a retransmission of the specified confirmable
+	 * message. The current timeout of the exchange is multiplied by
+	 * ACK_TIMEOUT_SCALE.
+	 * 
+	 * @param exchange the exchange
+	 * @param message the confirmable message
+	 * @return the timeout in milliseconds
+	 */
+	protected int getNextTimeout(Exchange exchange, Message message) {
+		int ack_timeout_scale = config.getAckTimeoutScale();
+		return ack_timeout_scale * exchange.getCurrentTimeout();
+	}
+	
 	/**
 	 * When we receive a duplicate of a request, we stop it here and do not
 	 * forward it to the upper layer. If the server has already sent a response,
@@ -143,12 +187,27 @@ public class ReliabilityLayer extends AbstractLayer {
 	 * has gone lost or not reached the client yet), we resent the ACK. If the
 	 * request has neither been responded, acknowledged or rejected yet, the
 	 * server has not yet decided what to do with the request and we cannot do
-	 * anything.
+	 * anything. A duplicate block of an ongoing parallel Block1 transfer and a
+	 * duplicate request for a block of an already generated response are
+	 * forwarded, since the current response of the exchange might belong to
+	 * another block.
 	 */
 	@Override
 	public void receiveRequest(Exchange exchange, Request request) {
 		
-		if (request.isDuplicate()) {
+		if (request.isDuplicate() && isParallelBlock(exchange, request)) {
+			DUPLICATES.increment();
+			LOGGER.fine("Forward the duplicate block of a parallel Block1 transfer");
+			exchange.setCurrentRequest(request);
+			super.receiveRequest(exchange, request);
+			
+		} else if (request.isDuplicate() && isResponseBlock(exchange, request)) {
+			DUPLICATES.increment();
+			LOGGER.fine("Forward the duplicate request for a block of the response");
+			super.receiveRequest(exchange, request);
+			
+		} else if (request.isDuplicate()) {
+			DUPLICATES.increment();
 			// Request is a duplicate, so resend ACK, RST or response
 			if (exchange.getCurrentResponse() != null) {
 				LOGGER.fine("Respond with the current response to the duplicate request");
@@ -179,6 +238,26 @@ public class ReliabilityLayer extends AbstractLayer {
 		}
 	}
 
+	/*
+	 * Checks whether the request is a block of a Block1 transfer that is
+	 * assembled from blocks in any order and has not been completed yet.
+	 */
+	private boolean isParallelBlock(Exchange exchange, Request request) {
+		BlockwiseStatus status = exchange.getRequestBlockStatus();
+		return request.getOptions().hasBlock1() && status != null
+				&& status.getBody() != null && !status.isClosed();
+	}
+
+	/*
+	 * Checks whether the request asks for a later block of a response that
+	 * has already been generated. Such blocks may be requested in parallel
+	 * and are cut from the response again.
+	 */
+	private boolean isResponseBlock(Exchange exchange, Request request) {
+		return request.getOptions().hasBlock2() && request.getOptions().getBlock2().getNum() > 0
+				&& exchange.getResponse() != null;
+	}
+
 	/**
 	 * When we receive a Confirmable response, we acknowledge it and it also
 	 * counts as acknowledgment for the request. If the response is a duplicate,
@@ -199,6 +278,7 @@ public class ReliabilityLayer extends AbstractLayer {
 		}
 		
 		if (response.isDuplicate()) {
+			DUPLICATES.increment();
 			LOGGER.fine("Response is duplicate, ignore it");
 		} else {
 			super.receiveResponse(exchange, response);
@@ -217,12 +297,14 @@ public class ReliabilityLayer extends AbstractLayer {
 		// already be the next NON notification.
 		
 		if (message.getType() == Type.ACK) {
+			ACKS.increment();
 			if (exchange.getOrigin() == Origin.LOCAL) {
 				exchange.getCurrentRequest().setAcknowledged(true);
 			} else {
 				exchange.getCurrentResponse().setAcknowledged(true);
 			}
 		} else if (message.getType() == Type.RST) {
+			RSTS.increment();
 			if (exchange.getOrigin() == Origin.LOCAL) {
 				exchange.getCurrentRequest().setRejected(true);
 			} else {
@@ -244,7 +326,7 @@ public class ReliabilityLayer extends AbstractLayer {
 	 * @param max the max
 	 * @return a random value between min and max
 	 */
-	private int getRandomTimeout(int min, int max) {
+	protected int getRandomTimeout(int min, int max) {
 		if (min == max) return min;
 		return min + rand.nextInt(max - min);
 	}
@@ -288,18 +370,21 @@ public class ReliabilityLayer extends AbstractLayer {
 					LOGGER.finest("Timeout: canceled (MID="+message.getMID()+"), do not retransmit");
 					return;
 					
-				} else if (failedCount <= config.getInt(NetworkConfigDefaults.MAX_RETRANSMIT)) {
+				} else if (failedCount <= config.getMaxRetransmit()) {
 					LOGGER.finer("Timeout: retransmit message, failed: "+failedCount+", message: "+message);
 					
 					// Trigger MessageObservers
 					message.retransmitting(); // TODO by Martin: Do not set next notification if max reached!
 					
 					// MessageObserver might have canceled
-					if (!message.isCanceled())
+					if (!message.isCanceled()) {
+						RETRANSMISSIONS.increment();
 						retransmit();
+					}
 
 				} else {
 					LOGGER.info("Timeout: retransmission limit reached, exchange failed, message: "+message);
+					TIMEOUTS.increment();
 					exchange.setTimedOut();
 					message.setTimedOut(true);
 				}
@@ -0,0 +1,265 @@
+package ch.ethz.inf.vs.californium.network.stack;
+
+import java.net.InetAddress;
+import java.util.LinkedList;
+
+/**
+ * The congestion control state of a remote endpoint as used by the
+ * {@link CongestionControlLayer}. A remote endpoint holds the retransmission
+ * timeout (RTO) estimated from the round-trip times of the confirmable
+ * messages exchanged with it and the queue of confirmable messages that wait
+ * for one of the NSTART slots of the peer.
+ * <p>
+ * The RTO is estimated as proposed by CoCoA (draft-bormann-core-cocoa): A
+ * strong estimator uses the RTT of messages that were acknowledged without a
+ * retransmission, a weak estimator the RTT of messages that were acknowledged
+ * after one or two retransmissions (measured from the first transmission).
+ * Both estimators follow RFC 6298 with K=4 and K=1 respectively and are
+ * combined into the overall RTO of the peer. An RTO that has not been updated
+ * for a while is aged back towards the default.
+ */
+public class RemoteEndpoint {
+
+	/** The default and initial RTO in milliseconds */
+	public static final long DEFAULT_RTO = 2000;
+
+	/** The upper limit for the RTO in milliseconds */
+	public static final long MAX_RTO = 60000;
+
+	/** The estimators that can update the RTO */
+	private static final int STRONG = 0;
+	private static final int WEAK = 1;
+
+	private static final int[] K = { 4, 1 };
+
+	/** The address of the remote endpoint */
+	private final InetAddress address;
+
+	/** The port of the remote endpoint */
+	private final int port;
+
+	/** The overall RTO */
+	private long rto = DEFAULT_RTO;
+
+	/** The smoothed RTT and RTT variation per estimator, negative if unset */
+	private final long[] srtt = { -1, -1 };
+	private final long[] rttvar = { -1, -1 };
+
+	/** The time of the last RTO update or aging in milliseconds */
+	private long lastUpdate;
+
+	/** The number of confirmable messages that have not yet completed */
+	private int outstanding;
+
+	/** The transmissions that wait for a free slot */
+	private final LinkedList<Runnable> queue = new LinkedList<Runnable>();
+
+	/** Whether this peer has been removed from its layer */
+	private boolean retired;
+
+	/**
+	 * Constructs the state of a new remote endpoint with the default RTO.
+	 *
+	 * @param address the address
+	 * @param port the port
+	 */
+	public RemoteEndpoint(InetAddress address, int port) {
+		this.address = address;
+		this.port = port;
+		this.lastUpdate = System.currentTimeMillis();
+	}
+
+	/**
+	 * Updates the RTO with the specified round-trip time. Measurements of
+	 * messages that required more than two retransmissions are ignored, since
+	 * they are too ambiguous to tell anything about the path to the peer.
+	 *
+	 * @param rtt the round-trip time in milliseconds, measured from the first
+	 *            transmission of the message
+	 * @param retransmissions the number of retransmissions of the message
+	 */
+	public synchronized void updateRTT(long rtt, int retransmissions) {
+		if (retransmissions == 0) {
+			long estimate = estimate(STRONG, rtt);
+			rto = (estimate + rto) / 2;
+		} else if (retransmissions <= 2) {
+			long estimate = estimate(WEAK, rtt);
+			rto = (estimate + 3 * rto) / 4;
+		} else {
+			return;
+		}
+		rto = Math.min(MAX_RTO, Math.max(1, rto));
+		lastUpdate = System.currentTimeMillis();
+	}
+
+	/*
+	 * Feeds the RTT into the specified estimator as in RFC 6298 and returns its
+	 * new RTO estimate.
+	 */
+	private long estimate(int estimator, long rtt) {
+		if (srtt[estimator] < 0) {
+			srtt[estimator] = rtt;
+			rttvar[estimator] = rtt / 2;
+		} else {
+			// alpha = 1/8, beta = 1/4
+			rttvar[estimator] = (3 * rttvar[estimator] + Math.abs(srtt[estimator] - rtt)) / 4;
+			srtt[estimator] = (7 * srtt[estimator] + rtt) / 8;
+		}
+		return srtt[estimator] + K[estimator] * rttvar[estimator];
+	}
+
+	/**
+	 * Returns the current RTO of this peer. A small RTO that has not been
+	 * updated for 16 times its value is doubled and a large RTO that has not
+	 * been updated for 4 times its value is moved half the way back to the
+	 * default.
+	 *
+	 * @return the RTO in milliseconds
+	 */
+	public synchronized long getRTO() {
+		long now = System.currentTimeMillis();
+		if (rto < 1000 && now - lastUpdate > 16 * rto) {
+			rto = Math.min(DEFAULT_RTO, 2 * rto);
+			lastUpdate = now;
+		} else if (rto > 3000 && now - lastUpdate > 4 * rto) {
+			rto = (DEFAULT_RTO + rto) / 2;
+			lastUpdate = now;
+		}
+		return rto;
+	}
+
+	/**
+	 * Returns the variable back-off factor for the specified timeout. Small
+	 * timeouts back off faster and large ones slower than the binary
+	 * exponential back-off of the base specification.
+	 *
+	 * @param timeout the timeout in milliseconds
+	 * @return the factor to multiply the timeout with for the next
+	 *         retransmission
+	 */
+	public static float getBackoffFactor(long timeout) {
+		if (timeout < 1000)
+			return 3f;
+		else if (timeout > 3000)
+			return 1.5f;
+		else return 2f;
+	}
+
+	/**
+	 * Returns the smoothed RTT of the strong estimator.
+	 *
+	 * @return the smoothed RTT in milliseconds or -1 if no RTT has been measured
+	 */
+	public synchronized long getStrongSRTT() {
+		return srtt[STRONG];
+	}
+
+	/**
+	 * Returns the smoothed RTT of the weak estimator.
+	 *
+	 * @return the smoothed RTT in milliseconds or -1 if no RTT has been measured
+	 */
+	public synchronized long getWeakSRTT() {
+		return srtt[WEAK];
+	}
+
+	/**
+	 * Tries to take one of the specified number of slots for an outstanding
+	 * confirmable message. If all slots are taken, the transmission is added
+	 * to the queue of this peer and executed once a slot becomes free.
+	 *
+	 * @param nstart the maximum number of outstanding messages
+	 * @param transmission the transmission to queue if all slots are taken
+	 * @return true if a slot was free and the message can be sent now
+	 */
+	synchronized boolean acquire(int nstart, Runnable transmission) {
+		if (outstanding < nstart) {
+			outstanding++;
+			return true;
+		} else {
+			queue.add(transmission);
+			return false;
+		}
+	}
+
+	/**
+	 * Frees the slot of a completed confirmable message. If there is a queued
+	 * transmission, it takes over the slot and is returned.
+	 *
+	 * @return the transmission to execute next or null
+	 */
+	synchronized Runnable release() {
+		Runnable next = queue.poll();
+		if (next == null)
+			outstanding--;
+		return next;
+	}
+
+	/**
+	 * Retires this peer if it has neither outstanding nor queued messages and
+	 * its RTO has not been updated since the specified time. No slots must be
+	 * acquired from a retired peer.
+	 *
+	 * @param time the time in milliseconds
+	 * @return true if this peer has been retired
+	 */
+	synchronized boolean retireIfIdleSince(long time) {
+		if (outstanding == 0 && queue.isEmpty() && lastUpdate < time)
+			retired = true;
+		return retired;
+	}
+
+	/**
+	 * Returns true if this peer has been retired.
+	 *
+	 * @return true if retired
+	 */
+	synchronized boolean isRetired() {
+		return retired;
+	}
+
+	/**
+	 * Returns the number of confirmable messages that have been sent to this
+	 * peer but not yet been acknowledged, rejected, canceled or timed out.
+	 *
+	 * @return the number of outstanding messages
+	 */
+	public synchronized int getOutstanding() {
+		return outstanding;
+	}
+
+	/**
+	 * Returns the number of confirmable messages that wait for a free slot.
+	 *
+	 * @return the queue depth
+	 */
+	public synchronized int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the address of this peer.
+	 *
+	 * @return the address
+	 */
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns the port of this peer.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return "RemoteEndpoint["+address+":"+port+", RTO="+rto+", outstanding="+outstanding+", queued="+queue.size()+"]";
+	}
+}
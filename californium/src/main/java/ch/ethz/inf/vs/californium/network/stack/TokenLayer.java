@@ -6,6 +6,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import ch.ethz.inf.vs.californium.coap.EmptyMessage;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.metrics.Counter;
+import ch.ethz.inf.vs.californium.metrics.Metrics;
 import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
@@ -16,6 +18,8 @@ import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
  */
 public class TokenLayer extends AbstractLayer {
 	
+	private final static Counter TOKENS = Metrics.counter("token.created");
+	
 	private AtomicInteger counter;
 	
 	public TokenLayer(NetworkConfig config) {
@@ -72,6 +76,7 @@ public class TokenLayer extends AbstractLayer {
 	 * @return the new token
 	 */
 	private byte[] createNewToken() {
+		TOKENS.increment();
 		int token = counter.incrementAndGet();
 		return new byte[] { (byte) (token>>>24), (byte) (token>>>16), (byte) (token>>>8), (byte) token}; 
 	}
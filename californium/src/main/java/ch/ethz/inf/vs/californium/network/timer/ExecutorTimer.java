@@ -0,0 +1,37 @@
+package ch.ethz.inf.vs.californium.network.timer;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This timer schedules each task on a {@link ScheduledExecutorService}. This
+ * is the default timer and runs tasks on the executor of the endpoint. The
+ * life cycle of the executor is not controlled by this timer.
+ */
+public class ExecutorTimer implements Timer {
+
+	private final ScheduledExecutorService executor;
+	
+	/**
+	 * Constructs a new timer that schedules tasks on the specified executor.
+	 * 
+	 * @param executor the executor
+	 */
+	public ExecutorTimer(ScheduledExecutorService executor) {
+		if (executor == null)
+			throw new NullPointerException("Executor must not be null");
+		this.executor = executor;
+	}
+	
+	@Override
+	public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return executor.schedule(task, delay, unit);
+	}
+
+	@Override
+	public void start() { }
+
+	@Override
+	public void stop() { }
+}
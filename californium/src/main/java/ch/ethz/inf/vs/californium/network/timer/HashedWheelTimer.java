@@ -0,0 +1,324 @@
+package ch.ethz.inf.vs.californium.network.timer;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.network.ShardedExecutor;
+
+/**
+ * A timer for many short timeouts such as retransmissions. The timer keeps
+ * its tasks in a wheel of buckets, each of which covers one tick. A single
+ * worker thread advances the wheel once per tick and hands the expired tasks
+ * of the current bucket over to the executor. Scheduling and cancelling a
+ * task cost constant time, whereas a {@link java.util.concurrent.ScheduledThreadPoolExecutor}
+ * pays O(log n) for both and keeps cancelled tasks in its queue until they
+ * expire. Tasks run up to one tick late.
+ * <p>
+ * If the executor is a {@link ShardedExecutor} and a task is scheduled from
+ * one of its lanes, the task runs on that lane again.
+ */
+public class HashedWheelTimer implements Timer {
+
+	private final static Logger LOGGER = Logger.getLogger(HashedWheelTimer.class.getCanonicalName());
+	
+	private static final int INIT = 0;
+	private static final int STARTED = 1;
+	private static final int STOPPED = 2;
+	
+	/** The executor that runs the expired tasks */
+	private final Executor executor;
+	
+	/** The duration of a tick in nanoseconds */
+	private final long tickDuration;
+	
+	/** The buckets of the wheel, each the head of a list of timeouts */
+	private final Timeout[] wheel;
+	private final int mask;
+	
+	/** The timeouts that have been scheduled but are not in the wheel yet */
+	private final ConcurrentLinkedQueue<Timeout> scheduled;
+	
+	/** The timeouts that have been cancelled but are still in the wheel */
+	private final ConcurrentLinkedQueue<Timeout> cancelled;
+	
+	private final AtomicInteger state;
+	
+	private volatile long startTime;
+	private Thread worker;
+	
+	/**
+	 * Constructs a new timer.
+	 * 
+	 * @param executor the executor that runs the expired tasks
+	 * @param tickDuration the duration of a tick
+	 * @param unit the unit of the tick duration
+	 * @param ticksPerWheel the number of buckets (rounded up to a power of two)
+	 */
+	public HashedWheelTimer(Executor executor, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (executor == null)
+			throw new NullPointerException("Executor must not be null");
+		if (tickDuration <= 0)
+			throw new IllegalArgumentException("Tick duration must be positive but was "+tickDuration);
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+			throw new IllegalArgumentException("Ticks per wheel must be in (0, 2^30] but was "+ticksPerWheel);
+		this.executor = executor;
+		this.tickDuration = unit.toNanos(tickDuration);
+		int buckets = 1;
+		while (buckets < ticksPerWheel)
+			buckets <<= 1;
+		this.wheel = new Timeout[buckets];
+		this.mask = buckets - 1;
+		this.scheduled = new ConcurrentLinkedQueue<Timeout>();
+		this.cancelled = new ConcurrentLinkedQueue<Timeout>();
+		this.state = new AtomicInteger(INIT);
+	}
+	
+	@Override
+	public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		if (task == null)
+			throw new NullPointerException("Task must not be null");
+		start();
+		if (state.get() == STOPPED)
+			throw new RejectedExecutionException("Timer has been stopped");
+		
+		Executor target = executor;
+		if (executor instanceof ShardedExecutor) {
+			Executor lane = ((ShardedExecutor) executor).getCurrentLane();
+			if (lane != null)
+				target = lane;
+		}
+		
+		long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay));
+		Timeout timeout = new Timeout(task, target, deadline);
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	@Override
+	public synchronized void start() {
+		if (state.get() != INIT)
+			return;
+		startTime = System.nanoTime();
+		worker = new Thread(new Worker(), "HashedWheelTimer");
+		worker.setDaemon(true);
+		state.set(STARTED);
+		worker.start();
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (state.getAndSet(STOPPED) == STARTED) {
+			worker.interrupt();
+			worker = null;
+		}
+	}
+	
+	private class Worker implements Runnable {
+		
+		private long tick;
+		
+		@Override
+		public void run() {
+			while (state.get() == STARTED) {
+				if (!waitForNextTick())
+					break;
+				try {
+					removeCancelled();
+					transferScheduled();
+					expire(tick & mask);
+				} catch (Throwable t) {
+					LOGGER.log(Level.WARNING, "Exception in hashed wheel timer", t);
+				}
+				tick++;
+			}
+		}
+		
+		/*
+		 * Sleeps until the end of the current tick. Returns false if the timer
+		 * has been stopped.
+		 */
+		private boolean waitForNextTick() {
+			long deadline = tickDuration * (tick + 1);
+			while (true) {
+				long sleep = deadline - (System.nanoTime() - startTime);
+				if (sleep <= 0)
+					return true;
+				try {
+					Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+				} catch (InterruptedException e) {
+					if (state.get() != STARTED)
+						return false;
+				}
+			}
+		}
+		
+		private void removeCancelled() {
+			Timeout timeout;
+			while ((timeout = cancelled.poll()) != null)
+				unlink(timeout);
+		}
+		
+		private void transferScheduled() {
+			// bound the work per tick so that a flood of new timeouts cannot stall the wheel
+			for (int i = 0; i < 100000; i++) {
+				Timeout timeout = scheduled.poll();
+				if (timeout == null)
+					break;
+				if (timeout.state.get() != INIT)
+					continue; // cancelled before it reached the wheel
+				long ticks = timeout.deadline / tickDuration;
+				timeout.remainingRounds = (ticks - tick) / wheel.length;
+				// do not schedule into the past
+				int index = (int) (Math.max(ticks, tick) & mask);
+				link(timeout, index);
+			}
+		}
+		
+		private void expire(long index) {
+			Timeout timeout = wheel[(int) index];
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					unlink(timeout);
+					timeout.expire();
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+		
+		private void link(Timeout timeout, int index) {
+			timeout.bucket = index;
+			timeout.next = wheel[index];
+			if (wheel[index] != null)
+				wheel[index].prev = timeout;
+			wheel[index] = timeout;
+		}
+		
+		private void unlink(Timeout timeout) {
+			int index = timeout.bucket;
+			if (index < 0)
+				return; // not in the wheel
+			if (timeout.prev != null)
+				timeout.prev.next = timeout.next;
+			else wheel[index] = timeout.next;
+			if (timeout.next != null)
+				timeout.next.prev = timeout.prev;
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = -1;
+		}
+	}
+	
+	/**
+	 * A scheduled task. Only the worker thread modifies the links and rounds.
+	 */
+	private class Timeout implements ScheduledFuture<Object>, Runnable {
+		
+		private final Runnable task;
+		private final Executor target;
+		private final long deadline;
+		// INIT until it expires (STARTED) or is cancelled (STOPPED)
+		private final AtomicInteger state = new AtomicInteger(INIT);
+		
+		private long remainingRounds;
+		private int bucket = -1;
+		private Timeout prev;
+		private Timeout next;
+		private boolean done;
+		
+		private Timeout(Runnable task, Executor target, long deadline) {
+			this.task = task;
+			this.target = target;
+			this.deadline = deadline;
+		}
+		
+		private void expire() {
+			if (!state.compareAndSet(INIT, STARTED))
+				return;
+			try {
+				target.execute(this);
+			} catch (RejectedExecutionException e) {
+				LOGGER.log(Level.FINE, "Executor rejected expired task", e);
+				finish();
+			}
+		}
+		
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} finally {
+				finish();
+			}
+		}
+		
+		private synchronized void finish() {
+			done = true;
+			notifyAll();
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - (System.nanoTime() - startTime), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!state.compareAndSet(INIT, STOPPED))
+				return false;
+			cancelled.add(this);
+			finish();
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get() == STOPPED;
+		}
+
+		@Override
+		public synchronized boolean isDone() {
+			return done;
+		}
+
+		@Override
+		public synchronized Object get() throws InterruptedException {
+			while (!done)
+				wait();
+			if (isCancelled())
+				throw new CancellationException();
+			return null;
+		}
+
+		@Override
+		public synchronized Object get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			long end = System.nanoTime() + unit.toNanos(timeout);
+			while (!done) {
+				long remaining = end - System.nanoTime();
+				if (remaining <= 0)
+					throw new TimeoutException();
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			if (isCancelled())
+				throw new CancellationException();
+			return null;
+		}
+	}
+}
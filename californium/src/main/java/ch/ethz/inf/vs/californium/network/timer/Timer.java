@@ -0,0 +1,39 @@
+package ch.ethz.inf.vs.californium.network.timer;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer runs tasks after a delay. The layers use a timer for
+ * retransmissions and re-registrations and the deduplicators use it for their
+ * periodic clean-up. The returned {@link ScheduledFuture} is the handle that
+ * cancels the task, e.g., the retransmission handle of an
+ * {@link ch.ethz.inf.vs.californium.network.Exchange}.
+ * 
+ * @see ExecutorTimer
+ * @see HashedWheelTimer
+ */
+public interface Timer {
+
+	/**
+	 * Schedules the specified task to run once after the specified delay.
+	 * 
+	 * @param task the task
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * @return the handle of the task
+	 * @throws java.util.concurrent.RejectedExecutionException if the timer
+	 *             has been stopped
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit);
+	
+	/**
+	 * Starts the timer. Scheduling a task also starts the timer.
+	 */
+	public void start();
+	
+	/**
+	 * Stops the timer. Tasks that have not run yet are dropped.
+	 */
+	public void stop();
+}
@@ -0,0 +1,87 @@
+package ch.ethz.inf.vs.californium.network.trace;
+
+import java.net.InetAddress;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.coap.Message;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Exchange;
+
+/**
+ * A tracer that logs every event as one line. The line is only formatted if
+ * the logger of this class is loggable at the configured level (FINE by
+ * default).
+ */
+public class LoggingTracer implements MessageTracer {
+
+	/** The logger. */
+	private final static Logger LOGGER = Logger.getLogger(LoggingTracer.class.getCanonicalName());
+
+	/** The level to log the events at */
+	private final Level level;
+
+	/**
+	 * Constructs a new tracer that logs at level FINE.
+	 */
+	public LoggingTracer() {
+		this(Level.FINE);
+	}
+
+	/**
+	 * Constructs a new tracer that logs at the specified level.
+	 * 
+	 * @param level the level
+	 */
+	public LoggingTracer(Level level) {
+		this.level = level;
+	}
+
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.network.trace.MessageTracer#trace(ch.ethz.inf.vs.californium.network.trace.TraceEvent, ch.ethz.inf.vs.californium.coap.Message, ch.ethz.inf.vs.californium.network.Exchange)
+	 */
+	@Override
+	public void trace(TraceEvent event, Message message, Exchange exchange) {
+		if (LOGGER.isLoggable(level))
+			LOGGER.log(level, format(event, message, exchange));
+	}
+
+	/**
+	 * Formats the specified event as one line.
+	 * 
+	 * @param event the event
+	 * @param message the message or null
+	 * @param exchange the exchange or null
+	 * @return the formatted event
+	 */
+	public static String format(TraceEvent event, Message message, Exchange exchange) {
+		StringBuilder builder = new StringBuilder(event.name());
+		if (message != null) {
+			String code = null;
+			if (message instanceof Request)
+				code = String.valueOf(((Request) message).getCode());
+			else if (message instanceof Response)
+				code = String.valueOf(((Response) message).getCode());
+			boolean outgoing = event.isOutgoing();
+			InetAddress peer = outgoing ? message.getDestination() : message.getSource();
+			int port = outgoing ? message.getDestinationPort() : message.getSourcePort();
+			builder.append(' ').append(message.getType());
+			if (code != null)
+				builder.append('-').append(code);
+			builder.append(String.format(" [%5d][%s]", message.getMID(), message.getTokenString()));
+			if (message instanceof Request)
+				builder.append('[').append(message.getOptions()).append(']');
+			builder.append(outgoing ? " to " : " from ").append(peer).append(':').append(port);
+		}
+		if (exchange != null) {
+			builder.append(" exchange ").append(exchange.getOrigin());
+			Request request = exchange.getCurrentRequest();
+			if (message == null && request != null)
+				builder.append(String.format(" [%5d][%s]", request.getMID(), request.getTokenString()));
+			if (exchange.getResponseBlockStatus() != null)
+				builder.append(' ').append(exchange.getResponseBlockStatus());
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,24 @@
+package ch.ethz.inf.vs.californium.network.trace;
+
+import ch.ethz.inf.vs.californium.coap.Message;
+import ch.ethz.inf.vs.californium.network.Exchange;
+
+/**
+ * A message tracer receives the message events of all endpoints. Install a
+ * tracer with {@link Tracing#setTracer(MessageTracer)}. The tracer is called
+ * on the thread that processes the message, so it must be thread-safe and
+ * should return quickly. It must not modify the message or the exchange.
+ */
+public interface MessageTracer {
+
+	/**
+	 * Reports the specified event.
+	 * 
+	 * @param event the event
+	 * @param message the message the event is about or null if the event is
+	 *            about the exchange only
+	 * @param exchange the exchange or null if no exchange is known yet
+	 */
+	public void trace(TraceEvent event, Message message, Exchange exchange);
+
+}
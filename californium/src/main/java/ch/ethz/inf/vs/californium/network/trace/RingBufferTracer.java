@@ -0,0 +1,238 @@
+package ch.ethz.inf.vs.californium.network.trace;
+
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.Message;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+
+/**
+ * A tracer that records the most recent events in a fixed-size ring buffer.
+ * Recording is lock-free: each event claims the next sequence number with a
+ * single atomic increment and stores an immutable record in its slot,
+ * overwriting the oldest one. Nothing is formatted until the buffer is dumped
+ * with {@link #getRecords()} or {@link #dump(PrintStream)}, so the recorder
+ * can stay attached to production traffic and be inspected when something
+ * goes wrong.
+ */
+public class RingBufferTracer implements MessageTracer {
+
+	/** The default number of records */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/** The next sequence number */
+	private final AtomicLong sequence = new AtomicLong();
+
+	/** The slots of the ring */
+	private final AtomicReferenceArray<Record> slots;
+
+	/** The mask to map a sequence number to its slot */
+	private final int mask;
+
+	/**
+	 * Constructs a new recorder with the default capacity.
+	 */
+	public RingBufferTracer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a new recorder that keeps at least the specified number of
+	 * most recent events. The capacity is rounded up to a power of two.
+	 *
+	 * @param capacity the number of records
+	 */
+	public RingBufferTracer(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive but was "+capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.slots = new AtomicReferenceArray<Record>(size);
+		this.mask = size - 1;
+	}
+
+	/* (non-Javadoc)
+	 * @see ch.ethz.inf.vs.californium.network.trace.MessageTracer#trace(ch.ethz.inf.vs.californium.network.trace.TraceEvent, ch.ethz.inf.vs.californium.coap.Message, ch.ethz.inf.vs.californium.network.Exchange)
+	 */
+	@Override
+	public void trace(TraceEvent event, Message message, Exchange exchange) {
+		long seq = sequence.getAndIncrement();
+		slots.set((int) (seq & mask), new Record(seq, event, message, exchange));
+	}
+
+	/**
+	 * Returns the recorded events from the oldest to the most recent one.
+	 * Events that are recorded concurrently may or may not be included.
+	 *
+	 * @return the records
+	 */
+	public List<Record> getRecords() {
+		long end = sequence.get();
+		long start = Math.max(0, end - slots.length());
+		List<Record> records = new ArrayList<Record>((int) (end - start));
+		for (int i = 0; i < slots.length(); i++) {
+			Record record = slots.get(i);
+			if (record != null && record.sequence >= start && record.sequence < end)
+				records.add(record);
+		}
+		Collections.sort(records, new Comparator<Record>() {
+			public int compare(Record o1, Record o2) {
+				return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+			}
+		});
+		return records;
+	}
+
+	/**
+	 * Prints the recorded events from the oldest to the most recent one.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void dump(PrintStream out) {
+		for (Record record:getRecords())
+			out.println(record);
+	}
+
+	/**
+	 * Returns the total number of events that have been recorded, including
+	 * those that have already been overwritten.
+	 *
+	 * @return the number of events
+	 */
+	public long getEventCount() {
+		return sequence.get();
+	}
+
+	/**
+	 * Returns the number of events the ring can hold.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return slots.length();
+	}
+
+	/**
+	 * An immutable copy of the relevant fields of one event.
+	 */
+	public static class Record {
+
+		private final long sequence;
+		private final long timestamp;
+		private final TraceEvent event;
+		private final Type type;
+		private final String code;
+		private final int mid;
+		private final byte[] token;
+		private final InetAddress peer;
+		private final int port;
+		private final Origin origin;
+
+		private Record(long sequence, TraceEvent event, Message message, Exchange exchange) {
+			this.sequence = sequence;
+			this.timestamp = System.currentTimeMillis();
+			this.event = event;
+			this.origin = exchange != null ? exchange.getOrigin() : null;
+			boolean outgoing = event.isOutgoing();
+			if (message == null && exchange != null) {
+				// describe the exchange by its request
+				message = exchange.getCurrentRequest();
+				outgoing = origin == Origin.LOCAL;
+			}
+			if (message != null) {
+				this.type = message.getType();
+				this.mid = message.getMID();
+				// the token array of the message may be reused or changed
+				byte[] token = message.getToken();
+				this.token = token != null ? token.clone() : null;
+				this.peer = outgoing ? message.getDestination() : message.getSource();
+				this.port = outgoing ? message.getDestinationPort() : message.getSourcePort();
+				if (message instanceof Request)
+					this.code = String.valueOf(((Request) message).getCode());
+				else if (message instanceof Response)
+					this.code = String.valueOf(((Response) message).getCode());
+				else this.code = null;
+			} else {
+				this.type = null;
+				this.mid = Message.NONE;
+				this.token = null;
+				this.peer = null;
+				this.port = 0;
+				this.code = null;
+			}
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public TraceEvent getEvent() {
+			return event;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public String getCode() {
+			return code;
+		}
+
+		public int getMID() {
+			return mid;
+		}
+
+		public byte[] getToken() {
+			return token;
+		}
+
+		public InetAddress getPeer() {
+			return peer;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		public Origin getOrigin() {
+			return origin;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(sequence).append(' ').append(timestamp).append(' ').append(event);
+			if (type != null) {
+				builder.append(' ').append(type);
+				if (code != null)
+					builder.append('-').append(code);
+				builder.append(String.format(" [%5d][", mid));
+				if (token != null)
+					for (byte b:token)
+						builder.append(String.format("%02x", b & 0xFF));
+				builder.append("] ").append(peer).append(':').append(port);
+			}
+			if (origin != null)
+				builder.append(' ').append(origin);
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package ch.ethz.inf.vs.californium.network.trace;
+
+/**
+ * The events that are reported to a {@link MessageTracer}.
+ */
+public enum TraceEvent {
+
+	/** A request is about to be sent. */
+	SEND_REQUEST(true),
+
+	/** A response is about to be sent. */
+	SEND_RESPONSE(true),
+
+	/** An empty message (ACK or RST) is about to be sent. */
+	SEND_EMPTY_MESSAGE(true),
+
+	/** A request has been received and parsed. */
+	RECEIVE_REQUEST(false),
+
+	/** A response has been received and parsed. */
+	RECEIVE_RESPONSE(false),
+
+	/** An empty message has been received and parsed. */
+	RECEIVE_EMPTY_MESSAGE(false),
+
+	/** An exchange has completed and the matcher cleans it up. */
+	EXCHANGE_COMPLETED(false),
+
+	/** A block of a blockwise response is sent and more blocks follow. */
+	BLOCKWISE_CONTINUE(true),
+
+	/** The last block of a blockwise response is sent. */
+	BLOCKWISE_COMPLETE(true);
+
+	private final boolean outgoing;
+
+	private TraceEvent(boolean outgoing) {
+		this.outgoing = outgoing;
+	}
+
+	/**
+	 * Checks if the message of this event is sent, i.e., its peer is the
+	 * destination, or received, i.e., its peer is the source.
+	 * 
+	 * @return true if the message is outgoing
+	 */
+	public boolean isOutgoing() {
+		return outgoing;
+	}
+}
@@ -0,0 +1,64 @@
+package ch.ethz.inf.vs.californium.network.trace;
+
+import ch.ethz.inf.vs.californium.coap.Message;
+import ch.ethz.inf.vs.californium.network.Exchange;
+
+/**
+ * Tracing holds the installed {@link MessageTracer} and forwards the message
+ * events of the endpoints, the matcher and the layers to it. If no tracer is
+ * installed, reporting an event costs a single volatile read; nothing is
+ * formatted or allocated.
+ * <p>
+ * Use {@link LoggingTracer} to log the events or {@link RingBufferTracer} to
+ * record the most recent events and dump them on demand.
+ */
+public final class Tracing {
+
+	/** The installed tracer or null */
+	private static volatile MessageTracer tracer;
+
+	private Tracing() {
+		// static only
+	}
+
+	/**
+	 * Installs the specified tracer.
+	 * 
+	 * @param tracer the tracer or null to disable tracing
+	 */
+	public static void setTracer(MessageTracer tracer) {
+		Tracing.tracer = tracer;
+	}
+
+	/**
+	 * Returns the installed tracer.
+	 * 
+	 * @return the tracer or null if tracing is disabled
+	 */
+	public static MessageTracer getTracer() {
+		return tracer;
+	}
+
+	/**
+	 * Checks if a tracer is installed. Callers only need this check if they
+	 * have to compute something for the event.
+	 * 
+	 * @return true if tracing is enabled
+	 */
+	public static boolean isEnabled() {
+		return tracer != null;
+	}
+
+	/**
+	 * Reports the specified event to the installed tracer, if any.
+	 * 
+	 * @param event the event
+	 * @param message the message or null
+	 * @param exchange the exchange or null
+	 */
+	public static void trace(TraceEvent event, Message message, Exchange exchange) {
+		MessageTracer current = tracer;
+		if (current != null)
+			current.trace(event, message, exchange);
+	}
+}
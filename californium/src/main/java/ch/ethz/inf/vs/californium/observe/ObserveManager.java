@@ -31,7 +31,19 @@
 package ch.ethz.inf.vs.californium.observe;
 
 import java.net.InetSocketAddress;
+import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyToken;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.server.resources.Resource;
 
 /**
  * The observe manager holds a mapping of endpoint addresses to
@@ -40,27 +52,217 @@ import java.util.concurrent.ConcurrentHashMap;
  * this server. This important in case we want to cancel all relations to a
  * specific endpoint, e.g., when a confirmable notification timeouts.
  * <p>
+ * All relations are indexed by the address of the observer and the token of
+ * the request that established them, so that a relation can be found with a
+ * single hash lookup. An ObservingEndpoint is removed as soon as its last
+ * relation has been canceled. The total number of relations can be limited
+ * with {@link NetworkConfigDefaults#MAX_OBSERVE_RELATIONS}. When the limit is
+ * reached, the {@link RejectionPolicy} decides whether a new relation is
+ * refused (the request is answered like a normal GET) or the oldest relation
+ * is canceled to make room.
+ * <p>
  * Notice that each server has its own ObserveManager. If a server binds to
  * multiple endpoints, the ObserveManager keeps the observe relations for all of
  * them.
  */
 //TODO: find a better name... how about ObserveObserver -.-
 public class ObserveManager {
-
+	
+	/** The logger. */
+	private final static Logger LOGGER = Logger.getLogger(ObserveManager.class.getCanonicalName());
+	
+	/**
+	 * Decides what happens to a new relation when the maximum number of
+	 * relations has been reached.
+	 */
+	public enum RejectionPolicy {
+	
+		/** The new relation is refused */
+		REJECT_NEW,
+	
+		/** The oldest relation is canceled to make room for the new one */
+		CANCEL_OLDEST
+	}
+	
 	/** The mapping from endpoint addresses to ObservingEndpoints */
 	private final ConcurrentHashMap<InetSocketAddress, ObservingEndpoint> endpoints;
 	
+	/** The mapping from address and token to relations */
+	private final ConcurrentHashMap<KeyToken, ObserveRelation> relations;
+	
+	/** The relations in the order they have been added (CANCEL_OLDEST only) */
+	private final ConcurrentLinkedQueue<ObserveRelation> order;
+	
+	/** The number of entries in the order queue, including canceled ones */
+	private final AtomicInteger queued = new AtomicInteger();
+	
+	/** Guards the removal of canceled relations from the order queue */
+	private final AtomicBoolean purging = new AtomicBoolean();
+	
+	/** The number of relations */
+	private final AtomicInteger count = new AtomicInteger();
+	
+	/** The maximum number of relations or 0 for no limit */
+	private final int maxRelations;
+	
+	/** The policy when the maximum has been reached */
+	private final RejectionPolicy policy;
+	
 	/**
-	 * Constructs a new ObserveManager for this server.
+	 * Constructs a new ObserveManager for this server that does not limit the
+	 * number of relations.
 	 */
 	public ObserveManager() {
-		endpoints = new ConcurrentHashMap<InetSocketAddress, ObservingEndpoint>();
+		this(0, RejectionPolicy.REJECT_NEW);
+	}
+	
+	/**
+	 * Constructs a new ObserveManager with the limit and rejection policy of
+	 * the specified configuration.
+	 *
+	 * @param config the configuration
+	 */
+	public ObserveManager(NetworkConfig config) {
+		this(config.getInt(NetworkConfigDefaults.MAX_OBSERVE_RELATIONS), getRejectionPolicy(config));
+	}
+	
+	/**
+	 * Constructs a new ObserveManager that keeps at most the specified number
+	 * of relations.
+	 *
+	 * @param maxRelations the maximum number of relations or 0 for no limit
+	 * @param policy the policy when the maximum has been reached
+	 */
+	public ObserveManager(int maxRelations, RejectionPolicy policy) {
+		if (maxRelations < 0)
+			throw new IllegalArgumentException("Maximum number of relations must not be negative but was "+maxRelations);
+		if (policy == null)
+			throw new NullPointerException();
+		this.maxRelations = maxRelations;
+		this.policy = policy;
+		this.endpoints = new ConcurrentHashMap<InetSocketAddress, ObservingEndpoint>();
+		this.relations = new ConcurrentHashMap<KeyToken, ObserveRelation>();
+		if (maxRelations > 0 && policy == RejectionPolicy.CANCEL_OLDEST)
+			this.order = new ConcurrentLinkedQueue<ObserveRelation>();
+		else this.order = null;
+	}
+	
+	private static RejectionPolicy getRejectionPolicy(NetworkConfig config) {
+		String policy = config.getString(NetworkConfigDefaults.OBSERVE_REJECTION_POLICY);
+		if (NetworkConfigDefaults.OBSERVE_CANCEL_OLDEST.equals(policy)) return RejectionPolicy.CANCEL_OLDEST;
+		else if (NetworkConfigDefaults.OBSERVE_REJECT_NEW.equals(policy)) return RejectionPolicy.REJECT_NEW;
+		else {
+			LOGGER.warning("Unknown observe rejection policy: " + policy);
+			return RejectionPolicy.REJECT_NEW;
+		}
+	}
+	
+	/**
+	 * Creates and registers a new observe relation for the request of the
+	 * specified exchange with the specified resource. If the observer already
+	 * has a relation with the same token, the old relation is canceled and
+	 * replaced. Returns null if the maximum number of relations has been
+	 * reached and the rejection policy refuses the new relation.
+	 *
+	 * @param exchange the exchange that tries to establish the relation
+	 * @param resource the resource to observe
+	 * @return the relation or null if refused
+	 */
+	public ObserveRelation addObserveRelation(Exchange exchange, Resource resource) {
+		if (!reserve())
+			return null;
+	
+		Request request = exchange.getRequest();
+		InetSocketAddress source = new InetSocketAddress(request.getSource(), request.getSourcePort());
+		while (true) {
+			ObservingEndpoint remote = findObservingEndpoint(source);
+			ObserveRelation relation = new ObserveRelation(remote, resource, exchange);
+			// fails if the endpoint has just been reclaimed, retry with a new one
+			if (remote.add(relation)) {
+				ObserveRelation previous = relations.put(getKey(relation), relation);
+				if (previous != null)
+					previous.cancel();
+				if (order != null) {
+					order.add(relation);
+					if (queued.incrementAndGet() > 2 * count.get() + 64)
+						purge();
+				}
+				return relation;
+			}
+		}
+	}
+	
+	/*
+	 * Claims one place for a new relation. If the limit has been reached,
+	 * the policy either refuses the claim or cancels the oldest relations
+	 * until a place becomes free.
+	 */
+	private boolean reserve() {
+		if (maxRelations == 0) {
+			count.incrementAndGet();
+			return true;
+		}
+		while (true) {
+			int current = count.get();
+			if (current < maxRelations) {
+				if (count.compareAndSet(current, current + 1))
+					return true;
+			} else if (order == null) {
+				LOGGER.info("Refuse observe relation because the maximum of "+maxRelations+" relations has been reached");
+				return false;
+			} else {
+				ObserveRelation oldest = order.poll();
+				if (oldest == null)
+					return false; // all places are claimed by concurrent additions
+				queued.decrementAndGet();
+				if (!oldest.isCanceled()) {
+					LOGGER.info("Cancel oldest observe relation from "+oldest.getSource()+" because the maximum of "+maxRelations+" relations has been reached");
+					oldest.cancel();
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Removes the canceled relations from the order queue so that it does not
+	 * grow with the churn of relations.
+	 */
+	private void purge() {
+		if (!purging.compareAndSet(false, true))
+			return;
+		try {
+			Iterator<ObserveRelation> iterator = order.iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().isCanceled()) {
+					iterator.remove();
+					queued.decrementAndGet();
+				}
+			}
+		} finally {
+			purging.set(false);
+		}
+	}
+	
+	/**
+	 * Called by an ObservingEndpoint of this manager when one of its relations
+	 * has been removed. If it was the endpoint's last relation, the endpoint
+	 * is reclaimed.
+	 *
+	 * @param remote the endpoint
+	 * @param relation the removed relation
+	 * @param reclaimed true if the endpoint has no more relations
+	 */
+	void removed(ObservingEndpoint remote, ObserveRelation relation, boolean reclaimed) {
+		relations.remove(getKey(relation), relation);
+		count.decrementAndGet();
+		if (reclaimed)
+			endpoints.remove(remote.getAddress(), remote);
 	}
 	
 	/**
 	 * Find the ObservingEndpoint for the specified endpoint address or create
 	 * a new one if none exists yet. Does not return null.
-	 * 
+	 *
 	 * @param address the address
 	 * @return the ObservingEndpoint for the address
 	 */
@@ -74,7 +276,7 @@ public class ObserveManager {
 	/**
 	 * Return the ObservingEndpoint for the specified endpoint address or null
 	 * if none exists.
-	 * 
+	 *
 	 * @param address the address
 	 * @return the ObservingEndpoint or null
 	 */
@@ -84,13 +286,13 @@ public class ObserveManager {
 	
 	/**
 	 * Atomically creates a new ObservingEndpoint for the specified address.
-	 * 
+	 *
 	 * @param address the address
 	 * @return the ObservingEndpoint
 	 */
 	private ObservingEndpoint createObservingEndpoint(InetSocketAddress address) {
-		ObservingEndpoint ep = new ObservingEndpoint(address);
-		
+		ObservingEndpoint ep = new ObservingEndpoint(address, this);
+	
 		// Make sure, there is exactly one ep with the specified address (atomic creation)
 		ObservingEndpoint previous = endpoints.putIfAbsent(address, ep);
 		if (previous != null) {
@@ -99,14 +301,57 @@ public class ObserveManager {
 			return ep;
 		}
 	}
-
+	
+	/**
+	 * Returns the relation that the specified observer has established with
+	 * the specified token or null if there is none.
+	 *
+	 * @param source the address of the observer
+	 * @param token the token
+	 * @return the relation or null
+	 */
 	public ObserveRelation getRelation(InetSocketAddress source, byte[] token) {
-		ObservingEndpoint remote = getObservingEndpoint(source);
-		if (remote!=null) {
-			return remote.getObserveRelation(token);
-		} else {
-			return null;
-		}
+		return relations.get(new KeyToken(token, source.getAddress().getAddress(), source.getPort()));
+	}
+	
+	/**
+	 * Returns the number of relations.
+	 *
+	 * @return the number of relations
+	 */
+	public int getRelationCount() {
+		return count.get();
+	}
+	
+	/**
+	 * Returns the number of endpoints that have at least one relation.
+	 *
+	 * @return the number of endpoints
+	 */
+	public int getEndpointCount() {
+		return endpoints.size();
 	}
 	
+	/**
+	 * Returns the maximum number of relations.
+	 *
+	 * @return the maximum or 0 if there is no limit
+	 */
+	public int getMaxRelations() {
+		return maxRelations;
+	}
+	
+	/**
+	 * Returns the policy when the maximum number of relations has been reached.
+	 *
+	 * @return the rejection policy
+	 */
+	public RejectionPolicy getRejectionPolicy() {
+		return policy;
+	}
+	
+	private static KeyToken getKey(ObserveRelation relation) {
+		InetSocketAddress source = relation.getSource();
+		return new KeyToken(relation.getExchange().getRequest().getToken(), source.getAddress().getAddress(), source.getPort());
+	}
 }
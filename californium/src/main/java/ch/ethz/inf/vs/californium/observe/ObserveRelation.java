@@ -41,6 +41,9 @@ public class ObserveRelation {
 	/** Indicates if the relation is established */
 	private boolean established;
 	
+	/** Indicates if the relation has been canceled */
+	private volatile boolean canceled;
+	
 	private long interestCheckTimer = System.currentTimeMillis();
 	private int interestCheckCounter = 1;
 	
@@ -88,10 +91,19 @@ public class ObserveRelation {
 	public void cancel() {
 		LOGGER.info("Cancel observe relation from "+endpoint.getAddress()+" with "+resource.getURI());
 		this.established = false;
+		this.canceled = true;
 		resource.removeObserveRelation(this);
 		endpoint.removeObserveRelation(this);
 	}
 	
+	/**
+	 * Returns true if this relation has been canceled.
+	 * @return true if this relation has been canceled
+	 */
+	public boolean isCanceled() {
+		return canceled;
+	}
+	
 	/**
 	 * Cancel all observer relations that this server has established with this'
 	 * realtion's endpoint.
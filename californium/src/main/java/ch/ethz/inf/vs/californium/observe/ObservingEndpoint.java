@@ -1,39 +1,74 @@
 package ch.ethz.inf.vs.californium.observe;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class represents an observing endpoint. It holds all observe relations
  * that the endpoint has to this server. If a confirmable notification timeouts
  * for the maximum times allowed the server assumes the client is no longer
  * reachable and cancels all relations that it has established to resources.
+ * <p>
+ * An endpoint that belongs to an {@link ObserveManager} is reclaimed when its
+ * last relation is removed and does not accept new relations afterwards; the
+ * manager then creates a new endpoint for the address.
  */
 public class ObservingEndpoint {
 	
 	/** The endpoint's address */
 	private final InetSocketAddress address;
-
+	
+	/** The manager that indexes the relations or null */
+	private final ObserveManager manager;
+	
 	/** The list of relations the endpoint has established with this server */
 	private final List<ObserveRelation> relations;
 	
+	/** Indicates that the manager has removed this endpoint (guarded by this) */
+	private boolean reclaimed;
+	
 	/**
 	 * Constructs a new ObservingEndpoint.
 	 * @param address the endpoint's address
 	 */
 	public ObservingEndpoint(InetSocketAddress address) {
+		this(address, null);
+	}
+	
+	/**
+	 * Constructs a new ObservingEndpoint that belongs to the specified manager.
+	 * @param address the endpoint's address
+	 * @param manager the manager
+	 */
+	ObservingEndpoint(InetSocketAddress address, ObserveManager manager) {
 		this.address = address;
-		this.relations = new CopyOnWriteArrayList<ObserveRelation>();
+		this.manager = manager;
+		this.relations = new ArrayList<ObserveRelation>(1);
 	}
 	
 	/**
-	 * Adds the specified observe relation.
+	 * Adds the specified observe relation. The relations of an endpoint that
+	 * belongs to an ObserveManager must be added through the manager.
 	 * @param relation the relation
 	 */
 	public void addObserveRelation(ObserveRelation relation) {
+		if (manager != null)
+			throw new IllegalStateException("Relations of managed endpoints must be added by the ObserveManager");
+		add(relation);
+	}
+	
+	/**
+	 * Adds the specified relation unless this endpoint has been reclaimed.
+	 * @param relation the relation
+	 * @return false if the endpoint has been reclaimed
+	 */
+	synchronized boolean add(ObserveRelation relation) {
+		if (reclaimed)
+			return false;
 		relations.add(relation);
+		return true;
 	}
 	
 	/**
@@ -41,7 +76,16 @@ public class ObservingEndpoint {
 	 * @param relation the relation
 	 */
 	public void removeObserveRelation(ObserveRelation relation) {
-		relations.remove(relation);
+		boolean empty;
+		synchronized (this) {
+			if (!relations.remove(relation))
+				return;
+			empty = relations.isEmpty();
+			if (empty && manager != null)
+				reclaimed = true;
+		}
+		if (manager != null)
+			manager.removed(this, relation, empty);
 	}
 	
 	/**
@@ -49,10 +93,10 @@ public class ObservingEndpoint {
 	 * resources from this server.
 	 */
 	public void cancelAll() {
-		for (ObserveRelation relation:relations)
+		for (ObserveRelation relation:getObserveRelations())
 			relation.cancel();
 	}
-
+	
 	/**
 	 * Returns the address of this endpoint-
 	 * @return the address
@@ -60,9 +104,17 @@ public class ObservingEndpoint {
 	public InetSocketAddress getAddress() {
 		return address;
 	}
-
+	
+	/**
+	 * Returns the relation that this endpoint has established with the
+	 * specified token or null if there is none.
+	 * @param token the token
+	 * @return the relation or null
+	 */
 	public ObserveRelation getObserveRelation(byte[] token) {
-		for (ObserveRelation relation:relations) {
+		if (manager != null)
+			return manager.getRelation(address, token);
+		for (ObserveRelation relation:getObserveRelations()) {
 			if (Arrays.equals(relation.getExchange().getRequest().getToken(), token)) {
 				return relation;
 			}
@@ -70,6 +122,14 @@ public class ObservingEndpoint {
 		return null;
 	}
 	
+	/**
+	 * Returns a copy of the relations of this endpoint.
+	 * @return the relations
+	 */
+	public synchronized List<ObserveRelation> getObserveRelations() {
+		return new ArrayList<ObserveRelation>(relations);
+	}
+	
 	/*
 	 * This class is obsolete now since observe-09 where a client can have
 	 * multiple observe relations with the same resource. Furthermore, the
@@ -0,0 +1,237 @@
+package ch.ethz.inf.vs.californium.server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.ethz.inf.vs.californium.observe.ObserveRelation;
+import ch.ethz.inf.vs.californium.server.resources.Resource;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+import ch.ethz.inf.vs.californium.server.resources.ResourceObserver;
+
+/**
+ * The RoutingTrie is an immutable, precompiled index of a resource tree that
+ * finds the target resource of a request by walking the URI-Path segments
+ * through hash maps without copying the path.
+ * <p>
+ * The trie observes all resources of the tree and is rebuilt copy-on-write
+ * with the next lookup after a resource has been added, removed or renamed.
+ * Lookups only synchronize if they find the trie outdated; all others read
+ * the current trie without locking.
+ * <p>
+ * A resource whose name has the form <code>{name}</code> is a parameter: it
+ * matches any single path segment for which its parent has no child with
+ * that exact name. The matched segments are available from
+ * {@link Match#getParameters()} and from the CoapExchange. Exact names take
+ * precedence and there is no backtracking.
+ * <p>
+ * A resource that overrides {@link Resource#getChild(String)}, e.g., to
+ * create children on demand, cannot be precompiled. The lookup of the
+ * remaining path segments below such a resource falls back to
+ * {@link Resource#getChild(String)}.
+ */
+public class RoutingTrie {
+
+	/** The root of the resource tree */
+	private final Resource root;
+
+	/** The trie or null if it has to be rebuilt */
+	private volatile Node trie;
+
+	/** The number of changes to the resource tree */
+	private final AtomicInteger changes = new AtomicInteger();
+
+	/** The observer that invalidates the trie when the tree changes */
+	private final ResourceObserver invalidator = new Invalidator();
+
+	/**
+	 * Constructs a new routing trie for the resource tree with the specified
+	 * root.
+	 *
+	 * @param root the root
+	 */
+	public RoutingTrie(Resource root) {
+		if (root == null)
+			throw new NullPointerException();
+		this.root = root;
+	}
+
+	/**
+	 * Finds the resource with the specified path.
+	 *
+	 * @param path the path segments
+	 * @return the resource or null if not found
+	 */
+	public Resource find(List<String> path) {
+		Match match = match(path);
+		return match != null ? match.getResource() : null;
+	}
+
+	/**
+	 * Finds the resource with the specified path and the values of the
+	 * parameter segments on the path.
+	 *
+	 * @param path the path segments
+	 * @return the match or null if not found
+	 */
+	public Match match(List<String> path) {
+		Node node = trie;
+		if (node == null)
+			node = rebuild();
+
+		Map<String, String> parameters = null;
+		int size = path.size();
+		for (int i = 0; i < size; i++) {
+			if (node.dynamic)
+				return walk(node.resource, path, i, parameters);
+			String segment = path.get(i);
+			Node next = node.children.get(segment);
+			if (next == null) {
+				next = node.parameter;
+				if (next == null)
+					return null;
+				if (parameters == null)
+					parameters = new HashMap<String, String>(4);
+				parameters.put(next.parameterName, segment);
+			}
+			node = next;
+		}
+		return new Match(node.resource, parameters);
+	}
+
+	/*
+	 * Continues the lookup below a resource that overrides getChild().
+	 */
+	private static Match walk(Resource current, List<String> path, int index, Map<String, String> parameters) {
+		int size = path.size();
+		for (int i = index; i < size && current != null; i++)
+			current = current.getChild(path.get(i));
+		return current != null ? new Match(current, parameters) : null;
+	}
+
+	/**
+	 * Marks the trie as outdated. The next lookup rebuilds it. This method is
+	 * called automatically when a resource of the tree changes.
+	 */
+	public void invalidate() {
+		changes.incrementAndGet();
+		trie = null;
+	}
+
+	/*
+	 * Builds a new trie from the current resource tree. The trie is only
+	 * published if the tree has not changed while it was built; a lookup uses
+	 * it anyway since it is no older than the tree at the time of the lookup.
+	 */
+	private synchronized Node rebuild() {
+		Node current = trie;
+		if (current != null)
+			return current;
+		int version = changes.get();
+		Node node = build(root, null);
+		if (changes.get() == version)
+			trie = node;
+		return node;
+	}
+
+	private Node build(Resource resource, String parameterName) {
+		resource.removeObserver(invalidator);
+		resource.addObserver(invalidator);
+
+		if (isDynamic(resource))
+			return new Node(resource, parameterName, Collections.<String, Node>emptyMap(), null, true);
+
+		Map<String, Node> children = new HashMap<String, Node>();
+		Node parameter = null;
+		for (Resource child:resource.getChildren()) {
+			String name = child.getName();
+			if (isParameter(name))
+				parameter = build(child, name.substring(1, name.length() - 1));
+			else children.put(name, build(child, null));
+		}
+		return new Node(resource, parameterName, children, parameter, false);
+	}
+
+	private static boolean isParameter(String name) {
+		return name.length() > 2 && name.charAt(0) == '{' && name.charAt(name.length() - 1) == '}';
+	}
+
+	/*
+	 * Checks whether the resource computes its children itself.
+	 */
+	private static boolean isDynamic(Resource resource) {
+		if (!(resource instanceof ResourceBase))
+			return true;
+		try {
+			return resource.getClass().getMethod("getChild", String.class).getDeclaringClass() != ResourceBase.class;
+		} catch (NoSuchMethodException e) {
+			return true;
+		}
+	}
+
+	/*
+	 * An immutable node of the trie.
+	 */
+	private static final class Node {
+
+		private final Resource resource;
+		private final String parameterName;
+		private final Map<String, Node> children;
+		private final Node parameter;
+		private final boolean dynamic;
+
+		private Node(Resource resource, String parameterName, Map<String, Node> children, Node parameter, boolean dynamic) {
+			this.resource = resource;
+			this.parameterName = parameterName;
+			this.children = children;
+			this.parameter = parameter;
+			this.dynamic = dynamic;
+		}
+	}
+
+	/**
+	 * The result of a lookup.
+	 */
+	public static final class Match {
+
+		private final Resource resource;
+		private final Map<String, String> parameters;
+
+		private Match(Resource resource, Map<String, String> parameters) {
+			this.resource = resource;
+			this.parameters = parameters;
+		}
+
+		/**
+		 * Returns the resource.
+		 *
+		 * @return the resource
+		 */
+		public Resource getResource() {
+			return resource;
+		}
+
+		/**
+		 * Returns the values of the parameter segments by parameter name.
+		 *
+		 * @return the parameters or null if the path has no parameters
+		 */
+		public Map<String, String> getParameters() {
+			return parameters;
+		}
+	}
+
+	/*
+	 * Invalidates the trie whenever the structure of the tree changes.
+	 */
+	private class Invalidator implements ResourceObserver {
+		public void changedName(String old) { invalidate(); }
+		public void changedPath(String old) { invalidate(); }
+		public void addedChild(Resource child) { invalidate(); }
+		public void removedChild(Resource child) { invalidate(); }
+		public void addedObserveRelation(ObserveRelation relation) { }
+		public void removedObserveRelation(ObserveRelation relation) { }
+	}
+}
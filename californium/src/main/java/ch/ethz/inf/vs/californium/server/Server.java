@@ -14,10 +14,13 @@ import java.util.logging.Logger;
 import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
 import ch.ethz.inf.vs.californium.network.CoAPEndpoint;
 import ch.ethz.inf.vs.californium.network.Endpoint;
+import ch.ethz.inf.vs.californium.network.ShardedExecutor;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.observe.ObserveManager;
 import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
 import ch.ethz.inf.vs.californium.server.resources.DiscoveryResource;
+import ch.ethz.inf.vs.californium.server.resources.MetricsResource;
 import ch.ethz.inf.vs.californium.server.resources.Resource;
 import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
 
@@ -122,13 +125,17 @@ public class Server implements ServerInterface {
 		} else {
 			this.config = NetworkConfig.getStandard();
 		}
-		this.executor = Executors.newScheduledThreadPool(
-				config.getInt(NetworkConfigDefaults.SERVER_THRESD_NUMER));
-		this.deliverer = new ServerMessageDeliverer(root);
+		int threadCount = config.getInt(NetworkConfigDefaults.SERVER_THRESD_NUMER);
+		if (config.getBoolean(NetworkConfigDefaults.USE_SHARDED_EXECUTOR))
+			this.executor = new ShardedExecutor(threadCount);
+		else this.executor = Executors.newScheduledThreadPool(threadCount);
+		this.deliverer = new ServerMessageDeliverer(root, new ObserveManager(this.config));
 		
 		ResourceBase well_known = new ResourceBase(".well-known");
 		well_known.setVisible(false);
 		well_known.add(new DiscoveryResource(root));
+		if (this.config.getBoolean(NetworkConfigDefaults.METRICS_RESOURCE))
+			well_known.add(new MetricsResource());
 		root.add(well_known);
 		
 		for (int port:ports)
@@ -30,10 +30,11 @@
  ******************************************************************************/
 package ch.ethz.inf.vs.californium.server;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 import ch.ethz.inf.vs.californium.coap.CoAP.Code;
@@ -41,31 +42,47 @@ import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.stack.BodySink;
+import ch.ethz.inf.vs.californium.network.stack.BodySinkFactory;
 import ch.ethz.inf.vs.californium.observe.ObserveManager;
 import ch.ethz.inf.vs.californium.observe.ObserveRelation;
-import ch.ethz.inf.vs.californium.observe.ObservingEndpoint;
 import ch.ethz.inf.vs.californium.server.resources.Resource;
+import ch.ethz.inf.vs.californium.server.resources.ResourceExecutor;
 
 /**
  * The ServerMessageDeliverer delivers requests to corresponding resources and
  * responses to corresponding requests.
  */
-public class ServerMessageDeliverer implements MessageDeliverer {
+public class ServerMessageDeliverer implements MessageDeliverer, BodySinkFactory {
 
 	private final static Logger LOGGER = Logger.getLogger(ServerMessageDeliverer.class.getCanonicalName());
 
 	/* The root of all resources */
 	private final Resource root;
 
+	/* The precompiled index of the resource tree */
+	private final RoutingTrie trie;
+
 	/* The manager of the observe mechanism for this server */
-	private ObserveManager observeManager = new ObserveManager();
+	private final ObserveManager observeManager;
 
 	/**
 	 * Constructs a default message deliverer that delivers requests to the
 	 * resources rooted at the specified root.
 	 */
 	public ServerMessageDeliverer(Resource root) {
+		this(root, new ObserveManager());
+	}
+
+	/**
+	 * Constructs a message deliverer that delivers requests to the resources
+	 * rooted at the specified root and keeps the observe relations with the
+	 * specified manager.
+	 */
+	public ServerMessageDeliverer(Resource root, ObserveManager observeManager) {
 		this.root = root;
+		this.trie = new RoutingTrie(root);
+		this.observeManager = observeManager;
 	}
 
 	/* (non-Javadoc)
@@ -75,17 +92,23 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 	public void deliverRequest(final Exchange exchange) {
 		Request request = exchange.getRequest();
 		List<String> path = request.getOptions().getURIPaths();
-		final Resource resource = findResource(path);
-		if (resource != null) {
+		RoutingTrie.Match match = trie.match(path);
+		if (match != null) {
+			final Resource resource = match.getResource();
+			exchange.setPathParameters(match.getParameters());
 			checkForObserveOption(exchange, resource);
 			
 			// Get the executor and let it process the request
 			Executor executor = resource.getExecutor();
 			if (executor != null) {
-				executor.execute(new Runnable() {
-					public void run() {
-						resource.handleRequest(exchange);
-					} });
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							resource.handleRequest(exchange);
+						} });
+				} catch (RejectedExecutionException e) {
+					reject(exchange, executor);
+				}
 			} else {
 				resource.handleRequest(exchange);
 			}
@@ -95,6 +118,43 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 		}
 	}
 
+	/**
+	 * Asks the target resource of the specified request for a sink if the
+	 * resource implements {@link BodySinkFactory}. Other resources receive
+	 * the body assembled as the request payload.
+	 * 
+	 * @param exchange the exchange
+	 * @param first the first block of the request
+	 * @return the sink or null
+	 * @throws IOException if the resource cannot create the sink
+	 */
+	@Override
+	public BodySink createBodySink(Exchange exchange, Request first) throws IOException {
+		Resource resource = trie.find(first.getOptions().getURIPaths());
+		if (resource instanceof BodySinkFactory)
+			return ((BodySinkFactory) resource).createBodySink(exchange, first);
+		return null;
+	}
+
+	/**
+	 * Answers a request that the executor of its resource has rejected with
+	 * 5.03 Service Unavailable. The Max-Age tells the client when to retry.
+	 * 
+	 * @param exchange the exchange
+	 * @param executor the executor that rejected the request
+	 */
+	private void reject(Exchange exchange, Executor executor) {
+		LOGGER.fine("Executor is overloaded, reject request with 5.03");
+		ObserveRelation relation = exchange.getRelation();
+		if (relation != null)
+			relation.cancel();
+		Response response = new Response(ResponseCode.SERVICE_UNAVAILABLE);
+		if (executor instanceof ResourceExecutor)
+			response.getOptions().setMaxAge(((ResourceExecutor) executor).getRetryAfter());
+		else response.getOptions().setMaxAge(ResourceExecutor.DEFAULT_RETRY_AFTER);
+		exchange.sendResponse(response);
+	}
+
 	/**
 	 * Checks whether an observe relationship has to be established or canceled.
 	 * This is done here to have a server-global observeManager that holds the
@@ -119,12 +179,12 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 			if (request.getOptions().getObserve()==0) {
 				// Requests wants to observe and resource allows it :-)
 				LOGGER.info("Initiate an observe relation between " + request.getSource() + ":" + request.getSourcePort() + " and resource " + resource.getURI());
-				ObservingEndpoint remote = observeManager.findObservingEndpoint(source);
-				ObserveRelation relation = new ObserveRelation(remote, resource, exchange);
-				remote.addObserveRelation(relation);
-				exchange.setRelation(relation);
-				// all that's left is to add the relation to the resource which
-				// the resource must do itself if the response is successful
+				ObserveRelation relation = observeManager.addObserveRelation(exchange, resource);
+				if (relation != null) {
+					exchange.setRelation(relation);
+					// all that's left is to add the relation to the resource which
+					// the resource must do itself if the response is successful
+				} // else the limit has been reached and the request is answered like a normal GET
 			} else if (request.getOptions().getObserve()==1) {
 				ObserveRelation relation = observeManager.getRelation(source, request.getToken());
 				if (relation!=null) relation.cancel();
@@ -135,19 +195,33 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 	/**
 	 * Searches in the resource tree for the specified path. A parent resource
 	 * may accept requests to subresources, e.g., to allow addresses with
-	 * wildcards like <code>coap://example.com:5683/devices/*</code>
+	 * wildcards like <code>coap://example.com:5683/devices/*</code>, either by
+	 * overriding {@link Resource#getChild(String)} or by having a child
+	 * named like <code>{id}</code>.
 	 * 
 	 * @param list the path as list of resource names
 	 * @return the resource or null if not found
 	 */
-	private Resource findResource(List<String> list) {
-		LinkedList<String> path = new LinkedList<String>(list);
-		Resource current = root;
-		while (!path.isEmpty() && current != null) {
-			String name = path.removeFirst();
-			current = current.getChild(name);
-		}
-		return current;
+	protected Resource findResource(List<String> list) {
+		return trie.find(list);
+	}
+
+	/**
+	 * Gets the root of the resource tree.
+	 * 
+	 * @return the root resource
+	 */
+	public Resource getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the manager of the observe relations of this deliverer.
+	 * 
+	 * @return the observe manager
+	 */
+	public ObserveManager getObserveManager() {
+		return observeManager;
 	}
 
 	/* (non-Javadoc)
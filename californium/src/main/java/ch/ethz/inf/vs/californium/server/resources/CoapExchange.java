@@ -31,6 +31,8 @@
 package ch.ethz.inf.vs.californium.server.resources;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
 
 import ch.ethz.inf.vs.californium.coap.CoAP.Code;
 import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
@@ -38,6 +40,8 @@ import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
 import ch.ethz.inf.vs.californium.coap.OptionSet;
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.stack.BodySink;
+import ch.ethz.inf.vs.californium.network.stack.BodySinkFactory;
 
 /**
  * The Class CoapExchange represents an exchange of a CoAP request and response
@@ -109,6 +113,18 @@ public class CoapExchange {
 		return exchange.getRequest().getOptions();
 	}
 	
+	/**
+	 * Gets the value of the specified parameter segment of the request path,
+	 * e.g., the segment that matched a resource named <code>{id}</code>.
+	 *
+	 * @param name the parameter name
+	 * @return the value or null if there is no such parameter
+	 */
+	public String getPathParameter(String name) {
+		Map<String, String> parameters = exchange.getPathParameters();
+		return parameters != null ? parameters.get(name) : null;
+	}
+	
 	/**
 	 * Gets the request payload as byte array.
 	 *
@@ -118,6 +134,17 @@ public class CoapExchange {
 		return exchange.getRequest().getPayload();
 	}
 	
+	/**
+	 * Gets the sink that has received the request body if the resource has
+	 * streamed it by implementing {@link BodySinkFactory}. The request has no
+	 * payload in this case.
+	 *
+	 * @return the sink or null if the body is the request payload
+	 */
+	public BodySink getBodySink() {
+		return exchange.getBodySink();
+	}
+	
 	/**
 	 * Gets the request payload as string.
 	 *
@@ -245,6 +272,22 @@ public class CoapExchange {
 		respond(response);
 	}
 	
+	/**
+	 * Respond with the specified response code and the remaining bytes of the
+	 * specified buffer as payload. The buffer is not copied and can be shared
+	 * by many exchanges, see {@link Response#setPayloadBuffer(ByteBuffer)}.
+	 *
+	 * @param code the response code
+	 * @param payload the payload
+	 * @param contentFormat the Content-Format of the payload
+	 */
+	public void respond(ResponseCode code, ByteBuffer payload, int contentFormat) {
+		Response response = new Response(code);
+		response.setPayloadBuffer(payload);
+		response.getOptions().setContentFormat(contentFormat);
+		respond(response);
+	}
+	
 	/**
 	 * Respond with the specified response.
 	 *
@@ -1,9 +1,11 @@
 package ch.ethz.inf.vs.californium.server.resources;
 
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
 
 import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
 
 /**
  * A ConcurrentResourceBase is an extension to a typical ResourceBase and
@@ -59,6 +61,16 @@ import ch.ethz.inf.vs.californium.network.Exchange;
  *  |
  *  |-- large: executed by pool-5 (2 threads)
  * </pre>
+ * The executor of a ConcurrentResourceBase is a {@link ResourceExecutor} that
+ * accepts at most {@link NetworkConfigDefaults#RESOURCE_EXECUTOR_CAPACITY}
+ * pending requests. Further requests are answered with 5.03 Service
+ * Unavailable. Resources can also share one pool and still have their own
+ * bound, or process their requests one at a time on a shared pool:
+ * <pre>
+ * ExecutorService pool = Executors.newFixedThreadPool(4);
+ * server.add(new ConcurrentResourceBase("shared", ResourceExecutor.newShared(pool, 100)));
+ * server.add(new ConcurrentResourceBase("serial", ResourceExecutor.newSerial(pool, 10)));
+ * </pre>
  */
 public class ConcurrentResourceBase extends ResourceBase {
 	
@@ -80,7 +92,7 @@ public class ConcurrentResourceBase extends ResourceBase {
 	public ConcurrentResourceBase(String name) {
 		super(name);
 		this.threads = getAvailableProcessors();
-		setExecutor(Executors.newFixedThreadPool(threads));
+		setExecutor(ResourceExecutor.newFixedPool(threads, getDefaultCapacity()));
 	}
 	
 	/**
@@ -93,7 +105,28 @@ public class ConcurrentResourceBase extends ResourceBase {
 	public ConcurrentResourceBase(String name, int threads) {
 		super(name);
 		this.threads = threads;
-		setExecutor(Executors.newFixedThreadPool(threads));
+		setExecutor(ResourceExecutor.newFixedPool(threads, getDefaultCapacity()));
+	}
+	
+	/**
+	 * Constructs a new resource that uses the specified executor to process
+	 * requests, e.g., a bounded executor on a pool that is shared with other
+	 * resources or a serial executor.
+	 * 
+	 * @param name the name
+	 * @param executor the executor
+	 */
+	public ConcurrentResourceBase(String name, ResourceExecutor executor) {
+		super(name);
+		this.threads = executor.isSerial() ? SINGLE_THREADED : 0;
+		setExecutor(executor);
+	}
+	
+	/*
+	 * The maximum number of pending requests of the resource's own pool.
+	 */
+	private static int getDefaultCapacity() {
+		return NetworkConfig.getStandard().getInt(NetworkConfigDefaults.RESOURCE_EXECUTOR_CAPACITY);
 	}
 	
 	/**
@@ -114,6 +147,25 @@ public class ConcurrentResourceBase extends ResourceBase {
 		else return super.getExecutor();
 	}
 	
+	/**
+	 * Shuts down the executor of this resource if it has a pool of its own.
+	 */
+	public void shutdown() {
+		if (executor instanceof ResourceExecutor)
+			((ResourceExecutor) executor).shutdown();
+		else if (executor instanceof ExecutorService)
+			((ExecutorService) executor).shutdown();
+	}
+	
+	/**
+	 * Deletes this resource and shuts down its executor.
+	 */
+	@Override
+	public synchronized void delete() {
+		super.delete();
+		shutdown();
+	}
+	
 	/**
 	 * Gets the number of available processors.
 	 *
@@ -127,7 +179,7 @@ public class ConcurrentResourceBase extends ResourceBase {
 	/**
 	 * Gets the number of threads
 	 *
-	 * @return the thread count
+	 * @return the thread count or 0 if the pool is shared
 	 */
 	public int getThreadCount() {
 		return threads;
@@ -0,0 +1,367 @@
+package ch.ethz.inf.vs.californium.server.resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import ch.ethz.inf.vs.californium.coap.BlockOption;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
+import ch.ethz.inf.vs.californium.coap.Response;
+
+/**
+ * A FileResource serves a file or the files of a directory. A file is mapped
+ * into memory with {@link java.nio.channels.FileChannel#map(MapMode, long, long)}
+ * and sent without copying it into the heap: a GET request with a Block2
+ * option is answered with exactly the requested block, which is a slice of
+ * the mapping, and a GET request without Block2 option is answered with the
+ * whole mapping as shared payload, which the
+ * {@link ch.ethz.inf.vs.californium.network.stack.BlockwiseLayer} sends block
+ * by block from its block cache.
+ * <p>
+ * The ETag of a file is derived from its modification time and length, the
+ * Content-Format from its extension and the Max-Age from its age: a file
+ * that has not changed for a long time is likely not to change soon (10% of
+ * its age, at most {@link #getMaxAge()} seconds). A request with the current
+ * ETag is answered with 2.03 Valid.
+ * <p>
+ * A FileResource for a directory creates a child for a file when it is
+ * requested for the first time and answers GET requests with the list of
+ * its files in link-format. Hidden files and subdirectories are not served.
+ * <p>
+ * Java 6 has no file system notifications. {@link #watch(ScheduledExecutorService, long, TimeUnit)}
+ * therefore polls the modification time and length of the file, or of the
+ * files of a directory, and calls {@link #changed()} when they change so that
+ * observers are notified. {@link #checkForChanges()} can also be called by
+ * the application, e.g., after it has installed a new firmware image.
+ * <p>
+ * Files should be replaced atomically, e.g., by renaming a new file over the
+ * old one, since changing a mapped file in place changes the responses that
+ * are being sent.
+ */
+public class FileResource extends ResourceBase {
+
+	/** The default maximum Max-Age in seconds */
+	public static final long DEFAULT_MAX_AGE = 3600;
+
+	/** The file or directory */
+	private final File file;
+
+	/** The Content-Format of the file */
+	private final int contentFormat;
+
+	/** The maximum Max-Age in seconds */
+	private volatile long maxAge = DEFAULT_MAX_AGE;
+
+	/** The mapping of the current version of the file or null */
+	private volatile Mapping mapping;
+
+	/** The modification time and length that have been seen last by the watch */
+	private long watchedModified;
+	private long watchedLength;
+
+	/** The handle of the periodic check for changes or null */
+	private ScheduledFuture<?> watch;
+
+	/**
+	 * Constructs a new resource that serves the specified file or directory.
+	 *
+	 * @param name the name of the resource
+	 * @param file the file or directory
+	 */
+	public FileResource(String name, File file) {
+		super(name);
+		if (file == null)
+			throw new NullPointerException();
+		this.file = file;
+		this.contentFormat = getContentFormat(file.getName());
+		this.watchedModified = file.lastModified();
+		this.watchedLength = file.length();
+		setObservable(true);
+		if (file.isDirectory())
+			getAttributes().addContentType(MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+		else getAttributes().addContentType(contentFormat);
+	}
+
+	/*
+	 * Returns the Content-Format that belongs to the extension of the file
+	 * name or application/octet-stream.
+	 */
+	private static int getContentFormat(String name) {
+		int dot = name.lastIndexOf('.');
+		int format = dot >= 0 ? MediaTypeRegistry.fromFileExtension(name.substring(dot + 1)) : MediaTypeRegistry.UNDEFINED;
+		return format != MediaTypeRegistry.UNDEFINED ? format : MediaTypeRegistry.APPLICATION_OCTET_STREAM;
+	}
+
+	/**
+	 * Returns the file or directory of this resource.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the maximum Max-Age of the responses.
+	 *
+	 * @return the maximum Max-Age in seconds
+	 */
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * Sets the maximum Max-Age of the responses. The Max-Age of a response is
+	 * 10% of the age of the file but at most this value.
+	 *
+	 * @param maxAge the maximum Max-Age in seconds
+	 */
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Responds with the file, the requested block of the file or the list of
+	 * files of the directory.
+	 *
+	 * @param exchange the exchange
+	 */
+	@Override
+	public void handleGET(CoapExchange exchange) {
+		if (file.isDirectory()) {
+			exchange.respond(ResponseCode.CONTENT, listFiles(), MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+			return;
+		}
+
+		Mapping current;
+		try {
+			current = getMapping();
+		} catch (IOException e) {
+			LOGGER.warning("Cannot map file "+file+": "+e.getMessage());
+			exchange.respond(ResponseCode.INTERNAL_SERVER_ERROR);
+			return;
+		}
+		if (current == null) {
+			exchange.respond(ResponseCode.NOT_FOUND);
+			return;
+		}
+
+		OptionSet options = exchange.getRequestOptions();
+		exchange.setETag(current.etag);
+		exchange.setMaxAge(getMaxAge(current));
+		if (options.containsETag(current.etag)) {
+			exchange.respond(ResponseCode.VALID);
+			return;
+		}
+
+		Response response = new Response(ResponseCode.CONTENT);
+		response.getOptions().setContentFormat(contentFormat);
+		ByteBuffer body = current.buffer.duplicate();
+		if (options.hasBlock2()) {
+			BlockOption block2 = options.getBlock2();
+			long from = (long) block2.getNum() * block2.getSize();
+			if (from > 0 && from >= current.length) {
+				exchange.respond(ResponseCode.BAD_OPTION, "Block out of range");
+				return;
+			}
+			int to = (int) Math.min(from + block2.getSize(), current.length);
+			body.position((int) from);
+			body.limit(to);
+			response.getOptions().setBlock2(block2.getSzx(), to < current.length, block2.getNum());
+			if (block2.getNum() == 0 && options.hasSize2())
+				response.getOptions().setSize2((int) current.length);
+		}
+		response.setPayloadBuffer(body);
+		exchange.respond(response);
+	}
+
+	/*
+	 * Computes the Max-Age as 10% of the age of the file.
+	 */
+	private long getMaxAge(Mapping current) {
+		long age = (System.currentTimeMillis() - current.lastModified) / 1000;
+		return Math.max(0, Math.min(maxAge, age / 10));
+	}
+
+	/*
+	 * Returns the mapping of the current version of the file and maps the
+	 * file again if it has changed. Returns null if the file does not exist.
+	 */
+	private Mapping getMapping() throws IOException {
+		long lastModified = file.lastModified();
+		long length = file.length();
+		Mapping current = mapping;
+		if (current != null && current.lastModified == lastModified && current.length == length)
+			return current;
+
+		synchronized (this) {
+			current = mapping;
+			if (current != null && current.lastModified == lastModified && current.length == length)
+				return current;
+			if (!file.isFile())
+				return null;
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("File is too large to be mapped");
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				MappedByteBuffer buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, length);
+				mapping = current = new Mapping(lastModified, length, buffer);
+			} finally {
+				// the mapping stays valid after the channel is closed
+				raf.close();
+			}
+			LOGGER.fine("Mapped file "+file+" with "+length+" bytes");
+			return current;
+		}
+	}
+
+	/*
+	 * Lists the servable files of the directory in link-format.
+	 */
+	private String listFiles() {
+		String[] names = file.list();
+		if (names == null)
+			return "";
+		Arrays.sort(names);
+		StringBuilder buffer = new StringBuilder();
+		String uri = getURI();
+		for (String name:names) {
+			File child = new File(file, name);
+			if (!isServable(child))
+				continue;
+			if (buffer.length() > 0)
+				buffer.append(',');
+			buffer.append('<').append(uri).append('/').append(name).append('>')
+				.append(";ct=").append(getContentFormat(name))
+				.append(";sz=").append(child.length());
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Returns the child with the specified name. The child of a directory is
+	 * created when a file with that name exists.
+	 *
+	 * @param name the name
+	 * @return the child or null if there is no such file
+	 */
+	@Override
+	public Resource getChild(String name) {
+		Resource child = super.getChild(name);
+		if (child != null || !file.isDirectory())
+			return child;
+		if (name.indexOf('/') >= 0 || name.indexOf(File.separatorChar) >= 0)
+			return null;
+		File target = new File(file, name);
+		if (!isServable(target))
+			return null;
+		synchronized (this) {
+			child = super.getChild(name);
+			if (child == null) {
+				FileResource resource = new FileResource(name, target);
+				resource.setMaxAge(maxAge);
+				add(resource);
+				child = resource;
+			}
+		}
+		return child;
+	}
+
+	private static boolean isServable(File file) {
+		return file.isFile() && !file.isHidden() && !file.getName().startsWith(".");
+	}
+
+	/**
+	 * Checks whether the file, or a served file of the directory, has changed
+	 * since the last check and notifies the observers of the changed
+	 * resources.
+	 *
+	 * @return true if this file or one of the served files has changed
+	 */
+	public boolean checkForChanges() {
+		boolean changed = false;
+		long lastModified = file.lastModified();
+		long length = file.length();
+		synchronized (this) {
+			if (lastModified != watchedModified || length != watchedLength) {
+				watchedModified = lastModified;
+				watchedLength = length;
+				changed = true;
+			}
+		}
+		if (changed && !file.isDirectory()) {
+			LOGGER.info("File "+file+" has changed");
+			changed();
+		}
+		for (Resource child:getChildren())
+			if (child instanceof FileResource)
+				changed |= ((FileResource) child).checkForChanges();
+		return changed;
+	}
+
+	/**
+	 * Checks for changes periodically with the specified executor.
+	 *
+	 * @param executor the executor
+	 * @param period the period between two checks
+	 * @param unit the time unit of the period
+	 */
+	public synchronized void watch(ScheduledExecutorService executor, long period, TimeUnit unit) {
+		unwatch();
+		watch = executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					checkForChanges();
+				} catch (RuntimeException e) {
+					LOGGER.warning("Cannot check file "+file+" for changes: "+e);
+				}
+			} }, period, period, unit);
+	}
+
+	/**
+	 * Stops checking for changes periodically.
+	 */
+	public synchronized void unwatch() {
+		if (watch != null) {
+			watch.cancel(false);
+			watch = null;
+		}
+	}
+
+	/**
+	 * Stops checking for changes and removes this resource from its parent.
+	 */
+	@Override
+	public void delete() {
+		unwatch();
+		super.delete();
+	}
+
+	/*
+	 * A version of the file that has been mapped into memory.
+	 */
+	private static final class Mapping {
+
+		private final long lastModified;
+		private final long length;
+		private final MappedByteBuffer buffer;
+		private final byte[] etag;
+
+		private Mapping(long lastModified, long length, MappedByteBuffer buffer) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.buffer = buffer;
+			this.etag = ByteBuffer.allocate(8).putLong(lastModified * 1000003L ^ length).array();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package ch.ethz.inf.vs.californium.server.resources;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
+import ch.ethz.inf.vs.californium.metrics.Metrics;
+import ch.ethz.inf.vs.californium.metrics.MetricsRegistry;
+
+/**
+ * The MetricsResource responds to GET requests with the current metrics of a
+ * {@link MetricsRegistry} as plain text, one metric per line. A server adds
+ * it as <tt>/.well-known/metrics</tt> if
+ * {@link ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults#METRICS_RESOURCE}
+ * is true. A query filters the metrics by prefix, e.g.,
+ * <tt>/.well-known/metrics?reliability</tt>.
+ */
+public class MetricsResource extends ResourceBase {
+
+	/** The Constant METRICS. */
+	public static final String METRICS = "metrics";
+	
+	/** The registry */
+	private final MetricsRegistry registry;
+	
+	/**
+	 * Instantiates a new metrics resource for the process-wide registry.
+	 */
+	public MetricsResource() {
+		this(METRICS, Metrics.getRegistry());
+	}
+	
+	/**
+	 * Instantiates a new metrics resource with the specified name for the
+	 * specified registry.
+	 *
+	 * @param name the name
+	 * @param registry the registry
+	 */
+	public MetricsResource(String name, MetricsRegistry registry) {
+		super(name);
+		this.registry = registry;
+		getAttributes().setTitle("Metrics");
+	}
+	
+	/**
+	 * Responds with the metrics whose names start with the query, if any.
+	 * 
+	 * @param exchange the exchange
+	 */
+	@Override
+	public void handleGET(CoapExchange exchange) {
+		String text = registry.toText();
+		String prefix = exchange.getRequestOptions().getURIQueryString();
+		if (prefix != null && prefix.length() > 0) {
+			StringBuilder buffer = new StringBuilder();
+			for (String line:text.split("\n"))
+				if (line.startsWith(prefix))
+					buffer.append(line).append('\n');
+			text = buffer.toString();
+		}
+		exchange.respond(ResponseCode.CONTENT, text, MediaTypeRegistry.TEXT_PLAIN);
+	}
+}
@@ -31,13 +31,18 @@
 package ch.ethz.inf.vs.californium.server.resources;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import ch.ethz.inf.vs.californium.CoapClient;
@@ -45,9 +50,13 @@ import ch.ethz.inf.vs.californium.coap.CoAP;
 import ch.ethz.inf.vs.californium.coap.CoAP.Code;
 import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
 import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
 import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.metrics.Histogram;
+import ch.ethz.inf.vs.californium.metrics.Metrics;
 import ch.ethz.inf.vs.californium.network.Endpoint;
 import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.serialization.ByteBufferSerializer;
 import ch.ethz.inf.vs.californium.observe.ObserveNotificationOrderer;
 import ch.ethz.inf.vs.californium.observe.ObserveRelation;
 import ch.ethz.inf.vs.californium.observe.ObserveRelationContainer;
@@ -158,6 +167,38 @@ public  class ResourceBase implements Resource {
 	/* The type used for notifications (no change when set to null) */
 	private Type observeType = null;
 	
+	/* Render each representation only once for all observers */
+	private boolean notificationFanOut = false;
+	
+	/* The handling time of requests, created with the first request */
+	private volatile Histogram latency;
+	
+	/* The number of changes since the pending notification has started */
+	private final AtomicInteger changes = new AtomicInteger();
+	
+	/* Notifies the observers until no change has come in meanwhile */
+	private final Runnable notifier = new Runnable() {
+		public void run() {
+			try {
+				int seen;
+				do {
+					seen = changes.get();
+					notifyObserverRelations();
+				} while (!changes.compareAndSet(seen, 0));
+			} catch (RuntimeException e) {
+				changes.set(0);
+				throw e;
+			}
+		}
+	};
+	
+	/* The name under which the latency histogram is registered */
+	private String latencyName;
+	
+	/* Guards the latency histogram and its name (not this resource since
+	 * setParent() is called while the parent is locked) */
+	private final Object latencyLock = new Object();
+	
 	/* The list of observers (not CoAP observer). */
 	private List<ResourceObserver> observers;
 
@@ -209,11 +250,53 @@ public  class ResourceBase implements Resource {
 	@Override
 	public void handleRequest(final Exchange exchange) {
 		Code code = exchange.getRequest().getCode();
-		switch (code) {
-			case GET:	handleGET(new CoapExchange(exchange, this)); break;
-			case POST:	handlePOST(new CoapExchange(exchange, this)); break;
-			case PUT:	handlePUT(new CoapExchange(exchange, this)); break;
-			case DELETE: handleDELETE(new CoapExchange(exchange, this)); break;
+		long start = System.nanoTime();
+		try {
+			switch (code) {
+				case GET:	handleGET(new CoapExchange(exchange, this)); break;
+				case POST:	handlePOST(new CoapExchange(exchange, this)); break;
+				case PUT:	handlePUT(new CoapExchange(exchange, this)); break;
+				case DELETE: handleDELETE(new CoapExchange(exchange, this)); break;
+			}
+		} finally {
+			getLatency().record((System.nanoTime() - start) / 1000);
+		}
+	}
+	
+	/**
+	 * Returns the histogram of the time in microseconds that this resource
+	 * took to handle requests. The histogram is registered with the name
+	 * <code>resource.&lt;URI&gt;.latency</code> when the first request arrives.
+	 * It is removed from the registry when the resource is deleted or its URI
+	 * changes and registered under the new URI with the next request.
+	 * 
+	 * @return the latency histogram
+	 */
+	public Histogram getLatency() {
+		Histogram histogram = latency;
+		if (histogram == null) {
+			synchronized (latencyLock) {
+				histogram = latency;
+				if (histogram == null) {
+					latencyName = "resource." + getURI() + ".latency";
+					latency = histogram = Metrics.histogram(latencyName);
+				}
+			}
+		}
+		return histogram;
+	}
+	
+	/*
+	 * Removes the latency histogram from the registry so that it neither
+	 * outlives this resource nor keeps reporting under an old URI.
+	 */
+	private void releaseLatency() {
+		synchronized (latencyLock) {
+			Histogram histogram = latency;
+			if (histogram != null) {
+				latency = null;
+				Metrics.getRegistry().remove(latencyName, histogram);
+			}
 		}
 	}
 	
@@ -298,7 +381,10 @@ public  class ResourceBase implements Resource {
 				// The resource can control the message type of the notification
 				response.setType(observeType);
 			}
-		} // ObserveLayer takes care of the else case
+		} else if (!relation.isEstablished()) {
+			// the relation has not been accepted and must not linger
+			relation.cancel();
+		} // ObserveLayer takes care of established relations
 	}
 	
 	/**
@@ -464,6 +550,7 @@ public  class ResourceBase implements Resource {
 		if (isObservable()) {
 			clearAndNotifyObserveRelations(ResponseCode.NOT_FOUND);
 		}
+		releaseLatency();
 	}
 	
 	/**
@@ -510,6 +597,7 @@ public  class ResourceBase implements Resource {
 		this.parent = parent;
 		if (parent != null)
 			this.path = parent.getPath()  + parent.getName() + "/";
+		releaseLatency();
 		adjustChildrenPath();
 	}
 	
@@ -585,6 +673,7 @@ public  class ResourceBase implements Resource {
 		this.path = path;
 		for (ResourceObserver obs:observers)
 			obs.changedPath(old);
+		releaseLatency();
 		adjustChildrenPath();
 	}
 
@@ -604,6 +693,7 @@ public  class ResourceBase implements Resource {
 		}
 		for (ResourceObserver obs:observers)
 			obs.changedName(old);
+		releaseLatency();
 		adjustChildrenPath();
 	}
 	
@@ -663,6 +753,36 @@ public  class ResourceBase implements Resource {
 		if (type == Type.ACK || type == Type.RST) throw new IllegalArgumentException("Only CON and NON notifications are allowed or null for no changes by the framework");
 		this.observeType = type;
 	}
+	
+	/**
+	 * Enables or disables the fan-out of notifications. By default, a change
+	 * reprocesses the request of every observe relation. With fan-out, the
+	 * request is only processed for the first relation of each group of
+	 * relations with the same Accept and Uri-Query options. The other
+	 * relations of the group receive a copy of that response that only
+	 * differs in token, MID, type and destination, and its options and
+	 * payload are serialized only once.
+	 * <p>
+	 * Only enable fan-out if the representation does not depend on anything
+	 * else of the request, e.g., its source, and if the resource responds
+	 * from within {@link #handleRequest(Exchange)}. Relations whose response
+	 * is not available after the handler returns are notified the usual way.
+	 * 
+	 * @param fanOut true to render each representation once
+	 */
+	public void setNotificationFanOut(boolean fanOut) {
+		this.notificationFanOut = fanOut;
+	}
+	
+	/**
+	 * Checks if this resource renders each representation only once for all
+	 * observers.
+	 * 
+	 * @return true if the fan-out of notifications is enabled
+	 */
+	public boolean isNotificationFanOut() {
+		return notificationFanOut;
+	}
 
 	/* (non-Javadoc)
 	 * @see ch.ethz.inf.vs.californium.server.resources.Resource#addObserveRelation(ch.ethz.inf.vs.californium.observe.ObserveRelation)
@@ -701,15 +821,26 @@ public  class ResourceBase implements Resource {
 	 * the executor of this resource or on the executor of its parent or
 	 * transitively ancestor. If no ancestor defines its own executor, the
 	 * thread that has called this method performs the notification.
+	 * <p>
+	 * Changes that happen while a notification is pending or running are
+	 * coalesced: the notification is repeated once it has finished, so that
+	 * the observers always receive the latest state. The notification is not
+	 * subject to the bound of a {@link ResourceExecutor}.
 	 */
 	public void changed() {
 		Executor executor = getExecutor();
 		if (executor != null) {
-			executor.execute(new Runnable() {
-				public void run() {
-					notifyObserverRelations();
-				}
-			});
+			if (changes.getAndIncrement() > 0)
+				return; // the pending notification picks up this change
+			try {
+				if (executor instanceof ResourceExecutor)
+					((ResourceExecutor) executor).executeUnbounded(notifier);
+				else executor.execute(notifier);
+			} catch (RejectedExecutionException e) {
+				// let the next change try again
+				changes.set(0);
+				LOGGER.warning("Executor of "+getURI()+" rejected the notification of its observers");
+			}
 		} else {
 			notifyObserverRelations();
 		}
@@ -722,10 +853,74 @@ public  class ResourceBase implements Resource {
 	 */
 	protected void notifyObserverRelations() {
 		notificationOrderer.getNextObserveNumber();
+		if (notificationFanOut) {
+			fanOutNotifications();
+		} else {
+			for (ObserveRelation relation:observeRelations) {
+				relation.notifyObservers();
+			}
+		}
+	}
+	
+	/*
+	 * Processes the request of one relation per representation and sends
+	 * copies of its response to the other relations with the same
+	 * representation. Only 2.05 responses serve as templates and relations
+	 * that validate ETags are processed individually, since a 2.03 would
+	 * confirm a representation the other relations have never received.
+	 */
+	private void fanOutNotifications() {
+		Map<Object, Response> templates = new HashMap<Object, Response>();
 		for (ObserveRelation relation:observeRelations) {
-			relation.notifyObservers();
+			Exchange exchange = relation.getExchange();
+			OptionSet options = exchange.getRequest().getOptions();
+			if (options.hasBlock2() || options.getETagCount() > 0) {
+				// block size negotiation and validation must be done per relation
+				relation.notifyObservers();
+				continue;
+			}
+			
+			Object key = getRepresentationKey(options);
+			Response template = templates.get(key);
+			if (template == null) {
+				Response previous = exchange.getResponse();
+				relation.notifyObservers();
+				Response current = exchange.getResponse();
+				if (current != previous && current != null && current.getCode() == ResponseCode.CONTENT) {
+					template = new Response(current.getCode());
+					template.setOptions(new OptionSet(current.getOptions()));
+					ByteBuffer buffer = current.getPayloadBuffer();
+					if (buffer != null)
+						template.setPayloadBuffer(buffer);
+					else template.setPayload(current.getPayload());
+					template.setSerializedBody(ByteBufferSerializer.getThreadLocal().serializeBody(current));
+					templates.put(key, template);
+				}
+				
+			} else {
+				Response notification = new Response(template.getCode());
+				notification.setOptions(new OptionSet(template.getOptions()));
+				ByteBuffer buffer = template.getPayloadBuffer();
+				if (buffer != null)
+					notification.setPayloadBuffer(buffer);
+				else notification.setPayload(template.getPayload());
+				notification.setSerializedBody(template.getSerializedBody());
+				if (observeType != null)
+					notification.setType(observeType);
+				exchange.sendResponse(notification);
+			}
 		}
 	}
+	
+	/*
+	 * Returns the key of the representation that the request of a relation
+	 * asks for.
+	 */
+	private static Object getRepresentationKey(OptionSet options) {
+		if (options.getURIQueryCount() == 0)
+			return options.getAccept();
+		else return options.getAccept() + "?" + options.getURIQueryString();
+	}
 
 	/* (non-Javadoc)
 	 * @see ch.ethz.inf.vs.californium.server.resources.Resource#getChildren()
@@ -0,0 +1,331 @@
+package ch.ethz.inf.vs.californium.server.resources;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ResourceExecutor executes the requests of a resource with a bounded
+ * number of pending tasks. If the bound has been reached, {@link #execute(Runnable)}
+ * throws a {@link RejectedExecutionException} immediately and the
+ * ServerMessageDeliverer answers the request with 5.03 Service Unavailable
+ * and a Max-Age of {@link #getRetryAfter()} seconds. Overload thus results in
+ * cheap rejections instead of a growing queue.
+ * <p>
+ * A ResourceExecutor either runs the tasks on a pool of its own
+ * ({@link #newFixedPool(int, int)}) or on a pool that is shared by several
+ * resources ({@link #newShared(Executor, int)}), in which case each resource
+ * still has its own bound. A serial ResourceExecutor ({@link #newSerial(Executor, int)})
+ * runs at most one task of its resource at a time on the shared pool, in the
+ * order of submission.
+ * <p>
+ * The executor records how long tasks wait before they start.
+ */
+public class ResourceExecutor implements Executor {
+
+	/** The default Max-Age of 5.03 responses in seconds */
+	public static final long DEFAULT_RETRY_AFTER = 2;
+
+	/** The executor that runs the tasks */
+	private final Executor delegate;
+
+	/** The maximum number of pending tasks (queued and running) */
+	private final int capacity;
+
+	/** Indicates whether the tasks run one at a time */
+	private final boolean serial;
+
+	/** Indicates whether the delegate is owned by this executor */
+	private final boolean owned;
+
+	/** The tasks of a serial executor */
+	private final ConcurrentLinkedQueue<Task> tasks;
+
+	/** Indicates whether a task of a serial executor is scheduled */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	/** The number of pending tasks */
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/** The number of rejected tasks */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/** The number of started tasks */
+	private final AtomicLong started = new AtomicLong();
+
+	/** The total time that started tasks have waited in nanoseconds */
+	private final AtomicLong totalWait = new AtomicLong();
+
+	/** The longest time that a task has waited in nanoseconds */
+	private final AtomicLong maxWait = new AtomicLong();
+
+	/** The Max-Age of 5.03 responses in seconds */
+	private volatile long retryAfter = DEFAULT_RETRY_AFTER;
+
+	/** Runs the next task of a serial executor */
+	private final Runnable drainer = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	private ResourceExecutor(Executor delegate, int capacity, boolean serial, boolean owned) {
+		if (delegate == null)
+			throw new NullPointerException();
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive but was "+capacity);
+		this.delegate = delegate;
+		this.capacity = capacity;
+		this.serial = serial;
+		this.owned = owned;
+		this.tasks = serial ? new ConcurrentLinkedQueue<Task>() : null;
+	}
+
+	/**
+	 * Creates an executor with a pool of its own of the specified number of
+	 * threads that accepts at most the specified number of pending tasks.
+	 *
+	 * @param threads the number of threads
+	 * @param capacity the maximum number of pending tasks
+	 * @return the executor
+	 */
+	public static ResourceExecutor newFixedPool(int threads, int capacity) {
+		return new ResourceExecutor(Executors.newFixedThreadPool(threads), capacity, false, true);
+	}
+
+	/**
+	 * Creates an executor that runs its tasks concurrently on the specified
+	 * pool, which may be shared with other resources, and accepts at most the
+	 * specified number of pending tasks.
+	 *
+	 * @param pool the pool
+	 * @param capacity the maximum number of pending tasks
+	 * @return the executor
+	 */
+	public static ResourceExecutor newShared(Executor pool, int capacity) {
+		return new ResourceExecutor(pool, capacity, false, false);
+	}
+
+	/**
+	 * Creates an executor that runs its tasks one at a time in the order of
+	 * submission on the specified pool, which may be shared with other
+	 * resources, and accepts at most the specified number of pending tasks.
+	 *
+	 * @param pool the pool
+	 * @param capacity the maximum number of pending tasks
+	 * @return the executor
+	 */
+	public static ResourceExecutor newSerial(Executor pool, int capacity) {
+		return new ResourceExecutor(pool, capacity, true, false);
+	}
+
+	/**
+	 * Executes the specified task or rejects it if the maximum number of
+	 * pending tasks has been reached.
+	 *
+	 * @throws RejectedExecutionException if the task has been rejected
+	 */
+	@Override
+	public void execute(Runnable command) {
+		if (pending.incrementAndGet() > capacity) {
+			pending.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("Resource executor has reached its capacity of "+capacity+" pending tasks");
+		}
+		submit(new Task(command));
+	}
+
+	/**
+	 * Executes the specified task even if the maximum number of pending tasks
+	 * has been reached. This is meant for tasks that must not be lost and of
+	 * which only a few can be pending at a time, e.g., the notification of the
+	 * observers of a resource, which {@link ResourceBase#changed()} coalesces
+	 * into one pending task.
+	 *
+	 * @param command the task
+	 * @throws RejectedExecutionException if the pool rejects the task
+	 */
+	public void executeUnbounded(Runnable command) {
+		pending.incrementAndGet();
+		submit(new Task(command));
+	}
+
+	/*
+	 * Hands a task that has been counted as pending to the pool.
+	 */
+	private void submit(Task task) {
+		if (serial) {
+			tasks.add(task);
+			schedule();
+		} else {
+			try {
+				delegate.execute(task);
+			} catch (RejectedExecutionException e) {
+				pending.decrementAndGet();
+				rejected.incrementAndGet();
+				throw e;
+			}
+		}
+	}
+
+	/*
+	 * Hands the drainer to the pool unless it already is scheduled.
+	 */
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				delegate.execute(drainer);
+			} catch (RejectedExecutionException e) {
+				// the pool is shut down or full: drop the queued tasks
+				scheduled.set(false);
+				while (tasks.poll() != null) {
+					pending.decrementAndGet();
+					rejected.incrementAndGet();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/*
+	 * Runs the next task of a serial executor and reschedules itself if more
+	 * tasks are queued, so that resources that share the pool take turns.
+	 */
+	private void drain() {
+		try {
+			Task task = tasks.poll();
+			if (task != null)
+				task.run();
+		} finally {
+			scheduled.set(false);
+			if (!tasks.isEmpty())
+				schedule();
+		}
+	}
+
+	/**
+	 * Shuts down the pool of this executor if it has one of its own. Shared
+	 * pools are left running.
+	 */
+	public void shutdown() {
+		if (owned)
+			((ExecutorService) delegate).shutdown();
+	}
+
+	/**
+	 * Returns true if the tasks run one at a time.
+	 *
+	 * @return true if serial
+	 */
+	public boolean isSerial() {
+		return serial;
+	}
+
+	/**
+	 * Returns the maximum number of pending tasks.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of tasks that are queued or running.
+	 *
+	 * @return the number of pending tasks
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Returns the number of tasks that have been rejected.
+	 *
+	 * @return the number of rejected tasks
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Returns the number of tasks that have been started.
+	 *
+	 * @return the number of started tasks
+	 */
+	public long getStarted() {
+		return started.get();
+	}
+
+	/**
+	 * Returns the average time that the started tasks have waited before they
+	 * started.
+	 *
+	 * @return the average queue wait in nanoseconds
+	 */
+	public long getAverageQueueWait() {
+		long count = started.get();
+		return count > 0 ? totalWait.get() / count : 0;
+	}
+
+	/**
+	 * Returns the longest time that a task has waited before it started.
+	 *
+	 * @return the maximum queue wait in nanoseconds
+	 */
+	public long getMaxQueueWait() {
+		return maxWait.get();
+	}
+
+	/**
+	 * Returns the Max-Age of the 5.03 responses to rejected requests.
+	 *
+	 * @return the Max-Age in seconds
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * Sets the Max-Age of the 5.03 responses to rejected requests, i.e., the
+	 * time after which a client may retry.
+	 *
+	 * @param retryAfter the Max-Age in seconds
+	 * @return this executor
+	 */
+	public ResourceExecutor setRetryAfter(long retryAfter) {
+		this.retryAfter = retryAfter;
+		return this;
+	}
+
+	/*
+	 * Records the queue wait of a task and releases its place when it is done.
+	 */
+	private class Task implements Runnable {
+
+		private final Runnable command;
+		private final long submitted = System.nanoTime();
+
+		private Task(Runnable command) {
+			this.command = command;
+		}
+
+		public void run() {
+			long wait = System.nanoTime() - submitted;
+			started.incrementAndGet();
+			totalWait.addAndGet(wait);
+			long max;
+			while (wait > (max = maxWait.get()) && !maxWait.compareAndSet(max, wait));
+			try {
+				command.run();
+			} finally {
+				pending.decrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.network.AdmissionControl;
+import ch.ethz.inf.vs.californium.network.AdmissionControl.Verdict;
+
+/**
+ * This test tests that the admission control sheds requests by queue depth
+ * and source rate and lets responses and empty messages pass.
+ */
+public class AdmissionControlTest {
+
+	private static final byte[] CON_GET = new byte[] { 0x40, 0x01, 0x12, 0x34 };
+	private static final byte[] NON_GET = new byte[] { 0x50, 0x01, 0x12, 0x35 };
+	private static final byte[] ACK_CONTENT = new byte[] { 0x60, 0x45, 0x12, 0x36 };
+	private static final byte[] ACK_EMPTY = new byte[] { 0x60, 0x00, 0x12, 0x37 };
+
+	@Test
+	public void testUnlimited() throws Exception {
+		AdmissionControl admission = new AdmissionControl(0, 0, 0, true);
+		InetAddress source = InetAddress.getByName("10.0.0.1");
+		for (int i = 0; i < 1000; i++)
+			assertEquals(Verdict.ACCEPT, admission.admit(CON_GET, source));
+		assertEquals(1000, admission.getAccepted());
+	}
+
+	@Test
+	public void testQueueDepth() throws Exception {
+		AdmissionControl admission = new AdmissionControl(2, 0, 0, true);
+		InetAddress source = InetAddress.getByName("10.0.0.1");
+		assertEquals(Verdict.ACCEPT, admission.admit(CON_GET, source));
+		admission.enqueued();
+		assertEquals(Verdict.ACCEPT, admission.admit(CON_GET, source));
+		admission.enqueued();
+
+		assertEquals(Verdict.RESET, admission.admit(CON_GET, source));
+		assertEquals(Verdict.DROP, admission.admit(NON_GET, source));
+		assertEquals(Verdict.ACCEPT, admission.admit(ACK_CONTENT, source));
+		assertEquals(Verdict.ACCEPT, admission.admit(ACK_EMPTY, source));
+		assertEquals(2, admission.getShedByQueue());
+		assertEquals(1, admission.getReset());
+		assertEquals(1, admission.getDropped());
+
+		admission.dequeued();
+		assertEquals(1, admission.getQueueDepth());
+		assertEquals(Verdict.ACCEPT, admission.admit(CON_GET, source));
+	}
+
+	@Test
+	public void testSourceRate() throws Exception {
+		AdmissionControl admission = new AdmissionControl(0, 1, 3, false);
+		InetAddress flooder = InetAddress.getByName("10.0.0.1");
+		InetAddress other = InetAddress.getByName("10.0.0.2");
+		for (int i = 0; i < 3; i++)
+			assertEquals(Verdict.ACCEPT, admission.admit(CON_GET, flooder));
+		assertEquals(Verdict.DROP, admission.admit(CON_GET, flooder));
+		assertEquals(Verdict.DROP, admission.admit(NON_GET, flooder));
+		assertEquals(Verdict.ACCEPT, admission.admit(CON_GET, other));
+		assertEquals(2, admission.getShedByRate());
+		assertEquals(2, admission.getSourceCount());
+
+		Thread.sleep(1100);
+		assertEquals(Verdict.ACCEPT, admission.admit(CON_GET, flooder));
+	}
+
+	@Test
+	public void testSourceTableIsBounded() throws Exception {
+		AdmissionControl admission = new AdmissionControl(0, 1, 1, false);
+		int sources = AdmissionControl.MAX_SOURCES + 5000;
+		int accepted = 0;
+		for (int i = 0; i < sources; i++) {
+			InetAddress source = InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i });
+			if (admission.admit(CON_GET, source) == Verdict.ACCEPT)
+				accepted++;
+		}
+		assertTrue("Too many sources tracked: " + admission.getSourceCount(),
+				admission.getSourceCount() <= AdmissionControl.MAX_SOURCES);
+		// the untracked sources share one bucket with a burst of 1
+		assertTrue("Too many requests accepted: " + accepted, accepted <= AdmissionControl.MAX_SOURCES + 5);
+	}
+}
@@ -0,0 +1,205 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.serialization.ByteBufferSerializer;
+import ch.ethz.inf.vs.californium.network.stack.AbstractLayer;
+import ch.ethz.inf.vs.californium.network.stack.BlockCache;
+import ch.ethz.inf.vs.californium.network.stack.BlockwiseLayer;
+
+/**
+ * This test tests that the blockwise layer slices shared response payloads
+ * into blocks and that transfers of the same representation share the
+ * encoded blocks of the block cache.
+ */
+public class BlockCacheTest {
+
+	private static final byte[] ETAG = new byte[] { 1, 2, 3, 4 };
+
+	private BlockwiseLayer blockwise;
+	private LowerLayer lower;
+	private ByteBuffer body;
+	private int mid;
+
+	@Before
+	public void setup() {
+		NetworkConfig config = new NetworkConfig();
+		config.setInt(NetworkConfigDefaults.MAX_MESSAGE_SIZE, 32);
+		config.setInt(NetworkConfigDefaults.DEFAULT_BLOCK_SIZE, 16);
+		blockwise = new BlockwiseLayer(config);
+		lower = new LowerLayer();
+		blockwise.setLowerLayer(lower);
+
+		byte[] bytes = new byte[100];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) i;
+		body = ByteBuffer.wrap(bytes);
+	}
+
+	@Test
+	public void testSharedPayload() {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setPayloadBuffer(body);
+		assertEquals(100, response.getPayloadSize());
+		assertEquals(0, response.getPayloadBuffer().position());
+		assertEquals(99, response.getPayload()[99]);
+
+		response.setPayload("text");
+		assertNull(response.getPayloadBuffer());
+		assertEquals(4, response.getPayloadSize());
+	}
+
+	@Test
+	public void testSlicedBlocks() {
+		List<Response> blocks = download(true);
+		assertEquals(7, blocks.size());
+
+		ByteBuffer received = ByteBuffer.allocate(100);
+		for (Response block:blocks) {
+			assertNotNull(block.getPayloadBuffer());
+			assertNotNull(block.getSerializedBody());
+			received.put(block.getPayload());
+		}
+		assertArrayEquals(body.array(), received.array());
+		assertEquals(0, body.position());
+
+		// the serialized body equals the regular encoding of the block
+		Response last = blocks.get(6);
+		byte[] encoded = ByteBufferSerializer.getThreadLocal().serializeBody(copy(last));
+		assertArrayEquals(encoded, last.getSerializedBody());
+	}
+
+	@Test
+	public void testSharedBlocks() {
+		List<Response> first = download(true);
+		List<Response> second = download(true);
+		BlockCache cache = blockwise.getBlockCache();
+		assertEquals(7, cache.getMisses());
+		assertEquals(7, cache.getHits());
+		assertEquals(7, cache.getBlockCount());
+		for (int i = 0; i < first.size(); i++)
+			assertSame(first.get(i).getSerializedBody(), second.get(i).getSerializedBody());
+	}
+
+	@Test
+	public void testFirstBlockTellsSize() {
+		// a client that does not ask for the size comes first
+		List<Response> first = download(true, false);
+		List<Response> second = download(true, true);
+		for (List<Response> blocks:Arrays.asList(first, second)) {
+			Response block = blocks.get(0);
+			assertTrue(block.getOptions().hasSize2());
+			assertEquals(100, block.getOptions().getSize2().intValue());
+			byte[] encoded = ByteBufferSerializer.getThreadLocal().serializeBody(copy(block));
+			assertArrayEquals(encoded, block.getSerializedBody());
+		}
+		assertSame(first.get(0).getSerializedBody(), second.get(0).getSerializedBody());
+	}
+
+	@Test
+	public void testNotCachedWithoutETag() {
+		List<Response> blocks = download(false);
+		assertEquals(7, blocks.size());
+		for (Response block:blocks)
+			assertNull(block.getSerializedBody());
+		assertEquals(0, blockwise.getBlockCache().getBlockCount());
+	}
+
+	@Test
+	public void testEviction() {
+		// each encoded block takes 25 bytes
+		BlockCache cache = new BlockCache(80);
+		for (int num = 0; num < 10; num++) {
+			Response block = new Response(ResponseCode.CONTENT);
+			block.getOptions().addETag(ETAG);
+			block.getOptions().setBlock2(0, true, num);
+			block.setPayload(new byte[16]);
+			assertTrue(BlockCache.isCacheable(block));
+			cache.getSerializedBody("large", block);
+		}
+		assertEquals(75, cache.getSize());
+		assertEquals(3, cache.getBlockCount());
+	}
+
+	/*
+	 * Sends the response to a GET request and requests all further blocks.
+	 */
+	private List<Response> download(boolean etag) {
+		return download(etag, false);
+	}
+
+	/*
+	 * Downloads the response, optionally asking for its size with Size2.
+	 */
+	private List<Response> download(boolean etag, boolean size2) {
+		lower.responses.clear();
+		Request request = newRequest(0);
+		if (size2)
+			request.getOptions().setSize2(0);
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		exchange.setRequest(request);
+
+		Response response = Response.createPiggybackedResponse(request, ResponseCode.CONTENT);
+		response.setPayloadBuffer(body);
+		if (etag)
+			response.getOptions().addETag(ETAG);
+		exchange.setResponse(response);
+		blockwise.sendResponse(exchange, response);
+		for (int num = 1; !lower.responses.get(lower.responses.size() - 1).isLast(); num++)
+			blockwise.receiveRequest(exchange, newRequest(num));
+		return new ArrayList<Response>(lower.responses);
+	}
+
+	private Request newRequest(int num) {
+		Request request = new Request(Code.GET);
+		request.setType(Type.CON);
+		request.setMID(++mid);
+		request.setToken(new byte[] { 7 });
+		request.setSource(InetAddress.getLoopbackAddress());
+		request.setSourcePort(5683);
+		request.getOptions().setURIPath("image");
+		if (num > 0)
+			request.getOptions().setBlock2(0, false, num);
+		return request;
+	}
+
+	private static Response copy(Response block) {
+		Response copy = new Response(block.getCode());
+		copy.setOptions(block.getOptions());
+		copy.setPayload(Arrays.copyOf(block.getPayload(), block.getPayloadSize()));
+		return copy;
+	}
+
+	private static class LowerLayer extends AbstractLayer {
+
+		private final List<Response> responses = new ArrayList<Response>();
+
+		@Override
+		public void sendResponse(Exchange exchange, Response response) {
+			responses.add(response);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.stack.AbstractLayer;
+import ch.ethz.inf.vs.californium.network.stack.BlockwiseLayer;
+import ch.ethz.inf.vs.californium.network.stack.BodySink;
+import ch.ethz.inf.vs.californium.network.stack.BodySinkFactory;
+import ch.ethz.inf.vs.californium.network.stack.FileBodySink;
+
+/**
+ * This test tests that the blockwise layer streams Block1 bodies into the
+ * sink of a factory and enforces the size limits and the idle timeout of
+ * Block1 transfers.
+ */
+public class BlockwiseStreamingTest {
+
+	private static final int BLOCK_SIZE = 16;
+
+	private NetworkConfig config;
+	private BlockwiseLayer blockwise;
+	private UpperLayer upper;
+	private LowerLayer lower;
+	private List<FileBodySink> sinks;
+	private ScheduledExecutorService executor;
+	private int mid;
+
+	@Before
+	public void setup() {
+		config = new NetworkConfig();
+		sinks = new ArrayList<FileBodySink>();
+	}
+
+	@After
+	public void shutdown() {
+		for (FileBodySink sink:sinks)
+			sink.delete();
+		if (executor != null)
+			executor.shutdownNow();
+	}
+
+	private void createLayer(boolean streaming) {
+		blockwise = new BlockwiseLayer(config);
+		upper = new UpperLayer();
+		lower = new LowerLayer();
+		blockwise.setUpperLayer(upper);
+		blockwise.setLowerLayer(lower);
+		if (streaming) {
+			blockwise.setBodySinkFactory(new BodySinkFactory() {
+				public BodySink createBodySink(Exchange exchange, Request first) throws IOException {
+					FileBodySink sink = new FileBodySink();
+					sinks.add(sink);
+					return sink;
+				}
+			});
+		}
+	}
+
+	@Test
+	public void testStreamIntoSink() throws Exception {
+		createLayer(true);
+		byte[] body = createBody(40);
+		Exchange exchange = sendBody(body, 3);
+
+		assertEquals(2, lower.responses.size());
+		assertEquals(ResponseCode.CONTINUE, lower.responses.get(0).getCode());
+		assertEquals(1, upper.requests.size());
+		assertEquals(0, upper.requests.get(0).getPayloadSize());
+		assertEquals(1, sinks.size());
+		assertSame(sinks.get(0), exchange.getBodySink());
+
+		MappedByteBuffer buffer = sinks.get(0).map();
+		byte[] received = new byte[buffer.remaining()];
+		buffer.get(received);
+		assertEquals(new String(body, "ISO-8859-1"), new String(received, "ISO-8859-1"));
+		assertEquals(0, blockwise.getTotalSize());
+	}
+
+	@Test
+	public void testAssembleWithoutSink() throws Exception {
+		createLayer(false);
+		byte[] body = createBody(40);
+		Exchange exchange = sendBody(body, 3);
+
+		assertEquals(1, upper.requests.size());
+		assertEquals(40, upper.requests.get(0).getPayloadSize());
+		assertNull(exchange.getBodySink());
+		assertEquals(0, blockwise.getTotalSize());
+	}
+
+	@Test
+	public void testMaxBodySize() throws Exception {
+		config.setInt(NetworkConfigDefaults.BLOCKWISE_MAX_BODY_SIZE, 32);
+		createLayer(true);
+		sendBody(createBody(40), 3);
+
+		assertEquals(3, lower.responses.size());
+		assertEquals(ResponseCode.REQUEST_ENTITY_TOO_LARGE, lower.responses.get(2).getCode());
+		assertTrue(upper.requests.isEmpty());
+		assertFalse("Aborted sink must delete its file", sinks.get(0).getFile().exists());
+		assertEquals(0, blockwise.getTotalSize());
+	}
+
+	@Test
+	public void testMaxTotalSize() throws Exception {
+		config.setInt(NetworkConfigDefaults.BLOCKWISE_MAX_TOTAL_SIZE, 40);
+		createLayer(false);
+		Exchange first = new Exchange(null, Origin.REMOTE);
+		Exchange second = new Exchange(null, Origin.REMOTE);
+		byte[] body = createBody(40);
+
+		sendBlock(first, body, 0);
+		sendBlock(second, body, 0);
+		assertEquals(32, blockwise.getTotalSize());
+		sendBlock(first, body, 1);
+		assertEquals(ResponseCode.SERVICE_UNAVAILABLE, lower.responses.get(2).getCode());
+		assertEquals(16, blockwise.getTotalSize());
+
+		sendBlock(second, body, 1);
+		sendBlock(second, body, 2);
+		assertEquals(1, upper.requests.size());
+		assertEquals(0, blockwise.getTotalSize());
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception {
+		config.setInt(NetworkConfigDefaults.BLOCKWISE_IDLE_TIMEOUT, 50);
+		createLayer(true);
+		executor = Executors.newSingleThreadScheduledExecutor();
+		blockwise.setExecutor(executor);
+
+		Exchange exchange = new Exchange(null, Origin.REMOTE);
+		byte[] body = createBody(48);
+		sendBlock(exchange, body, 0);
+		Thread.sleep(30);
+		sendBlock(exchange, body, 1);
+		assertFalse(exchange.isComplete());
+		assertEquals(32, blockwise.getTotalSize());
+
+		for (int i = 0; i < 50 && !exchange.isComplete(); i++)
+			Thread.sleep(10);
+		assertTrue("Idle transfer must complete the exchange", exchange.isComplete());
+		assertEquals(0, blockwise.getTotalSize());
+		assertFalse(sinks.get(0).getFile().exists());
+
+		// the last block of the expired transfer must not be delivered
+		sendBlock(exchange, body, 2);
+		assertTrue(upper.requests.isEmpty());
+		assertNotNull(lower.responses.get(lower.responses.size() - 1));
+		assertEquals(ResponseCode.REQUEST_ENTITY_INCOMPLETE, lower.responses.get(lower.responses.size() - 1).getCode());
+	}
+
+	private Exchange sendBody(byte[] body, int blocks) throws Exception {
+		Exchange exchange = new Exchange(null, Origin.REMOTE);
+		for (int num = 0; num < blocks; num++)
+			sendBlock(exchange, body, num);
+		return exchange;
+	}
+
+	private void sendBlock(Exchange exchange, byte[] body, int num) throws Exception {
+		int from = num * BLOCK_SIZE;
+		int to = Math.min(from + BLOCK_SIZE, body.length);
+		byte[] payload = new byte[to - from];
+		System.arraycopy(body, from, payload, 0, payload.length);
+
+		Request request = new Request(Code.PUT);
+		request.setType(Type.CON);
+		request.setMID(++mid);
+		request.setToken(new byte[] { 1 });
+		request.setSource(InetAddress.getLoopbackAddress());
+		request.setSourcePort(5683);
+		request.getOptions().setURIPath("firmware");
+		request.getOptions().setBlock1(0, to < body.length, num);
+		request.setPayload(payload);
+		blockwise.receiveRequest(exchange, request);
+	}
+
+	private static byte[] createBody(int length) {
+		byte[] body = new byte[length];
+		for (int i = 0; i < length; i++)
+			body[i] = (byte) ('a' + i % 26);
+		return body;
+	}
+
+	private static class UpperLayer extends AbstractLayer {
+
+		private final List<Request> requests = new ArrayList<Request>();
+
+		@Override
+		public void receiveRequest(Exchange exchange, Request request) {
+			requests.add(request);
+		}
+	}
+
+	private static class LowerLayer extends AbstractLayer {
+
+		private final List<Response> responses = new ArrayList<Response>();
+
+		@Override
+		public void sendResponse(Exchange exchange, Response response) {
+			responses.add(response);
+		}
+	}
+}
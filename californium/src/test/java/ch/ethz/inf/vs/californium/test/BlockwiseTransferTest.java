@@ -6,6 +6,7 @@ import static org.junit.Assert.assertNotNull;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
 
 import org.junit.After;
 import org.junit.Before;
@@ -44,9 +45,11 @@ public class BlockwiseTransferTest {
 	private static final String LONG_POST_RESPONSE  = "<Long response 1x2x3x4x5x>".replace("x", "ABCDEFGHIJKLMNOPQRSTUVWXYZ ");
 	private static final String SHORT_GET_RESPONSE = SHORT_POST_RESPONSE.toLowerCase();
 	private static final String LONG_GET_RESPONSE  = LONG_POST_RESPONSE.toLowerCase();
+	private static final String PIPELINED_GET_RESPONSE = "<Pipelined response 1x2x3x4x5x6x7x8x9x10x11x12x13x14x15x16x>".replace("x", LONG_GET_RESPONSE);
 	
 	private boolean request_short = true;
 	private boolean respond_short = true;
+	private boolean respond_pipelined = false;
 	
 	private Server server;
 	private ServerBlockwiseInterceptor interceptor = new ServerBlockwiseInterceptor();
@@ -90,6 +93,7 @@ public class BlockwiseTransferTest {
 		test_GET_long();
 		// repeat test to check ongoing clean-up
 		test_GET_long();
+		test_GET_pipelined();
 	}
 	
 	public void test_POST_short_short() throws Exception {
@@ -132,13 +136,33 @@ public class BlockwiseTransferTest {
 		executeGETRequest();
 	}
 	
+	public void test_GET_pipelined() throws Exception {
+		System.out.println("-- GET pipelined --");
+		respond_short = false;
+		respond_pipelined = true;
+		try {
+			for (int i=0;i<10;i++)
+				executeGETRequest(16);
+		} finally {
+			respond_pipelined = false;
+		}
+	}
+	
 	private void executeGETRequest() throws Exception {
+		executeGETRequest(1);
+	}
+	
+	private void executeGETRequest(int window) throws Exception {
 		String payload = "nothing";
 		try {
 			interceptor.clear();
 			Request request = Request.newGet();
 			request.setDestination(InetAddress.getLocalHost());
 			request.setDestinationPort(serverPort);
+			if (window > 1) {
+				request.setBlock2Window(window);
+				request.getOptions().setSize2(0);
+			}
 			clientEndpoint.sendRequest(request);
 			
 			// receive response and check
@@ -146,7 +170,8 @@ public class BlockwiseTransferTest {
 			
 			assertNotNull(response);
 			payload = response.getPayloadString();
-			if (respond_short) assertEquals(SHORT_GET_RESPONSE, payload);
+			if (respond_pipelined) assertEquals(PIPELINED_GET_RESPONSE, payload);
+			else if (respond_short) assertEquals(SHORT_GET_RESPONSE, payload);
 			else assertEquals(LONG_GET_RESPONSE, payload);
 		} finally {
 			Thread.sleep(100); // Quickly wait until last ACKs arrive
@@ -182,6 +207,7 @@ public class BlockwiseTransferTest {
 	
 	private Server createSimpleServer() {
 		Server server = new Server();
+		server.setExecutor(Executors.newScheduledThreadPool(4)); // serve pipelined blocks concurrently
 		NetworkConfig config = new NetworkConfig();
 		config.setInt(NetworkConfigDefaults.DEFAULT_BLOCK_SIZE, 32);
 		config.setInt(NetworkConfigDefaults.MAX_MESSAGE_SIZE, 32);
@@ -214,7 +240,9 @@ public class BlockwiseTransferTest {
 			private void processGET(Exchange exchange) {
 				System.out.println("Server received GET request");
 				Response response = new Response(ResponseCode.CONTENT);
-				if (respond_short)
+				if (respond_pipelined)
+					response.setPayload(PIPELINED_GET_RESPONSE);
+				else if (respond_short)
 					response.setPayload(SHORT_GET_RESPONSE);
 				else response.setPayload(LONG_GET_RESPONSE);
 				exchange.sendResponse(response);
@@ -0,0 +1,135 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.Option;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.serialization.ByteBufferParser;
+import ch.ethz.inf.vs.californium.network.serialization.DataParser;
+import ch.ethz.inf.vs.californium.network.serialization.DataSerializer;
+
+/**
+ * This test tests that the ByteBufferParser parses messages the same way as
+ * the DataParser.
+ */
+public class ByteBufferParserTest {
+
+	@Test
+	public void testRequestParsing() {
+		Request request = new Request(Code.POST);
+		request.setType(Type.CON);
+		request.setMID(7);
+		request.setToken(new byte[] {11, 82, -91, 77, 3});
+		request.getOptions().addIfMatch(new byte[] {34, -17})
+							.setURIHost("localhost")
+							.setURIPort(5683)
+							.setURIPath("/one/two/a-rather-long-path-segment-that-needs-an-extended-length")
+							.setURIQuery("a=1&b=2")
+							.setContentFormat(40)
+							.setAccept(40)
+							.setObserve(65537)
+							.setMaxAge(86400);
+		request.getOptions().setBlock1(4, true, 1025);
+		request.setPayload("payload");
+
+		byte[] bytes = new DataSerializer().serializeRequest(request);
+
+		ByteBufferParser parser = new ByteBufferParser(bytes);
+		assertTrue(parser.isWellFormed());
+		assertTrue(parser.isRequest());
+		assertFalse(parser.isReply());
+		assertEquals(7, parser.getMID());
+
+		Request result = parser.parseRequest();
+		Request expected = new DataParser(bytes).parseRequest();
+		assertEquals(Type.CON, result.getType());
+		assertEquals(Code.POST, result.getCode());
+		assertArrayEquals(request.getToken(), result.getToken());
+		assertEquals(expected.getOptions().asSortedList(), result.getOptions().asSortedList());
+		assertEquals(request.getOptions().asSortedList(), result.getOptions().asSortedList());
+		assertEquals(1025, result.getOptions().getBlock1().getNum());
+		assertEquals("payload", result.getPayloadString());
+	}
+
+	@Test
+	public void testResponseParsingWithOffset() {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(9);
+		response.setToken(new byte[] {22, -1, 0, 78, 100, 22});
+		response.getOptions().addETag(new byte[] {1, 0, 0, 0, 0, 1})
+							.addLocationPath("/one/two/three/four/five/six/seven/eight/nine/ten")
+							.addOption(new Option(57453, "Arbitrary".hashCode()))
+							.addOption(new Option(19205, "Arbitrary1"))
+							.addOption(new Option(19205, "Arbitrary2"));
+		response.setPayload("hello world");
+
+		byte[] bytes = new DataSerializer().serializeResponse(response);
+		byte[] padded = new byte[bytes.length + 10];
+		System.arraycopy(bytes, 0, padded, 3, bytes.length);
+
+		ByteBufferParser parser = new ByteBufferParser(padded, 3, bytes.length);
+		assertTrue(parser.isResponse());
+		assertTrue(parser.isReply());
+
+		Response result = parser.parseResponse();
+		assertEquals(response.getMID(), result.getMID());
+		assertArrayEquals(response.getToken(), result.getToken());
+		assertEquals(response.getOptions().asSortedList(), result.getOptions().asSortedList());
+		assertArrayEquals(response.getPayload(), result.getPayload());
+
+		ByteBuffer payload = parser.getPayloadBuffer();
+		assertEquals(11, payload.remaining());
+		assertEquals('h', payload.get(0));
+		assertEquals(3 + bytes.length - 11, parser.getPayloadOffset());
+	}
+
+	@Test
+	public void testEmptyMessageFromBuffer() {
+		EmptyMessage rst = new EmptyMessage(Type.RST);
+		rst.setMID(0xABCD);
+		rst.setToken(new byte[0]);
+
+		byte[] bytes = new DataSerializer().serializeEmptyMessage(rst);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes).flip();
+
+		ByteBufferParser parser = new ByteBufferParser(buffer);
+		assertTrue(parser.isEmpty());
+
+		EmptyMessage result = parser.parseEmptyMessage();
+		assertEquals(Type.RST, result.getType());
+		assertEquals(0xABCD, result.getMID());
+		assertEquals(0, result.getPayloadSize());
+		assertEquals(0, parser.getPayloadBuffer().remaining());
+	}
+
+	@Test
+	public void testShortDatagramIsNotWellFormed() {
+		ByteBufferParser parser = new ByteBufferParser(new byte[] {0x40, 0x01});
+		assertFalse(parser.isWellFormed());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testMarkerWithoutPayload() {
+		new ByteBufferParser(new byte[] {0x40, 0x01, 0x00, 0x01, (byte) 0xFF}).parseRequest();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testTruncatedOption() {
+		// Uri-Path with length 5 but only two bytes
+		new ByteBufferParser(new byte[] {0x40, 0x01, 0x00, 0x01, (byte) 0xB5, 'a', 'b'}).parseRequest();
+	}
+}
@@ -0,0 +1,133 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.Option;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.serialization.ByteBufferSerializer;
+import ch.ethz.inf.vs.californium.network.serialization.DataSerializer;
+
+/**
+ * This test tests that the ByteBufferSerializer produces the same bytes as the
+ * DataSerializer.
+ */
+public class ByteBufferSerializerTest {
+
+	@Test
+	public void testRequest() {
+		Request request = new Request(Code.PUT);
+		request.setType(Type.CON);
+		request.setMID(0xBEEF);
+		request.setToken(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+		request.getOptions().addIfMatch(new byte[] {34, -17})
+							.setURIHost("example.com")
+							.setIfNoneMatch(true)
+							.setObserve(0)
+							.setURIPort(61616)
+							.setURIPath("/one/two/a-rather-long-path-segment-that-needs-an-extended-length")
+							.setContentFormat(0)
+							.setMaxAge(4294967295L)
+							.setURIQuery("a=1&b=\u00e4")
+							.setAccept(41)
+							.setProxyScheme("coap");
+		request.getOptions().setBlock1(6, true, 4096);
+		request.getOptions().setBlock2(0, false, 0);
+		request.setPayload(new byte[300]);
+
+		assertSameBytes(new DataSerializer().serializeRequest(request),
+				new ByteBufferSerializer().serializeRequest(request));
+	}
+
+	@Test
+	public void testResponseWithArbitraryOptions() {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.NON);
+		response.setMID(9);
+		response.setToken(new byte[] {22, -1, 0, 78, 100, 22});
+		response.getOptions().addETag(new byte[] {1, 0, 0, 0, 0, 1})
+							.addETag(new byte[] {2})
+							.addLocationPath("/one/two/three")
+							.addLocationQuery("x=y")
+							.addOption(new Option(57453, "Arbitrary".hashCode()))
+							.addOption(new Option(19205, "Arbitrary1"))
+							.addOption(new Option(2, "before host"))
+							.addOption(new Option(11, "same as uri-path"))
+							.addOption(new Option(19205, "Arbitrary2"));
+		response.getOptions().addURIPath("path");
+		response.setPayload("hello world");
+
+		assertSameBytes(new DataSerializer().serializeResponse(response),
+				new ByteBufferSerializer().serializeResponse(response));
+	}
+
+	@Test
+	public void testEmptyMessage() {
+		EmptyMessage ack = new EmptyMessage(Type.ACK);
+		ack.setMID(1);
+		ack.setToken(new byte[0]);
+
+		assertSameBytes(new DataSerializer().serializeEmptyMessage(ack),
+				new ByteBufferSerializer().serializeEmptyMessage(ack));
+	}
+
+	@Test
+	public void testIntoBuffers() {
+		Request request = Request.newGet();
+		request.setType(Type.CON);
+		request.setMID(17);
+		request.setToken(new byte[] {7});
+		request.getOptions().setURIPath("/test/path");
+		byte[] expected = new DataSerializer().serializeRequest(request);
+
+		ByteBufferSerializer serializer = new ByteBufferSerializer();
+		assertEquals(expected.length, serializer.getLength(request));
+
+		byte[] array = new byte[expected.length + 5];
+		assertEquals(expected.length, serializer.serialize(request, array, 5));
+		assertSameBytes(expected, java.util.Arrays.copyOfRange(array, 5, array.length));
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(100);
+		direct.put((byte) 0);
+		assertEquals(expected.length, serializer.serialize(request, direct));
+		assertEquals(1 + expected.length, direct.position());
+		byte[] written = new byte[expected.length];
+		direct.flip();
+		direct.get();
+		direct.get(written);
+		assertSameBytes(expected, written);
+	}
+
+	@Test
+	public void testSerializedBody() {
+		Response template = new Response(ResponseCode.CONTENT);
+		template.getOptions().setContentFormat(50).setObserve(12).setMaxAge(30);
+		template.setPayload("{\"temperature\":21.5}");
+		byte[] body = new ByteBufferSerializer().serializeBody(template);
+
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.NON);
+		response.setMID(4711);
+		response.setToken(new byte[] {9, 8, 7});
+		response.setOptions(template.getOptions());
+		response.setPayload(template.getPayload());
+		byte[] expected = new DataSerializer().serializeResponse(response);
+
+		response.setSerializedBody(body);
+		assertSameBytes(expected, new ByteBufferSerializer().serializeResponse(response));
+	}
+
+	private static void assertSameBytes(byte[] expected, byte[] actual) {
+		assertEquals(expected.length, actual.length);
+		assertArrayEquals(expected, actual);
+	}
+}
@@ -0,0 +1,134 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.CallbackExecutor;
+import ch.ethz.inf.vs.californium.CoapClient;
+import ch.ethz.inf.vs.californium.CoapHandler;
+import ch.ethz.inf.vs.californium.CoapResponse;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Endpoint;
+import ch.ethz.inf.vs.californium.network.EndpointObserver;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.interceptors.MessageInterceptor;
+import ch.ethz.inf.vs.californium.server.MessageDeliverer;
+
+/**
+ * This test tests that CoapClients share one callback executor by default and
+ * can invoke their handlers inline.
+ */
+public class CallbackExecutorTest {
+
+	@Test
+	public void testShared() {
+		CoapClient first = new CoapClient();
+		CoapClient second = new CoapClient();
+		assertSame(CallbackExecutor.getShared(), first.getExecutor());
+		assertSame(first.getExecutor(), second.getExecutor());
+
+		CallbackExecutor shared = CallbackExecutor.getShared();
+		CallbackExecutor.shutdownShared();
+		assertTrue(shared.isShutdown());
+		assertTrue(shared != first.getExecutor());
+	}
+
+	@Test
+	public void testExecutorHandler() throws Exception {
+		RecordingEndpoint endpoint = new RecordingEndpoint();
+		CoapClient client = new CoapClient("coap://localhost:5683/test").setEndpoint(endpoint);
+		final CountDownLatch latch = new CountDownLatch(1);
+		final List<Object> results = new ArrayList<Object>();
+		client.get(new CoapHandler() {
+			public void onLoad(CoapResponse response) {
+				results.add(Thread.currentThread().getName());
+				latch.countDown();
+			}
+			public void onError() { }
+		});
+		endpoint.sent.get(0).setResponse(new Response(ResponseCode.CONTENT));
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertTrue(results.get(0).toString().startsWith("CoapClient-Callback#"));
+	}
+
+	@Test
+	public void testInlineHandler() {
+		RecordingEndpoint endpoint = new RecordingEndpoint();
+		CoapClient client = new CoapClient("coap://localhost:5683/test").setEndpoint(endpoint).useInlineHandlers();
+		final List<Object> results = new ArrayList<Object>();
+		client.get(new CoapHandler() {
+			public void onLoad(CoapResponse response) { results.add(Thread.currentThread()); }
+			public void onError() { results.add("error"); }
+		});
+		endpoint.sent.get(0).setResponse(new Response(ResponseCode.CONTENT));
+		assertEquals(1, results.size());
+		assertSame(Thread.currentThread(), results.get(0));
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		CallbackExecutor executor = new CallbackExecutor(1, 1);
+		final CountDownLatch block = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			public void run() {
+				started.countDown();
+				try { block.await(); } catch (InterruptedException e) { }
+			}
+		});
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+		executor.execute(new Runnable() { public void run() { } });
+		assertEquals(1, executor.getActiveHandlers());
+		assertEquals(1, executor.getQueueDepth());
+
+		// the queue is full and the submitting thread runs the task
+		final List<Thread> runner = new ArrayList<Thread>();
+		executor.execute(new Runnable() { public void run() { runner.add(Thread.currentThread()); } });
+		assertSame(Thread.currentThread(), runner.get(0));
+		assertEquals(1, executor.getOverflows());
+
+		block.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		assertEquals(2, executor.getCompletedHandlers());
+		assertEquals(0, executor.getActiveHandlers());
+	}
+
+	private static class RecordingEndpoint implements Endpoint {
+
+		private final List<Request> sent = new ArrayList<Request>();
+
+		public void sendRequest(Request request) { sent.add(request); }
+
+		public void start() { }
+		public void stop() { }
+		public void destroy() { }
+		public void clear() { }
+		public boolean isStarted() { return true; }
+		public void setExecutor(ScheduledExecutorService executor) { }
+		public void addObserver(EndpointObserver obs) { }
+		public void removeObserver(EndpointObserver obs) { }
+		public void addInterceptor(MessageInterceptor interceptor) { }
+		public void removeInterceptor(MessageInterceptor interceptor) { }
+		public List<MessageInterceptor> getInterceptors() { return new ArrayList<MessageInterceptor>(); }
+		public void sendResponse(Exchange exchange, Response response) { }
+		public void sendEmptyMessage(Exchange exchange, EmptyMessage message) { }
+		public void setMessageDeliverer(MessageDeliverer deliverer) { }
+		public InetSocketAddress getAddress() { return null; }
+		public NetworkConfig getConfig() { return NetworkConfig.getStandard(); }
+	}
+}
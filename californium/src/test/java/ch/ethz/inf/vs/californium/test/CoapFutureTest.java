@@ -0,0 +1,145 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.CoapClient;
+import ch.ethz.inf.vs.californium.CoapFuture;
+import ch.ethz.inf.vs.californium.CoapHandler;
+import ch.ethz.inf.vs.californium.CoapResponse;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Endpoint;
+import ch.ethz.inf.vs.californium.network.EndpointObserver;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.interceptors.MessageInterceptor;
+import ch.ethz.inf.vs.californium.server.MessageDeliverer;
+
+/**
+ * This test tests that the future-based methods of the CoapClient complete on
+ * the thread that delivers the response and respect the maximum number of
+ * requests in flight.
+ */
+public class CoapFutureTest {
+
+	private RecordingEndpoint endpoint;
+	private CoapClient client;
+
+	@Before
+	public void setup() {
+		endpoint = new RecordingEndpoint();
+		client = new CoapClient("coap://localhost:5683/test").setEndpoint(endpoint);
+	}
+
+	@Test
+	public void testCompletion() throws Exception {
+		final List<Object> results = new ArrayList<Object>();
+		CoapFuture future = client.getAsync().addHandler(new CoapHandler() {
+			public void onLoad(CoapResponse response) {
+				results.add(Thread.currentThread());
+				results.add(response.getResponseText());
+			}
+			public void onError() {
+				results.add("error");
+			}
+		});
+		assertEquals(1, endpoint.sent.size());
+		assertFalse(future.isDone());
+
+		respond(endpoint.sent.get(0), "hello");
+		assertTrue(future.isDone());
+		assertEquals("hello", future.get().getResponseText());
+		assertSame(Thread.currentThread(), results.get(0));
+		assertEquals("hello", results.get(1));
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		final List<String> results = new ArrayList<String>();
+		CoapFuture future = client.getAsync();
+		endpoint.sent.get(0).setTimedOut(true);
+		assertTrue(future.isFailed());
+		assertNull(future.get());
+		future.addHandler(new CoapHandler() {
+			public void onLoad(CoapResponse response) { results.add("load"); }
+			public void onError() { results.add("error"); }
+		});
+		assertEquals("error", results.get(0));
+	}
+
+	@Test
+	public void testMaxInFlight() throws Exception {
+		client.setMaxInFlight(2);
+		List<Request> requests = new ArrayList<Request>();
+		for (int i = 0; i < 5; i++)
+			requests.add(Request.newGet());
+		List<CoapFuture> futures = client.submitAll(requests);
+		assertEquals(5, futures.size());
+		assertEquals(2, endpoint.sent.size());
+		assertEquals(2, client.getInFlight());
+		assertEquals(3, client.getQueued());
+
+		// a canceled queued request is never sent
+		assertTrue(futures.get(2).cancel(false));
+		assertTrue(futures.get(2).isCancelled());
+
+		respond(endpoint.sent.get(0), "0");
+		assertEquals(3, endpoint.sent.size());
+		assertSame(requests.get(3), endpoint.sent.get(2));
+
+		endpoint.sent.get(1).setRejected(true);
+		respond(endpoint.sent.get(2), "3");
+		assertEquals(4, endpoint.sent.size());
+		respond(endpoint.sent.get(3), "4");
+
+		assertEquals(0, client.getInFlight());
+		assertEquals(0, client.getQueued());
+		assertEquals("0", futures.get(0).get().getResponseText());
+		assertTrue(futures.get(1).isFailed());
+		assertEquals("4", futures.get(4).get().getResponseText());
+	}
+
+	private static void respond(Request request, String payload) {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setPayload(payload);
+		request.setResponse(response);
+	}
+
+	private static class RecordingEndpoint implements Endpoint {
+
+		private final List<Request> sent = new ArrayList<Request>();
+
+		public void sendRequest(Request request) { sent.add(request); }
+
+		public void start() { }
+		public void stop() { }
+		public void destroy() { }
+		public void clear() { }
+		public boolean isStarted() { return true; }
+		public void setExecutor(ScheduledExecutorService executor) { }
+		public void addObserver(EndpointObserver obs) { }
+		public void removeObserver(EndpointObserver obs) { }
+		public void addInterceptor(MessageInterceptor interceptor) { }
+		public void removeInterceptor(MessageInterceptor interceptor) { }
+		public List<MessageInterceptor> getInterceptors() { return new ArrayList<MessageInterceptor>(); }
+		public void sendResponse(Exchange exchange, Response response) { }
+		public void sendEmptyMessage(Exchange exchange, EmptyMessage message) { }
+		public void setMessageDeliverer(MessageDeliverer deliverer) { }
+		public InetSocketAddress getAddress() { return null; }
+		public NetworkConfig getConfig() { return NetworkConfig.getStandard(); }
+	}
+}
@@ -0,0 +1,100 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.deduplication.CompactDeduplicator;
+
+/**
+ * This test tests that the compact deduplicator replaces answered exchanges
+ * with their replies and that it respects its limits.
+ */
+public class CompactDeduplicatorTest {
+
+	private NetworkConfig config;
+	
+	@Before
+	public void setup() {
+		config = new NetworkConfig();
+		config.setLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE, 60 * 1000);
+	}
+	
+	@Test
+	public void testReplyReplacesExchange() {
+		CompactDeduplicator deduplicator = new CompactDeduplicator(config);
+		KeyMID key = key(1);
+		Exchange exchange = newExchange();
+		
+		assertNull(deduplicator.findPrevious(key, exchange));
+		assertSame(exchange, deduplicator.findPrevious(key(1), newExchange()));
+		assertNull(deduplicator.findReply(key));
+		
+		byte[] ack = new byte[] {0x60, 0, 0, 1};
+		deduplicator.replied(key, exchange, ack);
+		assertNull(deduplicator.find(key));
+		assertEquals(0, deduplicator.getPendingCount());
+		assertArrayEquals(ack, deduplicator.findReply(key(1)));
+		
+		// a separate response replaces the empty ACK
+		byte[] response = new byte[] {0x40, 0x45, 0, 2, (byte) 0xFF, 1};
+		deduplicator.replied(key, exchange, response);
+		assertArrayEquals(response, deduplicator.findReply(key));
+		assertEquals(1, deduplicator.getRecordCount());
+		assertEquals(response.length + CompactDeduplicator.RECORD_OVERHEAD, deduplicator.getRecordBytes());
+		
+		// a duplicate that slipped past findReply is not a new exchange
+		Exchange late = newExchange();
+		assertSame(late, deduplicator.findPrevious(key, late));
+		assertEquals(0, deduplicator.getPendingCount());
+	}
+	
+	@Test
+	public void testEntryLimit() {
+		config.setInt(NetworkConfigDefaults.COMPACT_DEDUPLICATOR_MAX_ENTRIES, 16 * 4);
+		CompactDeduplicator deduplicator = new CompactDeduplicator(config);
+		for (int i = 0; i < 1000; i++) {
+			Exchange exchange = newExchange();
+			deduplicator.findPrevious(key(i), exchange);
+			deduplicator.replied(key(i), exchange, new byte[4]);
+		}
+		assertTrue(deduplicator.getRecordCount() <= 16 * 4);
+		assertEquals(1000 - deduplicator.getRecordCount(), deduplicator.getEvictionCount());
+		// the most recent reply is always kept
+		assertArrayEquals(new byte[4], deduplicator.findReply(key(999)));
+	}
+	
+	@Test
+	public void testByteLimit() {
+		long limit = 16 * 1024;
+		config.setLong(NetworkConfigDefaults.COMPACT_DEDUPLICATOR_MAX_BYTES, limit);
+		CompactDeduplicator deduplicator = new CompactDeduplicator(config);
+		for (int i = 0; i < 1000; i++) {
+			Exchange exchange = newExchange();
+			deduplicator.findPrevious(key(i), exchange);
+			deduplicator.replied(key(i), exchange, new byte[100]);
+		}
+		assertTrue(deduplicator.getRecordBytes() <= limit);
+		assertTrue(deduplicator.getEvictionCount() > 0);
+	}
+	
+	private static KeyMID key(int i) {
+		return new KeyMID(i & 0xFFFF, new byte[] {10, 0, (byte) (i >> 16), 1}, 5683);
+	}
+	
+	private static Exchange newExchange() {
+		return new Exchange(new Request(Code.GET), Origin.REMOTE);
+	}
+}
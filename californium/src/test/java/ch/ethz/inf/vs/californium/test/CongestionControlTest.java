@@ -0,0 +1,136 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.stack.AbstractLayer;
+import ch.ethz.inf.vs.californium.network.stack.CongestionControlLayer;
+import ch.ethz.inf.vs.californium.network.stack.RemoteEndpoint;
+
+/**
+ * This test tests the CoCoA-style RTO estimation of the remote endpoints and
+ * that the congestion control layer keeps at most NSTART confirmable messages
+ * outstanding per peer.
+ */
+public class CongestionControlTest {
+
+	private InetAddress peer;
+	private ScheduledExecutorService executor;
+	private CongestionControlLayer layer;
+	private BlockingQueue<Request> sent;
+
+	@Before
+	public void setup() throws Exception {
+		peer = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+		NetworkConfig config = new NetworkConfig();
+		config.setInt(NetworkConfigDefaults.NSTART, 1);
+
+		executor = Executors.newSingleThreadScheduledExecutor();
+		sent = new LinkedBlockingQueue<Request>();
+		layer = new CongestionControlLayer(config);
+		layer.setLowerLayer(new AbstractLayer() {
+			@Override
+			public void sendRequest(Exchange exchange, Request request) {
+				sent.add(request);
+			}
+		});
+		layer.setExecutor(executor);
+	}
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testStrongEstimator() {
+		RemoteEndpoint remote = new RemoteEndpoint(peer, 5683);
+		assertEquals(RemoteEndpoint.DEFAULT_RTO, remote.getRTO());
+
+		// RTO_strong = 100 + 4 * 50 = 300, RTO = (300 + 2000) / 2
+		remote.updateRTT(100, 0);
+		assertEquals(100, remote.getStrongSRTT());
+		assertEquals(1150, remote.getRTO());
+	}
+
+	@Test
+	public void testWeakEstimator() {
+		RemoteEndpoint remote = new RemoteEndpoint(peer, 5683);
+
+		// RTO_weak = 1000 + 1 * 500 = 1500, RTO = (1500 + 3 * 2000) / 4
+		remote.updateRTT(1000, 1);
+		assertEquals(1000, remote.getWeakSRTT());
+		assertEquals(-1, remote.getStrongSRTT());
+		assertEquals(1875, remote.getRTO());
+
+		// too many retransmissions to be meaningful
+		remote.updateRTT(10, 3);
+		assertEquals(1875, remote.getRTO());
+	}
+
+	@Test
+	public void testBackoffFactor() {
+		assertEquals(3f, RemoteEndpoint.getBackoffFactor(500), 0f);
+		assertEquals(2f, RemoteEndpoint.getBackoffFactor(2000), 0f);
+		assertEquals(1.5f, RemoteEndpoint.getBackoffFactor(4000), 0f);
+	}
+
+	@Test
+	public void testNstartQueue() throws Exception {
+		Exchange first = send();
+		Exchange second = send();
+		Exchange third = send();
+
+		assertEquals(first.getCurrentRequest(), sent.poll(1, TimeUnit.SECONDS));
+		RemoteEndpoint remote = layer.getRemoteEndpoint(peer, 5683);
+		assertNotNull(remote);
+		assertEquals(1, remote.getOutstanding());
+		assertEquals(2, remote.getQueueDepth());
+		assertTrue(sent.isEmpty());
+
+		// an ACK frees the slot for the next request and updates the RTO
+		layer.receiveEmptyMessage(first, EmptyMessage.newACK(first.getCurrentRequest()));
+		assertEquals(second.getCurrentRequest(), sent.poll(1, TimeUnit.SECONDS));
+		assertTrue(remote.getStrongSRTT() >= 0);
+		assertEquals(1, remote.getQueueDepth());
+
+		// canceling also frees the slot
+		second.getCurrentRequest().cancel();
+		assertEquals(third.getCurrentRequest(), sent.poll(1, TimeUnit.SECONDS));
+		assertEquals(0, remote.getQueueDepth());
+
+		layer.receiveEmptyMessage(third, EmptyMessage.newACK(third.getCurrentRequest()));
+		assertEquals(0, remote.getOutstanding());
+	}
+
+	private Exchange send() {
+		Request request = new Request(Code.GET);
+		request.setType(Type.CON);
+		request.setDestination(peer);
+		request.setDestinationPort(5683);
+		Exchange exchange = new Exchange(request, Origin.LOCAL);
+		exchange.setRequest(request);
+		layer.sendRequest(exchange, request);
+		return exchange;
+	}
+}
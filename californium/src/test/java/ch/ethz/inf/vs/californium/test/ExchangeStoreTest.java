@@ -0,0 +1,139 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.ExchangeStore;
+import ch.ethz.inf.vs.californium.network.HashMapExchangeStore;
+import ch.ethz.inf.vs.californium.network.PackedExchangeStore;
+import ch.ethz.inf.vs.californium.network.PackedKeyMap;
+
+/**
+ * This test tests that the exchange stores tell apart exchanges that differ
+ * only in the MID, token, address or port and that the packed key map keeps
+ * its entries when it grows and when entries are removed.
+ */
+public class ExchangeStoreTest {
+
+	@Test
+	public void testHashMapExchangeStore() throws Exception {
+		testStore(new HashMapExchangeStore());
+	}
+
+	@Test
+	public void testPackedExchangeStore() throws Exception {
+		testStore(new PackedExchangeStore());
+	}
+
+	private void testStore(ExchangeStore store) throws Exception {
+		InetAddress ipv4 = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+		InetAddress ipv4b = InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+		InetAddress ipv6 = InetAddress.getByAddress(new byte[] {
+				0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1});
+		Exchange a = newExchange();
+		Exchange b = newExchange();
+		Exchange c = newExchange();
+
+		// MIDs
+		assertNull(store.putByMID(7, ipv4, 5683, a));
+		assertNull(store.putByMID(7, ipv4, 5684, b));
+		assertNull(store.putByMID(7, ipv6, 5683, c));
+		assertSame(a, store.getByMID(7, ipv4, 5683));
+		assertSame(b, store.getByMID(7, ipv4, 5684));
+		assertSame(c, store.getByMID(7, ipv6, 5683));
+		assertNull(store.getByMID(8, ipv4, 5683));
+		assertNull(store.getByMID(7, ipv4b, 5683));
+		assertSame(a, store.removeByMID(7, ipv4, 5683));
+		assertNull(store.getByMID(7, ipv4, 5683));
+		assertSame(b, store.getByMID(7, ipv4, 5684));
+		assertSame(c, store.removeByMID(7, ipv6, 5683));
+
+		// Tokens, including a leading zero, an empty and a long token
+		byte[] token = new byte[] {1, 2, 3};
+		byte[] zeroToken = new byte[] {0, 1, 2, 3};
+		byte[] emptyToken = new byte[0];
+		byte[] longToken = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+		assertNull(store.putByToken(token, ipv4, 5683, a));
+		assertNull(store.putByToken(zeroToken, ipv4, 5683, b));
+		assertNull(store.putByToken(emptyToken, ipv4, 5683, c));
+		assertSame(a, store.getByToken(new byte[] {1, 2, 3}, ipv4, 5683));
+		assertSame(b, store.getByToken(zeroToken, ipv4, 5683));
+		assertSame(c, store.getByToken(emptyToken, ipv4, 5683));
+		assertNull(store.getByToken(token, ipv4, 5684));
+		assertNull(store.putByToken(longToken, ipv4, 5683, a));
+		assertNull(store.putByToken(token, ipv6, 5683, b));
+		assertSame(a, store.getByToken(longToken, ipv4, 5683));
+		assertSame(b, store.getByToken(token, ipv6, 5683));
+		assertSame(a, store.removeByToken(token, ipv4, 5683));
+		assertNull(store.getByToken(token, ipv4, 5683));
+		assertSame(b, store.getByToken(zeroToken, ipv4, 5683));
+
+		// Ongoing exchanges
+		assertNull(store.putOngoing("coap://10.0.0.1/large", ipv4, 5683, a));
+		assertSame(a, store.getOngoing("coap://10.0.0.1/large", ipv4, 5683));
+		assertNull(store.getOngoing("coap://10.0.0.1/large", ipv4, 5684));
+		assertSame(a, store.removeOngoing("coap://10.0.0.1/large", ipv4, 5683));
+
+		// URIs with the same hash code ("Aa" and "BB")
+		assertNull(store.putOngoing("/Aa", ipv4, 5683, a));
+		assertNull(store.putOngoing("/BB", ipv4, 5683, b));
+		assertNull(store.putOngoing("/Aa", ipv6, 5683, c));
+		assertEquals(3, store.getOngoingCount());
+		assertSame(a, store.getOngoing("/Aa", ipv4, 5683));
+		assertSame(b, store.getOngoing("/BB", ipv4, 5683));
+		assertSame(c, store.getOngoing("/Aa", ipv6, 5683));
+		assertSame(a, store.putOngoing("/Aa", ipv4, 5683, c));
+		assertSame(c, store.removeOngoing("/Aa", ipv4, 5683));
+		assertNull(store.getOngoing("/Aa", ipv4, 5683));
+		assertSame(b, store.getOngoing("/BB", ipv4, 5683));
+		assertSame(b, store.removeOngoing("/BB", ipv4, 5683));
+		assertSame(c, store.removeOngoing("/Aa", ipv6, 5683));
+		assertEquals(0, store.getOngoingCount());
+
+		store.clear();
+		assertNull(store.getByMID(7, ipv4, 5684));
+		assertNull(store.getByToken(longToken, ipv4, 5683));
+	}
+
+	@Test
+	public void testPackedKeyMap() {
+		PackedKeyMap<Integer> map = new PackedKeyMap<Integer>();
+		Random random = new Random(0);
+		long[] keys = new long[10000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = random.nextLong();
+			assertNull(map.put(keys[i], i % 3, i));
+		}
+		assertEquals(keys.length, map.size());
+
+		// remove every second entry, which shifts back the following entries
+		for (int i = 0; i < keys.length; i += 2)
+			assertEquals(Integer.valueOf(i), map.remove(keys[i], i % 3));
+		assertEquals(keys.length / 2, map.size());
+
+		for (int i = 0; i < keys.length; i++) {
+			if (i % 2 == 0)
+				assertNull(map.get(keys[i], i % 3));
+			else assertEquals(Integer.valueOf(i), map.get(keys[i], i % 3));
+			assertNull(map.get(keys[i], i % 3 + 1));
+		}
+
+		map.clear();
+		assertEquals(0, map.size());
+		assertNull(map.get(keys[1], 1));
+	}
+
+	private static Exchange newExchange() {
+		return new Exchange(new Request(Code.GET), Origin.LOCAL);
+	}
+}
@@ -0,0 +1,216 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.BlockOption;
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Endpoint;
+import ch.ethz.inf.vs.californium.network.EndpointObserver;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.interceptors.MessageInterceptor;
+import ch.ethz.inf.vs.californium.server.MessageDeliverer;
+import ch.ethz.inf.vs.californium.server.resources.FileResource;
+import ch.ethz.inf.vs.californium.server.resources.Resource;
+
+/**
+ * This test tests that the file resource serves mapped files, answers block
+ * requests directly from the mapping and detects changes of the files.
+ */
+public class FileResourceTest {
+
+	private File directory;
+	private File file;
+	private byte[] content;
+	private RecordingEndpoint endpoint;
+
+	@Before
+	public void setup() throws IOException {
+		directory = File.createTempFile("californium", "");
+		directory.delete();
+		directory.mkdir();
+		content = new byte[1000];
+		for (int i = 0; i < content.length; i++)
+			content[i] = (byte) i;
+		file = new File(directory, "firmware.txt");
+		write(file, content);
+		file.setLastModified(System.currentTimeMillis() - 100000);
+		endpoint = new RecordingEndpoint();
+	}
+
+	@After
+	public void cleanup() {
+		for (File child:directory.listFiles())
+			child.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void testGet() {
+		FileResource resource = new FileResource("firmware", file);
+		Response response = get(resource, null, null);
+
+		assertEquals(ResponseCode.CONTENT, response.getCode());
+		assertArrayEquals(content, response.getPayload());
+		assertEquals(MediaTypeRegistry.TEXT_PLAIN, response.getOptions().getContentFormat());
+		assertEquals(1, response.getOptions().getETagCount());
+		assertEquals(10, response.getOptions().getMaxAge().longValue());
+	}
+
+	@Test
+	public void testBlock() {
+		FileResource resource = new FileResource("firmware", file);
+		Response response = get(resource, new BlockOption(0, false, 1), null);
+
+		assertEquals(ResponseCode.CONTENT, response.getCode());
+		BlockOption block2 = response.getOptions().getBlock2();
+		assertEquals(1, block2.getNum());
+		assertTrue(block2.isM());
+		ByteBuffer buffer = response.getPayloadBuffer();
+		assertNotNull(buffer);
+		assertEquals(16, buffer.remaining());
+		assertEquals(16, buffer.get());
+
+		response = get(resource, new BlockOption(6, false, 0), null);
+		assertFalse(response.getOptions().getBlock2().isM());
+		assertArrayEquals(content, response.getPayload());
+
+		response = get(resource, new BlockOption(0, false, 62), null);
+		assertFalse(response.getOptions().getBlock2().isM());
+		assertEquals(8, response.getPayloadSize());
+
+		response = get(resource, new BlockOption(0, false, 63), null);
+		assertEquals(ResponseCode.BAD_OPTION, response.getCode());
+	}
+
+	@Test
+	public void testValid() {
+		FileResource resource = new FileResource("firmware", file);
+		byte[] etag = get(resource, null, null).getOptions().getETags().get(0);
+
+		Response response = get(resource, null, etag);
+		assertEquals(ResponseCode.VALID, response.getCode());
+		assertEquals(0, response.getPayloadSize());
+
+		file.setLastModified(System.currentTimeMillis() - 50000);
+		response = get(resource, null, etag);
+		assertEquals(ResponseCode.CONTENT, response.getCode());
+	}
+
+	@Test
+	public void testDirectory() throws IOException {
+		write(new File(directory, ".hidden"), content);
+		FileResource resource = new FileResource("files", directory);
+
+		Response response = get(resource, null, null);
+		assertEquals(MediaTypeRegistry.APPLICATION_LINK_FORMAT, response.getOptions().getContentFormat());
+		assertEquals("<"+resource.getURI()+"/firmware.txt>;ct=0;sz=1000", response.getPayloadString());
+
+		assertNull(resource.getChild(".hidden"));
+		assertNull(resource.getChild(".."));
+		assertNull(resource.getChild("missing"));
+		Resource child = resource.getChild("firmware.txt");
+		assertNotNull(child);
+		assertEquals(resource.getURI()+"/firmware.txt", child.getURI());
+		assertArrayEquals(content, get(child, null, null).getPayload());
+	}
+
+	@Test
+	public void testChanges() throws IOException {
+		ChangedResource resource = new ChangedResource("firmware", file);
+		assertFalse(resource.checkForChanges());
+		assertEquals(0, resource.changes);
+
+		byte[] update = new byte[] { 1, 2, 3 };
+		write(file, update);
+		assertTrue(resource.checkForChanges());
+		assertEquals(1, resource.changes);
+		assertFalse(resource.checkForChanges());
+		assertArrayEquals(update, get(resource, null, null).getPayload());
+	}
+
+	private Response get(Resource resource, BlockOption block2, byte[] etag) {
+		Request request = new Request(Code.GET);
+		if (block2 != null)
+			request.getOptions().setBlock2(block2);
+		if (etag != null)
+			request.getOptions().addETag(etag);
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		exchange.setRequest(request);
+		exchange.setEndpoint(endpoint);
+		resource.handleRequest(exchange);
+		assertEquals(1, endpoint.responses.size());
+		return endpoint.responses.remove(0);
+	}
+
+	private static void write(File file, byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static class ChangedResource extends FileResource {
+
+		private int changes;
+
+		public ChangedResource(String name, File file) {
+			super(name, file);
+		}
+
+		@Override
+		public void changed() {
+			changes++;
+		}
+	}
+
+	private static class RecordingEndpoint implements Endpoint {
+
+		private final List<Response> responses = new ArrayList<Response>();
+
+		public void sendResponse(Exchange exchange, Response response) { responses.add(response); }
+
+		public void start() { }
+		public void stop() { }
+		public void destroy() { }
+		public void clear() { }
+		public boolean isStarted() { return true; }
+		public void setExecutor(ScheduledExecutorService executor) { }
+		public void addObserver(EndpointObserver obs) { }
+		public void removeObserver(EndpointObserver obs) { }
+		public void addInterceptor(MessageInterceptor interceptor) { }
+		public void removeInterceptor(MessageInterceptor interceptor) { }
+		public List<MessageInterceptor> getInterceptors() { return new ArrayList<MessageInterceptor>(); }
+		public void sendRequest(Request request) { }
+		public void sendEmptyMessage(Exchange exchange, EmptyMessage message) { }
+		public void setMessageDeliverer(MessageDeliverer deliverer) { }
+		public InetSocketAddress getAddress() { return null; }
+		public NetworkConfig getConfig() { return NetworkConfig.getStandard(); }
+	}
+}
@@ -0,0 +1,108 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.network.ShardedExecutor;
+import ch.ethz.inf.vs.californium.network.timer.HashedWheelTimer;
+
+/**
+ * This test tests that the hashed wheel timer runs tasks after their delay,
+ * also when the delay is longer than one revolution of the wheel, and that it
+ * drops cancelled tasks.
+ */
+public class HashedWheelTimerTest {
+
+	private ScheduledExecutorService executor;
+	private HashedWheelTimer timer;
+	
+	@After
+	public void shutdown() {
+		timer.stop();
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testDelays() throws Exception {
+		executor = Executors.newSingleThreadScheduledExecutor();
+		// one revolution is 8 * 5 = 40 ms
+		timer = new HashedWheelTimer(executor, 5, TimeUnit.MILLISECONDS, 8);
+		
+		final CountDownLatch latch = new CountDownLatch(3);
+		final long start = System.nanoTime();
+		final long[] delays = new long[] {0, 30, 130};
+		final long[] actual = new long[3];
+		for (int i = 0; i < delays.length; i++) {
+			final int n = i;
+			timer.schedule(new Runnable() {
+				public void run() {
+					actual[n] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+					latch.countDown();
+				}
+			}, delays[i], TimeUnit.MILLISECONDS);
+		}
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		for (int i = 0; i < delays.length; i++)
+			assertTrue("Task "+i+" ran after "+actual[i]+" ms", actual[i] >= delays[i]);
+	}
+	
+	@Test
+	public void testCancel() throws Exception {
+		executor = Executors.newSingleThreadScheduledExecutor();
+		timer = new HashedWheelTimer(executor, 5, TimeUnit.MILLISECONDS, 8);
+		
+		final AtomicInteger runs = new AtomicInteger();
+		Runnable task = new Runnable() {
+			public void run() { runs.incrementAndGet(); }
+		};
+		ScheduledFuture<?> cancelled = timer.schedule(task, 20, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> kept = timer.schedule(task, 20, TimeUnit.MILLISECONDS);
+		assertTrue(cancelled.cancel(false));
+		assertTrue(cancelled.isCancelled());
+		
+		kept.get(1, TimeUnit.SECONDS);
+		Thread.sleep(50);
+		assertEquals(1, runs.get());
+		assertFalse(cancelled.cancel(false));
+		assertFalse(kept.cancel(false));
+	}
+	
+	@Test
+	public void testOwningLane() throws Exception {
+		final ShardedExecutor sharded = new ShardedExecutor(4);
+		executor = sharded;
+		timer = new HashedWheelTimer(executor, 5, TimeUnit.MILLISECONDS, 8);
+		
+		final InetAddress peer = InetAddress.getByAddress(new byte[] {10, 0, 0, 3});
+		final AtomicReference<Thread> owner = new AtomicReference<Thread>();
+		final AtomicReference<Thread> expired = new AtomicReference<Thread>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		sharded.execute(peer, 5683, new Runnable() {
+			public void run() {
+				owner.set(Thread.currentThread());
+				timer.schedule(new Runnable() {
+					public void run() {
+						expired.set(Thread.currentThread());
+						latch.countDown();
+					}
+				}, 10, TimeUnit.MILLISECONDS);
+			}
+		});
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertSame(owner.get(), expired.get());
+	}
+}
@@ -0,0 +1,156 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.ReflectionException;
+
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.metrics.Counter;
+import ch.ethz.inf.vs.californium.metrics.Gauge;
+import ch.ethz.inf.vs.californium.metrics.Histogram;
+import ch.ethz.inf.vs.californium.metrics.JmxExporter;
+import ch.ethz.inf.vs.californium.metrics.Metrics;
+import ch.ethz.inf.vs.californium.metrics.MetricsRegistry;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+/**
+ * This test tests the counters, histograms, registry and JMX exporter of the
+ * metrics package.
+ */
+public class MetricsTest {
+
+	@Test
+	public void testConcurrentCounter() throws Exception {
+		final Counter counter = new Counter();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 10000; j++)
+						counter.increment();
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread:threads)
+			thread.join();
+		counter.add(5);
+		assertEquals(80005, counter.get());
+	}
+
+	@Test
+	public void testHistogram() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getPercentile(0.5));
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(i);
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500.5, histogram.getMean(), 0.01);
+		assertEquals(1000, histogram.getMax());
+		assertWithin(500, histogram.getPercentile(0.5), 0.125);
+		assertWithin(990, histogram.getPercentile(0.99), 0.125);
+		assertEquals(1000, histogram.getPercentile(1.0));
+	}
+
+	@Test
+	public void testHistogramSmallAndLargeValues() {
+		Histogram histogram = new Histogram();
+		for (int i = 0; i < 8; i++)
+			histogram.record(i);
+		// values below the number of sub-buckets are exact
+		assertEquals(3, histogram.getPercentile(0.5));
+		histogram.record(Long.MAX_VALUE / 2);
+		assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+		assertEquals(Long.MAX_VALUE / 2, histogram.getPercentile(1.0));
+	}
+
+	@Test
+	public void testRegistry() {
+		MetricsRegistry registry = new MetricsRegistry();
+		Counter counter = registry.counter("a.counter");
+		assertSame(counter, registry.counter("a.counter"));
+		registry.histogram("a.histogram").record(7);
+		registry.register("b.gauge", new Gauge() {
+			public long getValue() { return 42; }
+		});
+		counter.add(3);
+
+		try {
+			registry.histogram("a.counter");
+			fail("Histogram replaced a counter");
+		} catch (IllegalArgumentException e) { }
+
+		String text = registry.toText();
+		assertTrue(text, text.startsWith("a.counter 3\na.histogram count=1 "));
+		assertTrue(text, text.endsWith("b.gauge 42\n"));
+
+		registry.removeAll("a.");
+		assertNull(registry.get("a.counter"));
+		assertEquals(1, registry.getMetrics().size());
+	}
+
+	@Test
+	public void testJmxExporter() throws Exception {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("requests").add(9);
+		Histogram histogram = registry.histogram("latency");
+		histogram.record(100);
+		histogram.record(200);
+		JmxExporter exporter = new JmxExporter(registry);
+
+		assertEquals(9L, exporter.getAttribute("requests"));
+		assertEquals(2L, exporter.getAttribute("latency.count"));
+		assertEquals(200L, exporter.getAttribute("latency.max"));
+		try {
+			exporter.getAttribute("unknown");
+			fail("Unknown attribute found");
+		} catch (AttributeNotFoundException e) { }
+		try {
+			exporter.invoke("reset", null, null);
+			fail("Read-only exporter invoked an operation");
+		} catch (ReflectionException e) {
+			assertTrue(e.getTargetException() instanceof NoSuchMethodException);
+		}
+
+		// one attribute for the counter and five for the histogram
+		MBeanAttributeInfo[] attributes = exporter.getMBeanInfo().getAttributes();
+		assertEquals(6, attributes.length);
+
+		exporter.register("ch.ethz.inf.vs.californium:type=MetricsTest");
+		exporter.unregister();
+	}
+
+	@Test
+	public void testResourceLatencyFollowsURI() {
+		MetricsRegistry registry = Metrics.getRegistry();
+		ResourceBase parent = new ResourceBase("metrics");
+		ResourceBase resource = new ResourceBase("first");
+		parent.add(resource);
+
+		Histogram first = resource.getLatency();
+		assertSame(first, registry.get("resource." + resource.getURI() + ".latency"));
+
+		// a renamed resource reports under its new URI only
+		String old = "resource." + resource.getURI() + ".latency";
+		resource.setName("second");
+		assertNull(registry.get(old));
+		Histogram second = resource.getLatency();
+		assertSame(second, registry.get("resource." + resource.getURI() + ".latency"));
+
+		// a deleted resource leaves nothing behind
+		old = "resource." + resource.getURI() + ".latency";
+		resource.delete();
+		assertNull(registry.get(old));
+	}
+
+	private static void assertWithin(long expected, long actual, double error) {
+		assertTrue("Expected "+expected+" but was "+actual, Math.abs(actual - expected) <= expected * error);
+	}
+}
@@ -0,0 +1,62 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigSnapshot;
+
+/**
+ * This test tests that the typed snapshot of a configuration follows the
+ * changes of the configuration, no matter how they are made.
+ */
+public class NetworkConfigSnapshotTest {
+
+	@Test
+	public void testDefaults() {
+		NetworkConfig config = new NetworkConfig();
+		NetworkConfigSnapshot snapshot = config.getSnapshot();
+		assertSame(snapshot, config.getSnapshot());
+		assertEquals(config.getInt(NetworkConfigDefaults.ACK_TIMEOUT), snapshot.getAckTimeout());
+		assertEquals(config.getFloat(NetworkConfigDefaults.ACK_RANDOM_FACTOR), snapshot.getAckRandomFactor(), 0f);
+		assertEquals(config.getInt(NetworkConfigDefaults.MAX_RETRANSMIT), snapshot.getMaxRetransmit());
+		assertEquals(config.getLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE), snapshot.getExchangeLifecycle());
+	}
+
+	@Test
+	public void testSetters() {
+		NetworkConfig config = new NetworkConfig();
+		NetworkConfigSnapshot snapshot = config.getSnapshot();
+		config.setInt(NetworkConfigDefaults.ACK_TIMEOUT, 500);
+		config.setString(NetworkConfigDefaults.MAX_RETRANSMIT, "7");
+		config.setFloat(NetworkConfigDefaults.ACK_RANDOM_FACTOR, 1.25f);
+		config.set(NetworkConfigDefaults.EXCHANGE_LIFECYCLE, 1234L);
+		assertEquals(500, snapshot.getAckTimeout());
+		assertEquals(7, snapshot.getMaxRetransmit());
+		assertEquals(1.25f, snapshot.getAckRandomFactor(), 0f);
+		assertEquals(1234, snapshot.getExchangeLifecycle());
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+		File file = File.createTempFile("californium", ".properties");
+		try {
+			FileWriter writer = new FileWriter(file);
+			writer.write(NetworkConfigDefaults.NSTART + "=3\n");
+			writer.close();
+
+			NetworkConfig config = new NetworkConfig();
+			NetworkConfigSnapshot snapshot = config.getSnapshot();
+			config.load(file);
+			assertEquals(3, snapshot.getNstart());
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Endpoint;
+import ch.ethz.inf.vs.californium.network.EndpointObserver;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.interceptors.MessageInterceptor;
+import ch.ethz.inf.vs.californium.network.serialization.DataParser;
+import ch.ethz.inf.vs.californium.network.serialization.Serializer;
+import ch.ethz.inf.vs.californium.observe.ObserveRelation;
+import ch.ethz.inf.vs.californium.observe.ObservingEndpoint;
+import ch.ethz.inf.vs.californium.server.MessageDeliverer;
+import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+/**
+ * This test tests that a resource with notification fan-out renders each
+ * representation only once per change and that every observer still receives
+ * a notification with its own token.
+ */
+public class NotificationFanOutTest {
+
+	private static final int PLAIN_OBSERVERS = 10;
+	private static final int JSON_OBSERVERS = 5;
+
+	private SensorResource resource;
+	private RecordingEndpoint endpoint;
+
+	@Before
+	public void setup() throws Exception {
+		resource = new SensorResource();
+		resource.setNotificationFanOut(true);
+		endpoint = new RecordingEndpoint();
+		for (int i = 0; i < PLAIN_OBSERVERS + JSON_OBSERVERS; i++)
+			observe(i, i < PLAIN_OBSERVERS ? MediaTypeRegistry.UNDEFINED : MediaTypeRegistry.APPLICATION_JSON);
+		assertEquals(PLAIN_OBSERVERS + JSON_OBSERVERS, resource.renderings);
+		endpoint.sent.clear();
+	}
+
+	@Test
+	public void testRenderOncePerRepresentation() {
+		resource.value = 42;
+		resource.renderings = 0;
+		resource.changed();
+
+		// one rendering per content format
+		assertEquals(2, resource.renderings);
+		assertEquals(PLAIN_OBSERVERS + JSON_OBSERVERS, endpoint.sent.size());
+
+		for (Response notification:endpoint.sent) {
+			Response parsed = new DataParser(notification.getBytes()).parseResponse();
+			assertArrayEquals(notification.getToken(), parsed.getToken());
+			assertEquals(notification.getMID(), parsed.getMID());
+			assertNotNull(parsed.getOptions().getObserve());
+			int index = parsed.getToken()[0];
+			if (index < PLAIN_OBSERVERS)
+				assertEquals("42", parsed.getPayloadString());
+			else assertEquals("{\"value\":42}", parsed.getPayloadString());
+		}
+	}
+
+	@Test
+	public void testValidationIsNotFannedOut() throws Exception {
+		// an observer that already knows the representation of the next change
+		int validating = PLAIN_OBSERVERS + JSON_OBSERVERS;
+		observe(validating, MediaTypeRegistry.UNDEFINED, new byte[] {42});
+		endpoint.sent.clear();
+
+		resource.value = 42;
+		resource.renderings = 0;
+		resource.changed();
+
+		// the validating observer is processed on its own
+		assertEquals(3, resource.renderings);
+		assertEquals(validating + 1, endpoint.sent.size());
+
+		IdentityHashMap<OptionSet, Response> options = new IdentityHashMap<OptionSet, Response>();
+		for (Response notification:endpoint.sent) {
+			assertTrue("Notifications share their options", options.put(notification.getOptions(), notification) == null);
+			if (notification.getToken()[0] == validating) {
+				assertEquals(ResponseCode.VALID, notification.getCode());
+			} else {
+				assertEquals(ResponseCode.CONTENT, notification.getCode());
+				assertTrue(notification.getPayloadSize() > 0);
+			}
+		}
+	}
+
+	private void observe(int index, int accept) throws Exception {
+		observe(index, accept, null);
+	}
+
+	private void observe(int index, int accept, byte[] etag) throws Exception {
+		InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) index});
+		Request request = Request.newGet();
+		request.setType(Type.NON);
+		request.setMID(index);
+		request.setToken(new byte[] {(byte) index});
+		request.setSource(address);
+		request.setSourcePort(5683);
+		request.getOptions().setObserve(0);
+		if (accept != MediaTypeRegistry.UNDEFINED)
+			request.getOptions().setAccept(accept);
+		if (etag != null)
+			request.getOptions().addETag(etag);
+
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		exchange.setRequest(request);
+		exchange.setEndpoint(endpoint);
+		ObservingEndpoint remote = new ObservingEndpoint(new InetSocketAddress(address, 5683));
+		ObserveRelation relation = new ObserveRelation(remote, resource, exchange);
+		remote.addObserveRelation(relation);
+		exchange.setRelation(relation);
+		resource.handleRequest(exchange);
+	}
+
+	private static class SensorResource extends ResourceBase {
+
+		private volatile int value;
+		private volatile int renderings;
+
+		public SensorResource() {
+			super("sensor");
+			setObservable(true);
+		}
+
+		@Override
+		public void handleGET(CoapExchange exchange) {
+			renderings++;
+			byte[] etag = new byte[] {(byte) value};
+			exchange.setETag(etag);
+			for (byte[] known:exchange.getRequestOptions().getETags()) {
+				if (known[0] == etag[0]) {
+					exchange.respond(ResponseCode.VALID);
+					return;
+				}
+			}
+			if (exchange.getRequestOptions().getAccept() == MediaTypeRegistry.APPLICATION_JSON)
+				exchange.respond(ResponseCode.CONTENT, "{\"value\":"+value+"}", MediaTypeRegistry.APPLICATION_JSON);
+			else exchange.respond(ResponseCode.CONTENT, Integer.toString(value), MediaTypeRegistry.TEXT_PLAIN);
+		}
+	}
+
+	/*
+	 * Completes the headers of the responses like the stack would do and
+	 * serializes them.
+	 */
+	private static class RecordingEndpoint implements Endpoint {
+
+		private final List<Response> sent = new ArrayList<Response>();
+		private final Serializer serializer = new Serializer();
+		private int mid;
+
+		public void sendResponse(Exchange exchange, Response response) {
+			if (response.getType() == null)
+				response.setType(Type.NON);
+			response.setMID(mid++);
+			response.setToken(exchange.getRequest().getToken());
+			serializer.serialize(response);
+			sent.add(response);
+		}
+
+		public void start() { }
+		public void stop() { }
+		public void destroy() { }
+		public void clear() { }
+		public boolean isStarted() { return true; }
+		public void setExecutor(ScheduledExecutorService executor) { }
+		public void addObserver(EndpointObserver obs) { }
+		public void removeObserver(EndpointObserver obs) { }
+		public void addInterceptor(MessageInterceptor interceptor) { }
+		public void removeInterceptor(MessageInterceptor interceptor) { }
+		public List<MessageInterceptor> getInterceptors() { return new ArrayList<MessageInterceptor>(); }
+		public void sendRequest(Request request) { }
+		public void sendEmptyMessage(Exchange exchange, EmptyMessage message) { }
+		public void setMessageDeliverer(MessageDeliverer deliverer) { }
+		public InetSocketAddress getAddress() { return null; }
+		public NetworkConfig getConfig() { return NetworkConfig.getStandard(); }
+	}
+}
@@ -0,0 +1,114 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.observe.ObserveManager;
+import ch.ethz.inf.vs.californium.observe.ObserveManager.RejectionPolicy;
+import ch.ethz.inf.vs.californium.observe.ObserveRelation;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+/**
+ * This test tests that the ObserveManager finds relations by address and
+ * token, reclaims endpoints without relations and respects its limit.
+ */
+public class ObserveManagerTest {
+
+	private ResourceBase resource = new ResourceBase("sensor");
+
+	@Test
+	public void testLookupAndReclaim() throws Exception {
+		ObserveManager manager = new ObserveManager();
+		ObserveRelation first = manager.addObserveRelation(newExchange(1, 5683, 1), resource);
+		ObserveRelation second = manager.addObserveRelation(newExchange(1, 5683, 2), resource);
+		assertEquals(2, manager.getRelationCount());
+		assertEquals(1, manager.getEndpointCount());
+
+		InetSocketAddress source = new InetSocketAddress(InetAddress.getByAddress(new byte[] {10, 0, 0, 1}), 5683);
+		assertSame(first, manager.getRelation(source, new byte[] {1}));
+		assertSame(second, manager.getRelation(source, new byte[] {2}));
+		assertNull(manager.getRelation(source, new byte[] {3}));
+		assertNull(manager.getRelation(new InetSocketAddress(source.getAddress(), 5684), new byte[] {1}));
+
+		first.cancel();
+		assertNull(manager.getRelation(source, new byte[] {1}));
+		assertEquals(1, manager.getEndpointCount());
+		second.cancel();
+		assertEquals(0, manager.getRelationCount());
+		assertEquals(0, manager.getEndpointCount());
+
+		// a new relation from the same address gets a new endpoint
+		ObserveRelation third = manager.addObserveRelation(newExchange(1, 5683, 1), resource);
+		assertSame(third, manager.getRelation(source, new byte[] {1}));
+		assertEquals(1, manager.getEndpointCount());
+	}
+
+	@Test
+	public void testReregistration() throws Exception {
+		ObserveManager manager = new ObserveManager();
+		ObserveRelation first = manager.addObserveRelation(newExchange(1, 5683, 1), resource);
+		ObserveRelation second = manager.addObserveRelation(newExchange(1, 5683, 1), resource);
+		assertTrue(first.isCanceled());
+		assertEquals(1, manager.getRelationCount());
+		assertSame(second, manager.getRelation(second.getSource(), new byte[] {1}));
+	}
+
+	@Test
+	public void testRejectNew() throws Exception {
+		ObserveManager manager = new ObserveManager(3, RejectionPolicy.REJECT_NEW);
+		for (int i = 0; i < 3; i++)
+			assertNotNull(manager.addObserveRelation(newExchange(i, 5683, i), resource));
+		assertNull(manager.addObserveRelation(newExchange(9, 5683, 9), resource));
+		assertEquals(3, manager.getRelationCount());
+		assertEquals(3, manager.getEndpointCount());
+	}
+
+	@Test
+	public void testCancelOldest() throws Exception {
+		ObserveManager manager = new ObserveManager(3, RejectionPolicy.CANCEL_OLDEST);
+		ObserveRelation[] relations = new ObserveRelation[10];
+		for (int i = 0; i < relations.length; i++) {
+			relations[i] = manager.addObserveRelation(newExchange(i, 5683, i), resource);
+			assertNotNull(relations[i]);
+			assertTrue(manager.getRelationCount() <= 3);
+		}
+		for (int i = 0; i < relations.length; i++)
+			assertEquals(i < relations.length - 3, relations[i].isCanceled());
+		assertEquals(3, manager.getEndpointCount());
+		assertFalse(relations[relations.length - 1].isCanceled());
+	}
+
+	@Test
+	public void testChurn() throws Exception {
+		ObserveManager manager = new ObserveManager(100, RejectionPolicy.CANCEL_OLDEST);
+		for (int i = 0; i < 10000; i++) {
+			ObserveRelation relation = manager.addObserveRelation(newExchange(i, 5683 + (i >> 8), i), resource);
+			relation.cancel();
+		}
+		assertEquals(0, manager.getRelationCount());
+		assertEquals(0, manager.getEndpointCount());
+	}
+
+	private static Exchange newExchange(int host, int port, int token) throws Exception {
+		Request request = Request.newGet();
+		request.setSource(InetAddress.getByAddress(new byte[] {10, 0, (byte) (host >> 8), (byte) host}));
+		request.setSourcePort(port);
+		request.setToken(new byte[] {(byte) token});
+		request.getOptions().setObserve(0);
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		exchange.setRequest(request);
+		return exchange;
+	}
+}
@@ -0,0 +1,155 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Matcher;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.interceptors.RateLimiter;
+import ch.ethz.inf.vs.californium.network.serialization.DataParser;
+import ch.ethz.inf.vs.elements.RawData;
+
+/**
+ * This test tests that the rate limiter cancels excess requests of a peer and
+ * answers them with a cached response.
+ */
+public class RateLimiterTest {
+
+	@Test
+	public void testDefaultRule() throws Exception {
+		RecordingLimiter limiter = new RecordingLimiter(1, 2, false, ResponseCode.SERVICE_UNAVAILABLE);
+		InetAddress peer = InetAddress.getByName("10.0.0.1");
+
+		assertFalse(receive(limiter, Code.GET, "a", peer, 5000, 1).isCanceled());
+		assertFalse(receive(limiter, Code.GET, "a", peer, 5000, 2).isCanceled());
+		Request limited = receive(limiter, Code.GET, "a", peer, 5000, 3);
+		assertTrue(limited.isCanceled());
+		assertEquals(2, limiter.getPassed());
+		assertEquals(1, limiter.getLimited());
+
+		// a different peer has its own bucket
+		assertFalse(receive(limiter, Code.GET, "a", InetAddress.getByName("10.0.0.2"), 5000, 4).isCanceled());
+
+		assertEquals(1, limiter.replies.size());
+		RawData raw = limiter.replies.get(0);
+		assertEquals(peer, raw.getAddress());
+		assertEquals(5000, raw.getPort());
+		Response response = new DataParser(raw.getBytes()).parseResponse();
+		assertEquals(ResponseCode.SERVICE_UNAVAILABLE, response.getCode());
+		assertEquals(Type.ACK, response.getType());
+		assertEquals(3, response.getMID());
+		assertArrayEquals(new byte[] { 3 }, response.getToken());
+		assertEquals(1, response.getOptions().getMaxAge().longValue());
+	}
+
+	@Test
+	public void testRules() throws Exception {
+		RecordingLimiter limiter = new RecordingLimiter(0, 0, true, ResponseCode.TOO_MANY_REQUESTS);
+		limiter.addRule(Code.POST, "/firmware", 0.1f, 1);
+		InetAddress peer = InetAddress.getByName("10.0.0.1");
+
+		// no default rule
+		for (int i = 0; i < 10; i++)
+			assertFalse(receive(limiter, Code.GET, "firmware", peer, 5000, i).isCanceled());
+		assertEquals(0, limiter.getPassed());
+
+		assertFalse(receive(limiter, Code.POST, "firmware/image", peer, 5000, 20).isCanceled());
+		assertTrue(receive(limiter, Code.POST, "firmware/image", peer, 5000, 21).isCanceled());
+		// peers are identified by port
+		assertFalse(receive(limiter, Code.POST, "firmware", peer, 5001, 22).isCanceled());
+
+		Response response = new DataParser(limiter.replies.get(0).getBytes()).parseResponse();
+		assertEquals(ResponseCode.TOO_MANY_REQUESTS, response.getCode());
+		assertEquals(10, response.getOptions().getMaxAge().longValue());
+	}
+
+	@Test
+	public void testNonRequest() throws Exception {
+		RecordingLimiter limiter = new RecordingLimiter(1, 1, false, ResponseCode.SERVICE_UNAVAILABLE);
+		InetAddress peer = InetAddress.getByName("10.0.0.1");
+		receive(limiter, Code.GET, "a", peer, 5000, 1);
+		Request request = newRequest(Code.GET, "a", peer, 5000, 2);
+		request.setType(Type.NON);
+		limiter.receiveRequest(request);
+		assertTrue(request.isCanceled());
+		Response response = new DataParser(limiter.replies.get(0).getBytes()).parseResponse();
+		assertEquals(Type.NON, response.getType());
+	}
+
+	@Test
+	public void testDuplicatePasses() throws Exception {
+		RecordingLimiter limiter = new RecordingLimiter(1, 1, false, ResponseCode.SERVICE_UNAVAILABLE);
+		InetAddress peer = InetAddress.getByName("10.0.0.1");
+		Matcher matcher = new Matcher(new NetworkConfig());
+		Request original = receive(limiter, Code.POST, "a", peer, 5000, 1);
+		assertFalse(original.isCanceled());
+		matcher.receiveRequest(original);
+
+		// a retransmission of the accepted request uses up no token
+		Request duplicate = newRequest(Code.POST, "a", peer, 5000, 1);
+		assertTrue(matcher.checkDuplicate(duplicate));
+		limiter.receiveRequest(duplicate);
+		assertFalse(duplicate.isCanceled());
+		assertEquals(0, limiter.replies.size());
+		assertEquals(1, limiter.getPassed());
+		assertEquals(0, limiter.getLimited());
+	}
+
+	@Test
+	public void testCompactTable() throws Exception {
+		RecordingLimiter limiter = new RecordingLimiter(1, 1, false, ResponseCode.SERVICE_UNAVAILABLE, 16);
+		assertEquals(16, limiter.getCapacity());
+		for (int i = 0; i < 1000; i++)
+			receive(limiter, Code.GET, "a", InetAddress.getByName("10.0."+(i / 256)+"."+(i % 256)), 5000, i);
+		assertEquals(1000, limiter.getPassed());
+		assertTrue(limiter.getEvictions() > 0);
+	}
+
+	private static Request receive(RateLimiter limiter, Code code, String path, InetAddress address, int port, int mid) {
+		Request request = newRequest(code, path, address, port, mid);
+		limiter.receiveRequest(request);
+		return request;
+	}
+
+	private static Request newRequest(Code code, String path, InetAddress address, int port, int mid) {
+		Request request = new Request(code);
+		request.setType(Type.CON);
+		request.setMID(mid);
+		request.setToken(new byte[] { (byte) mid });
+		request.getOptions().setURIPath(path);
+		request.setSource(address);
+		request.setSourcePort(port);
+		return request;
+	}
+
+	private static class RecordingLimiter extends RateLimiter {
+
+		private final List<RawData> replies = new ArrayList<RawData>();
+
+		private RecordingLimiter(float rate, int burst, boolean byPort, ResponseCode code) {
+			this(rate, burst, byPort, code, 1024);
+		}
+
+		private RecordingLimiter(float rate, int burst, boolean byPort, ResponseCode code, int peers) {
+			super(null, rate, burst, peers, byPort, code);
+		}
+
+		@Override
+		protected void send(RawData reply) {
+			replies.add(reply);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Endpoint;
+import ch.ethz.inf.vs.californium.network.EndpointObserver;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.interceptors.MessageInterceptor;
+import ch.ethz.inf.vs.californium.server.MessageDeliverer;
+import ch.ethz.inf.vs.californium.server.ServerMessageDeliverer;
+import ch.ethz.inf.vs.californium.server.resources.ConcurrentResourceBase;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+import ch.ethz.inf.vs.californium.server.resources.ResourceExecutor;
+
+/**
+ * This test tests that a ResourceExecutor bounds the number of pending
+ * requests, runs serial resources one request at a time and that rejected
+ * requests are answered with 5.03.
+ */
+public class ResourceExecutorTest {
+
+	@Test
+	public void testBounded() {
+		HeldExecutor pool = new HeldExecutor();
+		ResourceExecutor executor = ResourceExecutor.newShared(pool, 2);
+		executor.execute(new Counter());
+		executor.execute(new Counter());
+		try {
+			executor.execute(new Counter());
+			fail("Third task has not been rejected");
+		} catch (RejectedExecutionException e) { }
+		assertEquals(2, executor.getPending());
+		assertEquals(1, executor.getRejected());
+
+		pool.runAll();
+		assertEquals(0, executor.getPending());
+		assertEquals(2, executor.getStarted());
+		executor.execute(new Counter());
+		assertEquals(1, executor.getPending());
+	}
+
+	@Test
+	public void testSerial() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			ResourceExecutor executor = ResourceExecutor.newSerial(pool, 1000);
+			final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+			final AtomicInteger running = new AtomicInteger();
+			final AtomicInteger overlaps = new AtomicInteger();
+			final CountDownLatch latch = new CountDownLatch(100);
+			for (int i = 0; i < 100; i++) {
+				final int index = i;
+				executor.execute(new Runnable() {
+					public void run() {
+						if (running.incrementAndGet() > 1)
+							overlaps.incrementAndGet();
+						order.add(index);
+						running.decrementAndGet();
+						latch.countDown();
+					}
+				});
+			}
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+			assertEquals(0, overlaps.get());
+			for (int i = 0; i < 100; i++)
+				assertEquals(i, order.get(i).intValue());
+			assertTrue(executor.isSerial());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testQueueWait() throws Exception {
+		HeldExecutor pool = new HeldExecutor();
+		ResourceExecutor executor = ResourceExecutor.newShared(pool, 10);
+		executor.execute(new Counter());
+		Thread.sleep(20);
+		pool.runAll();
+		assertTrue(executor.getMaxQueueWait() >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertEquals(executor.getMaxQueueWait(), executor.getAverageQueueWait());
+	}
+
+	@Test
+	public void testServiceUnavailable() {
+		HeldExecutor pool = new HeldExecutor();
+		ResourceBase root = new ResourceBase("");
+		root.add(new ConcurrentResourceBase("busy", ResourceExecutor.newShared(pool, 1).setRetryAfter(7)));
+		ServerMessageDeliverer deliverer = new ServerMessageDeliverer(root);
+		RecordingEndpoint endpoint = new RecordingEndpoint();
+
+		deliverer.deliverRequest(newExchange(endpoint, "busy"));
+		assertEquals(0, endpoint.responses.size());
+
+		deliverer.deliverRequest(newExchange(endpoint, "busy"));
+		assertEquals(1, endpoint.responses.size());
+		Response response = endpoint.responses.get(0);
+		assertEquals(ResponseCode.SERVICE_UNAVAILABLE, response.getCode());
+		assertNotNull(response.getOptions().getMaxAge());
+		assertEquals(7, response.getOptions().getMaxAge().longValue());
+	}
+
+	@Test
+	public void testNotificationsAreCoalesced() {
+		HeldExecutor pool = new HeldExecutor();
+		ResourceExecutor executor = ResourceExecutor.newShared(pool, 1);
+		final AtomicInteger notifications = new AtomicInteger();
+		ResourceBase resource = new ConcurrentResourceBase("observed", executor) {
+			@Override
+			protected void notifyObserverRelations() {
+				// a change while the observers are being notified
+				if (notifications.incrementAndGet() == 1)
+					changed();
+			}
+		};
+
+		// the notification must not be dropped when the executor is full
+		executor.execute(new Counter());
+		resource.changed();
+		resource.changed();
+		resource.changed();
+		assertEquals(2, executor.getPending());
+
+		pool.runAll();
+		assertEquals(2, notifications.get());
+		assertEquals(0, executor.getPending());
+
+		resource.changed();
+		pool.runAll();
+		assertEquals(3, notifications.get());
+	}
+
+	private static Exchange newExchange(Endpoint endpoint, String path) {
+		Request request = new Request(Code.GET);
+		request.getOptions().setURIPath(path);
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		exchange.setRequest(request);
+		exchange.setEndpoint(endpoint);
+		return exchange;
+	}
+
+	/*
+	 * Holds the tasks until they are run explicitly.
+	 */
+	private static class HeldExecutor implements Executor {
+
+		private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		public void execute(Runnable command) { tasks.add(command); }
+
+		public void runAll() {
+			for (Runnable task:tasks)
+				task.run();
+			tasks.clear();
+		}
+	}
+
+	private static class Counter implements Runnable {
+		public void run() { }
+	}
+
+	private static class RecordingEndpoint implements Endpoint {
+
+		private final List<Response> responses = new ArrayList<Response>();
+
+		public void sendResponse(Exchange exchange, Response response) { responses.add(response); }
+
+		public void start() { }
+		public void stop() { }
+		public void destroy() { }
+		public void clear() { }
+		public boolean isStarted() { return true; }
+		public void setExecutor(ScheduledExecutorService executor) { }
+		public void addObserver(EndpointObserver obs) { }
+		public void removeObserver(EndpointObserver obs) { }
+		public void addInterceptor(MessageInterceptor interceptor) { }
+		public void removeInterceptor(MessageInterceptor interceptor) { }
+		public List<MessageInterceptor> getInterceptors() { return new ArrayList<MessageInterceptor>(); }
+		public void sendRequest(Request request) { }
+		public void sendEmptyMessage(Exchange exchange, EmptyMessage message) { }
+		public void setMessageDeliverer(MessageDeliverer deliverer) { }
+		public InetSocketAddress getAddress() { return null; }
+		public NetworkConfig getConfig() { return NetworkConfig.getStandard(); }
+	}
+}
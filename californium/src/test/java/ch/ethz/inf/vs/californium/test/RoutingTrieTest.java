@@ -0,0 +1,94 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.server.RoutingTrie;
+import ch.ethz.inf.vs.californium.server.RoutingTrie.Match;
+import ch.ethz.inf.vs.californium.server.resources.Resource;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+/**
+ * This test tests that the routing trie finds resources, follows changes of
+ * the resource tree and binds parameter segments.
+ */
+public class RoutingTrieTest {
+
+	private ResourceBase root;
+	private ResourceBase devices;
+	private ResourceBase device;
+	private ResourceBase temperature;
+	private RoutingTrie trie;
+
+	@Before
+	public void setup() {
+		root = new ResourceBase("");
+		devices = new ResourceBase("devices");
+		device = new ResourceBase("{id}");
+		temperature = new ResourceBase("temperature");
+		root.add(devices.add(device.add(temperature)));
+		trie = new RoutingTrie(root);
+	}
+
+	@Test
+	public void testFind() {
+		assertSame(root, trie.find(Collections.<String>emptyList()));
+		assertSame(devices, trie.find(path("devices")));
+		assertNull(trie.find(path("unknown")));
+		assertNull(trie.find(path("devices", "a", "temperature", "x")));
+	}
+
+	@Test
+	public void testParameters() {
+		Match match = trie.match(path("devices", "sensor-7", "temperature"));
+		assertSame(temperature, match.getResource());
+		assertEquals("sensor-7", match.getParameters().get("id"));
+
+		// exact names take precedence
+		ResourceBase all = new ResourceBase("all");
+		devices.add(all);
+		match = trie.match(path("devices", "all"));
+		assertSame(all, match.getResource());
+		assertNull(match.getParameters());
+	}
+
+	@Test
+	public void testChanges() {
+		assertSame(devices, trie.find(path("devices")));
+
+		ResourceBase status = new ResourceBase("status");
+		temperature.add(status);
+		assertSame(status, trie.find(path("devices", "x", "temperature", "status")));
+
+		status.setName("state");
+		assertNull(trie.find(path("devices", "x", "temperature", "status")));
+		assertSame(status, trie.find(path("devices", "x", "temperature", "state")));
+
+		devices.remove(device);
+		assertNull(trie.find(path("devices", "x", "temperature")));
+	}
+
+	@Test
+	public void testDynamicChildren() {
+		ResourceBase mirror = new ResourceBase("mirror") {
+			@Override
+			public Resource getChild(String name) {
+				return this;
+			}
+		};
+		root.add(mirror);
+		assertSame(mirror, trie.find(path("mirror", "a", "b", "c")));
+	}
+
+	private static List<String> path(String... segments) {
+		return Arrays.asList(segments);
+	}
+}
@@ -0,0 +1,104 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.network.ShardedExecutor;
+
+/**
+ * This test tests that the sharded executor runs the tasks of one peer in
+ * order and on one thread and that timers scheduled from a lane fire on the
+ * same lane.
+ */
+public class ShardedExecutorTest {
+
+	private ShardedExecutor executor;
+	
+	@Before
+	public void setup() {
+		executor = new ShardedExecutor(4);
+	}
+	
+	@After
+	public void shutdown() throws Exception {
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testPerPeerOrder() throws Exception {
+		InetAddress peer = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+		assertSame(executor.getLane(peer, 5683), executor.getLane(InetAddress.getByAddress(new byte[] {10, 0, 0, 1}), 5683));
+		
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		final CountDownLatch latch = new CountDownLatch(1000);
+		for (int i = 0; i < 1000; i++) {
+			final int n = i;
+			executor.execute(peer, 5683, new Runnable() {
+				public void run() {
+					order.add(n);
+					threads.add(Thread.currentThread());
+					latch.countDown();
+				}
+			});
+		}
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, (int) order.get(i));
+			assertSame(threads.get(0), threads.get(i));
+		}
+	}
+	
+	@Test
+	public void testTimerOnOwningLane() throws Exception {
+		final InetAddress peer = InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+		final AtomicReference<Thread> owner = new AtomicReference<Thread>();
+		final AtomicReference<Thread> timer = new AtomicReference<Thread>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		executor.execute(peer, 5683, new Runnable() {
+			public void run() {
+				owner.set(Thread.currentThread());
+				assertTrue(executor.isOwner(peer, 5683));
+				// like a retransmission scheduled by the ReliabilityLayer
+				executor.schedule(new Runnable() {
+					public void run() {
+						timer.set(Thread.currentThread());
+						latch.countDown();
+					}
+				}, 10, TimeUnit.MILLISECONDS);
+			}
+		});
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertSame(owner.get(), timer.get());
+	}
+	
+	@Test
+	public void testLaneCount() throws Exception {
+		InetAddress localhost = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+		ScheduledExecutorService[] seen = new ScheduledExecutorService[executor.getLaneCount()];
+		int distinct = 0;
+		for (int port = 40000; port < 40100; port++) {
+			ScheduledExecutorService lane = executor.getLane(localhost, port);
+			boolean known = false;
+			for (int i = 0; i < distinct; i++)
+				known |= seen[i] == lane;
+			if (!known) seen[distinct++] = lane;
+		}
+		assertEquals(executor.getLaneCount(), distinct);
+	}
+}
@@ -0,0 +1,74 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.deduplication.TimingWheelDeduplicator;
+
+/**
+ * This test tests that the timing wheel deduplicator remembers messages for
+ * at least one exchange lifecycle and forgets them afterwards.
+ */
+public class TimingWheelDeduplicatorTest {
+
+	private static final long LIFECYCLE = 300;
+	private static final long TICK = 50;
+	
+	private ScheduledExecutorService executor;
+	private TimingWheelDeduplicator deduplicator;
+	
+	@Before
+	public void setup() {
+		NetworkConfig config = new NetworkConfig();
+		config.setLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE, LIFECYCLE);
+		config.setLong(NetworkConfigDefaults.TIMING_WHEEL_TICK, TICK);
+		executor = Executors.newSingleThreadScheduledExecutor();
+		deduplicator = new TimingWheelDeduplicator(config);
+		deduplicator.setExecutor(executor);
+		deduplicator.start();
+	}
+	
+	@After
+	public void shutdown() {
+		deduplicator.stop();
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testExpiry() throws Exception {
+		KeyMID key = new KeyMID(42, new byte[] {10, 0, 0, 1}, 5683);
+		Exchange exchange = new Exchange(new Request(Code.GET), Origin.REMOTE);
+		Exchange duplicate = new Exchange(new Request(Code.GET), Origin.REMOTE);
+		
+		long start = System.currentTimeMillis();
+		assertNull(deduplicator.findPrevious(key, exchange));
+		assertSame(exchange, deduplicator.findPrevious(new KeyMID(42, new byte[] {10, 0, 0, 1}, 5683), duplicate));
+		
+		Thread.sleep(LIFECYCLE - 2 * TICK);
+		if (System.currentTimeMillis() - start < LIFECYCLE)
+			assertSame(exchange, deduplicator.find(key));
+		
+		Thread.sleep(3 * TICK + TICK / 2);
+		assertNull(deduplicator.find(key));
+		assertEquals(0, deduplicator.size());
+		
+		// the key is new again after it has expired
+		assertNull(deduplicator.findPrevious(key, duplicate));
+		assertSame(duplicate, deduplicator.find(key));
+	}
+}
@@ -0,0 +1,75 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.trace.RingBufferTracer;
+import ch.ethz.inf.vs.californium.network.trace.RingBufferTracer.Record;
+import ch.ethz.inf.vs.californium.network.trace.TraceEvent;
+import ch.ethz.inf.vs.californium.network.trace.Tracing;
+
+/**
+ * This test tests that tracing is disabled by default and that the ring buffer
+ * recorder keeps the most recent events in order.
+ */
+public class TracingTest {
+
+	@After
+	public void shutdown() {
+		Tracing.setTracer(null);
+	}
+
+	@Test
+	public void testDisabled() {
+		assertNull(Tracing.getTracer());
+		assertFalse(Tracing.isEnabled());
+		// must not fail without a tracer
+		Tracing.trace(TraceEvent.SEND_REQUEST, Request.newGet(), null);
+	}
+
+	@Test
+	public void testRingBuffer() {
+		RingBufferTracer recorder = new RingBufferTracer(5);
+		assertEquals(8, recorder.getCapacity());
+		Tracing.setTracer(recorder);
+		assertTrue(Tracing.isEnabled());
+
+		for (int i = 0; i < 20; i++) {
+			Request request = Request.newGet();
+			request.setType(Type.CON);
+			request.setMID(i);
+			Tracing.trace(TraceEvent.SEND_REQUEST, request, null);
+		}
+
+		assertEquals(20, recorder.getEventCount());
+		List<Record> records = recorder.getRecords();
+		assertEquals(8, records.size());
+		for (int i = 0; i < records.size(); i++) {
+			assertEquals(12 + i, records.get(i).getMID());
+			assertEquals(TraceEvent.SEND_REQUEST, records.get(i).getEvent());
+		}
+	}
+
+	@Test
+	public void testRecordCopiesToken() {
+		RingBufferTracer recorder = new RingBufferTracer(4);
+		Tracing.setTracer(recorder);
+
+		byte[] token = new byte[] {1, 2, 3};
+		Request request = Request.newGet();
+		request.setToken(token);
+		Tracing.trace(TraceEvent.SEND_REQUEST, request, null);
+		token[0] = 9;
+
+		assertEquals(1, recorder.getRecords().get(0).getToken()[0]);
+	}
+}
@@ -238,6 +238,30 @@ public class LockstepEndpoint {
 			return this;
 		}
 		
+		public MessageExpectation size1(final int size1) {
+			expectations.add(new Expectation<Message>() {
+				public void check(Message message) {
+					Assert.assertTrue("No Size1 option:", message.getOptions().hasSize1());
+					int actual = message.getOptions().getSize1();
+					Assert.assertEquals("Wrong Size1:", size1, actual);
+					print("Correct Size1: "+size1);
+				}
+			});
+			return this;
+		}
+		
+		public MessageExpectation size2(final int size2) {
+			expectations.add(new Expectation<Message>() {
+				public void check(Message message) {
+					Assert.assertTrue("No Size2 option:", message.getOptions().hasSize2());
+					int actual = message.getOptions().getSize2();
+					Assert.assertEquals("Wrong Size2:", size2, actual);
+					print("Correct Size2: "+size2);
+				}
+			});
+			return this;
+		}
+		
 		public MessageExpectation observe(final int observe) {
 			expectations.add(new Expectation<Message>() {
 				public void check(Message message) {
@@ -322,6 +346,14 @@ public class LockstepEndpoint {
 			super.block2(num, m, size); return this;
 		}
 		
+		@Override public RequestExpectation size1(final int size1) {
+			super.size1(size1); return this;
+		}
+		
+		@Override public RequestExpectation size2(final int size2) {
+			super.size2(size2); return this;
+		}
+		
 		@Override public RequestExpectation observe(final int observe) {
 			super.observe(observe); return this;
 		}
@@ -433,6 +465,14 @@ public class LockstepEndpoint {
 			super.block2(num, m, size); return this;
 		}
 		
+		@Override public ResponseExpecation size1(final int size1) {
+			super.size1(size1); return this;
+		}
+		
+		@Override public ResponseExpecation size2(final int size2) {
+			super.size2(size2); return this;
+		}
+		
 		@Override public ResponseExpecation observe(final int observe) {
 			super.observe(observe); return this;
 		}
@@ -623,6 +663,24 @@ public class LockstepEndpoint {
 			return this;
 		}
 		
+		public MessageProperty size1(final int size1) {
+			properties.add(new Property<Message>() {
+				public void set(Message message) {
+					message.getOptions().setSize1(size1);
+				}
+			});
+			return this;
+		}
+		
+		public MessageProperty size2(final int size2) {
+			properties.add(new Property<Message>() {
+				public void set(Message message) {
+					message.getOptions().setSize2(size2);
+				}
+			});
+			return this;
+		}
+		
 		public MessageProperty observe(final int observe) {
 			properties.add(new Property<Message>() {
 				public void set(Message message) {
@@ -693,6 +751,14 @@ public class LockstepEndpoint {
 			super.block2(num, m, size); return this;
 		}
 		
+		@Override public RequestProperty size1(final int size1) {
+			super.size1(size1); return this;
+		}
+		
+		@Override public RequestProperty size2(final int size2) {
+			super.size2(size2); return this;
+		}
+		
 		@Override public RequestProperty observe(final int observe) {
 			super.observe(observe); return this;
 		}
@@ -763,6 +829,14 @@ public class LockstepEndpoint {
 			super.block2(num, m, size); return this;
 		}
 		
+		@Override public ResponseProperty size1(final int size1) {
+			super.size1(size1); return this;
+		}
+		
+		@Override public ResponseProperty size2(final int size2) {
+			super.size2(size2); return this;
+		}
+		
 		@Override public ResponseProperty observe(final int observe) {
 			super.observe(observe); return this;
 		}
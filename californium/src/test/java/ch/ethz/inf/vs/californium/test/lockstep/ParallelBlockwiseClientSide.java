@@ -0,0 +1,326 @@
+package ch.ethz.inf.vs.californium.test.lockstep;
+
+import static ch.ethz.inf.vs.californium.coap.CoAP.Code.GET;
+import static ch.ethz.inf.vs.californium.coap.CoAP.Code.PUT;
+import static ch.ethz.inf.vs.californium.coap.CoAP.OptionRegistry.SIZE1;
+import static ch.ethz.inf.vs.californium.coap.CoAP.OptionRegistry.SIZE2;
+import static ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode.CHANGED;
+import static ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode.CONTENT;
+import static ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode.CONTINUE;
+import static ch.ethz.inf.vs.californium.coap.CoAP.Type.ACK;
+import static ch.ethz.inf.vs.californium.coap.CoAP.Type.CON;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.CoapClient;
+import ch.ethz.inf.vs.californium.CoapFuture;
+import ch.ethz.inf.vs.californium.CoapResponse;
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.CoAPEndpoint;
+import ch.ethz.inf.vs.californium.network.Endpoint;
+import ch.ethz.inf.vs.californium.network.EndpointManager.ClientMessageDeliverer;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+
+/**
+ * This test checks that a client with a Block1 window larger than 1 sends the
+ * blocks of a request in parallel once the server has echoed Size1 and that it
+ * retransmits a block whose ACK has gone lost. It also checks that a client
+ * with block pipelining requests the blocks of a response in parallel once the
+ * first block has told the size with Size2.
+ */
+public class ParallelBlockwiseClientSide {
+
+	private LockstepEndpoint server;
+	
+	private Endpoint client;
+	private int clientPort = 5683;
+	
+	private String respPayload;
+	private String reqtPayload;
+	
+	private ClientBlockwiseInterceptor clientInterceptor = new ClientBlockwiseInterceptor();
+	
+	@Before
+	public void setupServer() throws IOException {
+		System.out.println("\nStart "+getClass().getSimpleName());
+		
+		NetworkConfig config = new NetworkConfig()
+			.setInt(NetworkConfigDefaults.MAX_MESSAGE_SIZE, 128)
+			.setInt(NetworkConfigDefaults.DEFAULT_BLOCK_SIZE, 128)
+			.setInt(NetworkConfigDefaults.BLOCKWISE_BLOCK1_WINDOW, 2)
+			.setInt(NetworkConfigDefaults.ACK_TIMEOUT, 200) // client retransmits after 200 ms
+			.setInt(NetworkConfigDefaults.ACK_RANDOM_FACTOR, 1);
+		client = new CoAPEndpoint(new InetSocketAddress(clientPort), config);
+		client.setMessageDeliverer(new ClientMessageDeliverer());
+		client.addInterceptor(clientInterceptor);
+		client.start();
+		clientPort = client.getAddress().getPort();
+		System.out.println("Client binds to port "+clientPort);
+	}
+	
+	@After
+	public void shutdownServer() {
+		System.out.println();
+		client.destroy();
+		System.out.println("End "+getClass().getSimpleName());
+	}
+	
+	@Test
+	public void test() throws Throwable {
+		try {
+			testLockstepPUTWithoutSize1Echo();
+			testParallelPUTWithLostAck();
+			testLockstepGETWithoutSize2();
+			testPipelinedGETWithLostResponse();
+			testPipelinedGETWithWrongBlock();
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw e;
+		} catch (Throwable t) {
+			System.err.println(t);
+			throw t;
+		}
+	}
+	
+	/**
+	 * A server that does not echo Size1 receives the blocks in lockstep.
+	 */
+	private void testLockstepPUTWithoutSize1Echo() throws Exception {
+		System.out.println("Blockwise PUT without Size1 echo");
+		reqtPayload = generatePayload(300);
+		respPayload = generatePayload(50);
+		String path = "test";
+		server = createLockstepEndpoint();
+		
+		Request request = createRequest(PUT, path);
+		request.setPayload(reqtPayload);
+		client.sendRequest(request);
+		
+		server.expectRequest(CON, PUT, path).storeBoth("A").block1(0, true, 128).size1(300).payload(reqtPayload.substring(0, 128)).go();
+		server.sendResponse(ACK, CONTINUE).loadBoth("A").block1(0, true, 128).go();
+		
+		server.expectRequest(CON, PUT, path).storeBoth("B").block1(1, true, 128).noOption(SIZE1).payload(reqtPayload.substring(128, 256)).go();
+		server.sendResponse(ACK, CONTINUE).loadBoth("B").block1(1, true, 128).go();
+		
+		server.expectRequest(CON, PUT, path).storeBoth("C").block1(2, false, 128).go();
+		server.sendResponse(ACK, CHANGED).loadBoth("C").block1(2, false, 128).payload(respPayload).go();
+		
+		Response response = request.waitForResponse(1000);
+		Assert.assertNotNull("Client received no response", response);
+		Assert.assertEquals("Client received wrong response code:", CHANGED, response.getCode());
+		Assert.assertEquals("Client received wrong payload:", respPayload, response.getPayloadString());
+		
+		printServerLog();
+	}
+	
+	/**
+	 * The server echoes Size1 and the client sends two blocks at a time. The
+	 * ACK of block 1 goes lost, block 2 is acknowledged first and the client
+	 * fills the window with block 3 before it retransmits block 1.
+	 * <pre>
+	 * CLIENT                                                     SERVER
+	 * |                                                            |
+	 * | CON [MID=1234], PUT, /test, 1:0/1/128, Size1=428   ------> |
+	 * | <------   ACK [MID=1234], 2.31 Continue, 1:0/1/128, Size1=428 |
+	 * | CON [MID=1235], PUT, /test, 1:1/1/128              ------> |
+	 * | CON [MID=1236], PUT, /test, 1:2/1/128              ------> |
+	 * | //////////////////  ACK [MID=1235], 2.31 Continue          |
+	 * | <------   ACK [MID=1236], 2.31 Continue, 1:2/1/128         |
+	 * | CON [MID=1237], PUT, /test, 1:3/0/128              ------> |
+	 * | CON [MID=1235], PUT, /test, 1:1/1/128 (retransmission) --> |
+	 * | <------   ACK [MID=1235], 2.31 Continue, 1:1/1/128         |
+	 * | <------   ACK [MID=1237], 2.04 Changed, 1:3/0/128          |
+	 * </pre>
+	 */
+	private void testParallelPUTWithLostAck() throws Exception {
+		System.out.println("Parallel blockwise PUT with lost ACK");
+		reqtPayload = generatePayload(428);
+		respPayload = generatePayload(50);
+		String path = "test";
+		server = createLockstepEndpoint();
+		
+		Request request = createRequest(PUT, path);
+		request.setPayload(reqtPayload);
+		client.sendRequest(request);
+		
+		server.expectRequest(CON, PUT, path).storeBoth("A").block1(0, true, 128).size1(428).payload(reqtPayload.substring(0, 128)).go();
+		server.sendResponse(ACK, CONTINUE).loadBoth("A").block1(0, true, 128).size1(428).go();
+		
+		server.expectRequest(CON, PUT, path).storeBoth("B").storeMID("MB").block1(1, true, 128).payload(reqtPayload.substring(128, 256)).go();
+		clientInterceptor.log("// ACK lost");
+		server.expectRequest(CON, PUT, path).storeBoth("C").block1(2, true, 128).payload(reqtPayload.substring(256, 384)).go();
+		server.sendResponse(ACK, CONTINUE).loadBoth("C").block1(2, true, 128).go();
+		
+		server.expectRequest(CON, PUT, path).storeBoth("D").block1(3, false, 128).payload(reqtPayload.substring(384, 428)).go();
+		server.expectRequest(CON, PUT, path).block1(1, true, 128).payload(reqtPayload.substring(128, 256)).loadMID("MB").go();
+		server.sendResponse(ACK, CONTINUE).loadBoth("B").block1(1, true, 128).go();
+		server.sendResponse(ACK, CHANGED).loadBoth("D").block1(3, false, 128).payload(respPayload).go();
+		
+		Response response = request.waitForResponse(1000);
+		Assert.assertNotNull("Client received no response", response);
+		Assert.assertEquals("Client received wrong response code:", CHANGED, response.getCode());
+		Assert.assertEquals("Client received wrong payload:", respPayload, response.getPayloadString());
+		
+		printServerLog();
+	}
+	
+	/**
+	 * A server that does not tell the size with Size2 sends the blocks of the
+	 * response in lockstep.
+	 */
+	private void testLockstepGETWithoutSize2() throws Exception {
+		System.out.println("Pipelined blockwise GET without Size2");
+		respPayload = generatePayload(300);
+		String path = "test";
+		server = createLockstepEndpoint();
+		
+		CoapFuture future = createClient(path).useBlockPipelining(2).getAsync();
+		
+		server.expectRequest(CON, GET, path).storeBoth("A").size2(0).go();
+		server.sendResponse(ACK, CONTENT).loadBoth("A").block2(0, true, 128).payload(respPayload.substring(0, 128)).go();
+		
+		server.expectRequest(CON, GET, path).storeBoth("B").block2(1, false, 128).go();
+		server.sendResponse(ACK, CONTENT).loadBoth("B").block2(1, true, 128).payload(respPayload.substring(128, 256)).go();
+		
+		server.expectRequest(CON, GET, path).storeBoth("C").block2(2, false, 128).go();
+		server.sendResponse(ACK, CONTENT).loadBoth("C").block2(2, false, 128).payload(respPayload.substring(256, 300)).go();
+		
+		CoapResponse response = future.get(1, TimeUnit.SECONDS);
+		Assert.assertNotNull("Client received no response", response);
+		Assert.assertEquals("Client received wrong response code:", CONTENT, response.getCode());
+		Assert.assertEquals("Client received wrong payload:", respPayload, response.getResponseText());
+		
+		printServerLog();
+	}
+	
+	/**
+	 * The first block tells the size of the response and the client requests
+	 * two blocks at a time. The response to block 1 goes lost, block 2 is
+	 * answered first and the client requests block 3 before it retransmits
+	 * the request for block 1.
+	 * <pre>
+	 * CLIENT                                                     SERVER
+	 * |                                                            |
+	 * | CON [MID=1234], GET, /test, Size2=0                ------> |
+	 * | <------   ACK [MID=1234], 2.05 Content, 2:0/1/128, Size2=428 |
+	 * | CON [MID=1235], GET, /test, 2:1/0/128              ------> |
+	 * | CON [MID=1236], GET, /test, 2:2/0/128              ------> |
+	 * | //////////////////  ACK [MID=1235], 2.05 Content           |
+	 * | <------   ACK [MID=1236], 2.05 Content, 2:2/1/128          |
+	 * | CON [MID=1237], GET, /test, 2:3/0/128              ------> |
+	 * | <------   ACK [MID=1237], 2.05 Content, 2:3/0/128          |
+	 * | CON [MID=1235], GET, /test, 2:1/0/128 (retransmission) --> |
+	 * | <------   ACK [MID=1235], 2.05 Content, 2:1/1/128          |
+	 * </pre>
+	 */
+	private void testPipelinedGETWithLostResponse() throws Exception {
+		System.out.println("Pipelined blockwise GET with lost response");
+		respPayload = generatePayload(428);
+		String path = "test";
+		server = createLockstepEndpoint();
+		
+		CoapFuture future = createClient(path).useBlockPipelining(2).getAsync();
+		
+		server.expectRequest(CON, GET, path).storeBoth("A").size2(0).go();
+		server.sendResponse(ACK, CONTENT).loadBoth("A").block2(0, true, 128).size2(428).payload(respPayload.substring(0, 128)).go();
+		
+		server.expectRequest(CON, GET, path).storeBoth("B").storeMID("MB").block2(1, false, 128).noOption(SIZE2).go();
+		clientInterceptor.log("// response lost");
+		server.expectRequest(CON, GET, path).storeBoth("C").block2(2, false, 128).noOption(SIZE2).go();
+		server.sendResponse(ACK, CONTENT).loadBoth("C").block2(2, true, 128).payload(respPayload.substring(256, 384)).go();
+		
+		server.expectRequest(CON, GET, path).storeBoth("D").block2(3, false, 128).go();
+		server.sendResponse(ACK, CONTENT).loadBoth("D").block2(3, false, 128).payload(respPayload.substring(384, 428)).go();
+		
+		server.expectRequest(CON, GET, path).block2(1, false, 128).loadMID("MB").go();
+		server.sendResponse(ACK, CONTENT).loadBoth("B").block2(1, true, 128).payload(respPayload.substring(128, 256)).go();
+		
+		CoapResponse response = future.get(1, TimeUnit.SECONDS);
+		Assert.assertNotNull("Client received no response", response);
+		Assert.assertEquals("Client received wrong response code:", CONTENT, response.getCode());
+		Assert.assertEquals("Client received wrong payload:", respPayload, response.getResponseText());
+		
+		printServerLog();
+	}
+	
+	/**
+	 * A block that does not fit the size told by Size2 cancels the request
+	 * and the blocks that are still requested.
+	 */
+	private void testPipelinedGETWithWrongBlock() throws Exception {
+		System.out.println("Pipelined blockwise GET with wrong block");
+		respPayload = generatePayload(428);
+		String path = "test";
+		server = createLockstepEndpoint();
+		
+		CoapFuture future = createClient(path).useBlockPipelining(2).getAsync();
+		
+		server.expectRequest(CON, GET, path).storeBoth("A").size2(0).go();
+		server.sendResponse(ACK, CONTENT).loadBoth("A").block2(0, true, 128).size2(428).payload(respPayload.substring(0, 128)).go();
+		
+		server.expectRequest(CON, GET, path).storeBoth("B").block2(1, false, 128).go();
+		server.expectRequest(CON, GET, path).storeBoth("C").block2(2, false, 128).go();
+		server.sendResponse(ACK, CONTENT).loadBoth("B").block2(1, false, 128).payload(respPayload.substring(128, 200)).go();
+		
+		try {
+			future.get(1, TimeUnit.SECONDS);
+		} catch (CancellationException e) {
+			// expected
+		}
+		Assert.assertTrue("Request has not been canceled", future.isCancelled());
+		Thread.sleep(500); // the block that is still requested must not be retransmitted
+		
+		printServerLog();
+	}
+	
+	private CoapClient createClient(String path) throws Exception {
+		String uri = "coap://"+InetAddress.getLocalHost().getHostAddress()+":"+(server.getPort())+"/"+path;
+		return new CoapClient(uri).setEndpoint(client);
+	}
+	
+	private LockstepEndpoint createLockstepEndpoint() {
+		try {
+			LockstepEndpoint endpoint = new LockstepEndpoint();
+			endpoint.setDestination(new InetSocketAddress(InetAddress.getLocalHost(), clientPort));
+			return endpoint;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private Request createRequest(Code code, String path) throws Exception {
+		Request request = new Request(code);
+		String uri = "coap://"+InetAddress.getLocalHost().getHostAddress()+":"+(server.getPort())+"/"+path;
+		request.setURI(uri);
+		return request; 
+	}
+	
+	private void printServerLog() {
+		System.out.println(clientInterceptor.toString());
+		clientInterceptor.clear();
+	}
+	
+	private static String generatePayload(int length) {
+		StringBuffer buffer = new StringBuffer();
+		Random rand = new Random();
+		while(buffer.length() < length) {
+			buffer.append(rand.nextInt());
+		}
+		return buffer.substring(0, length);
+	}
+}
@@ -0,0 +1,325 @@
+package ch.ethz.inf.vs.californium.test.lockstep;
+
+import static ch.ethz.inf.vs.californium.coap.CoAP.Code.GET;
+import static ch.ethz.inf.vs.californium.coap.CoAP.Code.PUT;
+import static ch.ethz.inf.vs.californium.coap.CoAP.OptionRegistry.SIZE1;
+import static ch.ethz.inf.vs.californium.coap.CoAP.OptionRegistry.SIZE2;
+import static ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode.CHANGED;
+import static ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode.CONTENT;
+import static ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode.CONTINUE;
+import static ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode.REQUEST_ENTITY_INCOMPLETE;
+import static ch.ethz.inf.vs.californium.coap.CoAP.Type.ACK;
+import static ch.ethz.inf.vs.californium.coap.CoAP.Type.CON;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.server.Server;
+import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+import ch.ethz.inf.vs.californium.test.BlockwiseTransferTest.ServerBlockwiseInterceptor;
+
+/**
+ * This test checks that a server with a Block1 window larger than 1 assembles
+ * the blocks of a request in any order once the client has announced the size
+ * of the body with Size1 in the first block. It also checks that the server
+ * tells the size of a blockwise response with Size2 if the client asks for it.
+ */
+public class ParallelBlockwiseServerSide {
+
+	private Server server;
+	private int serverPort = 5683;
+	
+	private int mid = 8000;
+	
+	private TestResource testResource;
+	private String respPayload;
+	private String reqtPayload;
+	
+	private ServerBlockwiseInterceptor serverInterceptor = new ServerBlockwiseInterceptor();
+	
+	@Before
+	public void setupServer() {
+		System.out.println("\nStart "+getClass().getSimpleName());
+
+		LockstepEndpoint.DEFAULT_VERBOSE = false;
+		
+		testResource = new TestResource("test");
+		
+		NetworkConfig config = new NetworkConfig()
+			.setInt(NetworkConfigDefaults.MAX_MESSAGE_SIZE, 128)
+			.setInt(NetworkConfigDefaults.DEFAULT_BLOCK_SIZE, 128)
+			.setInt(NetworkConfigDefaults.BLOCKWISE_BLOCK1_WINDOW, 4);
+		server = new Server(config, serverPort);
+		server.add(testResource);
+		server.getEndpoints().get(0).addInterceptor(serverInterceptor);
+		server.start();
+	}
+	
+	@After
+	public void shutdownServer() {
+		System.out.println();
+		server.destroy();
+		System.out.println("End "+getClass().getSimpleName());
+	}
+	
+	@Test
+	public void test() throws Throwable {
+		try {
+			testLockstepPUTWithoutSize1();
+			testParallelPUTOutOfOrder();
+			testParallelPUTWithLostAck();
+			testParallelPUTWithWrongBlock();
+			testGETWithSize2();
+			testGETWithLostAck();
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw e;
+		} catch (Throwable t) {
+			System.err.println(t);
+			throw t;
+		}
+	}
+	
+	/**
+	 * Without Size1 the server does not echo it and the transfer stays in
+	 * lockstep.
+	 */
+	private void testLockstepPUTWithoutSize1() throws Exception {
+		System.out.println("Blockwise PUT without Size1");
+		respPayload = generatePayload(30);
+		byte[] tok = generateNextToken();
+		String path = "test";
+		reqtPayload = generatePayload(300);
+		
+		LockstepEndpoint client = createLockstepEndpoint();
+		client.sendRequest(CON, PUT, tok, ++mid).path(path).block1(0, true, 128).payload(reqtPayload.substring(0, 128)).go();
+		client.expectResponse(ACK, CONTINUE, tok, mid).block1(0, true, 128).noOption(SIZE1).payload("").go();
+		
+		client.sendRequest(CON, PUT, tok, ++mid).path(path).block1(2, false, 128).payload(reqtPayload.substring(256, 300)).go();
+		client.expectResponse(ACK, REQUEST_ENTITY_INCOMPLETE, tok, mid).block1(2, false, 128).go();
+		
+		printServerLog();
+	}
+	
+	/**
+	 * The server echoes Size1 in the response to the first block. The client
+	 * then sends the remaining blocks in any order and the block that
+	 * completes the body is answered with the response of the resource.
+	 * <pre>
+	 * CLIENT                                                     SERVER
+	 * |                                                            |
+	 * | CON [MID=1234], PUT, /test, 1:0/1/128, Size1=428   ------> |
+	 * | <------   ACK [MID=1234], 2.31 Continue, 1:0/1/128, Size1=428 |
+	 * | CON [MID=1235], PUT, /test, 1:2/1/128              ------> |
+	 * | <------   ACK [MID=1235], 2.31 Continue, 1:2/1/128         |
+	 * | CON [MID=1236], PUT, /test, 1:3/0/128              ------> |
+	 * | <------   ACK [MID=1236], 2.31 Continue, 1:3/1/128         |
+	 * | CON [MID=1237], PUT, /test, 1:1/1/128              ------> |
+	 * | <------   ACK [MID=1237], 2.04 Changed, 1:1/1/128          |
+	 * </pre>
+	 */
+	private void testParallelPUTOutOfOrder() throws Exception {
+		System.out.println("Parallel blockwise PUT out of order");
+		respPayload = generatePayload(30);
+		byte[] tok = generateNextToken();
+		String path = "test";
+		reqtPayload = generatePayload(428);
+		
+		LockstepEndpoint client = createLockstepEndpoint();
+		client.sendRequest(CON, PUT, tok, ++mid).path(path).block1(0, true, 128).size1(428).payload(reqtPayload.substring(0, 128)).go();
+		client.expectResponse(ACK, CONTINUE, tok, mid).block1(0, true, 128).size1(428).payload("").go();
+		
+		client.sendRequest(CON, PUT, generateNextToken(), ++mid).path(path).block1(2, true, 128).payload(reqtPayload.substring(256, 384)).go();
+		client.expectResponse().type(ACK).code(CONTINUE).mid(mid).block1(2, true, 128).go();
+		
+		client.sendRequest(CON, PUT, generateNextToken(), ++mid).path(path).block1(3, false, 128).payload(reqtPayload.substring(384, 428)).go();
+		client.expectResponse().type(ACK).code(CONTINUE).mid(mid).block1(3, true, 128).go();
+		
+		client.sendRequest(CON, PUT, tok, ++mid).path(path).block1(1, true, 128).payload(reqtPayload.substring(128, 256)).go();
+		client.expectResponse(ACK, CHANGED, tok, mid).block1(1, true, 128).payload(respPayload).go();
+		
+		printServerLog();
+	}
+	
+	/**
+	 * The ACK of a block goes lost and the client retransmits the block after
+	 * the ACK of another block. The server acknowledges the duplicate again
+	 * and does not copy it twice.
+	 */
+	private void testParallelPUTWithLostAck() throws Exception {
+		System.out.println("Parallel blockwise PUT with lost ACK");
+		respPayload = generatePayload(30);
+		byte[] tok = generateNextToken();
+		String path = "test";
+		reqtPayload = generatePayload(428);
+		
+		LockstepEndpoint client = createLockstepEndpoint();
+		client.sendRequest(CON, PUT, tok, ++mid).path(path).block1(0, true, 128).size1(428).payload(reqtPayload.substring(0, 128)).go();
+		client.expectResponse(ACK, CONTINUE, tok, mid).block1(0, true, 128).size1(428).payload("").go();
+		
+		int lost = ++mid;
+		client.sendRequest(CON, PUT, tok, lost).path(path).block1(1, true, 128).payload(reqtPayload.substring(128, 256)).go();
+		client.expectResponse(ACK, CONTINUE, tok, lost).block1(1, true, 128).go();
+		serverInterceptor.log("// lost");
+		
+		client.sendRequest(CON, PUT, tok, ++mid).path(path).block1(2, true, 128).payload(reqtPayload.substring(256, 384)).go();
+		client.expectResponse(ACK, CONTINUE, tok, mid).block1(2, true, 128).go();
+		
+		// retransmission of the block whose ACK has gone lost
+		client.sendRequest(CON, PUT, tok, lost).path(path).block1(1, true, 128).payload(reqtPayload.substring(128, 256)).go();
+		client.expectResponse(ACK, CONTINUE, tok, lost).block1(1, true, 128).go();
+		
+		client.sendRequest(CON, PUT, tok, ++mid).path(path).block1(3, false, 128).payload(reqtPayload.substring(384, 428)).go();
+		client.expectResponse(ACK, CHANGED, tok, mid).block1(3, false, 128).payload(respPayload).go();
+		
+		printServerLog();
+	}
+	
+	/**
+	 * A block that does not fit the announced body aborts the transfer.
+	 */
+	private void testParallelPUTWithWrongBlock() throws Exception {
+		System.out.println("Parallel blockwise PUT with wrong block");
+		respPayload = generatePayload(30);
+		byte[] tok = generateNextToken();
+		String path = "test";
+		reqtPayload = generatePayload(300);
+		
+		LockstepEndpoint client = createLockstepEndpoint();
+		client.sendRequest(CON, PUT, tok, ++mid).path(path).block1(0, true, 128).size1(300).payload(reqtPayload.substring(0, 128)).go();
+		client.expectResponse(ACK, CONTINUE, tok, mid).block1(0, true, 128).size1(300).payload("").go();
+		
+		client.sendRequest(CON, PUT, tok, ++mid).path(path).block1(3, false, 128).payload(reqtPayload.substring(256, 300)).go();
+		client.expectResponse(ACK, REQUEST_ENTITY_INCOMPLETE, tok, mid).block1(3, false, 128).go();
+		
+		client.sendRequest(CON, PUT, tok, ++mid).path(path).block1(1, true, 128).payload(reqtPayload.substring(128, 256)).go();
+		client.expectResponse(ACK, REQUEST_ENTITY_INCOMPLETE, tok, mid).block1(1, true, 128).go();
+		
+		printServerLog();
+	}
+	
+	/**
+	 * A request with Size2 0 asks for the size of the response, which the
+	 * server tells in the first block. A client may then request the
+	 * remaining blocks in any order.
+	 */
+	private void testGETWithSize2() throws Exception {
+		System.out.println("Blockwise GET with Size2");
+		respPayload = generatePayload(300);
+		String path = "test";
+		
+		LockstepEndpoint client = createLockstepEndpoint();
+		byte[] tok = generateNextToken();
+		client.sendRequest(CON, GET, tok, ++mid).path(path).size2(0).go();
+		client.expectResponse(ACK, CONTENT, tok, mid).block2(0, true, 128).size2(300).payload(respPayload.substring(0, 128)).go();
+		
+		tok = generateNextToken();
+		client.sendRequest(CON, GET, tok, ++mid).path(path).block2(2, false, 128).go();
+		client.expectResponse(ACK, CONTENT, tok, mid).block2(2, false, 128).noOption(SIZE2).payload(respPayload.substring(256, 300)).go();
+		
+		tok = generateNextToken();
+		client.sendRequest(CON, GET, tok, ++mid).path(path).block2(1, false, 128).go();
+		client.expectResponse(ACK, CONTENT, tok, mid).block2(1, true, 128).noOption(SIZE2).payload(respPayload.substring(128, 256)).go();
+		
+		printServerLog();
+	}
+	
+	/**
+	 * The ACK of a block goes lost and the client retransmits its request
+	 * after the request for another block. The server answers the duplicate
+	 * with the block it asks for again and not with the current response of
+	 * the exchange.
+	 */
+	private void testGETWithLostAck() throws Exception {
+		System.out.println("Blockwise GET with lost ACK");
+		respPayload = generatePayload(300);
+		String path = "test";
+		
+		LockstepEndpoint client = createLockstepEndpoint();
+		byte[] tok = generateNextToken();
+		client.sendRequest(CON, GET, tok, ++mid).path(path).size2(0).go();
+		client.expectResponse(ACK, CONTENT, tok, mid).block2(0, true, 128).size2(300).payload(respPayload.substring(0, 128)).go();
+		
+		byte[] lostTok = generateNextToken();
+		int lost = ++mid;
+		client.sendRequest(CON, GET, lostTok, lost).path(path).block2(1, false, 128).go();
+		client.expectResponse(ACK, CONTENT, lostTok, lost).block2(1, true, 128).payload(respPayload.substring(128, 256)).go();
+		serverInterceptor.log("// lost");
+		
+		tok = generateNextToken();
+		client.sendRequest(CON, GET, tok, ++mid).path(path).block2(2, false, 128).go();
+		client.expectResponse(ACK, CONTENT, tok, mid).block2(2, false, 128).payload(respPayload.substring(256, 300)).go();
+		
+		// retransmission of the request whose ACK has gone lost
+		client.sendRequest(CON, GET, lostTok, lost).path(path).block2(1, false, 128).go();
+		client.expectResponse(ACK, CONTENT, lostTok, lost).block2(1, true, 128).payload(respPayload.substring(128, 256)).go();
+		
+		printServerLog();
+	}
+	
+	private LockstepEndpoint createLockstepEndpoint() {
+		try {
+			LockstepEndpoint endpoint = new LockstepEndpoint();
+			endpoint.setDestination(new InetSocketAddress(InetAddress.getLocalHost(), serverPort));
+			return endpoint;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private void printServerLog() {
+		System.out.println(serverInterceptor.toString());
+		serverInterceptor.clear();
+	}
+	
+	private static int currentToken = 100;
+	private static byte[] generateNextToken() {
+		return b(++currentToken);
+	}
+	
+	private static byte[] b(int... is) {
+		byte[] bytes = new byte[is.length];
+		for (int i=0;i<bytes.length;i++)
+			bytes[i] = (byte) is[i];
+		return bytes;
+	}
+	
+	private static String generatePayload(int length) {
+		StringBuffer buffer = new StringBuffer();
+		Random rand = new Random();
+		while(buffer.length() < length) {
+			buffer.append(rand.nextInt());
+		}
+		return buffer.substring(0, length);
+	}
+	
+	// All tests are made with this resource
+	private class TestResource extends ResourceBase {
+		
+		public TestResource(String name) { 
+			super(name);
+		}
+		
+		public void handleGET(CoapExchange exchange) {
+			exchange.respond(ResponseCode.CONTENT, respPayload);
+		}
+		
+		public void handlePUT(CoapExchange exchange) {
+			System.out.println("Server has received request payload: "+exchange.getRequestText());
+			Assert.assertEquals(reqtPayload, exchange.getRequestText());
+			exchange.respond(ResponseCode.CHANGED, respPayload);
+		}
+	}
+}
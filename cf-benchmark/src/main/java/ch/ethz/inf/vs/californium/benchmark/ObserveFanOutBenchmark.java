@@ -0,0 +1,165 @@
+package ch.ethz.inf.vs.californium.benchmark;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Endpoint;
+import ch.ethz.inf.vs.californium.network.EndpointObserver;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.interceptors.MessageInterceptor;
+import ch.ethz.inf.vs.californium.network.serialization.Serializer;
+import ch.ethz.inf.vs.californium.observe.ObserveRelation;
+import ch.ethz.inf.vs.californium.observe.ObservingEndpoint;
+import ch.ethz.inf.vs.californium.server.MessageDeliverer;
+import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+/**
+ * Compares the time to notify all observers of a resource with the default
+ * per-relation handler path and with the notification fan-out of
+ * {@link ResourceBase#setNotificationFanOut(boolean)}. The observers are
+ * registered directly with the resource and the notifications are serialized
+ * by an endpoint that does not send them, so that the measurement contains
+ * the rendering and serialization but no network I/O.
+ * <pre>
+ * java ch.ethz.inf.vs.californium.benchmark.ObserveFanOutBenchmark [observers] [changes]
+ * </pre>
+ */
+public class ObserveFanOutBenchmark {
+
+	public static final int DEFAULT_OBSERVERS = 20000;
+	public static final int DEFAULT_CHANGES = 50;
+
+	public static void main(String[] args) throws Exception {
+		int observers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OBSERVERS;
+		int changes = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHANGES;
+		Logger.getLogger("").setLevel(Level.SEVERE);
+
+		System.out.println("Californium (Cf) Observe Fan-Out Benchmark");
+		System.out.println("Observers: "+observers+", changes: "+changes);
+
+		for (int round = 0; round < 3; round++) {
+			run("per-relation", false, observers, changes);
+			run("fan-out     ", true, observers, changes);
+		}
+	}
+
+	private static void run(String name, boolean fanOut, int observers, int changes) throws Exception {
+		SensorResource resource = new SensorResource();
+		resource.setNotificationFanOut(fanOut);
+		CountingEndpoint endpoint = new CountingEndpoint();
+		for (int i = 0; i < observers; i++)
+			observe(resource, endpoint, i);
+		endpoint.notifications = 0;
+		endpoint.bytes = 0;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < changes; i++) {
+			resource.value++;
+			resource.changed();
+		}
+		long nanos = System.nanoTime() - start;
+
+		System.out.format("%s: %8.2f ms/change, %10.0f notifications/s, %d bytes%n",
+				name, nanos / 1e6 / changes, endpoint.notifications / (nanos / 1e9), endpoint.bytes);
+	}
+
+	/*
+	 * Registers an observer the way the ServerMessageDeliverer does it. Every
+	 * fourth observer asks for JSON.
+	 */
+	private static void observe(ResourceBase resource, Endpoint endpoint, int index) throws Exception {
+		InetAddress address = InetAddress.getByAddress(new byte[] {10, 1, (byte) (index >> 8), (byte) index});
+		Request request = Request.newGet();
+		request.setType(Type.NON);
+		request.setMID(index & 0xFFFF);
+		request.setToken(new byte[] {(byte) (index >> 24), (byte) (index >> 16), (byte) (index >> 8), (byte) index});
+		request.setSource(address);
+		request.setSourcePort(5683 + (index >> 16));
+		request.getOptions().setObserve(0);
+		if (index % 4 == 0)
+			request.getOptions().setAccept(MediaTypeRegistry.APPLICATION_JSON);
+
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		exchange.setRequest(request);
+		exchange.setEndpoint(endpoint);
+		ObservingEndpoint remote = new ObservingEndpoint(new InetSocketAddress(address, request.getSourcePort()));
+		ObserveRelation relation = new ObserveRelation(remote, resource, exchange);
+		remote.addObserveRelation(relation);
+		exchange.setRelation(relation);
+		resource.handleRequest(exchange);
+	}
+
+	/*
+	 * A resource that renders a small JSON or text representation.
+	 */
+	private static class SensorResource extends ResourceBase {
+
+		private int value;
+
+		public SensorResource() {
+			super("sensor");
+			setObservable(true);
+		}
+
+		@Override
+		public void handleGET(CoapExchange exchange) {
+			if (exchange.getRequestOptions().getAccept() == MediaTypeRegistry.APPLICATION_JSON)
+				exchange.respond(ResponseCode.CONTENT, String.format("{\"temperature\":%d.%02d,\"unit\":\"celsius\"}", value / 100, value % 100), MediaTypeRegistry.APPLICATION_JSON);
+			else exchange.respond(ResponseCode.CONTENT, String.format("%d.%02d C", value / 100, value % 100), MediaTypeRegistry.TEXT_PLAIN);
+		}
+	}
+
+	/*
+	 * Completes the header of each notification like the stack does,
+	 * serializes it and counts it.
+	 */
+	private static class CountingEndpoint implements Endpoint {
+
+		private final Serializer serializer = new Serializer();
+		private int mid;
+		private long notifications;
+		private long bytes;
+
+		public void sendResponse(Exchange exchange, Response response) {
+			if (response.getType() == null)
+				response.setType(Type.NON);
+			response.setMID(mid++ & 0xFFFF);
+			response.setToken(exchange.getRequest().getToken());
+			response.setDestination(exchange.getRequest().getSource());
+			response.setDestinationPort(exchange.getRequest().getSourcePort());
+			bytes += serializer.serialize(response).getBytes().length;
+			notifications++;
+		}
+
+		public void start() { }
+		public void stop() { }
+		public void destroy() { }
+		public void clear() { }
+		public boolean isStarted() { return true; }
+		public void setExecutor(ScheduledExecutorService executor) { }
+		public void addObserver(EndpointObserver obs) { }
+		public void removeObserver(EndpointObserver obs) { }
+		public void addInterceptor(MessageInterceptor interceptor) { }
+		public void removeInterceptor(MessageInterceptor interceptor) { }
+		public List<MessageInterceptor> getInterceptors() { return new ArrayList<MessageInterceptor>(); }
+		public void sendRequest(Request request) { }
+		public void sendEmptyMessage(Exchange exchange, EmptyMessage message) { }
+		public void setMessageDeliverer(MessageDeliverer deliverer) { }
+		public InetSocketAddress getAddress() { return null; }
+		public NetworkConfig getConfig() { return NetworkConfig.getStandard(); }
+	}
+}
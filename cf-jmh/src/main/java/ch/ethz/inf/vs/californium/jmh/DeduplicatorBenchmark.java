@@ -0,0 +1,129 @@
+package ch.ethz.inf.vs.californium.jmh;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.deduplication.Deduplicator;
+import ch.ethz.inf.vs.californium.network.deduplication.DeduplicatorFactory;
+
+/**
+ * Measures concurrent <code>findPrevious</code> calls of the deduplicators.
+ * Four threads look up random MIDs of 4096 peers, so most lookups insert a new
+ * exchange and some find a duplicate. The exchange lifecycle is shortened to
+ * two seconds so that the periodic clean-up of each deduplicator runs several
+ * times per measurement iteration. Use the sample-time mode of JMH (-bm
+ * sample) to also see the tail latency caused by the clean-up.
+ * <p>
+ * After each iteration, the benchmark prints the heap that is in use after a
+ * full garbage collection, i.e., the steady-state memory of the deduplicator
+ * with the exchanges of one lifecycle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+@Threads(4)
+public class DeduplicatorBenchmark {
+
+	private static final int PEERS = 4096;
+	private static final int KEYS = 1 << 16;
+
+	@Param({NetworkConfigDefaults.DEDUPLICATOR_MARK_AND_SWEEP, NetworkConfigDefaults.DEDUPLICATOR_CROP_ROTATION, NetworkConfigDefaults.DEDUPLICATOR_TIMING_WHEEL})
+	public String type;
+
+	private ScheduledExecutorService executor;
+	private Deduplicator deduplicator;
+
+	@Setup
+	public void setup() {
+		NetworkConfig config = new NetworkConfig();
+		config.setString(NetworkConfigDefaults.DEDUPLICATOR, type);
+		config.setLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE, 2000);
+		config.setLong(NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL, 500);
+		config.setInt(NetworkConfigDefaults.CROP_ROTATION_PERIOD, 2000);
+		config.setLong(NetworkConfigDefaults.TIMING_WHEEL_TICK, 250);
+
+		executor = Executors.newSingleThreadScheduledExecutor();
+		deduplicator = DeduplicatorFactory.getDeduplicatorFactory().createDeduplicator(config);
+		deduplicator.setExecutor(executor);
+		deduplicator.start();
+	}
+
+	@TearDown(Level.Iteration)
+	public void printHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		System.out.println("Heap in use after iteration: " + (used / 1024) + " KB");
+	}
+
+	@TearDown
+	public void teardown() {
+		deduplicator.stop();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * The pre-computed keys of one benchmark thread. The exchanges are renewed
+	 * every iteration so that their timestamps stay current.
+	 */
+	@State(Scope.Thread)
+	public static class Keys {
+
+		private KeyMID[] keys;
+		private Exchange[] exchanges;
+		private int next;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			Random random = new Random();
+			keys = new KeyMID[KEYS];
+			exchanges = new Exchange[KEYS];
+			for (int i = 0; i < KEYS; i++) {
+				int peer = random.nextInt(PEERS);
+				byte[] address = new byte[] {10, 1, (byte) (peer >> 8), (byte) peer};
+				keys[i] = new KeyMID(random.nextInt(1 << 16), address, 5683);
+				exchanges[i] = new Exchange(new Request(Code.GET), Origin.REMOTE);
+			}
+		}
+
+		private int next() {
+			int i = next++;
+			if (next == KEYS)
+				next = 0;
+			return i;
+		}
+	}
+
+	@Benchmark
+	public Exchange findPrevious(Keys keys) {
+		int i = keys.next();
+		return deduplicator.findPrevious(keys.keys[i], keys.exchanges[i]);
+	}
+}
@@ -0,0 +1,64 @@
+package ch.ethz.inf.vs.californium.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.coap.LinkFormat;
+import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+/**
+ * Measures the serialization of a resource tree in the CoRE Link Format as
+ * done by the <code>.well-known/core</code> resource. The tree consists of
+ * {@link #resources} resources in groups of 16 children per parent, each with
+ * a resource type, an interface description, a content type and some of them
+ * observable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LinkFormatBenchmark {
+
+	private static final int FAN_OUT = 16;
+
+	@Param({"100", "1000", "10000"})
+	public int resources;
+
+	private ResourceBase root;
+
+	@Setup
+	public void setup() {
+		root = new ResourceBase("");
+		ResourceBase parent = root;
+		for (int i = 0; i < resources; i++) {
+			ResourceBase resource = new ResourceBase("resource-"+i);
+			resource.getAttributes().addResourceType("sensor-type-"+(i % 7));
+			resource.getAttributes().addInterfaceDescription("core.s");
+			resource.getAttributes().addContentType(MediaTypeRegistry.APPLICATION_JSON);
+			if (i % 3 == 0)
+				resource.getAttributes().setObservable();
+			parent.add(resource);
+			if (i % FAN_OUT == FAN_OUT - 1)
+				parent = resource;
+		}
+	}
+
+	@Benchmark
+	public String serializeTree() {
+		return LinkFormat.serializeTree(root);
+	}
+}
@@ -0,0 +1,168 @@
+package ch.ethz.inf.vs.californium.jmh;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.Matcher;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+
+/**
+ * Measures the matcher with populated maps. The matcher is filled with
+ * {@link #exchanges} outstanding requests to different peers and as many
+ * incoming requests in its deduplicator before the measurement starts. The
+ * exchange lifecycle is shortened to two seconds so that the deduplicator
+ * reaches a steady state instead of growing for the whole run.
+ * <p>
+ * <code>receiveRequest</code> matches a request with a fresh MID, i.e., the
+ * common case of a new exchange. <code>receiveResponse</code> sends a request
+ * with a fresh MID and token, matches its piggy-backed response and completes
+ * the exchange like the stack would, so that every invocation takes the
+ * regular path instead of the one for duplicates and the exchange store keeps
+ * its size. Both are measured with the {@link #store exchange stores} of the
+ * matcher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MatcherBenchmark {
+
+	private static final int PEERS = 1024;
+
+	@Param({"1000", "100000"})
+	public int exchanges;
+
+	@Param({NetworkConfigDefaults.EXCHANGE_STORE_HASH_MAP, NetworkConfigDefaults.EXCHANGE_STORE_PACKED})
+	public String store;
+
+	private ScheduledExecutorService executor;
+	private Matcher matcher;
+	private InetAddress[] peers;
+
+	private int mid;
+	private int sent;
+
+	@Setup
+	public void setup() throws UnknownHostException {
+		NetworkConfig config = new NetworkConfig();
+		config.setBoolean(NetworkConfigDefaults.USE_RANDOM_MID_START, false);
+		// keep the deduplicator at a steady state during the measurement
+		config.setLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE, 2000);
+		config.setLong(NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL, 1000);
+		config.setString(NetworkConfigDefaults.EXCHANGE_STORE, store);
+
+		executor = Executors.newSingleThreadScheduledExecutor();
+		matcher = new Matcher(config);
+		matcher.setExecutor(executor);
+		matcher.start();
+
+		peers = new InetAddress[PEERS];
+		for (int i = 0; i < PEERS; i++)
+			peers[i] = InetAddress.getByAddress(new byte[] {10, 0, (byte) (i >> 8), (byte) i});
+
+		for (int i = 0; i < exchanges; i++) {
+			Request request = new Request(Code.GET);
+			request.setType(Type.CON);
+			request.setMID(i & 0xFFFF);
+			request.setToken(token(i));
+			request.setDestination(peers[i % PEERS]);
+			request.setDestinationPort(5683 + i / 0x10000);
+			matcher.sendRequest(new Exchange(request, Origin.LOCAL), request);
+
+			matcher.receiveRequest(newIncomingRequest());
+		}
+		// the tokens of the measured requests follow the ones above
+		sent = exchanges;
+	}
+
+	@TearDown
+	public void teardown() {
+		matcher.stop();
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public Exchange receiveRequest() {
+		return matcher.receiveRequest(newIncomingRequest());
+	}
+
+	@Benchmark
+	public Exchange receiveResponse() {
+		Request request = newOutgoingRequest();
+		Exchange outgoing = new Exchange(request, Origin.LOCAL);
+		outgoing.setRequest(request);
+		matcher.sendRequest(outgoing, request);
+
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(request.getMID());
+		response.setToken(request.getToken());
+		response.setSource(request.getDestination());
+		response.setSourcePort(request.getDestinationPort());
+		Exchange exchange = matcher.receiveResponse(response);
+		if (exchange != null)
+			exchange.setComplete();
+		return exchange;
+	}
+
+	/*
+	 * Creates a request with a MID/peer combination that has not been seen
+	 * for at least PEERS * 2^16 requests.
+	 */
+	private Request newIncomingRequest() {
+		int m = mid++;
+		Request request = new Request(Code.GET);
+		request.setType(Type.CON);
+		request.setMID(m & 0xFFFF);
+		request.setToken(token(m));
+		request.setSource(peers[(m >>> 16) % PEERS]);
+		request.setSourcePort(40000);
+		return request;
+	}
+
+	/*
+	 * Creates a request with a token that is not used by the outstanding
+	 * requests and a MID/peer combination that has not been seen for at least
+	 * PEERS * 2^16 requests, so that its response is no duplicate.
+	 */
+	private Request newOutgoingRequest() {
+		int s = sent++;
+		Request request = new Request(Code.GET);
+		request.setType(Type.CON);
+		request.setMID(s & 0xFFFF);
+		request.setToken(token(s));
+		request.setDestination(peers[(s >>> 16) % PEERS]);
+		request.setDestinationPort(40000);
+		return request;
+	}
+
+	private static byte[] token(int i) {
+		return new byte[] {(byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+	}
+}
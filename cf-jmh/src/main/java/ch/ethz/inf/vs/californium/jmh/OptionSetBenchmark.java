@@ -0,0 +1,63 @@
+package ch.ethz.inf.vs.californium.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
+import ch.ethz.inf.vs.californium.coap.Option;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
+
+/**
+ * Measures the construction of a typical option set of a request, copying it
+ * (as done for every block and notification) and converting it into the
+ * sorted list of options.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class OptionSetBenchmark {
+
+	private OptionSet options;
+
+	@Setup
+	public void setup() {
+		options = build();
+	}
+
+	@Benchmark
+	public OptionSet build() {
+		OptionSet options = new OptionSet();
+		options.setURIHost("gateway.example.com")
+				.setURIPath("/sensors/building-7/floor-2/temperature")
+				.setURIQuery("unit=celsius&precision=2")
+				.setAccept(MediaTypeRegistry.APPLICATION_JSON)
+				.setObserve(0)
+				.addETag(new byte[] {1, 2, 3, 4});
+		options.setBlock2(2, false, 0);
+		return options;
+	}
+
+	@Benchmark
+	public OptionSet copy() {
+		return new OptionSet(options);
+	}
+
+	@Benchmark
+	public List<Option> asSortedList() {
+		return options.asSortedList();
+	}
+}
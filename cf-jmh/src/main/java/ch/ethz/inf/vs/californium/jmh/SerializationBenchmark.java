@@ -0,0 +1,126 @@
+package ch.ethz.inf.vs.californium.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.serialization.ByteBufferParser;
+import ch.ethz.inf.vs.californium.network.serialization.ByteBufferSerializer;
+import ch.ethz.inf.vs.californium.network.serialization.DataParser;
+import ch.ethz.inf.vs.californium.network.serialization.DataSerializer;
+
+/**
+ * Measures parsing and serialization of a typical request (CON GET with
+ * Uri-Path, Uri-Query and Accept) and a typical response (ACK 2.05 with
+ * Content-Format, Max-Age, ETag and a 64 byte payload). Both the bit-wise
+ * DataParser/DataSerializer and the byte-oriented ByteBufferParser and
+ * ByteBufferSerializer are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	private Request request;
+	private Response response;
+	private byte[] requestBytes;
+	private byte[] responseBytes;
+
+	private ByteBufferSerializer bufferSerializer;
+
+	@Setup
+	public void setup() {
+		request = new Request(Code.GET);
+		request.setType(Type.CON);
+		request.setMID(0x1234);
+		request.setToken(new byte[] {0x0A, 0x0B, 0x0C, 0x0D});
+		request.getOptions().setURIPath("/sensors/building-7/floor-2/temperature")
+							.setURIQuery("unit=celsius&precision=2")
+							.setAccept(MediaTypeRegistry.APPLICATION_JSON);
+
+		response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(0x1234);
+		response.setToken(new byte[] {0x0A, 0x0B, 0x0C, 0x0D});
+		response.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_JSON)
+							.setMaxAge(30)
+							.addETag(new byte[] {1, 2, 3, 4});
+		response.setPayload("{\"temperature\":21.53,\"unit\":\"celsius\",\"ts\":1400000000000}");
+
+		DataSerializer serializer = new DataSerializer();
+		requestBytes = serializer.serializeRequest(request);
+		responseBytes = serializer.serializeResponse(response);
+
+		bufferSerializer = new ByteBufferSerializer();
+	}
+
+	@Benchmark
+	public Request parseRequest() {
+		return new DataParser(requestBytes).parseRequest();
+	}
+
+	@Benchmark
+	public Response parseResponse() {
+		return new DataParser(responseBytes).parseResponse();
+	}
+
+	@Benchmark
+	public byte[] serializeRequest() {
+		return new DataSerializer().serializeRequest(request);
+	}
+
+	@Benchmark
+	public byte[] serializeResponse() {
+		return new DataSerializer().serializeResponse(response);
+	}
+
+	@Benchmark
+	public Response roundTripResponse() {
+		byte[] bytes = new DataSerializer().serializeResponse(response);
+		return new DataParser(bytes).parseResponse();
+	}
+
+	@Benchmark
+	public Request parseRequestByteBuffer() {
+		return new ByteBufferParser(requestBytes).parseRequest();
+	}
+
+	@Benchmark
+	public Response parseResponseByteBuffer() {
+		return new ByteBufferParser(responseBytes).parseResponse();
+	}
+
+	@Benchmark
+	public byte[] serializeRequestByteBuffer() {
+		return bufferSerializer.serializeRequest(request);
+	}
+
+	@Benchmark
+	public byte[] serializeResponseByteBuffer() {
+		return bufferSerializer.serializeResponse(response);
+	}
+
+	@Benchmark
+	public Response roundTripResponseByteBuffer() {
+		byte[] bytes = bufferSerializer.serializeResponse(response);
+		return new ByteBufferParser(bytes).parseResponse();
+	}
+}
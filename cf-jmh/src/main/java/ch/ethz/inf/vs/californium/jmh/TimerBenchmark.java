@@ -0,0 +1,76 @@
+package ch.ethz.inf.vs.californium.jmh;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.timer.ExecutorTimer;
+import ch.ethz.inf.vs.californium.network.timer.HashedWheelTimer;
+import ch.ethz.inf.vs.californium.network.timer.Timer;
+
+/**
+ * Measures the life of a retransmission timer: a CON message is sent, its
+ * timeout is scheduled and the ACK cancels it. Before the measurement, the
+ * timer is filled with {@link #outstanding} timeouts that do not expire during
+ * the run, like the retransmissions of many outstanding notifications.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(4)
+public class TimerBenchmark {
+
+	private static final Runnable NOTHING = new Runnable() {
+		public void run() { }
+	};
+
+	@Param({NetworkConfigDefaults.TIMER_EXECUTOR, NetworkConfigDefaults.TIMER_HASHED_WHEEL})
+	public String type;
+
+	@Param({"100000"})
+	public int outstanding;
+
+	private ScheduledExecutorService executor;
+	private Timer timer;
+
+	@Setup
+	public void setup() {
+		executor = Executors.newSingleThreadScheduledExecutor();
+		if (NetworkConfigDefaults.TIMER_HASHED_WHEEL.equals(type))
+			timer = new HashedWheelTimer(executor, 10, TimeUnit.MILLISECONDS, 512);
+		else timer = new ExecutorTimer(executor);
+		for (int i = 0; i < outstanding; i++)
+			timer.schedule(NOTHING, 1, TimeUnit.HOURS);
+	}
+
+	@TearDown
+	public void teardown() {
+		timer.stop();
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public boolean scheduleAndCancel() {
+		ScheduledFuture<?> retransmission = timer.schedule(NOTHING, 2000, TimeUnit.MILLISECONDS);
+		return retransmission.cancel(false);
+	}
+}